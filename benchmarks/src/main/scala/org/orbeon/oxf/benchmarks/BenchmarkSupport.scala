@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.io.{ByteArrayInputStream, File, FileInputStream}
+
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.xml.{SAXStore, XMLParsing}
+
+// The benchmarks only use fixtures from the working copy, so they must run from its root directory, like the unit
+// tests. Resources are resolved as with the unit tests, and properties are the unit tests properties.
+object BenchmarkSupport {
+
+  val FormFixture       = "src/resources/forms/orbeon/dmv-14/form/form.xhtml"
+  val PropertiesFixture = "src/resources-packaged/config/properties-form-runner.xml"
+  val XFormsFixtureURL  = "oxf:/org/orbeon/oxf/xforms/analysis/form.xhtml"
+
+  private val ResourceDirectories = List(
+    "src/test/resources",
+    "src/resources",
+    "src/resources-packaged",
+    "src/main/resources"
+  )
+
+  private lazy val rootDirectory = new File(sys.props("user.dir"))
+
+  private lazy val setup: Unit = {
+
+    sys.props("oxf.resources.factory") = "org.orbeon.oxf.resources.PriorityResourceManagerFactory"
+
+    for ((directory, index) ← ResourceDirectories.zipWithIndex) {
+      val priority = s"oxf.resources.priority.${index + 1}"
+      sys.props(priority) = "org.orbeon.oxf.resources.FilesystemResourceManagerFactory"
+      sys.props(s"$priority.oxf.resources.filesystem.sandbox-directory") = new File(rootDirectory, directory).getPath
+    }
+
+    sys.props(s"oxf.resources.priority.${ResourceDirectories.size + 1}") = "org.orbeon.oxf.resources.ClassLoaderResourceManagerFactory"
+
+    ResourceManagerTestBase.staticSetup()
+  }
+
+  // Initialize resources and properties once per JVM
+  def initialize(): Unit = setup
+
+  def readFixture(path: String): Array[Byte] = {
+    val file = new File(rootDirectory, path)
+    require(file.isFile, s"fixture not found: ${file.getPath}, benchmarks must run from the root of the working copy")
+    NetUtils.inputStreamToByteArray(new FileInputStream(file))
+  }
+
+  def parseToSAXStore(bytes: Array[Byte], systemId: String): SAXStore = {
+    val saxStore = new SAXStore
+    XMLParsing.inputStreamToSAX(new ByteArrayInputStream(bytes), systemId, saxStore, XMLParsing.ParserConfiguration.PLAIN, true)
+    saxStore
+  }
+}
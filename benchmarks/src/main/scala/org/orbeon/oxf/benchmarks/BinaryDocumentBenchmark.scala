@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.io.{ByteArrayInputStream, OutputStream}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.processor.ProcessorUtils
+import org.orbeon.oxf.processor.serializer.BinaryTextXMLReceiver
+import org.orbeon.oxf.xml.SimpleForwardingXMLReceiver
+
+// Pass a binary document to a serializer, as done when a pipeline serializes a generated PDF or a zip file
+//
+// When the serializer receives the document directly, it reads the stream. Otherwise, the content is encoded to and
+// decoded from base64 characters.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class BinaryDocumentBenchmark {
+
+  @Param(Array("false", "true"))
+  var direct: Boolean = _
+
+  val Size = 1024 * 1024
+
+  val bytes = Array.tabulate[Byte](Size)(_.toByte)
+
+  @Benchmark def serialize(): Unit = {
+    val receiver = new BinaryTextXMLReceiver(NullOutputStream)
+    ProcessorUtils.readBinary(
+      new ByteArrayInputStream(bytes),
+      if (direct) receiver else new SimpleForwardingXMLReceiver(receiver),
+      "application/pdf",
+      null,
+      -1
+    )
+  }
+
+  object NullOutputStream extends OutputStream {
+    def write(b: Int) = ()
+    override def write(b: Array[Byte], off: Int, len: Int) = ()
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.dom4j.{Document, Element}
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.util.{XPath, XPathCache}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.dom4j.DocumentWrapper
+
+// Evaluate expressions which sort nodes in document order over a wide repeat held in a dom4j document, as instances
+// are, without changes, after a value change, and after a structural change
+//
+// Unions and paths with `//` sort their result, which requires comparing the document order of nodes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class DocumentOrderBenchmark {
+
+  import BenchmarkSupport._
+
+  @Param(Array("1000", "10000"))
+  var iterations: Int = _
+
+  @Param(Array(
+    "count(//name | //value)",
+    "count((//iteration)[last()]/preceding-sibling::iteration)"
+  ))
+  var expression: String = _
+
+  var document : Document        = _
+  var wrapper  : DocumentWrapper = _
+  var firstName: Element         = _
+
+  var counter = 0
+
+  @Setup def setup(): Unit = {
+    initialize()
+    document =
+      Dom4jUtils.readDom4j(
+        (1 to iterations) map (i ⇒ s"""<iteration id="i$i"><name>name $i</name><value/></iteration>""") mkString ("<repeat>", "", "</repeat>")
+      )
+    wrapper   = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    firstName = document.getRootElement.element("iteration").element("name")
+  }
+
+  private def evaluate(): AnyRef =
+    XPathCache.evaluate(wrapper, expression, null, null, null, null, null, null, null)
+
+  @Benchmark def unchanged(): AnyRef =
+    evaluate()
+
+  // Set a value as `xf:setvalue` does, which keeps the document order index
+  @Benchmark def afterValueChange(): AnyRef = {
+    counter += 1
+    firstName.clearContent()
+    firstName.setText("name " + counter)
+    evaluate()
+  }
+
+  // Insert and remove an element, which discards the document order index
+  @Benchmark def afterStructuralChange(): AnyRef = {
+    val root     = document.getRootElement
+    val inserted = root.addElement("iteration")
+    val result   = evaluate()
+    root.remove(inserted)
+    result
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.io.ByteArrayInputStream
+import java.util.concurrent.TimeUnit
+
+import org.dom4j.Document
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.{SAXStore, TransformerUtils, XMLParsing}
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class Dom4jBenchmark {
+
+  import BenchmarkSupport._
+
+  var bytes: Array[Byte] = _
+  var saxStore: SAXStore = _
+
+  @Setup def setup(): Unit = {
+    bytes    = readFixture(FormFixture)
+    saxStore = parseToSAXStore(bytes, FormFixture)
+  }
+
+  @Benchmark def parse(): Document =
+    Dom4jUtils.readDom4j(new ByteArrayInputStream(bytes), FormFixture, XMLParsing.ParserConfiguration.PLAIN)
+
+  // Build from events which are already parsed, so that parsing is not measured
+  @Benchmark def build(): Document =
+    TransformerUtils.saxStoreToDom4jDocument(saxStore)
+}
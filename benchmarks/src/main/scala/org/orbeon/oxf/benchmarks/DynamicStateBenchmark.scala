@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xforms.XFormsContainingDocument
+import org.orbeon.oxf.xforms.state.{DynamicState, InstancesControls}
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class DynamicStateBenchmark {
+
+  import BenchmarkSupport._
+
+  private val documentSupport = new DocumentTestBase {}
+
+  var document: XFormsContainingDocument = _
+  var encoded: String = _
+
+  @Setup def setup(): Unit = {
+    initialize()
+    documentSupport.setUp()
+    document = documentSupport.setupDocument(XFormsFixtureURL)
+    encoded  = serialize()
+  }
+
+  @TearDown def tearDown(): Unit = {
+    documentSupport.disposeDocument()
+    documentSupport.tearDown()
+  }
+
+  @Benchmark def serialize(): String =
+    DynamicState(document).encodeToString(compress = true, isForceEncryption = false)
+
+  @Benchmark def deserialize(): InstancesControls =
+    DynamicState(encoded).decodeInstancesControls
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xforms.XFormsConstants.REPEAT_SEPARATOR
+import org.orbeon.oxf.xforms.control.controls.XFormsSelect1Control
+import org.orbeon.oxf.xforms.itemset.{Itemset, XFormsItemUtils}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+
+import scala.xml.Elem
+
+// Evaluate the itemsets of a repeated select with a large itemset from a readonly instance, as done upon refresh
+//
+// With XPath analysis, the itemset is shared by all the repeated controls of the document, and evaluated only once.
+// Without it, it is evaluated for each control. Run with `-prof gc` to compare the memory allocated per refresh.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class ItemsetBenchmark {
+
+  import BenchmarkSupport._
+
+  @Param(Array("false", "true"))
+  var xpathAnalysis: Boolean = _
+
+  val Rows      = 100
+  val Countries = 250
+
+  private val documentSupport = new DocumentTestBase {}
+
+  var controls: Array[XFormsSelect1Control] = _
+
+  @Setup def setup(): Unit = {
+    initialize()
+    documentSupport.setUp()
+    val document = documentSupport.setupDocument(form)
+    controls =
+      (1 to Rows map (row ⇒ document.getObjectByEffectiveId("country" + REPEAT_SEPARATOR + row).asInstanceOf[XFormsSelect1Control])).toArray
+  }
+
+  @TearDown def tearDown(): Unit = {
+    documentSupport.disposeDocument()
+    documentSupport.tearDown()
+  }
+
+  @Benchmark def refreshItemsets(): Array[Itemset] =
+    controls map XFormsItemUtils.evaluateItemset
+
+  private def form: Elem =
+    <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+         xmlns:xf="http://www.w3.org/2002/xforms"
+         xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+      <xh:head>
+        <xf:model id="model" xxf:xpath-analysis={xpathAnalysis.toString}>
+          <xf:instance id="instance">
+            <instance xmlns="">{1 to Rows map (_ ⇒ <row><country/></row>)}</instance>
+          </xf:instance>
+          <xf:instance id="countries" xxf:readonly="true">
+            <countries xmlns="">{1 to Countries map (i ⇒ <country code={s"c$i"}>Country {i}</country>)}</countries>
+          </xf:instance>
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:repeat id="rows" ref="row">
+          <xf:select1 id="country" ref="country">
+            <xf:itemset ref="instance('countries')/country">
+              <xf:label ref="."/>
+              <xf:value ref="@code"/>
+            </xf:itemset>
+          </xf:select1>
+        </xf:repeat>
+      </xh:body>
+    </xh:html>
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.io.ByteArrayInputStream
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.properties.{PropertySet, PropertyStore}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class PropertySetBenchmark {
+
+  import BenchmarkSupport._
+
+  // Exact match, wildcard matches, and no match
+  @Param(Array(
+    "oxf.fr.persistence.oracle.uri",
+    "oxf.fr.persistence.provider.acme.order.form",
+    "oxf.fr.default-language.acme.order",
+    "oxf.fr.acme.order.missing"
+  ))
+  var name: String = _
+
+  var propertySet: PropertySet = _
+
+  @Setup def setup(): Unit =
+    propertySet = new PropertyStore(Dom4jUtils.readDom4j(new ByteArrayInputStream(readFixture(PropertiesFixture)))).getGlobalPropertySet
+
+  @Benchmark def lookup(): AnyRef =
+    propertySet.getObject(name)
+}
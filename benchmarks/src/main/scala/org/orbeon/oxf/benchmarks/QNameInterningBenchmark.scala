@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.dom4j.{Document, QName}
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.xml.{SAXStore, TransformerUtils}
+
+// Build documents and look up QNames on several threads at the same time, as when many forms load concurrently
+//
+// Each element and attribute created goes through the QName and Namespace interning tables, so this shows the
+// contention on those tables. Run with `-t` to change the number of threads.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+class QNameInterningBenchmark {
+
+  import BenchmarkSupport._
+
+  var saxStore: SAXStore = _
+
+  val Names = (1 to 100 map ("name" + _)).toArray
+  val URI   = "http://www.w3.org/2002/xforms"
+
+  @Setup def setup(): Unit =
+    saxStore = parseToSAXStore(readFixture(FormFixture), FormFixture)
+
+  // Build from events which are already parsed, so that parsing is not measured
+  @Benchmark def buildDocuments(): Document =
+    TransformerUtils.saxStoreToDom4jDocument(saxStore)
+
+  @Benchmark def lookUpQNames(): QName = {
+    var last: QName = null
+    for (name ← Names)
+      last = QName.get(name, "xf", URI)
+    last
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.xforms.processor.handlers.XHTMLOutput
+import org.orbeon.oxf.xforms.state.AnnotatedTemplate
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsStaticStateImpl}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.oxf.xml.XMLReceiverAdapter
+
+import scala.xml.Elem
+
+// Render a large form to XHTML, as done when a form is first loaded, discarding the output
+//
+// Each SAX element of the template goes through the element handler dispatch. Scores are per element, so run with
+// `-prof gc` to obtain the memory allocated per element as `gc.alloc.rate.norm`.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(RenderBenchmark.Elements)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class RenderBenchmark {
+
+  import BenchmarkSupport._
+  import RenderBenchmark._
+
+  private val documentSupport = new DocumentTestBase {}
+
+  var document: XFormsContainingDocument = _
+  var template: AnnotatedTemplate        = _
+
+  @Setup def setup(): Unit = {
+    initialize()
+    documentSupport.setUp()
+    val (templateSAXStore, staticState) = XFormsStaticStateImpl.createFromDocument(form)
+    document = new XFormsContainingDocument(staticState, null, null, true)
+    template = AnnotatedTemplate(templateSAXStore)
+    documentSupport.setupDocument(document)
+  }
+
+  @TearDown def tearDown(): Unit = {
+    documentSupport.disposeDocument()
+    documentSupport.tearDown()
+  }
+
+  @Benchmark def render(): Unit =
+    XHTMLOutput.send(document, template, NetUtils.getExternalContext)(new XMLReceiverAdapter)
+
+  private def form: Elem =
+    <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+         xmlns:xf="http://www.w3.org/2002/xforms">
+      <xh:head>
+        <xf:model id="model">
+          <xf:instance id="instance">
+            <instance xmlns="">{1 to Rows map (i ⇒ <row><name>Name {i}</name><comment/></row>)}</instance>
+          </xf:instance>
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:repeat id="rows" ref="row">
+          <xf:input id="name" ref="name">
+            <xf:label>Name</xf:label>
+            <xf:hint>Full name</xf:hint>
+          </xf:input>
+          <xf:output id="copy" ref="name">
+            <xf:label>Copy</xf:label>
+          </xf:output>
+          <xf:textarea id="comment" ref="comment">
+            <xf:label>Comment</xf:label>
+          </xf:textarea>
+        </xf:repeat>
+      </xh:body>
+    </xh:html>
+}
+
+object RenderBenchmark {
+
+  final val Rows = 200
+
+  // Elements of the body handled per rendering, as the repeat template is handled once per iteration
+  final val Elements = 2 + Rows * 7
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.controller.RouteIndex
+import org.orbeon.oxf.processor.RegexpMatcher
+import org.orbeon.oxf.processor.RegexpMatcher.MatchResult
+
+import scala.util.Random
+
+// Match a thousand request paths against a page flow with many apps, each with its pages, services and resources,
+// followed by catch-all routes like those of the default page flow
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class RouteIndexBenchmark {
+
+  @Param(Array("10", "100"))
+  var apps: Int = _
+
+  var patterns: IndexedSeq[Pattern]  = _
+  var index   : RouteIndex[Pattern]  = _
+  var paths   : Array[String]        = _
+
+  @Setup def setup(): Unit = {
+
+    val appRoutes =
+      for (app ← 1 to apps; route ← List(
+        s"/app-$app/"                    → false,
+        s"/app-$app/summary"             → false,
+        s"/app-$app/edit/([^/]+)"        → false,
+        s"/app-$app/service/.+"          → false,
+        s"/app-$app/static/*.css"        → true,
+        s"/app-$app/static/*.js"         → true
+      )) yield route
+
+    val catchAllRoutes = List(
+      "(?!/([^/]+)/service/).+\\.(gif|css|js|png)" → false,
+      "/([^/]+)/.*"                                 → false
+    )
+
+    patterns = (appRoutes ++ catchAllRoutes) map { case (path, glob) ⇒ RegexpMatcher.compilePattern(path, glob) }
+    index    = new RouteIndex(patterns)(identity)
+
+    val random = new Random(42)
+    paths =
+      Array.fill(1000) {
+        val app = random.nextInt(apps) + 1
+        random.nextInt(6) match {
+          case 0 ⇒ s"/app-$app/"
+          case 1 ⇒ s"/app-$app/summary"
+          case 2 ⇒ s"/app-$app/edit/${random.nextInt(1000)}"
+          case 3 ⇒ s"/app-$app/service/data"
+          case 4 ⇒ s"/app-$app/static/style.css"
+          case _ ⇒ s"/other-$app/page"
+        }
+      }
+  }
+
+  @Benchmark def linearScan(): Int = {
+    var matched = 0
+    for (path ← paths)
+      if (patterns.iterator map (MatchResult(_, path)) exists (_.matches))
+        matched += 1
+    matched
+  }
+
+  @Benchmark def indexed(): Int = {
+    var matched = 0
+    for (path ← paths)
+      if (index.findMatch(path).isDefined)
+        matched += 1
+    matched
+  }
+}
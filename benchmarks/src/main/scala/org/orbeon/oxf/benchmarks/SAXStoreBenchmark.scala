@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import org.orbeon.oxf.xml.{SAXStore, XMLReceiverAdapter}
+import org.xml.sax.Attributes
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class SAXStoreBenchmark {
+
+  import BenchmarkSupport._
+
+  var saxStore: SAXStore = _
+
+  @Setup def setup(): Unit =
+    saxStore = parseToSAXStore(readFixture(FormFixture), FormFixture)
+
+  // Record events which are already parsed, so that parsing is not measured
+  @Benchmark def record(): SAXStore = {
+    val newSAXStore = new SAXStore
+    saxStore.replay(newSAXStore)
+    newSAXStore
+  }
+
+  @Benchmark def replay(blackhole: Blackhole): Unit =
+    saxStore.replay(new XMLReceiverAdapter {
+      override def startElement(uri: String, localname: String, qName: String, attributes: Attributes) =
+        blackhole.consume(attributes)
+      override def characters(chars: Array[Char], start: Int, length: Int) =
+        blackhole.consume(length)
+    })
+}
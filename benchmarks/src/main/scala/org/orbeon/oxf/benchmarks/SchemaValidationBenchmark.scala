@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+
+import scala.xml.Elem
+
+// Change a value in a large instance validated with an XML Schema, which revalidates the instance
+//
+// With incremental validation, only the changed element is validated again. Without it, the whole instance is.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class SchemaValidationBenchmark {
+
+  import BenchmarkSupport._
+
+  @Param(Array("false", "true"))
+  var incremental: Boolean = _
+
+  val Items = 1000
+
+  private val documentSupport = new DocumentTestBase {}
+
+  private var value = 0
+
+  @Setup def setup(): Unit = {
+    initialize()
+    documentSupport.setUp()
+    documentSupport.setupDocument(form)
+  }
+
+  @TearDown def tearDown(): Unit = {
+    documentSupport.disposeDocument()
+    documentSupport.tearDown()
+  }
+
+  @Benchmark def changeValue(): Boolean = {
+    value += 1
+    documentSupport.setControlValue("quantity", value.toString)
+    documentSupport.isValid("quantity")
+  }
+
+  private def form: Elem =
+    <xh:html
+      xmlns:xh="http://www.w3.org/1999/xhtml"
+      xmlns:xf="http://www.w3.org/2002/xforms"
+      xmlns:xs="http://www.w3.org/2001/XMLSchema"
+      xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+      <xh:head>
+        <xf:model id="model" xxf:schema.incremental-validation={incremental.toString}>
+          <xs:schema elementFormDefault="qualified" attributeFormDefault="unqualified">
+            <xs:element name="items">
+              <xs:complexType>
+                <xs:sequence>
+                  <xs:element name="item" maxOccurs="unbounded">
+                    <xs:complexType>
+                      <xs:sequence>
+                        <xs:element name="quantity" type="xs:integer"/>
+                        <xs:element name="label" type="xs:string"/>
+                      </xs:sequence>
+                      <xs:attribute name="code" type="xs:NMTOKEN"/>
+                    </xs:complexType>
+                  </xs:element>
+                </xs:sequence>
+              </xs:complexType>
+            </xs:element>
+          </xs:schema>
+          <xf:instance id="instance" xxf:validation="strict">
+            <items>{
+              for (i ← 1 to Items)
+                yield <item code={"c" + i}><quantity>{i}</quantity><label>Item {i}</label></item>
+            }</items>
+          </xf:instance>
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:input id="quantity" ref="item[1]/quantity"/>
+      </xh:body>
+    </xh:html>
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmarks
+
+import java.io.ByteArrayInputStream
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.util.{XPath, XPathCache}
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.saxon.om.DocumentInfo
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class XPathCacheBenchmark {
+
+  import BenchmarkSupport._
+
+  @Param(Array(
+    "count(//*:bind)",
+    "//*:instance[@id = 'fr-form-instance']/*/*[1]/name()",
+    "sum(for $e in //*[@id] return string-length($e/@id))"
+  ))
+  var expression: String = _
+
+  var document: DocumentInfo = _
+
+  @Setup def setup(): Unit = {
+    initialize()
+    document = TransformerUtils.readTinyTree(XPath.GlobalConfiguration, new ByteArrayInputStream(readFixture(FormFixture)), FormFixture, false, false)
+  }
+
+  // Find the expression in the cache, without evaluating it
+  @Benchmark def lookup(): Unit =
+    XPathCache.getXPathExpression(XPath.GlobalConfiguration, document, expression, null).returnToPool()
+
+  @Benchmark def evaluate(): AnyRef =
+    XPathCache.evaluate(document, expression, null, null, null, null, null, null, null)
+}
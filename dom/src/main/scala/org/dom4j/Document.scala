@@ -7,4 +7,18 @@ trait Document extends Branch {
 
   def addComment(comment: String): Document
   def addProcessingInstruction(target: String, text: String): Document
+
+  /**
+   * Number of structural changes to the document, that is nodes added to or
+   * removed from any element of the document. Indexes of the document use it
+   * to detect that they are out of date. Value changes are not counted: this
+   * includes attribute values, and replacing the text of an element which
+   * only contains text, as this doesn't move any other node.
+   *
+   * Changes to the content of an element are only counted once an index has
+   * visited it, see `Element.markIndexed()`, so that building documents
+   * doesn't pay for it.
+   */
+  def modificationCount: Long
+  protected[dom4j] def incrementModificationCount(): Unit
 }
@@ -4,8 +4,6 @@ import org.dom4j.tree._
 
 object DocumentFactory {
 
-  private val cache = new QNameCache
-
   def createDocument                                                          : Document              = new ConcreteDocument
   def createDocument             (rootElementName: String)                    : Document              = ConcreteDocument(createElement(createQName(rootElementName)))
   def createDocument             (rootElement: Element)                       : Document              = ConcreteDocument(rootElement)
@@ -28,7 +26,8 @@ object DocumentFactory {
 
   def createNamespace(prefix: String, uri: String)         = Namespace.get(prefix, uri)
 
-  def createQName(localName: String, namespace: Namespace) = cache.get(localName, namespace)
-  def createQName(localName: String)                       = cache.get(localName)
-  def createQName(qualifiedName: String, uri: String)      = cache.get(qualifiedName, uri)
+  // Share the `QName` cache so that names are interned once for all documents
+  def createQName(localName: String, namespace: Namespace) = QName.get(localName, namespace)
+  def createQName(localName: String)                       = QName.get(localName)
+  def createQName(qualifiedName: String, uri: String)      = QName.get(qualifiedName, uri)
 }
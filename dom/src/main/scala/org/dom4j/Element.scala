@@ -216,4 +216,11 @@ trait Element extends Branch {
    * parent, and getParent() on the clone will return null.
    */
   def createCopy: Element
+
+  /**
+   * Called by indexes of the document, such as the document order index, on
+   * each element they index. From then on, structural changes to the content
+   * of this element increment the `modificationCount` of its document.
+   */
+  def markIndexed(): Unit
 }
@@ -26,6 +26,10 @@ class ConcreteDocument extends AbstractBranch with Document {
   private var _rootElement: Element = _
   def getRootElement = _rootElement
 
+  @volatile private var _modificationCount = 0L
+  def modificationCount = _modificationCount
+  protected[dom4j] def incrementModificationCount(): Unit = _modificationCount += 1
+
   private var _internalContent: ju.List[Node] = _
   protected def internalContent = _internalContent
 
@@ -47,6 +51,7 @@ class ConcreteDocument extends AbstractBranch with Document {
   }
 
   def clearContent(): Unit = {
+    incrementModificationCount()
     contentRemoved()
     _internalContent = null
     _rootElement = null
@@ -175,12 +180,16 @@ class ConcreteDocument extends AbstractBranch with Document {
   }
 
   protected[dom4j] def childAdded(node: Node): Unit =
-    if (node ne null)
+    if (node ne null) {
+      incrementModificationCount()
       node.setDocument(this)
+    }
 
   protected[dom4j] def childRemoved(node: Node): Unit =
-    if (node ne null)
+    if (node ne null) {
+      incrementModificationCount()
       node.setDocument(null)
+    }
 
   protected def checkAddElementAllowed(element: Element): Unit = {
     val root = getRootElement
@@ -10,6 +10,11 @@ private object ConcreteElement {
 
   val DefaultContentListSize = 2 // ORBEON: default was 5
 
+  // Most elements have no attributes, and many have no content, so lists are only allocated upon the first update.
+  // Until then, elements share these immutable empty lists.
+  val EmptyContent    = ju.Collections.emptyList[Node]
+  val EmptyAttributes = ju.Collections.emptyList[Attribute]
+
   def appendAttributes(src: Element, dst: Element): Unit = {
     for (i ← 0 until src.attributeCount) {
       val att = src.attribute(i)
@@ -53,11 +58,17 @@ class ConcreteElement(var qname: QName)
   def getQName: QName = qname
   def setQName(name: QName) = this.qname = name
 
-  protected var _attributes     = new ju.ArrayList[Attribute](DefaultContentListSize)
-  private var _internalContent  = new ju.ArrayList[Node](DefaultContentListSize)
+  protected var _attributes: ju.List[Attribute] = EmptyAttributes
+  private var _internalContent: ju.List[Node]   = EmptyContent
   protected def internalContent = _internalContent
 
-  def content = new ContentListFacade[Node](this, internalContent)
+  private def internalContentForUpdate: ju.List[Node] = {
+    if (_internalContent eq EmptyContent)
+      _internalContent = new ju.ArrayList[Node](DefaultContentListSize)
+    _internalContent
+  }
+
+  def content = new ContentListFacade[Node](this, internalContent, internalContentForUpdate)
 
   override def getNodeType: Short = Node.ELEMENT_NODE
 
@@ -100,8 +111,10 @@ class ConcreteElement(var qname: QName)
           case ns: Namespace ⇒
             val prefix = ns.getPrefix
             val parentNamespace = parent.getNamespaceForPrefix(prefix)
-            if (ns == parentNamespace)
+            if (ns == parentNamespace) {
               contentIt.remove()
+              contentModified()
+            }
           case _ ⇒
         }
       }
@@ -262,7 +275,7 @@ class ConcreteElement(var qname: QName)
   def elementIterator(qName: QName): ju.Iterator[Element] = elements(qName).iterator()
 
   def attributes: ju.List[Attribute] = {
-    new ContentListFacade[Attribute](this, attributeList)
+    new ContentListFacade[Attribute](this, attributeList, attributeListForUpdate)
   }
 
   def attributeIterator: ju.Iterator[Attribute] = attributeList.iterator()
@@ -315,7 +328,7 @@ class ConcreteElement(var qname: QName)
           add(DocumentFactory.createAttribute(this, attributeQName, attributeValue))
         }
       } else {
-        val list = attributeList(size)
+        val list = attributeListForUpdate(size)
         list.clear()
         for (i ← 0 until size) {
           val attributeName = attributes.getQName(i)
@@ -372,7 +385,7 @@ class ConcreteElement(var qname: QName)
         remove(oldAttribute)
       }
     } else {
-      attributeList.add(att)
+      attributeListForUpdate.add(att)
       childAdded(att)
     }
   }
@@ -386,6 +399,7 @@ class ConcreteElement(var qname: QName)
       val copy = attribute(att.getQName)
       if (copy ne null) {
         list.remove(copy)
+        contentModified()
         answer = true
       }
     }
@@ -614,8 +628,9 @@ class ConcreteElement(var qname: QName)
   private def cloneInternal: ConcreteElement = {
     val clone = super.clone().asInstanceOf[ConcreteElement]
     if (clone ne this) {
-      clone._internalContent = new ju.ArrayList[Node](DefaultContentListSize)
-      clone._attributes      = new ju.ArrayList[Attribute](DefaultContentListSize)
+      clone._indexed         = false
+      clone._internalContent = EmptyContent
+      clone._attributes      = EmptyAttributes
       appendAttributes(this, clone)
       clone.appendContent(this)
       clone.setData(getData)
@@ -822,12 +837,12 @@ class ConcreteElement(var qname: QName)
    * Like addNode() but does not require a parent check
    */
   private def addNewNode(node: Node): Unit = {
-    internalContent.add(node)
+    internalContentForUpdate.add(node)
     childAdded(node)
   }
 
   private def addNewNode(index: Int, node: Node): Unit = {
-    internalContent.add(index, node)
+    internalContentForUpdate.add(index, node)
     childAdded(node)
   }
 
@@ -841,8 +856,16 @@ class ConcreteElement(var qname: QName)
 
   // TODO ORBEON review: this also clears namespaces, check usages!
   // 1 external usage
-  def clearContent(): Unit =
-    internalContent.clear()
+  def clearContent(): Unit = {
+    val content  = internalContent
+    var onlyText = true
+    for (i ← 0 until content.size)
+      if (! isTextNode(content.get(i)))
+        onlyText = false
+    _internalContent = EmptyContent
+    if (! onlyText)
+      contentModified()
+  }
 
   /**
    * Called when a new child node is added to create any parent relationships
@@ -850,6 +873,8 @@ class ConcreteElement(var qname: QName)
   protected[dom4j] def childAdded(node: Node): Unit = {
     if (node ne null) {
       node.setParent(this)
+      if (! (isTextNode(node) && internalContent.size == 1))
+        contentModified()
     }
   }
 
@@ -857,9 +882,42 @@ class ConcreteElement(var qname: QName)
     if (node ne null) {
       node.setParent(null)
       node.setDocument(null)
+      if (! (isTextNode(node) && internalContent.isEmpty))
+        contentModified()
     }
   }
 
+  // Replacing the text of an element which only contains text, as done when setting the value of an element, doesn't
+  // change the position of any other node, so it isn't a structural change. The new text node is simply not indexed.
+  private def isTextNode(node: Node) = node.getNodeType match {
+    case CDATA_SECTION_NODE | ENTITY_REFERENCE_NODE | TEXT_NODE ⇒ true
+    case _                                                      ⇒ false
+  }
+
+  // Set once an index of the document has visited this element, see `markIndexed()`
+  @volatile private var _indexed = false
+
+  def markIndexed(): Unit = _indexed = true
+
+  // Notify the document, if any, of a structural change
+  //
+  // Finding the document walks the ancestors, so this is only done for elements which have been indexed. Elements
+  // added since the index was built are not marked, but adding them already made the index out of date.
+  private def contentModified(): Unit =
+    if (_indexed) {
+      val document = getDocument
+      if (document ne null)
+        document.incrementModificationCount()
+    }
+
   private def attributeList: ju.List[Attribute] = _attributes
-  private def attributeList(size: Int): ju.List[Attribute] = _attributes
+
+  private def attributeListForUpdate: ju.List[Attribute] =
+    attributeListForUpdate(DefaultContentListSize)
+
+  private def attributeListForUpdate(size: Int): ju.List[Attribute] = {
+    if (_attributes eq EmptyAttributes)
+      _attributes = new ju.ArrayList[Attribute](size)
+    _attributes
+  }
 }
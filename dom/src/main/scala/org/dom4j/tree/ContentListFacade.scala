@@ -10,31 +10,40 @@ import org.dom4j.{IllegalAddException, Node}
  * directly using the  interface. This list
  * is backed by the branch such that changes to the list will be reflected in
  * the branch and changes to the branch will be reflected in this list.
+ *
+ * The content is obtained from the branch upon each access, as the branch
+ * can replace it, in particular when allocating it upon the first update.
  */
-class ContentListFacade[T <: Node](val branch: AbstractBranch, val branchContent: ju.List[T]) extends ju.AbstractList[T] {
+class ContentListFacade[T <: Node](
+  val branch       : AbstractBranch,
+  content          : ⇒ ju.List[T],
+  contentForUpdate : ⇒ ju.List[T]
+) extends ju.AbstractList[T] {
+
+  private def branchContent = content
 
   override def add(node: T): Boolean = {
     branch.childAdded(node)
-    branchContent.add(node)
+    contentForUpdate.add(node)
   }
 
   override def add(index: Int, node: T): Unit = {
     branch.childAdded(node)
-    branchContent.add(index, node)
+    contentForUpdate.add(index, node)
   }
 
   override def set(index: Int, node: T): T = {
     branch.childAdded(node)
-    branchContent.set(index, node)
+    contentForUpdate.set(index, node)
   }
 
   def remove(node: T): Boolean = {
     branch.childRemoved(node)
-    branchContent.remove(node)
+    contentForUpdate.remove(node)
   }
 
   override def remove(index: Int): T = {
-    val node = branchContent.remove(index)
+    val node = contentForUpdate.remove(index)
     if (node ne null) {
       branch.childRemoved(node)
     }
@@ -70,7 +79,7 @@ class ContentListFacade[T <: Node](val branch: AbstractBranch, val branchContent
       val node = iter.next()
       branch.childRemoved(node)
     }
-    branchContent.clear()
+    contentForUpdate.clear()
   }
 
   override def removeAll(c: ju.Collection[_]): Boolean = {
@@ -79,7 +88,7 @@ class ContentListFacade[T <: Node](val branch: AbstractBranch, val branchContent
     while (iter.hasNext)
       branch.childRemoved(asNode(iter.next()))
 
-    branchContent.removeAll(c)
+    contentForUpdate.removeAll(c)
   }
 
   def size: Int = branchContent.size
@@ -1,63 +1,41 @@
 package org.dom4j.tree
 
-import java.{util ⇒ ju}
+import java.util.concurrent.ConcurrentHashMap
 
 import org.dom4j.{Namespace, QName}
 
 /**
  * `QNameCache` caches instances of `QName` for reuse
  * both across documents and within documents.
+ *
+ * Lookups of existing names don't lock, as they happen for each element
+ * and attribute created when building documents, possibly in parallel.
  */
 class QNameCache {
 
-  protected var noNamespaceCache: ju.Map[String, QName] = ju.Collections.synchronizedMap(new ju.WeakHashMap[String, QName]())
-  protected var namespaceCache: ju.Map[Namespace, ju.Map[String, QName]] = ju.Collections.synchronizedMap(new ju.WeakHashMap[Namespace, ju.Map[String, QName]]())
+  private val noNamespaceCache = new WeakInterner[String, QName]
+
+  // The number of distinct namespaces is small, so the per-namespace caches are never removed
+  private val namespaceCaches = new ConcurrentHashMap[Namespace, WeakInterner[String, QName]]()
 
   def get(_name: String): QName = {
-    var name = _name
-    var answer: QName = null
-    if (name ne null) {
-      answer = noNamespaceCache.get(name)
-    } else {
-      name = ""
-    }
-    if (answer eq null) {
-      answer = createQName(name)
-      noNamespaceCache.put(name, answer)
-    }
-    answer
+    val name = if (_name eq null) "" else _name
+    val answer = noNamespaceCache.get(name)
+    if (answer ne null) answer else noNamespaceCache.intern(name, createQName(name))
   }
 
   def get(_name: String, namespace: Namespace): QName = {
-    var name = _name
+    val name = if (_name eq null) "" else _name
     val cache = getOrCreateNamespaceCache(namespace)
-    var answer: QName = null
-    if (name ne null) {
-      answer = cache.get(name)
-    } else {
-      name = ""
-    }
-    if (answer eq null) {
-      answer = createQName(name, namespace)
-      cache.put(name, answer)
-    }
-    answer
+    val answer = cache.get(name)
+    if (answer ne null) answer else cache.intern(name, createQName(name, namespace))
   }
 
   def get(_localName: String, namespace: Namespace, qName: String): QName = {
-    var localName = _localName
+    val localName = if (_localName eq null) "" else _localName
     val cache = getOrCreateNamespaceCache(namespace)
-    var answer: QName = null
-    if (localName ne null) {
-      answer = cache.get(localName)
-    } else {
-      localName = ""
-    }
-    if (answer eq null) {
-      answer = createQName(localName, namespace, qName)
-      cache.put(localName, answer)
-    }
-    answer
+    val answer = cache.get(localName)
+    if (answer ne null) answer else cache.intern(localName, createQName(localName, namespace, qName))
   }
 
   def get(qualifiedName: String, uri: String): QName = {
@@ -71,19 +49,18 @@ class QNameCache {
     }
   }
 
-  protected def getOrCreateNamespaceCache(namespace: Namespace): ju.Map[String, QName] = {
-    if (namespace == Namespace.EmptyNamespace) {
+  private def getOrCreateNamespaceCache(namespace: Namespace): WeakInterner[String, QName] = {
+    if ((namespace eq null) || namespace == Namespace.EmptyNamespace) {
       return noNamespaceCache
     }
-    var answer: ju.Map[String, QName] = null
-    if (namespace ne null) {
-      answer = namespaceCache.get(namespace)
-    }
-    if (answer eq null) {
-      answer = ju.Collections.synchronizedMap(new ju.HashMap[String, QName]())
-      namespaceCache.put(namespace, answer)
+    val answer = namespaceCaches.get(namespace)
+    if (answer ne null) {
+      answer
+    } else {
+      val newCache = new WeakInterner[String, QName]
+      val existing = namespaceCaches.putIfAbsent(namespace, newCache)
+      if (existing ne null) existing else newCache
     }
-    answer
   }
 
   private def createQName(name: String) = new QName(name)
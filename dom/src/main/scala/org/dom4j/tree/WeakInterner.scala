@@ -0,0 +1,71 @@
+package org.dom4j.tree
+
+import java.lang.ref.{ReferenceQueue, WeakReference}
+import java.util.concurrent.ConcurrentHashMap
+
+import scala.annotation.tailrec
+
+/**
+ * `WeakInterner` is a concurrent table of interned values, which are
+ * held weakly.
+ *
+ * Looking up an existing value doesn't lock. Entries of values which have
+ * been collected are removed upon subsequent insertions.
+ */
+class WeakInterner[K <: AnyRef, V <: AnyRef] {
+
+  private class ValueReference(val key: K, value: V, queue: ReferenceQueue[V])
+    extends WeakReference[V](value, queue)
+
+  private val map   = new ConcurrentHashMap[K, ValueReference]()
+  private val queue = new ReferenceQueue[V]()
+
+  /**
+   * @return the value interned for the given key, or `null`
+   */
+  def get(key: K): V = {
+    val ref = map.get(key)
+    if (ref ne null) ref.get else null.asInstanceOf[V]
+  }
+
+  /**
+   * Intern the given value unless another value is already interned for
+   * the same key.
+   *
+   * @return the value interned for the given key
+   */
+  def intern(key: K, value: V): V = {
+
+    expungeStaleEntries()
+
+    val newRef = new ValueReference(key, value, queue)
+
+    @tailrec def putOrGetExisting(): V = {
+      val ref = map.putIfAbsent(key, newRef)
+      if (ref eq null) {
+        value
+      } else {
+        val existing = ref.get
+        if (existing ne null)
+          existing
+        else if (map.replace(key, ref, newRef))
+          value
+        else
+          putOrGetExisting()
+      }
+    }
+
+    putOrGetExisting()
+  }
+
+  def size: Int = map.size
+
+  private def expungeStaleEntries(): Unit = {
+    var ref = queue.poll()
+    while (ref ne null) {
+      val valueRef = ref.asInstanceOf[ValueReference]
+      map.remove(valueRef.key, valueRef)
+      ref = queue.poll()
+    }
+  }
+}
@@ -22,12 +22,12 @@ import org.orbeon.exception.OrbeonFormatter;
 import org.orbeon.oxf.cache.CacheKey;
 import org.orbeon.oxf.cache.InternalCacheKey;
 import org.orbeon.oxf.cache.ObjectCache;
-import org.orbeon.oxf.cache.SoftCacheImpl;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.processor.impl.CacheableTransformerOutputImpl;
+import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.util.ContentHandlerOutputStream;
 import org.orbeon.oxf.util.LoggerFactory;
@@ -37,8 +37,12 @@ import org.orbeon.oxf.xml.XPathUtils;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.*;
@@ -48,6 +52,8 @@ import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ImageServer directly serves or converts to its "data" output images from URLs while performing
@@ -71,7 +77,45 @@ public class ImageServer extends ProcessorImpl {
     private static final boolean DEFAULT_USE_CACHE = true;
     private static final boolean DEFAULT_SCALE_UP = true;
 
-    private SoftCacheImpl cache;
+    // Budgets in KB, see Budgets
+    public static final String DECODE_MEMORY_BUDGET_PROPERTY = "oxf.image-server.decode-memory-budget";
+    public static final String DECODED_CACHE_BUDGET_PROPERTY = "oxf.image-server.decoded-cache-budget";
+    private static final int DEFAULT_DECODE_MEMORY_BUDGET_KB = 64 * 1024;
+    private static final int DEFAULT_DECODED_CACHE_BUDGET_KB = 16 * 1024;
+
+    // Images are decoded and transformed by a pool sized to the number of cores, and concurrent decodes are further
+    // limited by a memory budget, so that a burst of requests for large images can't exhaust the heap
+    private static final int DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService decodePool = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "orbeon-image-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Cache files being produced, so that concurrent requests for the same derivative share a single computation
+    private static final ConcurrentMap<String, FutureTask<Void>> inFlight = new ConcurrentHashMap<String, FutureTask<Void>>();
+
+    /**
+     * Memory budgets, read from the properties when the first image is decoded.
+     */
+    static class Budgets {
+        static final int decodeMemoryKB = readBudgetKB(DECODE_MEMORY_BUDGET_PROPERTY, DEFAULT_DECODE_MEMORY_BUDGET_KB);
+        static final Semaphore decodeMemory = new Semaphore(decodeMemoryKB, true);
+
+        // Decoded images, bounded by their size in memory
+        static final DecodedImageCache decodedImages = new DecodedImageCache(1024L * readBudgetKB(DECODED_CACHE_BUDGET_PROPERTY, DEFAULT_DECODED_CACHE_BUDGET_KB));
+
+        private static int readBudgetKB(String propertyName, int defaultValue) {
+            final int value = Properties.instance().getPropertySet().getInteger(propertyName, defaultValue);
+            if (value < 1)
+                throw new OXFException("Property " + propertyName + " must be positive");
+            return value;
+        }
+    }
 
     public ImageServer() {
         addInputInfo(new ProcessorInputOutputInfo(INPUT_CONFIG, IMAGE_SERVER_CONFIG_NAMESPACE_URI));
@@ -93,7 +137,6 @@ public class ImageServer extends ProcessorImpl {
         public Boolean useCache;
         public Object transforms;
         public int transformCount;
-        public Iterator transformIterator;
     }
 
     public void processImage(PipelineContext pipelineContext, ImageResponse imageResponse) {
@@ -157,7 +200,6 @@ public class ImageServer extends ProcessorImpl {
                     if (transforms != null && transforms instanceof Node)
                         transforms = Collections.singletonList(transforms);
                     result.transforms = transforms;
-                    result.transformIterator = XPathUtils.selectNodeIterator(imageConfigDocument, "/image/transform");
 
                     return result;
                 }
@@ -202,7 +244,7 @@ public class ImageServer extends ProcessorImpl {
                 // Cache handling
                 String cacheFileName = useCache ? computeCacheFileName(config.cachePathEncoding, imageConfig.urlString, (List<Element>) imageConfig.transforms) : null;
                 File cacheFile = useCache ? new File(config.cacheDir, cacheFileName) : null;
-                boolean cacheInvalid = !useCache || !cacheFile.exists() || lastModified == 0 || lastModified > cacheFile.lastModified() || cacheFile.length() == 0;
+                boolean cacheInvalid = !useCache || !isCacheFileValid(cacheFile, lastModified);
                 boolean mustProcess = cacheInvalid;
                 boolean updateCache = useCache && cacheInvalid;
 
@@ -226,74 +268,40 @@ public class ImageServer extends ProcessorImpl {
 
                 // Process image if needed
                 if (mustProcess) {
-                    boolean closeOutputStream = false;
-                    OutputStream os = null;
+                    final InputStream imageInputStream = urlConnectionInputStream;
+                    final List<Element> transforms = (List<Element>) imageConfig.transforms;
+                    final String imageKey = "[" + newURL.toExternalForm() + "][" + lastModified + "]";
+                    final long imageLastModified = lastModified;
                     try {
-                        // Try to obtain decoded image from cache first
-                        Long cacheValidity = lastModified;
-                        String cacheKey = "[" + newURL.toExternalForm() + "][" + cacheValidity + "]";
-                        BufferedImage img1;
-                        // Decode one image at a time to try to minimize the memory impact
-                        // NOTE: This should probably be configurable
-                        synchronized (ImageServer.this) {
-                            img1 = (cache == null) ? null : (BufferedImage) cache.get(cacheKey);
-                            // If this failed (most common case) decode the image
-                            if (img1 == null) {
-                                // Decode image into BufferedImage
-                                img1 = ImageIO.read(urlConnectionInputStream);
-
-                                // Store the image into the soft cache
-                                if (cache == null)
-                                    cache = new SoftCacheImpl(0);
-                                cache.put(cacheKey, img1);
-                            } else {
-                                cache.refresh(cacheKey);
-                                //logger.info("Found image in cache with key: " + cacheKey);
-                                logger.info("Found decoded image in cache");
-                            }
-                        }
-
-                        // Filter image
-                        BufferedImage img2 = filter(img1, imageConfig.transformIterator);
-
-                        // Create OutputStream
                         if (updateCache) {
-                            File outputDir = cacheFile.getParentFile();
-                            if (!outputDir.exists() && !outputDir.mkdirs()) {
-                                logger.info("Cannot create cache directory: " + outputDir.getCanonicalPath());
-                                imageResponse.setStatus(ExternalContext.SC_INTERNAL_SERVER_ERROR);
-                                return;
-                            }
-                            os = new FileOutputStream(cacheFile);
-                            closeOutputStream = true;
+                            // Write the cache file, which is then sent below like on a cache hit
+                            final File outputFile = cacheFile;
+                            processOnce(cacheFile.getCanonicalPath(), new Callable<Void>() {
+                                public Void call() throws Exception {
+                                    if (!isCacheFileValid(outputFile, imageLastModified))
+                                        createCacheFile(imageInputStream, imageKey, transforms, quality, outputFile);
+                                    return null;
+                                }
+                            });
                         } else {
-                            os = imageResponse.getOutputStream();
+                            // Without a cache file there is nothing to share, so stream the image to this response
+                            final OutputStream outputStream = imageResponse.getOutputStream();
+                            runInDecodePool(new FutureTask<Void>(new Callable<Void>() {
+                                public Void call() throws Exception {
+                                    createDerivative(imageInputStream, imageKey, transforms, quality, outputStream);
+                                    return null;
+                                }
+                            }));
+                            return;
                         }
-
-                        // Encode image to OutputStream
-
-                        final Iterator writers = ImageIO.getImageWritersByFormatName("jpeg");
-                        final ImageWriter writer = (ImageWriter) writers.next();
-
-                        writer.setOutput(ImageIO.createImageOutputStream(os));
-
-                        final ImageWriteParam params = writer.getDefaultWriteParam();
-
-                        // Set quality
-                        params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                        params.setCompressionQuality(quality);
-
-                        writer.write(img2);
                     } catch (OXFException e) {
                         logger.error(OrbeonFormatter.format(e));
                         imageResponse.setStatus(ExternalContext.SC_INTERNAL_SERVER_ERROR);
                         return;
-                    } finally {
-                        if (os != null && closeOutputStream) os.close();
                     }
                 }
 
-                // Send cached image if relevant
+                // Send cached image
                 if (useCache) {
                     InputStream is = new FileInputStream(cacheFile);
                     OutputStream os = imageResponse.getOutputStream();
@@ -459,14 +467,171 @@ public class ImageServer extends ProcessorImpl {
         public OutputStream getOutputStream() throws IOException;
     }
 
-    private String computeCacheFileName(String type, String path, List<Element> nodes) {
+    /**
+     * Run the given computation of a cache file unless the same cache file is already being computed, in which case
+     * wait for that computation instead. Computations run in the decode pool.
+     */
+    private void processOnce(final String cacheFilePath, Callable<Void> computation) {
+        final FutureTask<Void> newTask = new FutureTask<Void>(computation) {
+            @Override
+            protected void done() {
+                inFlight.remove(cacheFilePath, this);
+            }
+        };
+        final FutureTask<Void> existingTask = inFlight.putIfAbsent(cacheFilePath, newTask);
+        if (existingTask == null) {
+            runInDecodePool(newTask);
+        } else {
+            logger.info("Waiting for concurrent processing of the same image");
+            waitFor(existingTask);
+        }
+    }
+
+    private static void runInDecodePool(FutureTask<Void> task) {
+        decodePool.execute(task);
+        waitFor(task);
+    }
+
+    private static void waitFor(FutureTask<Void> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error)
+                throw (Error) cause;
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else
+                throw new OXFException(cause);
+        }
+    }
+
+    /**
+     * Decode, transform and encode an image to the given stream.
+     */
+    private void createDerivative(InputStream inputStream, String imageKey, List<Element> transforms, float quality, OutputStream outputStream) throws IOException, InterruptedException {
+
+        final ImageInputStream iis = ImageIO.createImageInputStream(inputStream);
+        try {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+                throw new OXFException("Cannot find image reader for: " + imageKey);
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+
+                // Only the image header is read at this point
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+                final int subsampling = computeSubsampling(transforms, width, height);
+
+                // Reserve memory for the decoded image and its RGB copy
+                final long decodedBytes = 2L * 4L * (width / subsampling + 1) * (height / subsampling + 1);
+                final int permits = (int) Math.max(1, Math.min(Budgets.decodeMemoryKB, decodedBytes / 1024));
+                Budgets.decodeMemory.acquire(permits);
+                try {
+                    // Try to obtain decoded image from cache first
+                    final String decodedKey = imageKey + "[" + subsampling + "]";
+                    BufferedImage decodedImage = Budgets.decodedImages.get(decodedKey);
+                    if (decodedImage == null) {
+                        final ImageReadParam readParam = reader.getDefaultReadParam();
+                        if (subsampling > 1) {
+                            // Large image scaled down: decode only the pixels needed by the scaling
+                            readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                        }
+                        decodedImage = reader.read(0, readParam);
+                        Budgets.decodedImages.put(decodedKey, decodedImage);
+                    } else {
+                        logger.info("Found decoded image in cache");
+                    }
+
+                    encodeJPEG(filter(decodedImage, width, height, transforms), quality, outputStream);
+                } finally {
+                    Budgets.decodeMemory.release(permits);
+                }
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    private static boolean isCacheFileValid(File cacheFile, long lastModified) {
+        return cacheFile.exists() && lastModified != 0 && lastModified <= cacheFile.lastModified() && cacheFile.length() != 0;
+    }
+
+    /**
+     * Write the derivative to the cache file atomically, so that concurrent readers never see a partial image.
+     */
+    private void createCacheFile(InputStream inputStream, String imageKey, List<Element> transforms, float quality, File cacheFile) throws IOException, InterruptedException {
+        final File outputDir = cacheFile.getParentFile();
+        if (!outputDir.exists() && !outputDir.mkdirs() && !outputDir.isDirectory())
+            throw new OXFException("Cannot create cache directory: " + outputDir.getCanonicalPath());
+
+        final File tempFile = File.createTempFile("image", ".tmp", outputDir);
+        try {
+            final OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile));
+            try {
+                createDerivative(inputStream, imageKey, transforms, quality, os);
+            } finally {
+                os.close();
+            }
+            // Renaming onto an existing file fails on some platforms
+            if (!tempFile.renameTo(cacheFile) && !(cacheFile.delete() && tempFile.renameTo(cacheFile)))
+                throw new OXFException("Cannot write cache file: " + cacheFile.getCanonicalPath());
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static void encodeJPEG(BufferedImage image, float quality, OutputStream os) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ImageOutputStream ios = ImageIO.createImageOutputStream(os);
+        try {
+            writer.setOutput(ios);
+
+            final ImageWriteParam params = writer.getDefaultWriteParam();
+
+            // Set quality
+            params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setCompressionQuality(quality);
+
+            writer.write(image);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Return the subsampling factor to use when decoding an image. When the first transform scales the image down
+     * by a factor of at least 4, the image is decoded at a reduced resolution which is still at least twice the
+     * target size, and the scaling filter does the rest.
+     */
+    private int computeSubsampling(List<Element> transforms, int width, int height) {
+        if (transforms.isEmpty() || !"scale".equals(XPathUtils.selectStringValueNormalize(transforms.get(0), "@type")))
+            return 1;
+
+        final int[] size = computeScaledSize(transforms.get(0), width, height);
+        return Math.max(1, Math.min(width / (2 * Math.max(1, size[0])), height / (2 * Math.max(1, size[1]))));
+    }
+
+    private String computeTransformsDigest(List<Element> nodes) {
         // Create digest document and digest
         Document document = DocumentFactory.createDocument();
         Element rootElement = document.addElement("image");
         for (Element element: nodes) {
             rootElement.add(element.createCopy());
         }
-        String digest = NumberUtils.toHexString(Dom4jUtils.getDigest(document));
+        return NumberUtils.toHexString(Dom4jUtils.getDigest(document));
+    }
+
+    private String computeCacheFileName(String type, String path, List<Element> nodes) {
+        String digest = computeTransformsDigest(nodes);
 
         // Create file name
         if ("flat".equals(type))
@@ -498,7 +663,11 @@ public class ImageServer extends ProcessorImpl {
         }
     }
 
-    private synchronized BufferedImage filter(BufferedImage img, Iterator transformIterator) {
+    /**
+     * Apply the transforms to the image. The image may have been decoded with subsampling, in which case sourceWidth
+     * and sourceHeight are larger than its actual size. Transforms are expressed in terms of the original size.
+     */
+    private BufferedImage filter(BufferedImage img, int sourceWidth, int sourceHeight, List<Element> transforms) {
         // Copy the image to RGB if necessary (is there another way? Otherwise some images fail)
         BufferedImage srcImage = img;
         if (img.getType() != BufferedImage.TYPE_INT_RGB) {
@@ -509,58 +678,22 @@ public class ImageServer extends ProcessorImpl {
         }
 
         ImageProducer producer = srcImage.getSource();
-        int currentWidth = img.getWidth(null);
-        int currentHeight = img.getHeight(null);
+        int currentWidth = sourceWidth;
+        int currentHeight = sourceHeight;
 
         // There may be one drawing operation
         List<Node> drawConfiguration = new ArrayList<Node>();
 
         // Iterate through all transforms
-        while (transformIterator.hasNext()) {
-            Node node = (Node) transformIterator.next();
+        for (Node node: transforms) {
             String transformType = XPathUtils.selectStringValueNormalize(node, "@type");
             if ("scale".equals(transformType)) {
                 // Scale image
                 String qualityString = XPathUtils.selectStringValueNormalize(node, "quality");
                 boolean lowQuality = "low".equals(qualityString);
-                boolean scaleUp = selectBooleanValue(node, "scale-up", DEFAULT_SCALE_UP);
-                String widthString = XPathUtils.selectStringValueNormalize(node, "width");
-                int width;
-                int height;
-                if (widthString == null) {
-                    // There must be a maximum, use it to compute width and height
-                    String maxSizeString = XPathUtils.selectStringValueNormalize(node, "max-size");
-                    String maxWidthString = XPathUtils.selectStringValueNormalize(node, "max-width");
-                    String maxHeightString = XPathUtils.selectStringValueNormalize(node, "max-height");
-                    if (maxSizeString != null) {
-                        int maxSize = Integer.parseInt(maxSizeString);
-                        double scale = (currentWidth > currentHeight)
-                                ? ((double) maxSize / (double) currentWidth)
-                                : ((double) maxSize / (double) currentHeight);
-                        width = (int) (scale * currentWidth);
-                        height = (int) (scale * currentHeight);
-                    } else if (maxWidthString != null) {
-                        int maxWidth = Integer.parseInt(maxWidthString);
-                        double scale = (double) maxWidth / (double) currentWidth;
-                        width = (int) (scale * currentWidth);
-                        height = (int) (scale * currentHeight);
-                    } else {
-                        int maxHeight = Integer.parseInt(maxHeightString);
-                        double scale = (double) maxHeight / (double) currentHeight;
-                        width = (int) (scale * currentWidth);
-                        height = (int) (scale * currentHeight);
-                    }
-                } else {
-                    // Width and height are specified directly
-                    String heightString = XPathUtils.selectStringValueNormalize(node, "height");
-                    width = Integer.parseInt(widthString);
-                    height = Integer.parseInt(heightString);
-                }
-                // Make sure we don't scale up if not allowed to
-                if (!scaleUp && (width > currentWidth || height > currentHeight)) {
-                    width = currentWidth;
-                    height = currentHeight;
-                }
+                int[] size = computeScaledSize(node, currentWidth, currentHeight);
+                int width = size[0];
+                int height = size[1];
                 // Chain filter if needed
                 if (currentWidth != width || currentHeight != height) {
                     ImageFilter scaleFilter = lowQuality ? new ReplicateScaleFilter(width, height) : new AreaAveragingScaleFilter(width, height);
@@ -650,6 +783,48 @@ public class ImageServer extends ProcessorImpl {
         return newImage;
     }
 
+    private int[] computeScaledSize(Node node, int currentWidth, int currentHeight) {
+        boolean scaleUp = selectBooleanValue(node, "scale-up", DEFAULT_SCALE_UP);
+        String widthString = XPathUtils.selectStringValueNormalize(node, "width");
+        int width;
+        int height;
+        if (widthString == null) {
+            // There must be a maximum, use it to compute width and height
+            String maxSizeString = XPathUtils.selectStringValueNormalize(node, "max-size");
+            String maxWidthString = XPathUtils.selectStringValueNormalize(node, "max-width");
+            String maxHeightString = XPathUtils.selectStringValueNormalize(node, "max-height");
+            if (maxSizeString != null) {
+                int maxSize = Integer.parseInt(maxSizeString);
+                double scale = (currentWidth > currentHeight)
+                        ? ((double) maxSize / (double) currentWidth)
+                        : ((double) maxSize / (double) currentHeight);
+                width = (int) (scale * currentWidth);
+                height = (int) (scale * currentHeight);
+            } else if (maxWidthString != null) {
+                int maxWidth = Integer.parseInt(maxWidthString);
+                double scale = (double) maxWidth / (double) currentWidth;
+                width = (int) (scale * currentWidth);
+                height = (int) (scale * currentHeight);
+            } else {
+                int maxHeight = Integer.parseInt(maxHeightString);
+                double scale = (double) maxHeight / (double) currentHeight;
+                width = (int) (scale * currentWidth);
+                height = (int) (scale * currentHeight);
+            }
+        } else {
+            // Width and height are specified directly
+            String heightString = XPathUtils.selectStringValueNormalize(node, "height");
+            width = Integer.parseInt(widthString);
+            height = Integer.parseInt(heightString);
+        }
+        // Make sure we don't scale up if not allowed to
+        if (!scaleUp && (width > currentWidth || height > currentHeight)) {
+            width = currentWidth;
+            height = currentHeight;
+        }
+        return new int[] { width, height };
+    }
+
     private Color getColor(Node colorNode) {
         String rgb = XPathUtils.selectStringValueNormalize(colorNode, "@rgb");
         String alpha = XPathUtils.selectStringValueNormalize(colorNode, "@alpha");
@@ -685,4 +860,44 @@ public class ImageServer extends ProcessorImpl {
         Integer integerValue = XPathUtils.selectIntegerValue(node, expr);
         return (integerValue == null) ? def : integerValue;
     }
+
+    /**
+     * LRU cache of decoded images, bounded by the memory used by their pixels.
+     */
+    private static class DecodedImageCache {
+
+        private final long maxBytes;
+        private long currentBytes;
+        private final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+
+        public DecodedImageCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public synchronized BufferedImage get(String key) {
+            return images.get(key);
+        }
+
+        public synchronized void put(String key, BufferedImage image) {
+            final long size = sizeOf(image);
+            // Don't let a single image evict all the others
+            if (size > maxBytes / 2)
+                return;
+
+            final BufferedImage previous = images.put(key, image);
+            if (previous != null)
+                currentBytes -= sizeOf(previous);
+            currentBytes += size;
+
+            for (Iterator<BufferedImage> i = images.values().iterator(); currentBytes > maxBytes && i.hasNext();) {
+                currentBytes -= sizeOf(i.next());
+                i.remove();
+            }
+        }
+
+        private static long sizeOf(BufferedImage image) {
+            final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+            return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+        }
+    }
 }
@@ -185,6 +185,8 @@ public class ProcessorUtils {
     /**
      * Generate a "standard" Orbeon binary document.
      *
+     * If the output is a BinaryXMLReceiver, the content is passed to it as a stream, without base64 encoding.
+     *
      * @param is            InputStream to read from
      * @param output        output ContentHandler to write binary document to
      * @param contentType   optional content type to set as attribute on the root element
@@ -195,7 +197,10 @@ public class ProcessorUtils {
     public static void readBinary(InputStream is, ContentHandler output, String contentType, Long lastModified, int statusCode, String fileName) {
         try {
             outputStartDocument(output, contentType, lastModified, statusCode, fileName, XMLConstants.XS_BASE64BINARY_QNAME, DEFAULT_BINARY_DOCUMENT_ELEMENT);
-            SAXUtils.inputStreamToBase64Characters(new BufferedInputStream(is), output);
+            if (output instanceof BinaryXMLReceiver)
+                ((BinaryXMLReceiver) output).binary(is);
+            else
+                SAXUtils.inputStreamToBase64Characters(new BufferedInputStream(is), output);
             outputEndDocument(output, DEFAULT_BINARY_DOCUMENT_ELEMENT);
         } catch (Exception e) {
             throw new OXFException(e);
@@ -24,6 +24,7 @@ import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.pipeline.api.ProcessorDefinition;
 import org.orbeon.oxf.util.DateUtils;
 import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.util.task.OverlapPolicy;
 import org.orbeon.oxf.util.task.Task;
 import org.orbeon.oxf.util.task.TaskScheduler;
 import org.orbeon.oxf.webapp.WebAppExternalContext;
@@ -101,8 +102,13 @@ public class SchedulerProcessor extends ProcessorImpl {
                             throw new OXFException("Unsupported long value", e);
                         }
 
+                        // Legacy synchronized="true" means that a run is skipped if the previous run hasn't completed
+                        String overlap = XPathUtils.selectStringValueNormalize(startTaskElement, "overlap");
                         String sync = XPathUtils.selectStringValueNormalize(startTaskElement, "synchronized");
-                        config.setSynchro(Boolean.valueOf(sync).booleanValue());
+                        if (overlap != null)
+                            config.setOverlapPolicy(OverlapPolicy.fromString(overlap));
+                        else if (Boolean.valueOf(sync).booleanValue())
+                            config.setOverlapPolicy(OverlapPolicy.SKIP);
 
                         configs.add(config);
                     }
@@ -134,7 +140,7 @@ public class SchedulerProcessor extends ProcessorImpl {
                         // NOTE: The ExternalContext passed:
                         // - has visibility on the application context only
                         // - doesn't keep references to the current context
-                        ProcessorTask task = new ProcessorTask(config.getName(), processor, config.isSynchro(),
+                        ProcessorTask task = new ProcessorTask(config.getName(), processor, config.getOverlapPolicy(),
                                 new WebAppExternalContext(externalContext.getWebAppContext(), scala.Option.apply((HttpSession) null)));
                         task.setSchedule(config.getStartTime(), config.getInterval());
                         scheduler.schedule(task);
@@ -164,12 +170,12 @@ public class SchedulerProcessor extends ProcessorImpl {
         private ExternalContext externalContext;
         private String name;
         private String status = WAITING;
-        private boolean sync;
+        private OverlapPolicy overlapPolicy;
 
-        public ProcessorTask(String name, Processor processor, boolean sync, ExternalContext externalContext) {
+        public ProcessorTask(String name, Processor processor, OverlapPolicy overlapPolicy, ExternalContext externalContext) {
             this.name = name;
             this.processor = processor;
-            this.sync = sync;
+            this.overlapPolicy = overlapPolicy;
             this.externalContext = externalContext;
         }
 
@@ -177,6 +183,10 @@ public class SchedulerProcessor extends ProcessorImpl {
             return name;
         }
 
+        public OverlapPolicy getOverlapPolicy() {
+            return overlapPolicy;
+        }
+
         synchronized public String getStatus() {
             return status;
         }
@@ -188,19 +198,15 @@ public class SchedulerProcessor extends ProcessorImpl {
                 status = WAITING;
         }
 
+        // The scheduler applies the overlap policy, and logs the exceptions
         public void run() {
             try {
-                if (sync && getStatus().equals(RUNNING)) {
-                    if (logger.isInfoEnabled())
-                        logger.info("Task: " + getName() + " won't run since it is already running");
-                } else {
-                    setStatus(true);
-                    InitUtils.runProcessor(processor, externalContext, new PipelineContext(), logger);
-                    setStatus(false);
-                }
+                setStatus(true);
+                InitUtils.runProcessor(processor, externalContext, new PipelineContext(), logger);
             } catch (Exception e) {
-                setStatus(false);
                 throw new OXFException(e);
+            } finally {
+                setStatus(false);
             }
         }
     }
@@ -214,7 +220,7 @@ public class SchedulerProcessor extends ProcessorImpl {
         private ProcessorDefinition processorDefinition;
         private long startTime;
         private long interval;
-        private boolean synchro = true;
+        private OverlapPolicy overlapPolicy = OverlapPolicy.CONCURRENT;
 
         public Config(int action) {
             this.action = action;
@@ -248,12 +254,12 @@ public class SchedulerProcessor extends ProcessorImpl {
             this.startTime = startTime;
         }
 
-        public boolean isSynchro() {
-            return synchro;
+        public OverlapPolicy getOverlapPolicy() {
+            return overlapPolicy;
         }
 
-        public void setSynchro(boolean synchro) {
-            this.synchro = synchro;
+        public void setOverlapPolicy(OverlapPolicy overlapPolicy) {
+            this.overlapPolicy = overlapPolicy;
         }
 
         public ProcessorDefinition getProcessorDefinition() {
@@ -202,6 +202,8 @@ public class PipelineReader extends ProcessorImpl {
                     forEach.setId(element.attributeValue("id"));
                     forEach.setRef(element.attributeValue("ref"));
                     forEach.setRoot(element.attributeValue("root"));
+                    forEach.setParallelism(element.attributeValue("parallelism"));
+                    forEach.setStreaming(element.attributeValue("streaming"));
                     forEach.setInputSchemaHref(element.attributeValue("input-schema-href"));
                     forEach.setInputSchemaUri(element.attributeValue("input-schema-uri"));
                     forEach.setInputDebug(element.attributeValue("input-debug"));
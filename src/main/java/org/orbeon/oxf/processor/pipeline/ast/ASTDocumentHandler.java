@@ -141,6 +141,10 @@ public class ASTDocumentHandler implements ASTHandler {
         if (forEach.getRef() != null)
             currentElement.addAttribute("ref", forEach.getRef());
         currentElement.addAttribute("root", forEach.getRoot());
+        if (forEach.getParallelism() != null)
+            currentElement.addAttribute("parallelism", forEach.getParallelism());
+        if (forEach.getStreaming() != null)
+            currentElement.addAttribute("streaming", forEach.getStreaming());
         return true;
     }
 
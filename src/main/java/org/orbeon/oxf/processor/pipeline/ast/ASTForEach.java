@@ -23,6 +23,8 @@ public class ASTForEach extends ASTStatement {
     private String id;
     private String ref;
     private String root;
+    private String parallelism;
+    private String streaming;
     private String inputSchemaHref;
     private String inputSchemaUri;
     private String inputDebug;
@@ -71,6 +73,22 @@ public class ASTForEach extends ASTStatement {
         this.root = root;
     }
 
+    public String getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(String parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public String getStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(String streaming) {
+        this.streaming = streaming;
+    }
+
     public String getInputSchemaHref() {
         return inputSchemaHref;
     }
@@ -17,19 +17,27 @@ import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.Node$;
+import org.orbeon.oxf.cache.CacheKey;
+import org.orbeon.oxf.cache.CompoundOutputCacheKey;
+import org.orbeon.oxf.cache.InternalCacheKey;
 import org.orbeon.oxf.cache.OutputCacheKey;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.processor.*;
 import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.processor.pipeline.PipelineConfig;
 import org.orbeon.oxf.processor.pipeline.PipelineProcessor;
 import org.orbeon.oxf.processor.pipeline.TeeProcessor;
 import org.orbeon.oxf.processor.pipeline.ast.*;
+import org.orbeon.oxf.util.ParallelTasks;
 import org.orbeon.oxf.util.PooledXPathExpression;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.EmbeddedDocumentXMLReceiver;
 import org.orbeon.oxf.xml.NamespaceMapping;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.StreamingPathReceiver;
+import org.orbeon.oxf.xml.XMLConstants;
 import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
@@ -39,13 +47,31 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
+/**
+ * With parallelism="n", up to n iterations run at the same time, each on its own thread and with its own
+ * PipelineContext. The inputs of the iteration block are read once before the iterations start, and the outputs of the
+ * iterations are buffered, and then produced in the order of the selected elements.
+ *
+ * The output is cacheable when the iteration block has no serializers: its key and validity combine those of the
+ * output of each iteration, which are computed once per execution. Each iteration has a key based on the $data input,
+ * the select expression, and the position of the iteration.
+ *
+ * With streaming="true", the select attribute must be a simple absolute path such as /rows/row. The $data input is then
+ * read as SAX instead of being built as a document: each matching element is built as a separate document, and its
+ * iteration runs as soon as the element ends. The output is then not cacheable, as computing its key would read the
+ * $data input once more.
+ */
 public class ConcreteForEachProcessor extends ProcessorImpl {
 
     private final Processor forEachBlockProcessor;
     private final ProcessorOutput iterationOutput;
     private final String select;
     private final NamespaceMapping namespaceContext;
+    private final int parallelism;
+    private final boolean sideEffectFree;
+    private final String[] streamingNames;
     private String rootLocalName;
     private String rootQName;
     private String rootNamespaceURI;
@@ -74,7 +100,9 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                 astPipeline.walk(astDocumentHandler);
                 logger.debug("Iteration pipeline:\n" + Dom4jUtils.domToString(astDocumentHandler.getDocument()));
             }
-            forEachBlockProcessor = new PipelineProcessor(astPipeline);
+            final PipelineConfig blockConfig = PipelineProcessor.createConfigFromAST(astPipeline);
+            forEachBlockProcessor = new PipelineProcessor(blockConfig);
+            sideEffectFree = blockConfig.getProcessorsToStart().isEmpty() && ! hasNestedPipeline(forEachAST);
         }
 
         // Connect nested pipeline block inputs to inputs of p:for-each processor
@@ -96,6 +124,8 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
 
         select = forEachAST.getSelect();
         namespaceContext = new NamespaceMapping(Dom4jUtils.getNamespaceContextNoDefault((Element) forEachAST.getNode()));
+        parallelism = getParallelism(forEachAST);
+        streamingNames = "true".equals(forEachAST.getStreaming()) ? getStreamingNames(forEachAST) : null;
         if (forEachAST.getRoot() != null) {
             rootQName = forEachAST.getRoot();
             int columnPosition = rootQName.indexOf(':');
@@ -117,7 +147,7 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
     @Override
     public ProcessorOutput createOutput(final String name) {
         final ProcessorOutput output = new ProcessorOutputImpl(ConcreteForEachProcessor.this, name) {
-            public void readImpl(PipelineContext pipelineContext, XMLReceiver xmlReceiver) {
+            public void readImpl(final PipelineContext pipelineContext, final XMLReceiver xmlReceiver) {
                 try {
                     final State state = (State) getState(pipelineContext);
 
@@ -126,32 +156,30 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                     xmlReceiver.startElement(rootNamespaceURI, rootLocalName, rootQName, new AttributesImpl());
 
                     // Read n times from iterationOutput
-                    PooledXPathExpression expression = null;
                     int iterationCount = 0;
-                    try {
-                        expression = createExpression(pipelineContext);
-
-                        for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                            final Element currentElement = (Element) i.next();
-
-                            // Create DOMGenerator
-                            final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                            final DOMGenerator domGenerator = new DOMGenerator
-                                    (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                            domGenerator.createOutput(OUTPUT_DATA);
-                            state.domGenerator = domGenerator;
-
-                            // Run iteration
-                            forEachBlockProcessor.reset(pipelineContext);
-                            iterationOutput.read(pipelineContext, new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                    if (parallelism > 1) {
+                        for (final SAXStore output : runParallelIterations(pipelineContext, true)) {
+                            output.replay(new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                            iterationCount++;
+                        }
+                    } else {
+                        try {
+                            iterationCount = forEachSelectedElement(pipelineContext, new SelectedElementHandler() {
+                                public void element(Element currentElement, int position) {
+
+                                    // Create DOMGenerator
+                                    state.domGenerator = createDOMGenerator(currentElement);
+                                    state.position = position;
+
+                                    // Run iteration
+                                    forEachBlockProcessor.reset(pipelineContext);
+                                    iterationOutput.read(pipelineContext, new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                                }
+                            });
+                        } finally {
+                            // Clear state to allow gc as the state might be referenced for a while
+                            state.domGenerator = null;
                         }
-                    } catch (XPathException e) {
-                        throw new OXFException(e);
-                    } finally {
-                        // Clear state to allow gc as the state might be referenced for a while
-                        if (state != null) state.domGenerator = null;
-                        // Return expression
-                        if (expression != null) expression.returnToPool();
                     }
 
                     // Notify input Tee processors that we are done
@@ -166,26 +194,23 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
             }
 
             /**
-             * For each is not cacheable. We used to have code here that combines the keys for
-             * the outputs of the different executions of the for-each. The problem is when we
-             * have a block in the for-each that has an output and a serializer. In that case,
-             * getting the output key runs the serializer.
-             *
-             * So if we get the key here, we'll run the serializer n times, which is
-             * unexpected. Maybe an an API that combines reading the output and reading the
-             * key/validity would solve this problem.
+             * We can't just combine the keys of the outputs of the iterations when the iteration block has side
+             * effects: getting the key of the output of the block runs its serializers, so they would run n more
+             * times. In that case the p:for-each is not cacheable.
              */
             @Override
             public OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
-                return null;
+                final KeyValidity keyValidity = getIterationsKeyValidity(pipelineContext);
+                return keyValidity == null ? null : (OutputCacheKey) keyValidity.key;
             }
 
             /**
-             * For each is not cacheable. See comment in getKeyImpl().
+             * See comment in getKeyImpl().
              */
             @Override
             protected Object getValidityImpl(PipelineContext pipelineContext) {
-                return null;
+                final KeyValidity keyValidity = getIterationsKeyValidity(pipelineContext);
+                return keyValidity == null ? null : keyValidity.validity;
             }
 
         };
@@ -243,47 +268,258 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         }
     }
 
+    private interface SelectedElementHandler {
+        void element(Element currentElement, int position);
+    }
+
+    /**
+     * Call the handler for each selected element in document order, and return the number of elements.
+     */
+    private int forEachSelectedElement(PipelineContext pipelineContext, final SelectedElementHandler handler) {
+        final int[] position = { 0 };
+        if (streamingNames != null) {
+            readInputAsSAX(pipelineContext, AbstractForEachProcessor.FOR_EACH_DATA_INPUT, new StreamingPathReceiver(streamingNames) {
+                protected void element(Element element) {
+                    handler.element(element, ++position[0]);
+                }
+            });
+        } else {
+            PooledXPathExpression expression = null;
+            try {
+                expression = createExpression(pipelineContext);
+                for (Iterator i = new ElementIterator(expression); i.hasNext();)
+                    handler.element((Element) i.next(), ++position[0]);
+            } catch (XPathException e) {
+                throw new OXFException(e);
+            } finally {
+                if (expression != null) expression.returnToPool();
+            }
+        }
+        return position[0];
+    }
+
     private PooledXPathExpression createExpression(PipelineContext pipelineContext) {
-        // Read special "$data" input
-        final Document dataInput = readInputAsDOM4J(pipelineContext, getInputByName(AbstractForEachProcessor.FOR_EACH_DATA_INPUT));
+        // Read special "$data" input, once per execution as the key computation also needs it
+        final State state = (State) getState(pipelineContext);
+        if (state.dataInput == null)
+            state.dataInput = readInputAsDOM4J(pipelineContext, getInputByName(AbstractForEachProcessor.FOR_EACH_DATA_INPUT));
+        final Document dataInput = state.dataInput;
         final DocumentInfo document = new DocumentWrapper(dataInput, null, org.orbeon.oxf.util.XPath.GlobalConfiguration());
         return XPathCache.getXPathExpression(
                 document.getConfiguration(), document,
                 select, namespaceContext, getLocationData());
     }
 
-    @Override
-    public void start(PipelineContext pipelineContext) {
+    /**
+     * Return the combined key and validity of the outputs of all the iterations, or null if not cacheable.
+     */
+    private KeyValidity getIterationsKeyValidity(PipelineContext pipelineContext) {
+        // When streaming, computing the key would read $data once more, which is what streaming is meant to avoid
+        if (! sideEffectFree || streamingNames != null)
+            return null;
+
         final State state = (State) getState(pipelineContext);
+        if (! state.keyValidityComputed) {
+            state.keyValidity = computeIterationsKeyValidity(pipelineContext, state);
+            state.keyValidityComputed = true;
+        }
+        return state.keyValidity;
+    }
+
+    private KeyValidity computeIterationsKeyValidity(final PipelineContext pipelineContext, final State state) {
 
-        // Read n times from iterationOutput
-        PooledXPathExpression expression = null;
-        int iterationCount = 0;
+        final List<CacheKey> keys = new ArrayList<CacheKey>();
+        final List<Object> validities = new ArrayList<Object>();
+
+        // The $data input and the p:for-each itself, so that the key is also correct when there are no iterations
+        final KeyValidity dataKeyValidity = getInputKeyValidity(pipelineContext, AbstractForEachProcessor.FOR_EACH_DATA_INPUT);
+        if (dataKeyValidity == null)
+            return null;
+        keys.add(dataKeyValidity.key);
+        keys.add(new InternalCacheKey(this, "for-each", select + " " + namespaceContext.hash + " " + rootNamespaceURI + " " + rootQName));
+        validities.add(dataKeyValidity.validity);
+
+        final boolean[] cacheable = { true };
         try {
-            expression = createExpression(pipelineContext);
+            forEachSelectedElement(pipelineContext, new SelectedElementHandler() {
+                public void element(Element currentElement, int position) {
+                    // The remaining iterations don't matter once one is not cacheable
+                    if (! cacheable[0])
+                        return;
+
+                    state.domGenerator = createDOMGenerator(currentElement);
+                    state.position = position;
+
+                    forEachBlockProcessor.reset(pipelineContext);
+                    final OutputCacheKey iterationKey = iterationOutput.getKey(pipelineContext);
+                    final Object iterationValidity = iterationKey == null ? null : iterationOutput.getValidity(pipelineContext);
+                    if (iterationValidity == null) {
+                        cacheable[0] = false;
+                    } else {
+                        keys.add(iterationKey);
+                        validities.add(iterationValidity);
+                    }
+                }
+            });
+        } finally {
+            state.domGenerator = null;
+        }
+
+        if (! cacheable[0])
+            return null;
+
+        final CacheKey[] outputKeys = new CacheKey[keys.size()];
+        keys.toArray(outputKeys);
+        return new KeyValidity(new CompoundOutputCacheKey(getClass(), "for-each", outputKeys), validities);
+    }
+
+    /**
+     * Whether the iteration block calls other pipelines, as getting the key of their output can run their serializers.
+     */
+    private static boolean hasNestedPipeline(ASTForEach forEachAST) {
+        final boolean[] result = { false };
+        final ASTHandler handler = new ASTSimpleHandler() {
+            @Override
+            public boolean startProcessorCall(ASTProcessorCall processorCall) {
+                if (XMLConstants.PIPELINE_PROCESSOR_QNAME.equals(processorCall.getName())
+                        || processorCall.getProcessor() instanceof PipelineProcessor)
+                    result[0] = true;
+                return false;
+            }
+        };
+        for (final ASTStatement statement : forEachAST.getStatements())
+            statement.walk(handler);
+        return result[0];
+    }
+
+    private DOMGenerator createDOMGenerator(Element currentElement) {
+        final String systemId = Dom4jUtils.makeSystemId(currentElement);
+        final DOMGenerator domGenerator = new DOMGenerator
+                (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
+        domGenerator.createOutput(OUTPUT_DATA);
+        return domGenerator;
+    }
+
+    /**
+     * Run all the iterations on separate threads, and return their outputs in order, or nulls if readOutput is false.
+     */
+    private List<SAXStore> runParallelIterations(PipelineContext pipelineContext, final boolean readOutput) {
+
+        final Map<String, SAXStore> bufferedInputs = bufferInputs(pipelineContext);
+
+        // Same parents as the p:for-each, so that processors have the same keys as when iterations run sequentially
+        final Stack<ProcessorImpl> parentsOrNull = (Stack<ProcessorImpl>) pipelineContext.getAttribute(PARENT_PROCESSORS);
+        final List<ProcessorImpl> parents = parentsOrNull == null ? null : new ArrayList<ProcessorImpl>(parentsOrNull);
 
-            for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                final Element currentElement = (Element) i.next();
+        final List<Callable<SAXStore>> tasks = new ArrayList<Callable<SAXStore>>();
+        forEachSelectedElement(pipelineContext, new SelectedElementHandler() {
+            public void element(Element currentElement, int position) {
+                tasks.add(createIterationTask(createDOMGenerator(currentElement), bufferedInputs, parents, readOutput));
+            }
+        });
+
+        return ParallelTasks.jRunAll(tasks, parallelism);
+    }
 
-                // Create DOMGenerator
-                final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                final DOMGenerator domGenerator = new DOMGenerator
-                        (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                domGenerator.createOutput(OUTPUT_DATA);
-                state.domGenerator = domGenerator;
+    private Callable<SAXStore> createIterationTask(final DOMGenerator domGenerator, final Map<String, SAXStore> bufferedInputs,
+                                                   final List<ProcessorImpl> parents, final boolean readOutput) {
+        return ParallelTasks.jWithCurrentExternalContext(new Callable<SAXStore>() {
+            public SAXStore call() {
+                final PipelineContext iterationContext = PipelineContext.get();
+
+                if (parents != null) {
+                    final Stack<ProcessorImpl> iterationParents = new Stack<ProcessorImpl>();
+                    iterationParents.addAll(parents);
+                    iterationContext.setAttribute(PARENT_PROCESSORS, iterationParents);
+                }
+
+                final State iterationState = new State();
+                iterationState.domGenerator = domGenerator;
+                iterationState.bufferedInputs = bufferedInputs;
+                setState(iterationContext, iterationState);
 
                 // Run iteration
-                forEachBlockProcessor.reset(pipelineContext);
-                forEachBlockProcessor.start(pipelineContext);
+                forEachBlockProcessor.reset(iterationContext);
+                if (readOutput) {
+                    final SAXStore output = new SAXStore();
+                    iterationOutput.read(iterationContext, output);
+                    return output;
+                } else {
+                    forEachBlockProcessor.start(iterationContext);
+                    return null;
+                }
             }
+        });
+    }
+
+    /**
+     * Read the inputs of the iteration block once, as the iterations can't read them from their own PipelineContext.
+     */
+    private Map<String, SAXStore> bufferInputs(PipelineContext pipelineContext) {
+        final Map<String, SAXStore> bufferedInputs = new HashMap<String, SAXStore>();
+        for (final String name : getConnectedInputs().keySet()) {
+            if (!AbstractForEachProcessor.FOR_EACH_DATA_INPUT.equals(name)) {// ignore $data
+                final SAXStore saxStore = new SAXStore();
+                readInputAsSAX(pipelineContext, name, saxStore);
+                bufferedInputs.put(name, saxStore);
+            }
+        }
+        return bufferedInputs;
+    }
+
+    private String[] getStreamingNames(ASTForEach forEachAST) {
+        try {
+            return StreamingPathReceiver.getNames(forEachAST.getSelect(), namespaceContext.mapping);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(e.getMessage(), forEachAST.getLocationData());
+        }
+    }
+
+    private static int getParallelism(ASTForEach forEachAST) {
+        final String parallelism = forEachAST.getParallelism();
+        if (parallelism == null)
+            return 1;
+        try {
+            final int result = Integer.parseInt(parallelism.trim());
+            if (result < 1)
+                throw new ValidationException("parallelism attribute must be 1 or greater", forEachAST.getLocationData());
+            return result;
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid parallelism attribute: " + parallelism, forEachAST.getLocationData());
+        }
+    }
+
+    @Override
+    public void start(final PipelineContext pipelineContext) {
+
+        if (parallelism > 1) {
+            final int iterationCount = runParallelIterations(pipelineContext, false).size();
 
-        } catch (XPathException e) {
-            throw new OXFException(e);
+            // Notify input Tee processors that we are done
+            commitInputs(pipelineContext, iterationCount);
+            return;
+        }
+
+        final State state = (State) getState(pipelineContext);
+
+        // Run n times the iteration block
+        final int iterationCount;
+        try {
+            iterationCount = forEachSelectedElement(pipelineContext, new SelectedElementHandler() {
+                public void element(Element currentElement, int position) {
+
+                    // Create DOMGenerator
+                    state.domGenerator = createDOMGenerator(currentElement);
+                    state.position = position;
+
+                    // Run iteration
+                    forEachBlockProcessor.reset(pipelineContext);
+                    forEachBlockProcessor.start(pipelineContext);
+                }
+            });
         } finally {
             // Clear state to allow gc as the state might be referenced for a while
-            if (state != null) state.domGenerator = null;
-            // Return expression
-            if (expression != null) expression.returnToPool();
+            state.domGenerator = null;
         }
 
         // Notify input Tee processors that we are done
@@ -322,20 +558,34 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         }
 
         protected void readImpl(PipelineContext pipelineContext, XMLReceiver xmlReceiver) {
-            // Delegate to the p:for-each input
-            ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), xmlReceiver);
+            final State state = (State) getState(pipelineContext);
+            final SAXStore bufferedInput = state.bufferedInputs == null ? null : state.bufferedInputs.get(getName());
+            if (bufferedInput != null) {
+                // Parallel iteration
+                try {
+                    bufferedInput.replay(xmlReceiver);
+                } catch (SAXException e) {
+                    throw new OXFException(e);
+                }
+            } else {
+                // Delegate to the p:for-each input
+                ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), xmlReceiver);
+            }
         }
 
+        /**
+         * Not cacheable within parallel iterations, as the p:for-each inputs can't be accessed from there.
+         */
         @Override
         public OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
-            // NOTE: this means that the execution of the pipeline block is not cacheable. Should improve?
-            return null;
+            final State state = (State) getState(pipelineContext);
+            return state.bufferedInputs != null ? null : getInputKey(pipelineContext, getInputByName(getName()));
         }
 
         @Override
         protected Object getValidityImpl(PipelineContext pipelineContext) {
-            // NOTE: this means that the execution of the pipeline block is not cacheable. Should improve?
-            return null;
+            final State state = (State) getState(pipelineContext);
+            return state.bufferedInputs != null ? null : getInputValidity(pipelineContext, getInputByName(getName()));
         }
     }
 
@@ -353,16 +603,30 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
             state.domGenerator.getOutputByName(OUTPUT_DATA).read(pipelineContext, xmlReceiver);
         }
 
+        /**
+         * The selected element is identified by the $data input, the select expression and the position.
+         */
         @Override
         public OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
             final State state = (State) getState(pipelineContext);
-            return state.domGenerator.getOutputByName(OUTPUT_DATA).getKey(pipelineContext);
+            if (state.bufferedInputs != null)
+                return null;
+
+            final OutputCacheKey dataKey = getInputKey(pipelineContext, getInputByName(AbstractForEachProcessor.FOR_EACH_DATA_INPUT));
+            if (dataKey == null)
+                return null;
+
+            final CacheKey iterationKey = new InternalCacheKey(ConcreteForEachProcessor.this, "iteration", select + " " + namespaceContext.hash + " " + state.position);
+            return new CompoundOutputCacheKey(getProcessorClass(), getName(), new CacheKey[] { dataKey, iterationKey });
         }
 
         @Override
         protected Object getValidityImpl(PipelineContext pipelineContext) {
             final State state = (State) getState(pipelineContext);
-            return state.domGenerator.getOutputByName(OUTPUT_DATA).getValidity(pipelineContext);
+            if (state.bufferedInputs != null)
+                return null;
+
+            return getInputValidity(pipelineContext, getInputByName(AbstractForEachProcessor.FOR_EACH_DATA_INPUT));
         }
     }
 
@@ -370,7 +634,12 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
      * Runtime state information for p:for-each.
      */
     private static class State {
+        Document dataInput;
         DOMGenerator domGenerator;
+        int position;
+        Map<String, SAXStore> bufferedInputs;
+        boolean keyValidityComputed;
+        KeyValidity keyValidity;
     }
 
     @Override
@@ -41,7 +41,6 @@ import java.util.*;
  *
  * TODO:
  *
- * - batch for mass updates when supported
  * - esql:use-limit-clause, esql:skip-rows, esql:max-rows
  *
  * - The position() and last() functions are not implemented within
@@ -97,17 +96,28 @@ public class SQLProcessor extends ProcessorImpl {
     }
 
     private static class Config {
-        public Config(SAXStore configInput, boolean useXPathExpressions, List xpathExpressions) {
+        public Config(SAXStore configInput, boolean useXPathExpressions, boolean useStreamingForEach, List xpathExpressions) {
             this.configInput = configInput;
             this.useXPathExpressions = useXPathExpressions;
+            this.useStreamingForEach = useStreamingForEach;
             this.xpathExpressions = xpathExpressions;
         }
 
         public SAXStore configInput;
         public boolean useXPathExpressions;
+        public boolean useStreamingForEach;
         public List xpathExpressions;
     }
 
+    // Return the closest sql:for-each with streaming="true" containing the element, or the element itself
+    private static Element findStreamingForEach(Element element) {
+        for (Element current = element; current != null; current = current.getParent())
+            if (SQL_NAMESPACE_URI.equals(current.getNamespaceURI()) && "for-each".equals(current.getName())
+                    && "true".equals(current.attributeValue("streaming")))
+                return current;
+        return null;
+    }
+
     protected void execute(final PipelineContext context, XMLReceiver xmlReceiver) {
         try {
             // Cache, read and interpret the config input
@@ -120,10 +130,16 @@ public class SQLProcessor extends ProcessorImpl {
                     // Extract XPath expressions and also check whether any XPath expression is used at all
                     // NOTE: This could be done through streaming below as well
                     // NOTE: For now, just match <sql:param select="/*" type="xs:base64Binary"/>
+                    // NOTE: Expressions within a streaming sql:for-each apply to the iterated elements only
                     List xpathExpressions = new ArrayList();
                     boolean useXPathExpressions = false;
+                    boolean useStreamingForEach = false;
                     for (Iterator i = XPathUtils.selectNodeIterator(configDocument, "//*[namespace-uri() = '" + SQL_NAMESPACE_URI + "' and @select]"); i.hasNext();) {
                         Element element = (Element) i.next();
+                        if (findStreamingForEach(element) != null) {
+                            useStreamingForEach = true;
+                            continue;
+                        }
                         useXPathExpressions = true;
                         String typeAttribute = element.attributeValue("type");
                         if ("xs:base64Binary".equals(typeAttribute)) {
@@ -183,7 +199,7 @@ public class SQLProcessor extends ProcessorImpl {
                     locationSAXWriter.setContentHandler(store);
                     locationSAXWriter.write(configDocument);
                     // Return the normalized document
-                    return new Config(store, useXPathExpressions, xpathExpressions);
+                    return new Config(store, useXPathExpressions, useStreamingForEach, xpathExpressions);
                 }
             });
 
@@ -193,7 +209,7 @@ public class SQLProcessor extends ProcessorImpl {
 
             // Check if the data input is connected
             boolean hasDataInput = getConnectedInputs().get(INPUT_DATA) != null;
-            if (!hasDataInput && config.useXPathExpressions)
+            if (!hasDataInput && (config.useXPathExpressions || config.useStreamingForEach))
                 throw new OXFException("The data input must be connected when the configuration uses XPath expressions.");
             if (!hasDataInput || !config.useXPathExpressions) {
                 // Just use an empty document
@@ -229,6 +245,16 @@ public class SQLProcessor extends ProcessorImpl {
                     data = readInputAsDOM4J(context, INPUT_DATA);
             }
 
+            // Streaming iterations read the data input themselves
+            SQLProcessorInterpreterContext.DataInputReader dataInputReader = null;
+            if (hasDataInput && config.useStreamingForEach) {
+                dataInputReader = new SQLProcessorInterpreterContext.DataInputReader() {
+                    public void readDataInput(XMLReceiver xmlReceiver) {
+                        readInputAsSAX(context, INPUT_DATA, xmlReceiver);
+                    }
+                };
+            }
+
             // Try to read datasource input if any
             Datasource datasource = null; {
                 List datasourceInputs = (List) getConnectedInputs().get(INPUT_DATASOURCE);
@@ -241,7 +267,7 @@ public class SQLProcessor extends ProcessorImpl {
             }
 
             // Replay the config SAX store through the interpreter
-            config.configInput.replay(new RootInterpreter(context, getPropertySet(), data, datasource, xpathReceiver, xmlReceiver));
+            config.configInput.replay(new RootInterpreter(context, getPropertySet(), data, dataInputReader, datasource, xpathReceiver, xmlReceiver));
         } catch (OXFException e) {
             throw e;
         } catch (Exception e) {
@@ -254,11 +280,12 @@ public class SQLProcessor extends ProcessorImpl {
         private SQLProcessorInterpreterContext interpreterContext;
         private NamespaceSupport namespaceSupport = new NamespaceSupport();
 
-        public RootInterpreter(PipelineContext context, PropertySet propertySet, Node input, Datasource datasource, XPathXMLReceiver xpathReceiver, XMLReceiver output) {
+        public RootInterpreter(PipelineContext context, PropertySet propertySet, Node input, SQLProcessorInterpreterContext.DataInputReader dataInputReader, Datasource datasource, XPathXMLReceiver xpathReceiver, XMLReceiver output) {
             super(null, false);
             interpreterContext = new SQLProcessorInterpreterContext(propertySet);
             interpreterContext.setPipelineContext(context);
             interpreterContext.setInput(input);
+            interpreterContext.setDataInputReader(dataInputReader);
             interpreterContext.setDatasource(datasource);
             interpreterContext.setXPathContentHandler(xpathReceiver);
             interpreterContext.setOutput(new DeferredXMLReceiverImpl(output));
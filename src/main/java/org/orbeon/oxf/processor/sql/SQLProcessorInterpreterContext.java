@@ -24,6 +24,7 @@ import org.orbeon.oxf.processor.sql.delegates.SQLProcessorStandardDelegate;
 import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.SecureUtils;
 import org.orbeon.oxf.xml.DeferredXMLReceiver;
+import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.xml.XPathXMLReceiver;
 import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.xml.sax.Locator;
@@ -33,6 +34,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -51,6 +53,7 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
 
     private PipelineContext pipelineContext;
     private Node input;
+    private DataInputReader dataInputReader;
     private XPathXMLReceiver xpathReceiver;
     private DeferredXMLReceiver output;
     private NamespaceSupport namespaceSupport;
@@ -58,6 +61,7 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
     private List executionContextStack;
     private List currentNodes;
     private List<SQLFunctionLibrary.SQLFunctionContext> functionContextStack = new ArrayList<SQLFunctionLibrary.SQLFunctionContext>();
+    private List<StatementBatch> batchStack = new ArrayList<StatementBatch>();
     public static final String SQL_PROCESSOR_CONTEXT = "sql-processor-context"; // used by SQLProcessor and related
 
     public SQLProcessorInterpreterContext(PropertySet propertySet) {
@@ -210,6 +214,26 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         return functionContextStack.isEmpty() ? null : functionContextStack.get(functionContextStack.size() - 1);
     }
 
+    public void pushBatch(StatementBatch batch) {
+        batchStack.add(batch);
+    }
+
+    public StatementBatch popBatch() {
+        return batchStack.remove(batchStack.size() - 1);
+    }
+
+    public StatementBatch getBatchOrNull() {
+        return batchStack.isEmpty() ? null : batchStack.get(batchStack.size() - 1);
+    }
+
+    /**
+     * Execute the pending rows of the batches of the current iteration and of all the enclosing iterations.
+     */
+    public void executePendingBatches() throws SQLException {
+        for (StatementBatch batch : batchStack)
+            batch.executePending();
+    }
+
     public void setResultSet(ResultSet resultSet) {
         final ExecutionContext executionContext = getExecutionContext(0);
         executionContext.resultSet = resultSet;
@@ -322,6 +346,21 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         currentNodes.add(input);
     }
 
+    /**
+     * Reads the data input as SAX, for iterations which don't require the whole input as a document.
+     */
+    public interface DataInputReader {
+        void readDataInput(XMLReceiver xmlReceiver);
+    }
+
+    public DataInputReader getDataInputReader() {
+        return dataInputReader;
+    }
+
+    public void setDataInputReader(DataInputReader dataInputReader) {
+        this.dataInputReader = dataInputReader;
+    }
+
     /**
      * Set optional Datasource object. If null, the configuration has to contain a reference to a
      * datasource.
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.sql;
+
+import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.xml.dom4j.LocationData;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JDBC batch of the updates executed within an iteration of a sql:for-each with a batch-size attribute.
+ *
+ * There is one PreparedStatement per distinct statement string. Rows are added to the batch of their statement, which
+ * is executed every batch-size rows, and at the end of the iteration. This means that rows of different statements
+ * are not interleaved when executed.
+ */
+public class StatementBatch {
+
+    private static class BatchedStatement {
+        public final PreparedStatement statement;
+        public int firstRow = 1;
+        public int pendingRows;
+
+        public BatchedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    private final int batchSize;
+    private final LocationData locationData;
+    private final Map<String, BatchedStatement> statements = new LinkedHashMap<String, BatchedStatement>();
+
+    public StatementBatch(int batchSize, LocationData locationData) {
+        this.batchSize = batchSize;
+        this.locationData = locationData;
+    }
+
+    /**
+     * Return the statement for the given statement string, preparing it the first time.
+     */
+    public PreparedStatement getStatement(Connection connection, String statementString) throws SQLException {
+        BatchedStatement batchedStatement = statements.get(statementString);
+        if (batchedStatement == null) {
+            batchedStatement = new BatchedStatement(connection.prepareStatement(statementString));
+            statements.put(statementString, batchedStatement);
+        }
+        return batchedStatement.statement;
+    }
+
+    /**
+     * Add the current parameters of the statement to its batch, and execute the batch if it is full.
+     */
+    public void addRow(String statementString) throws SQLException {
+        final BatchedStatement batchedStatement = statements.get(statementString);
+        batchedStatement.statement.addBatch();
+        if (++batchedStatement.pendingRows >= batchSize)
+            execute(statementString, batchedStatement);
+    }
+
+    /**
+     * Execute the pending rows of all the statements.
+     */
+    public void executePending() throws SQLException {
+        for (Map.Entry<String, BatchedStatement> entry : statements.entrySet())
+            if (entry.getValue().pendingRows > 0)
+                execute(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Close all the statements, without executing the pending rows.
+     */
+    public void close() throws SQLException {
+        SQLException firstException = null;
+        for (Iterator<BatchedStatement> i = statements.values().iterator(); i.hasNext();) {
+            try {
+                i.next().statement.close();
+            } catch (SQLException e) {
+                if (firstException == null)
+                    firstException = e;
+            }
+            i.remove();
+        }
+        if (firstException != null)
+            throw firstException;
+    }
+
+    private void execute(String statementString, BatchedStatement batchedStatement) throws SQLException {
+
+        final int firstRow = batchedStatement.firstRow;
+        final int lastRow = firstRow + batchedStatement.pendingRows - 1;
+
+        batchedStatement.firstRow = lastRow + 1;
+        batchedStatement.pendingRows = 0;
+
+        if (SQLProcessor.logger.isDebugEnabled())
+            SQLProcessor.logger.debug("Executing batch of rows " + firstRow + " to " + lastRow + ", statement = " + statementString);
+
+        try {
+            batchedStatement.statement.executeBatch();
+        } catch (BatchUpdateException e) {
+            final int[] updateCounts = e.getUpdateCounts();
+            throw new ValidationException(
+                "Batch of rows " + firstRow + " to " + lastRow + " failed" + describeFailedRows(firstRow, lastRow, updateCounts)
+                    + ", statement = " + statementString + ": " + e.getMessage(),
+                e,
+                locationData
+            );
+        }
+    }
+
+    // Drivers either stop at the first failed row, or continue and mark the failed rows
+    private static String describeFailedRows(int firstRow, int lastRow, int[] updateCounts) {
+        if (updateCounts == null)
+            return "";
+
+        if (firstRow + updateCounts.length <= lastRow)
+            return " at row " + (firstRow + updateCounts.length);
+
+        final StringBuilder failedRows = new StringBuilder();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                failedRows.append(failedRows.length() == 0 ? " at rows " : ", ");
+                failedRows.append(firstRow + i);
+            }
+        }
+        return failedRows.toString();
+    }
+}
@@ -13,18 +13,36 @@
  */
 package org.orbeon.oxf.processor.sql.interpreters;
 
+import org.dom4j.Element;
 import org.dom4j.Node;
+import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.sql.SQLFunctionLibrary;
 import org.orbeon.oxf.processor.sql.SQLProcessor;
 import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
+import org.orbeon.oxf.processor.sql.StatementBatch;
+import org.orbeon.oxf.xml.StreamingPathReceiver;
 import org.orbeon.oxf.xml.XPathUtils;
+import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
+import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.Map;
 
+/**
+ * Interpreter for sql:for-each.
+ *
+ * With batch-size="n", the updates executed within the iteration are sent to the database with JDBC batches of n rows.
+ *
+ * With streaming="true", the select attribute must be a simple absolute path such as /rows/row, and the data input is
+ * read as SAX: each matching element is built as a separate document and the iteration runs as soon as the element
+ * ends. Expressions within the iteration can only access the iterated element and its content.
+ */
 public class ForEachInterpreter extends SQLProcessor.InterpreterContentHandler {
 
+    private int currentPosition;
+
     public ForEachInterpreter(SQLProcessorInterpreterContext interpreterContext) {
         // Repeating interpreter
         super(interpreterContext, true);
@@ -37,43 +55,107 @@ public class ForEachInterpreter extends SQLProcessor.InterpreterContentHandler {
 
         // Get attributes
         final String select = attributes.getValue("select");
+        final boolean streaming = "true".equals(attributes.getValue("streaming"));
+        final int batchSize = getBatchSize(attributes.getValue("batch-size"));
 
         final SQLProcessorInterpreterContext interpreterContext = getInterpreterContext();
 
-        // Iterate through the result set
-        int currentPosition = 1;
-
-        final Iterator<Node> it =
-            XPathUtils.selectNodeIterator(
-                interpreterContext.getCurrentNode(),
-                select,
-                interpreterContext.getPrefixesMap(),
-                SQLFunctionLibrary.instance(),
-                interpreterContext.getFunctionContextOrNull()
-            );
-
-        for (; it.hasNext(); currentPosition++) {
-            final Node currentNode  = it.next();
-
-            final SQLFunctionLibrary.SQLFunctionContext functionContextOrNull = interpreterContext.getFunctionContextOrNull();
-
-            interpreterContext.pushFunctionContext(
-                new SQLFunctionLibrary.SQLFunctionContext(
-                    currentNode,
-                    currentPosition,
-                    functionContextOrNull == null ? null : functionContextOrNull.getColumn()
-                )
-            );
-            try {
-                // Run one iteration
-                interpreterContext.pushCurrentNode(currentNode);
-                repeatBody();
-                interpreterContext.popCurrentNode();
-            } finally {
-                interpreterContext.popFunctionContext();
+        final StatementBatch batch = batchSize > 0 ? new StatementBatch(batchSize, new LocationData(getDocumentLocator())) : null;
+        if (batch != null)
+            interpreterContext.pushBatch(batch);
+
+        currentPosition = 1;
+        boolean success = false;
+        try {
+            // Rows added by enclosing iterations are executed before the rows of this iteration
+            if (batch != null)
+                interpreterContext.executePendingBatches();
+
+            if (streaming) {
+                // Iterate through the elements as they are read
+                interpreterContext.getDataInputReader().readDataInput(new StreamingPathReceiver(getStreamingPath(select)) {
+                    protected void element(Element element) throws SAXException {
+                        runIteration(element);
+                    }
+                });
+            } else {
+                // Iterate through the selected nodes
+                final Iterator<Node> it =
+                    XPathUtils.selectNodeIterator(
+                        interpreterContext.getCurrentNode(),
+                        select,
+                        interpreterContext.getPrefixesMap(),
+                        SQLFunctionLibrary.instance(),
+                        interpreterContext.getFunctionContextOrNull()
+                    );
+
+                while (it.hasNext())
+                    runIteration(it.next());
+            }
+
+            if (batch != null)
+                batch.executePending();
+
+            success = true;
+        } catch (SQLException e) {
+            throw new ValidationException(e, new LocationData(getDocumentLocator()));
+        } finally {
+            if (batch != null) {
+                interpreterContext.popBatch();
+                try {
+                    batch.close();
+                } catch (SQLException e) {
+                    // Don't hide the exception which caused the iteration to fail
+                    if (success)
+                        throw new ValidationException(e, new LocationData(getDocumentLocator()));
+                }
             }
         }
     }
 
     public void end(String uri, String localname, String qName) throws SAXException {}
+
+    private void runIteration(Node currentNode) throws SAXException {
+
+        final SQLProcessorInterpreterContext interpreterContext = getInterpreterContext();
+        final SQLFunctionLibrary.SQLFunctionContext functionContextOrNull = interpreterContext.getFunctionContextOrNull();
+
+        interpreterContext.pushFunctionContext(
+            new SQLFunctionLibrary.SQLFunctionContext(
+                currentNode,
+                currentPosition++,
+                functionContextOrNull == null ? null : functionContextOrNull.getColumn()
+            )
+        );
+        try {
+            // Run one iteration
+            interpreterContext.pushCurrentNode(currentNode);
+            repeatBody();
+            interpreterContext.popCurrentNode();
+        } finally {
+            interpreterContext.popFunctionContext();
+        }
+    }
+
+    private int getBatchSize(String batchSizeString) {
+        if (batchSizeString == null)
+            return 0;
+        try {
+            final int batchSize = Integer.parseInt(batchSizeString.trim());
+            if (batchSize < 1)
+                throw new ValidationException("batch-size attribute must be 1 or greater", new LocationData(getDocumentLocator()));
+            return batchSize;
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid batch-size attribute: " + batchSizeString, new LocationData(getDocumentLocator()));
+        }
+    }
+
+    // Return the names to match at each level, as exploded QNames, or null for any element
+    private String[] getStreamingPath(String select) {
+        try {
+            return StreamingPathReceiver.getNames(select, (Map<String, String>) getInterpreterContext().getPrefixesMap());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(e.getMessage(), new LocationData(getDocumentLocator()));
+        }
+    }
 }
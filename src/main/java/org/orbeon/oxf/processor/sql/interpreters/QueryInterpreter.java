@@ -21,6 +21,7 @@ import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.sql.SQLFunctionLibrary;
 import org.orbeon.oxf.processor.sql.SQLProcessor;
 import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
+import org.orbeon.oxf.processor.sql.StatementBatch;
 import org.orbeon.oxf.util.Base64XMLReceiver;
 import org.orbeon.oxf.util.DateUtils;
 import org.orbeon.oxf.util.NetUtils;
@@ -166,18 +167,29 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
             throw new ValidationException("Missing query", new LocationData(getDocumentLocator()));
         // Execute query
         try {
+            // Updates within a sql:for-each with a batch-size are batched, unless the query is modified at each iteration
+            final StatementBatch batch = getInterpreterContext().getBatchOrNull();
+            final boolean isBatched = batch != null && type == UPDATE && !hasReplaceOrSeparator;
+
+            // Pending updates, including those of enclosing iterations, must be visible to other statements
+            if (batch != null && !isBatched)
+                getInterpreterContext().executePendingBatches();
+
             // Create a single PreparedStatement if the query is not modified at each iteration
             PreparedStatement stmt = null;
             if (!hasReplaceOrSeparator) {
                 final String queryString = query.toString();
-                if (type != CALL) {
+                if (isBatched) {
+                    // The statement is owned by the batch, so it is not set on the execution context
+                    stmt = batch.getStatement(getInterpreterContext().getConnection(), queryString);
+                } else if (type != CALL) {
                     // TODO: see how we can support this: Statement.RETURN_GENERATED_KEYS
                     stmt = getInterpreterContext().getConnection().prepareStatement(queryString);
                 } else
                     stmt = getInterpreterContext().getConnection().prepareCall(queryString);
                 getInterpreterContext().setStatementString(queryString);
             }
-            getInterpreterContext().setStatement(stmt);
+            getInterpreterContext().setStatement(isBatched ? null : stmt);
             int nodeCount = 1;
             // Iterate through all source nodes (only one if "select" attribute is missing)
             for (Iterator j = (nodeIterator != null) ? nodeIterator : Collections.singletonList(getInterpreterContext().getCurrentNode()).iterator(); j.hasNext(); nodeCount++) {
@@ -581,6 +593,9 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                                 "statement = " + getInterpreterContext().getStatementSHA());
                     final boolean hasResultSet = stmt.execute();
                     ResultSetInterpreter.setResultSetInfo(getInterpreterContext(), stmt, hasResultSet);
+                } else if (isBatched) {
+                    // Update counts and generated keys are not available for batched updates
+                    batch.addRow(getInterpreterContext().getStatementString());
                 } else if (type == UPDATE) {
                     // We know there is only a possible update count
                     final int updateCount = stmt.executeUpdate();
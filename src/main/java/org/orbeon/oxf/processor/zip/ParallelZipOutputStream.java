@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.zip;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.util.ParallelTasks;
+
+import java.io.*;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Zip archive writer which compresses up to n entries at the same time on other threads, and writes them in order.
+ *
+ * ZipOutputStream can't write entries which are already compressed, so this writes the zip format itself. As the CRC
+ * and sizes of each entry are known before the entry is written, entries don't need a data descriptor. Zip64 is not
+ * supported, so archives are limited to 65535 entries and 4 GB.
+ */
+class ParallelZipOutputStream {
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private static final int VERSION = 20;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static class CompressedEntry {
+        byte[] name;
+        long dosTime;
+        long crc;
+        long size;
+        ByteArrayOutputStream data;
+    }
+
+    private final OutputStream out;
+    private final int parallelism;
+    private final LinkedList<Future<CompressedEntry>> pending = new LinkedList<Future<CompressedEntry>>();
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+
+    private long offset;
+    private int entryCount;
+
+    public ParallelZipOutputStream(OutputStream out, int parallelism) {
+        this.out = out;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Start compressing the file, and write the oldest entries if n entries are already being compressed.
+     */
+    public void putEntry(final String name, final File file) throws IOException {
+        while (pending.size() >= parallelism)
+            writeNext();
+
+        pending.add(ParallelTasks.DefaultExecutor().submit(new Callable<CompressedEntry>() {
+            public CompressedEntry call() throws IOException {
+                return compress(name, file);
+            }
+        }));
+    }
+
+    /**
+     * Write the remaining entries and the central directory.
+     */
+    public void finish() throws IOException {
+        while (! pending.isEmpty())
+            writeNext();
+
+        final long centralDirectoryOffset = offset;
+        centralDirectory.writeTo(out);
+        offset += centralDirectory.size();
+        checkLimits();
+
+        // End of central directory record
+        writeInt(out, 0x06054b50L);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, entryCount);
+        writeShort(out, entryCount);
+        writeInt(out, centralDirectory.size());
+        writeInt(out, centralDirectoryOffset);
+        writeShort(out, 0);
+        out.flush();
+    }
+
+    /**
+     * Stop compressing the pending entries, after a failure.
+     */
+    public void cancel() {
+        for (final Future<CompressedEntry> future : pending)
+            future.cancel(true);
+        pending.clear();
+    }
+
+    private void writeNext() throws IOException {
+        final CompressedEntry entry;
+        try {
+            entry = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new OXFException(e.getCause());
+        }
+
+        final long localHeaderOffset = offset;
+
+        // Local file header
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeInt(header, 0x04034b50L);
+        writeShort(header, VERSION);
+        writeEntryInfo(header, entry);
+        writeShort(header, 0);
+        header.write(entry.name);
+        header.writeTo(out);
+        entry.data.writeTo(out);
+        offset += header.size() + entry.data.size();
+
+        // Central directory file header
+        writeInt(centralDirectory, 0x02014b50L);
+        writeShort(centralDirectory, VERSION);
+        writeShort(centralDirectory, VERSION);
+        writeEntryInfo(centralDirectory, entry);
+        writeShort(centralDirectory, 0);
+        writeShort(centralDirectory, 0);
+        writeShort(centralDirectory, 0);
+        writeShort(centralDirectory, 0);
+        writeInt(centralDirectory, 0);
+        writeInt(centralDirectory, localHeaderOffset);
+        centralDirectory.write(entry.name);
+
+        entryCount++;
+        checkLimits();
+    }
+
+    // Fields common to the local and central headers, from the flags to the name length
+    private static void writeEntryInfo(OutputStream os, CompressedEntry entry) throws IOException {
+        writeShort(os, FLAG_UTF8);
+        writeShort(os, METHOD_DEFLATED);
+        writeInt(os, entry.dosTime);
+        writeInt(os, entry.crc);
+        writeInt(os, entry.data.size());
+        writeInt(os, entry.size);
+        writeShort(os, entry.name.length);
+    }
+
+    private void checkLimits() {
+        if (entryCount > MAX_ENTRIES || offset > MAX_32)
+            throw new OXFException("Zip archive too large to be written with parallelism, entries: " + entryCount + ", size: " + offset);
+    }
+
+    private static CompressedEntry compress(String name, File file) throws IOException {
+        final CompressedEntry entry = new CompressedEntry();
+        entry.name = name.getBytes("UTF-8");
+        entry.dosTime = toDosTime(file.lastModified());
+        entry.data = new ByteArrayOutputStream();
+
+        final CRC32 crc = new CRC32();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final InputStream fileInputStream = new FileInputStream(file);
+        try {
+            final DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(entry.data, deflater);
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = fileInputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+                deflaterOutputStream.write(buffer, 0, count);
+                entry.size += count;
+            }
+            deflaterOutputStream.finish();
+        } finally {
+            fileInputStream.close();
+            deflater.end();
+        }
+        entry.crc = crc.getValue();
+
+        if (entry.size > MAX_32 || entry.data.size() > MAX_32)
+            throw new OXFException("File too large to be written with parallelism: " + file);
+
+        return entry;
+    }
+
+    // Same conversion as ZipEntry
+    private static long toDosTime(long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return (long) (year - 1980) << 25
+            | (calendar.get(Calendar.MONTH) + 1) << 21
+            | calendar.get(Calendar.DAY_OF_MONTH) << 16
+            | calendar.get(Calendar.HOUR_OF_DAY) << 11
+            | calendar.get(Calendar.MINUTE) << 5
+            | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static void writeShort(OutputStream os, int value) throws IOException {
+        os.write(value & 0xff);
+        os.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream os, long value) throws IOException {
+        writeShort(os, (int) (value & 0xffff));
+        writeShort(os, (int) ((value >>> 16) & 0xffff));
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.zip;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.resources.ResourceManagerWrapper;
+import org.orbeon.oxf.resources.URLFactory;
+import org.orbeon.oxf.util.NetUtils;
+import org.orbeon.oxf.xml.XMLReceiverAdapter;
+import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import java.io.*;
+import java.net.URL;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Write the files listed in a <files> document as a zip archive to an output stream, as the document is read.
+ *
+ * Each entry is written as soon as its <file> element ends, so the archive is never in memory. With parallelism="n" on
+ * <files>, up to n entries are compressed at the same time on other threads, and then written in order.
+ *
+ * The output stream is not closed.
+ */
+public class ZipFilesWriter extends XMLReceiverAdapter {
+
+    private final OutputStream outputStream;
+    private final LocationData locationData;
+
+    private String fileName;
+    private int statusCode = -1;
+
+    private ZipOutputStream zipOutputStream;
+    private ParallelZipOutputStream parallelZipOutputStream;
+
+    private String name;
+    private StringBuilder uri;
+
+    public ZipFilesWriter(OutputStream outputStream, LocationData locationData) {
+        this.outputStream = outputStream;
+        this.locationData = locationData;
+    }
+
+    /**
+     * Called with the filename and status-code attributes of <files>, before anything is written to the output stream.
+     */
+    protected void startFiles(String fileName, int statusCode) {
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // Get the file name, store it
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException {
+        if ("file".equals(localName)) {
+            name = atts.getValue("name");
+            uri = new StringBuilder();
+        } else if ("files".equals(localName)) {
+            fileName = atts.getValue("filename");
+            final String statusCodeValue = atts.getValue("status-code");
+            if (statusCodeValue != null)
+                statusCode = Integer.parseInt(statusCodeValue);
+
+            startFiles(fileName, statusCode);
+
+            final int parallelism = getParallelism(atts.getValue("parallelism"));
+            if (parallelism > 1)
+                parallelZipOutputStream = new ParallelZipOutputStream(outputStream, parallelism);
+            else
+                zipOutputStream = new ZipOutputStream(outputStream);
+        }
+    }
+
+    // Get the URI to the file, store it
+    @Override
+    public void characters(char ch[], int start, int length) throws SAXException {
+        if (uri != null)
+            uri.append(ch, start, length);
+    }
+
+    // Process file
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException {
+        try {
+            if ("file".equals(localName)) {
+                final File file = getFile(uri.toString());
+                if (parallelZipOutputStream != null) {
+                    parallelZipOutputStream.putEntry(name, file);
+                } else {
+                    // Use the time of the file rather than the current time, so that the archive only depends on the files
+                    final ZipEntry entry = new ZipEntry(name);
+                    entry.setTime(file.lastModified());
+                    zipOutputStream.putNextEntry(entry);
+                    final InputStream fileInputStream = new FileInputStream(file);
+                    try {
+                        NetUtils.copyStream(fileInputStream, zipOutputStream);
+                    } finally {
+                        fileInputStream.close();
+                    }
+                }
+                uri = null;
+            } else if ("files".equals(localName)) {
+                if (parallelZipOutputStream != null)
+                    parallelZipOutputStream.finish();
+                else
+                    zipOutputStream.finish();
+            }
+        } catch (IOException e) {
+            if (parallelZipOutputStream != null)
+                parallelZipOutputStream.cancel();
+            throw new OXFException(e);
+        } catch (RuntimeException e) {
+            if (parallelZipOutputStream != null)
+                parallelZipOutputStream.cancel();
+            throw e;
+        }
+    }
+
+    private File getFile(String uri) {
+        final String realPath;
+
+        final URL fullURL = (locationData != null && locationData.getSystemID() != null)
+            ? URLFactory.createURL(locationData.getSystemID(), uri)
+            : URLFactory.createURL(uri);
+
+        if (fullURL.getProtocol().equals("oxf")) {
+            // Get real path to resource path if possible
+            realPath = ResourceManagerWrapper.instance().getRealPath(fullURL.getFile());
+            if (realPath == null)
+                throw new OXFException("Zip processor is unable to obtain the real path of the file using the oxf: protocol for the base-directory property: " + uri);
+        } else if (fullURL.getProtocol().equals("file")) {
+            String host = fullURL.getHost();
+            realPath = host + (host.length() > 0 ? ":" : "") + fullURL.getFile();
+        } else {
+            throw new OXFException("Zip processor only supports the file: and oxf: protocols for the base-directory property: " + uri);
+        }
+
+        return new File(realPath);
+    }
+
+    private int getParallelism(String parallelismValue) {
+        if (parallelismValue == null)
+            return 1;
+        try {
+            final int parallelism = Integer.parseInt(parallelismValue.trim());
+            if (parallelism < 1)
+                throw new ValidationException("parallelism attribute must be 1 or greater", locationData);
+            return parallelism;
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid parallelism attribute: " + parallelismValue, locationData);
+        }
+    }
+}
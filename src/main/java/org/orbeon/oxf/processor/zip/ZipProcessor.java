@@ -19,19 +19,15 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.processor.*;
-import org.orbeon.oxf.resources.ResourceManagerWrapper;
-import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.util.NetUtils;
-import org.orbeon.oxf.xml.XMLReceiverAdapter;
-import org.orbeon.oxf.xml.dom4j.LocationData;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
 
 import java.io.*;
-import java.net.URL;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+/**
+ * Produce a zip archive of the files listed in the data input, as a binary document.
+ *
+ * The archive is written to a temporary file first. To write the archive directly to the response, use ZipSerializer.
+ */
 public class ZipProcessor extends ProcessorImpl {
 
     public ZipProcessor() {
@@ -43,9 +39,6 @@ public class ZipProcessor extends ProcessorImpl {
     public ProcessorOutput createOutput(String name) {
         final ProcessorOutput output = new ProcessorOutputImpl(ZipProcessor.this, name) {
 
-            String fileName = null;
-            int statusCode = -1;
-
             public void readImpl(PipelineContext context, XMLReceiver xmlReceiver) {
                 try {
                     // Create temporary zip file
@@ -53,82 +46,20 @@ public class ZipProcessor extends ProcessorImpl {
                     fileItem.getOutputStream().close();
                     final File temporaryZipFile = ((DiskFileItem) fileItem).getStoreLocation();
                     temporaryZipFile.createNewFile();
-                    final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(temporaryZipFile));
+                    final OutputStream fileOutputStream = new FileOutputStream(temporaryZipFile);
 
+                    // Read list of files and write to zip output stream as we go
+                    final ZipFilesWriter zipFilesWriter = new ZipFilesWriter(fileOutputStream, getLocationData());
                     try {
-                        // Read list of files and write to zip output stream as we go
-                        readInputAsSAX(context, INPUT_DATA, new XMLReceiverAdapter() {
-
-                            String name;
-                            StringBuilder uri;
-
-                            // Get the file name, store it
-                            @Override
-                            public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException {
-                                if ("file".equals(localName)) {
-                                    name = atts.getValue("name");
-                                    uri = new StringBuilder();
-                                } else if ("files".equals(localName)) {
-                                    fileName = atts.getValue("filename");
-                                    String value = atts.getValue("status-code");
-                                    if (value != null ) {
-                                        statusCode = Integer.parseInt(value);
-                                    }
-                                }
-                            }
-
-                            // Get the URI to the file, store it
-                            @Override
-                            public void characters(char ch[], int start, int length) throws SAXException {
-                                if (uri != null)
-                                    uri.append(ch, start, length);
-                            }
-
-                            // Process file
-                            @Override
-                            public void endElement(String namespaceURI, String localName, String qName) throws SAXException {
-                                try {
-                                    if ("file".equals(localName)) {
-                                        zipOutputStream.putNextEntry(new ZipEntry(name));
-                                        final LocationData locationData = getLocationData();
-                                        final String realPath;
-
-                                        final URL fullURL = (locationData != null && locationData.getSystemID() != null)
-                                            ? URLFactory.createURL(locationData.getSystemID(), uri.toString())
-                                            : URLFactory.createURL(uri.toString());
-
-                                        if (fullURL.getProtocol().equals("oxf")) {
-                                            // Get real path to resource path if possible
-                                            realPath = ResourceManagerWrapper.instance().getRealPath(fullURL.getFile());
-                                            if (realPath == null)
-                                                throw new OXFException("Zip processor is unable to obtain the real path of the file using the oxf: protocol for the base-directory property: " + uri.toString());
-                                        } else if (fullURL.getProtocol().equals("file")) {
-                                            String host = fullURL.getHost();
-                                            realPath = host + (host.length() > 0 ? ":" : "") + fullURL.getFile();
-                                        } else {
-                                            throw new OXFException("Zip processor only supports the file: and oxf: protocols for the base-directory property: " + uri.toString());
-                                        }
-
-                                        InputStream fileInputStream = new FileInputStream(new File(realPath));
-                                        try {
-                                            NetUtils.copyStream(fileInputStream, zipOutputStream);
-                                        } finally {
-                                            fileInputStream.close();
-                                        }
-                                    }
-                                } catch (IOException e) {
-                                    throw new OXFException(e);
-                                }
-                            }
-                        });
+                        readInputAsSAX(context, INPUT_DATA, zipFilesWriter);
                     } finally {
-                        zipOutputStream.close();
+                        fileOutputStream.close();
                     }
 
                     // Generate an Orbeon binary document with the content of the zip file
                     FileInputStream zipInputStream = new FileInputStream(temporaryZipFile);
                     try {
-                        ProcessorUtils.readBinary(zipInputStream, xmlReceiver, "multipart/x-gzip", null, statusCode, fileName);
+                        ProcessorUtils.readBinary(zipInputStream, xmlReceiver, "multipart/x-gzip", null, zipFilesWriter.getStatusCode(), zipFilesWriter.getFileName());
                     } finally {
                         zipInputStream.close();
                     }
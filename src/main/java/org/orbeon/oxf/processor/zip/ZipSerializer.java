@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.zip;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.ProcessorInput;
+import org.orbeon.oxf.processor.serializer.HttpSerializer;
+import org.orbeon.oxf.processor.serializer.HttpSerializerBase;
+
+import java.io.IOException;
+
+/**
+ * Write a zip archive of the files listed in the data input directly to the response, as the entries are produced.
+ *
+ * The data input is the same as for ZipProcessor, and the config input is the same as for the HTTP serializer.
+ */
+public class ZipSerializer extends HttpSerializerBase {
+
+    public static final String DEFAULT_CONTENT_TYPE = "application/zip";
+
+    protected String getDefaultContentType() {
+        return DEFAULT_CONTENT_TYPE;
+    }
+
+    protected String getConfigSchemaNamespaceURI() {
+        return HttpSerializer.HTTP_SERIALIZER_CONFIG_NAMESPACE_URI;
+    }
+
+    @Override
+    protected Config readConfig(PipelineContext context) {
+        // Never keep the archive in the cache, as the files could have changed even if the list of files hasn't, and as
+        // this would keep the whole archive in memory
+        final Config config = super.readConfig(context);
+        config.cacheUseLocalCache = false;
+        return config;
+    }
+
+    protected void readInput(PipelineContext context, final ExternalContext.Response response, ProcessorInput input, Object config) {
+        final Config httpConfig = (Config) config;
+        try {
+            readInputAsSAX(context, input, new ZipFilesWriter(response.getOutputStream(), getLocationData()) {
+                @Override
+                protected void startFiles(String fileName, int statusCode) {
+                    response.setContentType(getContentType(httpConfig, null, getDefaultContentType()));
+                    if (fileName != null)
+                        response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+                    if (statusCode > 0)
+                        response.setStatus(statusCode);
+                }
+            });
+        } catch (IOException e) {
+            throw new OXFException(e);
+        }
+    }
+}
@@ -25,6 +25,10 @@ import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.PipelineUtils;
 
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class provides access to global, configurable properties, as well as to processor-specific properties. This is
@@ -37,6 +41,9 @@ import java.util.Set;
  *   <property as="xs:string"  processor-name="oxf:page-flow" name="instance-passing" value="redirect"/>
  *
  * </properties>
+ *
+ * Properties are immutable snapshots, which a background thread replaces when the properties resource changes. So
+ * accessing properties never checks or reloads anything on the calling thread.
  */
 public class Properties {
 
@@ -50,22 +57,24 @@ public class Properties {
     /**
      * The global Properties instance.
      */
-    private static Properties instance;
-    private static String propertiesURI = DEFAULT_PROPERTIES_URI;
-    private static boolean initializing = false;
+    private static volatile Properties instance;
+    private static volatile String propertiesURI = DEFAULT_PROPERTIES_URI;
+    private static ScheduledExecutorService refresher;
 
     /**
-     * The property store.
+     * The current property store, replaced as a whole when properties are reloaded.
      */
-    private PropertyStore propertyStore = null;
+    private volatile PropertyStore propertyStore = null;
 
-    // Used for refresh
+    // Used for refresh, only by update()
+    private final String uri;
     private Processor urlGenerator;
     private DOMSerializer domSerializer;
     private long lastUpdate = Long.MIN_VALUE;
 
-    private Properties() {
-        // Don't allow creation from outside
+    // Only created by instance(), and by tests
+    Properties(String uri) {
+        this.uri = uri;
     }
 
     /**
@@ -77,10 +86,11 @@ public class Properties {
     }
 
     /**
-     * Invalidate all properties (for testing).
+     * Invalidate all properties (for testing). The refresher is stopped too, and starts again with the next instance.
      */
-    public static void invalidate() {
+    public static synchronized void invalidate() {
         instance = null;
+        stopRefresher();
     }
 
     /**
@@ -89,95 +99,126 @@ public class Properties {
      * @return Properties
      */
     public static Properties instance() {
-        if (instance == null) {
-            instance = new Properties();
-            instance.update();
+        final Properties currentInstance = instance;
+        if (currentInstance != null)
+            return currentInstance;
+
+        synchronized (Properties.class) {
+            if (instance == null) {
+                final Properties newInstance = new Properties(propertiesURI);
+                newInstance.update();
+                instance = newInstance;
+                startRefresher();
+            }
+            return instance;
+        }
+    }
+
+    // Check for changes on a single daemon thread, for whichever instance is current
+    private static void startRefresher() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "orbeon-properties-refresher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    final Properties currentInstance = instance;
+                    if (currentInstance != null)
+                        currentInstance.update();
+                }
+            }, RELOAD_DELAY, RELOAD_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop checking for changes, when the web app is destroyed. Checking starts again when a new instance is created.
+     */
+    public static synchronized void stopRefresher() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
         }
-        return instance;
     }
 
     /**
      * Make sure we have the latest properties, and if we don't (resource changed), reload them.
      */
-    private void update() {
-        if (!initializing) {
-            done:
-            try {
-                initializing = true;
-                final long current = System.currentTimeMillis();
-
-                if (lastUpdate + RELOAD_DELAY >= current) break done;
-
-                // Create mini-pipeline to read properties if needed
-                if (urlGenerator == null) {
-                    urlGenerator = PipelineUtils.createURLGenerator(propertiesURI, true);// enable XInclude too
-                    domSerializer = new DOMSerializer();
-                    PipelineUtils.connect(urlGenerator, ProcessorImpl.OUTPUT_DATA, domSerializer, ProcessorImpl.INPUT_DATA);
-                }
+    synchronized void update() {
+        final long current = System.currentTimeMillis();
+
+        // Create mini-pipeline to read properties if needed
+        if (urlGenerator == null) {
+            urlGenerator = PipelineUtils.createURLGenerator(uri, true);// enable XInclude too
+            domSerializer = new DOMSerializer();
+            PipelineUtils.connect(urlGenerator, ProcessorImpl.OUTPUT_DATA, domSerializer, ProcessorImpl.INPUT_DATA);
+        }
 
-                // Initialize pipeline
-                // Candidate for Scala withPipelineContext
-                final PipelineContext pipelineContext = new PipelineContext();
-                boolean success = false;
-                try {
-                    urlGenerator.reset(pipelineContext);
-                    domSerializer.reset(pipelineContext);
-
-                    // Find whether we can skip reloading
-                    if (propertyStore != null && domSerializer.findInputLastModified(pipelineContext) <= lastUpdate) {
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("Not reloading properties because they have not changed.");
-                        }
-                        lastUpdate = current;
-                        success = true;
-                        break done;
-                    }
-
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Reloading properties because timestamp indicates they may have changed.");
-                    }
-
-                    // Read updated properties document
-                    final Document document = domSerializer.runGetDocument(pipelineContext);
-
-                    if (document == null || document.content() == null || document.content().size() == 0) {
-                        throw new OXFException("Failure to initialize Orbeon Forms properties");
-                    }
-
-                    propertyStore = new PropertyStore(document);
-
-                    lastUpdate = current;
-
-                    success = true;
-                } catch (Throwable t) {
-                    System.out.println(t);
-                } finally {
-                    pipelineContext.destroy(success);
+        // Initialize pipeline
+        // Candidate for Scala withPipelineContext
+        final PipelineContext pipelineContext = new PipelineContext();
+        boolean success = false;
+        try {
+            urlGenerator.reset(pipelineContext);
+            domSerializer.reset(pipelineContext);
+
+            // Find whether we can skip reloading
+            if (propertyStore != null && domSerializer.findInputLastModified(pipelineContext) <= lastUpdate) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Not reloading properties because they have not changed.");
                 }
-            } finally {
-                initializing = false;
+                lastUpdate = current;
+                success = true;
+                return;
             }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Reloading properties because timestamp indicates they may have changed.");
+            }
+
+            // Read updated properties document
+            final Document document = domSerializer.runGetDocument(pipelineContext);
+
+            if (document == null || document.content() == null || document.content().size() == 0) {
+                throw new OXFException("Failure to initialize Orbeon Forms properties");
+            }
+
+            // Readers see either the old or the new store, never a partially built one
+            propertyStore = new PropertyStore(document);
+
+            lastUpdate = current;
+
+            success = true;
+        } catch (Throwable t) {
+            // Keep the current properties, if any
+            logger.error("Failure to reload properties", t);
+        } finally {
+            pipelineContext.destroy(success);
         }
     }
 
     public PropertySet getPropertySet() {
-        if (propertyStore == null)
+        final PropertyStore currentPropertyStore = propertyStore;
+        if (currentPropertyStore == null)
             return null;
-        update();
-        return propertyStore.getGlobalPropertySet();
+        return currentPropertyStore.getGlobalPropertySet();
     }
 
     public PropertySet getPropertySet(final QName processorName) {
-        if (propertyStore == null)
+        final PropertyStore currentPropertyStore = propertyStore;
+        if (currentPropertyStore == null)
             return null;
-        update();
-        return propertyStore.getProcessorPropertySet(processorName);
+        return currentPropertyStore.getProcessorPropertySet(processorName);
     }
 
     public Set keySet() {
-        if (propertyStore == null)
+        final PropertyStore currentPropertyStore = propertyStore;
+        if (currentPropertyStore == null)
             return null;
 
-        return propertyStore.getGlobalPropertySet().keySet();
+        return currentPropertyStore.getGlobalPropertySet().keySet();
     }
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util.task;
+
+/**
+ * What the TaskScheduler does when a periodic task is due while a previous run of the same task hasn't completed.
+ */
+public enum OverlapPolicy {
+
+    /** Don't run the task this time */
+    SKIP,
+
+    /** Run the task once the previous run has completed, keeping at most one pending run and dropping the others */
+    QUEUE,
+
+    /** Run the task right away, at the same time as the previous runs */
+    CONCURRENT;
+
+    public static OverlapPolicy fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -78,9 +78,8 @@ public abstract class Task implements Runnable, Externalizable {
      * <b>Periodic</b><br>
      * The task is scheduled for repeated periodic execution, beginning at the specified time.
      * Once a task starts running, the next occurrence of the task will start running <i>interval</i>
-     * time later. It is possible for one event-firing of the task (if it runs too long) will overlap
-     * another event-firing of that same task. If this is not desired, then the task should
-     * synchronize within its run() method.
+     * time later. If the task runs too long, what happens to the next event-firing of the task
+     * depends on the overlap policy of the task. See getOverlapPolicy().
      * <p>
      * This method can only be called once. Calling it more than once
      * will cause an exception.
@@ -151,6 +150,17 @@ public abstract class Task implements Runnable, Externalizable {
     }
 
 
+    /**
+     * What the TaskScheduler does when the task is due while a previous run hasn't completed yet.
+     * By default, runs of the task can overlap. Tasks should override this method otherwise.
+     *
+     * @return the overlap policy of the task
+     */
+    public OverlapPolicy getOverlapPolicy() {
+        return OverlapPolicy.CONCURRENT;
+    }
+
+
     /**
      * Calling this method notifies the TaskScheduler (if the task has been scheduled)
      * and forces it to persist this task's data.
@@ -16,14 +16,26 @@ package org.orbeon.oxf.util.task;
 // imports
 
 import org.apache.log4j.Logger;
+import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.webapp.WebAppContext;
 import org.orbeon.oxf.webapp.WebAppListener;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -34,6 +46,13 @@ import java.util.TimerTask;
  * the abstract methods ( e.g. its run() method ).
  * </p>
  * <p>
+ * A single thread triggers the tasks when they are due, and the tasks run on a pool of
+ * oxf.scheduler.thread-pool-size threads. So a slow task doesn't delay the other tasks
+ * unless all the threads are busy, and an exception in a task doesn't affect the other tasks.
+ * The statistics of each task are registered as an MBean named
+ * org.orbeon.oxf:type=ScheduledTask,name=[task name],id=[task ID].
+ * </p>
+ * <p>
  * Persistence of the Task objects allows the TaskScheduler to be shutdown and
  * restarted with all the scheduled tasks read from storage.
  * </p>
@@ -47,21 +66,35 @@ public class TaskScheduler {
 
     private static Logger logger = LoggerFactory.createLogger(TaskScheduler.class);
 
+    public static final String THREAD_POOL_SIZE_PROPERTY = "oxf.scheduler.thread-pool-size";
+    public static final int DEFAULT_THREAD_POOL_SIZE = 4;
+
+    private static final String MBEAN_DOMAIN = "org.orbeon.oxf";
+
     // instance variables
-    private Timer schedulerThread;
-    private ArrayList taskList;
+    private final int threadPoolSize;
+    private ScheduledExecutorService triggerExecutor;
+    private ExecutorService runExecutor;
+    private Map<Task, RunTask> taskList;
     private long initTime;
 
     private TaskPersistStrategy persistStrategy = null;
 
 
     /**
-     * Create a task scheduler with a default thread pool size.
+     * Create a task scheduler with the given thread pool size.
      */
-    private TaskScheduler() {
-        schedulerThread = new Timer(false);
+    TaskScheduler(int threadPoolSize) {
+        this.threadPoolSize = threadPoolSize;
+        createExecutors();
         initTime = System.currentTimeMillis();
-        taskList = new ArrayList();
+        taskList = new LinkedHashMap<Task, RunTask>();
+    }
+
+
+    private void createExecutors() {
+        triggerExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("orbeon-scheduler-trigger"));
+        runExecutor = Executors.newFixedThreadPool(threadPoolSize, new NamedThreadFactory("orbeon-scheduler"));
     }
 
 
@@ -99,21 +132,27 @@ public class TaskScheduler {
             , Exception {
         synchronized (this) {
             cleanupAll();
-            if (taskList.contains(task))
+            if (taskList.containsKey(task))
                 throw new IllegalStateException("Task was already scheduled");
+            if (task.isCancelled())
+                throw new IllegalStateException("Task was cancelled");
 
-            Date time = new Date(task.getScheduledFirstTime());
-
-            RunTask runTask = new RunTask(task);
+            final RunTask runTask = new RunTask(task);
+            final long delay = Math.max(task.getScheduledFirstTime() - System.currentTimeMillis(), 0);
 
-            if (task.getScheduledInterval() <= 0) {
-                schedulerThread.schedule(runTask, time);
-            } else {
-                schedulerThread.scheduleAtFixedRate(runTask, time, task.getScheduledInterval());
+            try {
+                if (task.getScheduledInterval() <= 0) {
+                    runTask.future = triggerExecutor.schedule(runTask, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    runTask.future = triggerExecutor.scheduleAtFixedRate(runTask, delay, task.getScheduledInterval(), TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException("Scheduler was cancelled");
             }
 
             task.scheduler = this;
-            taskList.add(task);
+            taskList.put(task, runTask);
+            runTask.registerStatistics();
 
             this.persist(task);
         }
@@ -128,11 +167,16 @@ public class TaskScheduler {
      */
     public void cancelAll(boolean withRestart) {
         synchronized (this) {
+            for (RunTask runTask : taskList.values())
+                runTask.unregisterStatistics();
             taskList.clear();
-            schedulerThread.cancel();
+
+            // Runs which have started complete, but the runs which haven't started yet won't start
+            triggerExecutor.shutdownNow();
+            runExecutor.shutdown();
 
             if (withRestart)
-                schedulerThread = new Timer(false);
+                createExecutors();
         }
     }
 
@@ -144,22 +188,17 @@ public class TaskScheduler {
      * @return array of Tasks which are not cancelled
      */
     public Task[] getRunningTasks() {
-        ArrayList list = new ArrayList();
+        ArrayList<Task> list = new ArrayList<Task>();
         cleanupAll();
 
         synchronized (this) {
-            for (int i = 0; i < taskList.size(); i++) {
-                Task task = (Task) taskList.get(i);
+            for (Task task : taskList.keySet()) {
                 if (!task.isCancelled()) {
                     list.add(task);
                 }
             }
         }
-        Task[] out = new Task[list.size()];
-        for (int i = 0; i < out.length; i++)
-            out[i] = (Task) list.get(i);
-
-        return out;
+        return list.toArray(new Task[list.size()]);
     }
 
 
@@ -170,8 +209,7 @@ public class TaskScheduler {
      */
     public Task findTaskByID(long taskID) {
         synchronized (this) {
-            for (int i = 0; i < taskList.size(); i++) {
-                Task task = (Task) taskList.get(i);
+            for (Task task : taskList.keySet()) {
                 if (task.getID() == taskID) {
                     return task;
                 }
@@ -181,17 +219,28 @@ public class TaskScheduler {
     }
 
 
+    /**
+     * Get the statistics of a scheduled task
+     * @param task The scheduled task
+     * @return TaskStatistics for this task or null if the task is not scheduled
+     */
+    public TaskStatistics getStatistics(Task task) {
+        synchronized (this) {
+            final RunTask runTask = taskList.get(task);
+            return runTask == null ? null : runTask.statistics;
+        }
+    }
+
+
     /**
      * Check and remove a particular task
      * @param task the potentially cancelled task to remove
      */
     void cleanup(Task task) {
         synchronized (this) {
-            if (taskList.contains(task)) {
+            if (taskList.containsKey(task)) {
                 if (task.isCancelled()) {
-                    taskList.remove(task);
-                    if (persistStrategy != null)
-                        persistStrategy.delete(task);
+                    remove(taskList.remove(task));
                 }
             }
         }
@@ -216,19 +265,31 @@ public class TaskScheduler {
      */
     private void cleanupAll() {
         synchronized (this) {
-            for (int i = 0; i < taskList.size(); i++) {
-                Task task = (Task) taskList.get(i);
-                if (task.isCancelled()) {
-                    taskList.remove(i);
-                    if (persistStrategy != null)
-                        persistStrategy.delete(task);
-                    i--;
+            for (Iterator<RunTask> i = taskList.values().iterator(); i.hasNext();) {
+                final RunTask runTask = i.next();
+                if (runTask.task.isCancelled()) {
+                    i.remove();
+                    remove(runTask);
                 }
             }
         }
     }
 
 
+    private void remove(RunTask runTask) {
+        if (runTask.future != null)
+            runTask.future.cancel(false);
+        runTask.unregisterStatistics();
+        if (persistStrategy != null)
+            persistStrategy.delete(runTask.task);
+    }
+
+
+    private synchronized boolean isScheduled(RunTask runTask) {
+        return taskList.get(runTask.task) == runTask;
+    }
+
+
     /**
      * Get a singleton TaskScheduler. This can be used if the application wants
      * to share one task scheduler across the whole JVM.
@@ -239,7 +300,8 @@ public class TaskScheduler {
             if (existingTaskScheduler != null) {
                 return existingTaskScheduler;
             } else {
-                final TaskScheduler newTaskScheduler = new TaskScheduler();
+                final int threadPoolSize = Properties.instance().getPropertySet().getInteger(THREAD_POOL_SIZE_PROPERTY, DEFAULT_THREAD_POOL_SIZE);
+                final TaskScheduler newTaskScheduler = new TaskScheduler(threadPoolSize);
                 webAppContext.getAttributesMap().put("task-scheduler", newTaskScheduler);
                 webAppContext.addListener(new WebAppListener() {
                     public void webAppDestroyed() {
@@ -252,13 +314,39 @@ public class TaskScheduler {
     }
 
 
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, prefix + "-" + count.incrementAndGet());
+        }
+    }
+
+
     /**
-     * RunTask class is scheduler to on the Timer
-     * and is associated with a Task which it runs.
+     * RunTask is scheduled on the trigger thread, and is associated with a Task which it
+     * runs on the thread pool, according to the overlap policy of the task.
      */
-    private class RunTask extends TimerTask {
+    private class RunTask implements Runnable {
         // instance variables
-        private Task task;
+        private final Task task;
+        private final OverlapPolicy overlapPolicy;
+        private final TaskStatistics statistics;
+        private volatile ScheduledFuture<?> future;
+        private ObjectName objectName;
+
+        // Only accessed by the trigger thread
+        private long nextScheduledTime;
+
+        // Guarded by this
+        private int activeRuns;
+        private Long queuedRun;
 
 
         /**
@@ -267,29 +355,127 @@ public class TaskScheduler {
          */
         public RunTask(Task task) {
             this.task = task;
+            this.overlapPolicy = task.getOverlapPolicy();
+            this.statistics = new TaskStatistics(task.getName(), overlapPolicy);
+            this.nextScheduledTime = Math.max(task.getScheduledFirstTime(), System.currentTimeMillis());
         }
 
 
         /**
-         * Run the Task
+         * Trigger the Task
          */
         public void run() {
-            if (task.isCancelled()) {
-                this.cancel();
+            if (task.isCancelled() || ! isScheduled(this)) {
+                if (future != null)
+                    future.cancel(false);
                 return;
             }
 
-            // NOTE: TBD
-            //    For now we just launch a thread to do the task.
-            //    This is potentially not scaleable. In the future,
-            //    we will pick threads from a pool.
+            final long scheduledTime = nextScheduledTime;
+            nextScheduledTime += task.getScheduledInterval();
+
+            synchronized (this) {
+                if (activeRuns > 0) {
+                    switch (overlapPolicy) {
+                        case SKIP:
+                            statistics.runSkipped();
+                            if (logger.isInfoEnabled())
+                                logger.info("Task: " + task.getName() + " won't run since it is already running");
+                            return;
+                        case QUEUE:
+                            // Keep at most one pending run, so that a task slower than its interval doesn't pile up runs
+                            if (queuedRun == null) {
+                                queuedRun = scheduledTime;
+                            } else {
+                                statistics.runDropped();
+                                if (logger.isInfoEnabled())
+                                    logger.info("Task: " + task.getName() + " won't run since a run is already queued");
+                            }
+                            return;
+                        case CONCURRENT:
+                            break;
+                    }
+                }
+                activeRuns++;
+            }
+            execute(scheduledTime);
+        }
+
 
-            Thread runner = new Thread(task);
-            runner.start();
-            task.setLastRunTime(System.currentTimeMillis());
+        private void execute(final long scheduledTime) {
+            try {
+                runExecutor.execute(new Runnable() {
+                    public void run() {
+                        runTask(scheduledTime);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The scheduler was cancelled
+                runCompleted();
+            }
         }
 
+
+        private void runTask(long scheduledTime) {
+            if (task.isCancelled() || ! isScheduled(this)) {
+                runCompleted();
+                return;
+            }
+
+            final long startTime = System.currentTimeMillis();
+            statistics.runStarted(Math.max(startTime - scheduledTime, 0));
+            task.setLastRunTime(scheduledTime);
+
+            boolean success = false;
+            try {
+                task.run();
+                success = true;
+            } catch (Exception e) {
+                logger.error("Task: " + task.getName() + " failed", e);
+            } finally {
+                statistics.runCompleted(System.currentTimeMillis() - startTime, success);
+                runCompleted();
+            }
+        }
+
+
+        private void runCompleted() {
+            final Long queuedScheduledTime;
+            synchronized (this) {
+                activeRuns--;
+                queuedScheduledTime = queuedRun;
+                queuedRun = null;
+                if (queuedScheduledTime != null)
+                    activeRuns++;
+            }
+            if (queuedScheduledTime != null)
+                execute(queuedScheduledTime);
+        }
+
+
+        public void registerStatistics() {
+            try {
+                final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=ScheduledTask,name=" + ObjectName.quote(task.getName()) + ",id=" + task.getID());
+                mbeanServer.registerMBean(statistics, name);
+                objectName = name;
+            } catch (Exception e) {
+                logger.warn("Could not register the statistics of task: " + task.getName(), e);
+            }
+        }
+
+
+        public void unregisterStatistics() {
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (Exception e) {
+                    logger.warn("Could not unregister the statistics of task: " + task.getName(), e);
+                }
+                objectName = null;
+            }
+        }
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util.task;
+
+/**
+ * Statistics of a task scheduled with the TaskScheduler.
+ *
+ * The lateness of a run is the time between the time at which the run was scheduled and the time at which it actually
+ * started, which includes the time spent waiting for a thread or, with OverlapPolicy.QUEUE, for the previous run.
+ *
+ * With OverlapPolicy.QUEUE, the dropped runs are the runs which were due while a run was already queued.
+ */
+public class TaskStatistics implements TaskStatisticsMBean {
+
+    private final String name;
+    private final OverlapPolicy overlapPolicy;
+
+    private long runCount;
+    private long failureCount;
+    private long skippedCount;
+    private long droppedCount;
+    private int activeCount;
+
+    private long lastDuration;
+    private long maxDuration;
+    private long totalDuration;
+
+    private long lastLateness;
+    private long maxLateness;
+    private long totalLateness;
+
+    public TaskStatistics(String name, OverlapPolicy overlapPolicy) {
+        this.name = name;
+        this.overlapPolicy = overlapPolicy;
+    }
+
+    synchronized void runStarted(long lateness) {
+        activeCount++;
+        lastLateness = lateness;
+        maxLateness = Math.max(maxLateness, lateness);
+        totalLateness += lateness;
+    }
+
+    synchronized void runCompleted(long duration, boolean success) {
+        activeCount--;
+        runCount++;
+        if (! success)
+            failureCount++;
+        lastDuration = duration;
+        maxDuration = Math.max(maxDuration, duration);
+        totalDuration += duration;
+    }
+
+    synchronized void runSkipped() {
+        skippedCount++;
+    }
+
+    synchronized void runDropped() {
+        droppedCount++;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOverlapPolicy() {
+        return overlapPolicy.name();
+    }
+
+    public synchronized long getRunCount() {
+        return runCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    public synchronized long getLastDuration() {
+        return lastDuration;
+    }
+
+    public synchronized long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public synchronized long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public synchronized long getAverageDuration() {
+        return runCount == 0 ? 0 : totalDuration / runCount;
+    }
+
+    public synchronized long getLastLateness() {
+        return lastLateness;
+    }
+
+    public synchronized long getMaxLateness() {
+        return maxLateness;
+    }
+
+    public synchronized long getAverageLateness() {
+        final long startedCount = runCount + activeCount;
+        return startedCount == 0 ? 0 : totalLateness / startedCount;
+    }
+}
@@ -15,6 +15,7 @@ package org.orbeon.oxf.xforms;
 
 import org.orbeon.oxf.xforms.control.XFormsControl;
 import org.orbeon.oxf.xforms.control.controls.*;
+import org.orbeon.oxf.xforms.itemset.SharedItemsetsCache;
 
 import java.util.*;
 
@@ -81,6 +82,10 @@ public class ControlIndex {
                 }
             }
         }
+
+        // Forget the itemset shared with other controls
+        if (control instanceof XFormsSelect1Control)
+            SharedItemsetsCache.controlRemoved((XFormsSelect1Control) control);
     }
 
     private boolean mustMapControl(XFormsControl control) {
@@ -157,6 +157,53 @@ public class XFormsContainingDocument extends XFormsContainingDocumentBase {
         indentedLogger().endHandleOperation();
     }
 
+    /**
+     * Create an XFormsContainingDocument from an XFormsStaticState object and the cached dynamic state of a document
+     * which was initialized with that static state.
+     *
+     * Used by XFormsToXHTML when the static state supports caching the initial state.
+     *
+     * @param staticState  static state object
+     * @param initialState dynamic state obtained right after the initialization of another document
+     * @param uriResolver  URIResolver for loading instances during initialization (and possibly more, such as schemas and "GET" submissions upon initialization)
+     * @param response     optional response for handling replace="all" during initialization
+     */
+    public XFormsContainingDocument(XFormsStaticState staticState, DynamicState initialState, XFormsURIResolver uriResolver, ExternalContext.Response response) {
+        super(false);
+
+        // Create UUID for this document instance
+        this.uuid = SecureUtils.randomHexId();
+
+        // Initialize request information
+        initializeRequestInformation();
+        initializePathMatchers();
+
+        indentedLogger().startHandleOperation("initialization", "creating new ContainingDocument (initial state provided).", "uuid", this.uuid);
+        {
+            // Remember static state
+            this.staticState = staticState;
+            this.staticOps = new StaticStateGlobalOps(staticState.topLevelPart());
+
+            if (! isNoUpdatesStatic())  // attempt to ignore oxf:xforms-submission
+                LifecycleLogger.eventAssumingRequestJava("xforms", "new form session", new String[] { "uuid", uuid });
+
+            this.xpathDependencies = Version.instance().createUIDependencies(this);
+
+            // Remember parameters used during initialization
+            this.uriResolver = uriResolver;
+            this.response = response;
+            this.initializing = true;
+
+            // Restore models and controls instead of initializing them
+            try {
+                restoreModelsAndControls(initialState);
+            } catch (Exception e) {
+                throw OrbeonLocationException.wrapException(e, new ExtendedLocationData(null, "initializing XForms containing document from initial state"));
+            }
+        }
+        indentedLogger().endHandleOperation();
+    }
+
     // This is called upon the first creation of the XForms engine
     private void initialize() {
 
@@ -256,6 +303,10 @@ public class XFormsContainingDocument extends XFormsContainingDocumentBase {
         this.pendingUploads = new HashSet<String>(dynamicState.decodePendingUploadsJava()); // make copy as must be mutable
         this.lastAjaxResponse = dynamicState.decodeLastAjaxResponseJava();
 
+        restoreModelsAndControls(dynamicState);
+    }
+
+    private void restoreModelsAndControls(final DynamicState dynamicState) {
         // Scope the containing document for the XForms API
         XFormsAPI.withContainingDocumentJava(this, new Runnable() {
             public void run() {
@@ -281,6 +332,27 @@ public class XFormsContainingDocument extends XFormsContainingDocumentBase {
         });
     }
 
+    /**
+     * Whether the state of this document, right after initialization, can be used to create other new documents. This
+     * is not the case if initialization produced anything which is sent to the client or which is still pending.
+     */
+    public boolean isInitialStateShareable() {
+        final AsynchronousSubmissionManager manager = getAsynchronousSubmissionManager(false);
+        return initializing
+            && countPendingUploads() == 0
+            && (manager == null || ! manager.hasPendingAsynchronousSubmissions())
+            && activeSubmissionFirstPass == null
+            && replaceAllCallable == null
+            && ! gotSubmissionReplaceAll
+            && ! gotSubmissionRedirect
+            && messagesToRun == null
+            && loadsToRun == null
+            && scriptsToRun == null
+            && helpEffectiveControlId == null
+            && serverErrors == null
+            && delayedEventsJava().isEmpty();
+    }
+
     @Override
     public PartAnalysis partAnalysis() {
         return staticState.topLevelPart();
@@ -703,6 +703,10 @@ public class XFormsModel extends XFormsModelBase implements XFormsEventObserver,
         // Notify dependencies of the change
         if (nodeInfo != null)
             containingDocument().getXPathDependencies().markValueChanged(this, nodeInfo);
+
+        // Notify the schema validator so that it can validate changed elements only
+        if (hasSchema())
+            schemaValidator().markValueChange(nodeInfo);
     }
 
 //    public void markMipChange(NodeInfo nodeInfo) {
@@ -16,6 +16,7 @@ package org.orbeon.oxf.xforms;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.dom4j.Attribute;
+import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.QName;
@@ -50,6 +51,7 @@ import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.NetUtils;
 import org.orbeon.oxf.util.ScalaUtils;
 import org.orbeon.oxf.xforms.msv.IDConstraintChecker;
+import org.orbeon.oxf.xforms.schema.InlineSchemaKey;
 import org.orbeon.oxf.xforms.schema.MSVGrammarReaderController;
 import org.orbeon.oxf.xforms.schema.SchemaDependencies;
 import org.orbeon.oxf.xforms.schema.SchemaInfo;
@@ -60,15 +62,15 @@ import org.orbeon.oxf.xml.XMLParsing;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
 import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.orbeon.saxon.om.NodeInfo;
+import org.orbeon.saxon.om.VirtualNode;
 import org.xml.sax.InputSource;
 import org.xml.sax.helpers.AttributesImpl;
 import scala.Option;
 
 import javax.xml.parsers.SAXParserFactory;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
  * Provides XML Schema validation services for the XForms model.
@@ -84,6 +86,7 @@ public class XFormsModelSchemaValidator {
     public static Logger logger = LoggerFactory.createLogger(XFormsModelSchemaValidator.class);
 
     private Element modelElement;
+    private String modelPrefixedId;
     private IndentedLogger indentedLogger;
 
     private Grammar schemaGrammar;
@@ -93,8 +96,16 @@ public class XFormsModelSchemaValidator {
     // REDocumentDeclaration is not reentrant, but the validator is used by a single thread
     private REDocumentDeclaration documentDeclaration;
 
-    public XFormsModelSchemaValidator(Element modelElement, IndentedLogger indentedLogger) {
+    // Results of the last validation of each instance, by instance effective id, for incremental validation
+    private boolean isIncrementalValidation;
+    private final Map<String, ValidatedInstance> validatedInstances = new HashMap<String, ValidatedInstance>();
+
+    // Instance being validated, if it is validated incrementally
+    private ValidatedInstance currentValidatedInstance;
+
+    public XFormsModelSchemaValidator(Element modelElement, String modelPrefixedId, IndentedLogger indentedLogger) {
         this.modelElement = modelElement;
+        this.modelPrefixedId = modelPrefixedId;
         this.indentedLogger = indentedLogger;
 
         // Check for external schemas
@@ -121,6 +132,36 @@ public class XFormsModelSchemaValidator {
         return schemaGrammar != null;
     }
 
+    /**
+     * Result of the validation of an instance, kept so that subsequent validations only need to process the elements
+     * which have changed.
+     *
+     * This relies on the fact that with XML Schema, the state of the parent acceptor after an element only depends on
+     * the element name, so that an element can be validated again, with a copy of the parent acceptor as it was before
+     * the element, without validating its siblings.
+     *
+     * Copies of the acceptor are only kept for the elements validated from the top and for the elements which have
+     * child elements. A changed leaf element, usually the most common case, is validated again with its parent.
+     */
+    private static class ValidatedInstance {
+
+        public final Document document;
+
+        // Parent acceptor before each element validation can restart from, or document acceptor for elements
+        // validated from the top
+        public final Map<Element, Acceptor> acceptors = new IdentityHashMap<Element, Acceptor>();
+
+        // Nodes with schema errors
+        public final Set<Node> errorNodes = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+        // Elements whose value or attributes have changed since the last validation
+        public final Set<Element> changedElements = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+
+        public ValidatedInstance(Document document) {
+            this.document = document;
+        }
+    }
+
     private static class ValidationContext implements IDContextProvider2 {
 
         private Element currentElement;
@@ -161,12 +202,16 @@ public class XFormsModelSchemaValidator {
         if (indentedLogger.isDebugEnabled())
             indentedLogger.logDebug("schema", "validation error", "error", newErrorMessage);
         InstanceData.addSchemaError(element);
+        if (currentValidatedInstance != null)
+            currentValidatedInstance.errorNodes.add(element);
     }
 
     private void addSchemaError(final Attribute attribute, final String schemaError) {
         if (indentedLogger.isDebugEnabled())
             indentedLogger.logDebug("schema", "validation error", "error", schemaError);
         InstanceData.addSchemaError(attribute);
+        if (currentValidatedInstance != null)
+            currentValidatedInstance.errorNodes.add(attribute);
     }
 
     private boolean handleIDErrors(final IDConstraintChecker icc) {
@@ -350,6 +395,7 @@ public class XFormsModelSchemaValidator {
             if (expression != null) {
                 // Found type for element, so validate element
                 final Acceptor acceptor = documentDeclaration.createAcceptor();
+                rememberAcceptor(element, acceptor);
                 isValid &= validateElement(element, acceptor, null, true);
             } else {
                 // Element does not have type, so try to validate attributes and children elements
@@ -474,6 +520,8 @@ public class XFormsModelSchemaValidator {
         // Validate children elements
         for (final Iterator iterator = element.elementIterator(); iterator.hasNext();) {
             final Element childElement = (Element) iterator.next();
+            if (childElement.elementIterator().hasNext())
+                rememberAcceptor(childElement, acceptor);
             final boolean isChildElementValid = validateElement(childElement, acceptor, icc, isReportErrors);
             if (!isChildElementValid) {
                 if (isReportErrors) {
@@ -562,8 +610,10 @@ public class XFormsModelSchemaValidator {
 
         // Check for inline schema
         if (schemaElements != null && schemaElements.size() > 0) {
-            schemaGrammar = loadInlineGrammar(containingDocument, schemaElements.get(0)); // TODO: specify baseURI
+            schemaGrammar = loadCacheInlineGrammar(containingDocument, schemaElements.get(0)); // TODO: specify baseURI
         }
+
+        isIncrementalValidation = schemaGrammar instanceof XMLSchemaGrammar && containingDocument.getStaticState().isIncrementalSchemaValidation();
     }
 
     /**
@@ -604,12 +654,37 @@ public class XFormsModelSchemaValidator {
         }
     }
 
+    /**
+     * Load and cache the Grammar for an inline schema.
+     *
+     * The inline schema only depends on the static state, so the Grammar is shared by all the documents using the
+     * same static state, as long as the schemas it imports are unchanged.
+     */
+    private Grammar loadCacheInlineGrammar(final XFormsContainingDocument containingDocument, final Element schemaElement) {
+
+        if (modelPrefixedId == null)
+            return loadInlineGrammar(containingDocument, schemaElement, new SchemaDependencies());
+
+        final Cache cache = ObjectCache.instance();
+        final InlineSchemaKey schemaKey = new InlineSchemaKey(containingDocument.getStaticState().digest(), modelPrefixedId);
+
+        final SchemaInfo schemaInfo = (SchemaInfo) cache.findValid(schemaKey, ConstantValidity);
+        if (schemaInfo == null || ! schemaInfo.dependencies().areIncludesUnchanged()) {
+            final SchemaDependencies dependencies = new SchemaDependencies();
+            final Grammar grammar = loadInlineGrammar(containingDocument, schemaElement, dependencies);
+            cache.add(schemaKey, ConstantValidity, new SchemaInfo(grammar, dependencies));
+            return grammar;
+        } else {
+            return schemaInfo.grammar();
+        }
+    }
+
+    private static final Long ConstantValidity = 0L;
+
     /**
      * Load an inline schema.
      */
-    private Grammar loadInlineGrammar(final XFormsContainingDocument containingDocument, final Element schemaElement) {
-        final SchemaDependencies dependencies = new SchemaDependencies();
-        // TODO: Use SchemaDependencies to cache dependencies if any
+    private Grammar loadInlineGrammar(final XFormsContainingDocument containingDocument, final Element schemaElement, final SchemaDependencies dependencies) {
         final MSVGrammarReaderController controller = new MSVGrammarReaderController(containingDocument, dependencies, Option.<String>apply(null));
         final SAXParserFactory saxParserFactory = XMLParsing.getSAXParserFactory(XMLParsing.ParserConfiguration.PLAIN);
         final XMLSchemaReader reader = new XMLSchemaReader(controller, saxParserFactory);
@@ -625,6 +700,10 @@ public class XFormsModelSchemaValidator {
      * Apply schema validation to an instance. The instance may content a hint specifying whether to perform "lax",
      * "strict", or "skip" validation.
      *
+     * If the instance can be validated incrementally (see isIncrementalValidation()), only the elements changed since
+     * the last validation are validated, and their schema state is cleared first. Otherwise, the caller must clear the
+     * schema state of the whole instance.
+     *
      * @param instance          instance to validate
      */
     public boolean validateInstance(XFormsInstance instance) {
@@ -635,30 +714,172 @@ public class XFormsModelSchemaValidator {
                 documentDeclaration = createDocumentDeclaration(schemaGrammar);
             }
 
-            // Get validation mode ("lax" is the default)
-            boolean isValid = true;
-            if (instance.instance().isLaxValidation()) {
-                // Lax validation
-                final Element instanceRootElement = instance.underlyingDocumentOpt().get().getRootElement();
-                isValid &= validateElementLax(instanceRootElement);
-            } else if (instance.instance().isStrictValidation()) {
-                // Strict validation
-                final Acceptor acceptor = documentDeclaration.createAcceptor();
-                final Element instanceRootElement = instance.underlyingDocumentOpt().get().getRootElement();
-                final IDConstraintChecker idConstraintChecker = new IDConstraintChecker();
+            final boolean isLax = instance.instance().isLaxValidation();
+            final boolean isStrict = instance.instance().isStrictValidation();
 
-                isValid &= validateElement(instanceRootElement, acceptor, idConstraintChecker, true);
-                idConstraintChecker.endDocument();
-                isValid &= handleIDErrors(idConstraintChecker);
-            } else {
+            if (! isLax && ! isStrict) {
                 // Skip validation
+                return true;
+            } else if (isIncrementalValidation(instance)) {
+                return validateChangedElements(validatedInstances.get(instance.getEffectiveId()), isLax);
+            }
+
+            // Keep the results of the validation if incremental validation is enabled
+            final Document document = instance.underlyingDocumentOpt().get();
+            currentValidatedInstance = isIncrementalValidation ? new ValidatedInstance(document) : null;
+            validatedInstances.remove(instance.getEffectiveId());
+
+            try {
+                boolean isValid = true;
+                boolean canValidateIncrementally = true;
+                if (isLax) {
+                    // Lax validation
+                    final Element instanceRootElement = document.getRootElement();
+                    isValid &= validateElementLax(instanceRootElement);
+                } else {
+                    // Strict validation
+                    final Acceptor acceptor = documentDeclaration.createAcceptor();
+                    final Element instanceRootElement = document.getRootElement();
+                    final IDConstraintChecker idConstraintChecker = new IDConstraintChecker();
+
+                    rememberAcceptor(instanceRootElement, acceptor);
+                    isValid &= validateElement(instanceRootElement, acceptor, idConstraintChecker, true);
+                    idConstraintChecker.endDocument();
+                    isValid &= handleIDErrors(idConstraintChecker);
+
+                    // Identity constraints span the whole document
+                    canValidateIncrementally = ! idConstraintChecker.hasIdentityConstraints();
+                }
+
+                if (currentValidatedInstance != null && canValidateIncrementally)
+                    validatedInstances.put(instance.getEffectiveId(), currentValidatedInstance);
+
+                return isValid;
+            } finally {
+                currentValidatedInstance = null;
             }
-            return isValid;
         } else {
             return true;
         }
     }
 
+    /**
+     * Whether the next validation of the instance only needs to validate the elements changed since the last
+     * validation.
+     */
+    public boolean isIncrementalValidation(XFormsInstance instance) {
+        final ValidatedInstance validatedInstance = validatedInstances.get(instance.getEffectiveId());
+        return validatedInstance != null
+            && instance.underlyingDocumentOpt().isDefined()
+            && instance.underlyingDocumentOpt().get() == validatedInstance.document;
+    }
+
+    /**
+     * Record that the value of a node has changed.
+     */
+    public void markValueChange(NodeInfo nodeInfo) {
+        if (validatedInstances.isEmpty())
+            return;
+
+        if (nodeInfo instanceof VirtualNode) {
+            final Node node = (Node) ((VirtualNode) nodeInfo).getUnderlyingNode();
+            final Element element = (node instanceof Element) ? (Element) node : node.getParent();
+            if (element != null) {
+                for (final ValidatedInstance validatedInstance : validatedInstances.values()) {
+                    if (validatedInstance.document == element.getDocument()) {
+                        validatedInstance.changedElements.add(element);
+                        return;
+                    }
+                }
+            } else {
+                // Change to the document node
+                validatedInstances.clear();
+            }
+        } else {
+            // Unknown change
+            validatedInstances.clear();
+        }
+    }
+
+    /**
+     * Forget the results of previous validations, so that instances are validated entirely next time. This must be
+     * called when the structure of instances changes or when the schema state of instances is cleared.
+     */
+    public void clearValidatedInstances() {
+        validatedInstances.clear();
+    }
+
+    private boolean validateChangedElements(ValidatedInstance validatedInstance, boolean isLax) {
+
+        // Validate each changed element again, starting from its closest ancestor-or-self validated with an acceptor.
+        // In lax mode, the element may not have such an ancestor, in which case it is validated laxly.
+        final Set<Element> roots = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+        for (final Element changedElement : validatedInstance.changedElements) {
+            // Skip elements which have been removed from the instance
+            if (changedElement.getDocument() != validatedInstance.document)
+                continue;
+
+            Element current = changedElement;
+            while (current != null && ! validatedInstance.acceptors.containsKey(current))
+                current = current.getParent();
+            roots.add(current != null ? current : changedElement);
+        }
+        validatedInstance.changedElements.clear();
+
+        if (indentedLogger.isDebugEnabled())
+            indentedLogger.logDebug("schema", "validating changed elements", "count", Integer.toString(roots.size()));
+
+        currentValidatedInstance = validatedInstance;
+        try {
+            for (final Element root : roots) {
+
+                // Skip the element if an ancestor is also validated
+                boolean hasRootAncestor = false;
+                for (Element ancestor = root.getParent(); ancestor != null && ! hasRootAncestor; ancestor = ancestor.getParent())
+                    hasRootAncestor = roots.contains(ancestor);
+
+                if (! hasRootAncestor) {
+                    final Acceptor acceptor = validatedInstance.acceptors.get(root);
+                    final Element parent = root.getParent();
+
+                    clearSubtree(validatedInstance, root);
+
+                    // In lax mode, elements validated from the top are validated laxly again, as a change to xsi:type
+                    // can change whether they have a declaration
+                    if (acceptor != null && (! isLax || (parent != null && validatedInstance.acceptors.containsKey(parent)))) {
+                        validatedInstance.acceptors.put(root, acceptor);
+                        validateElement(root, acceptor.createClone(), null, true);
+                    } else
+                        validateElementLax(root);
+                }
+            }
+        } finally {
+            currentValidatedInstance = null;
+        }
+
+        return validatedInstance.errorNodes.isEmpty();
+    }
+
+    /**
+     * Remember the parent acceptor before an element, so that the element can be validated again on its own.
+     */
+    private void rememberAcceptor(Element element, Acceptor acceptor) {
+        if (currentValidatedInstance != null)
+            currentValidatedInstance.acceptors.put(element, acceptor.createClone());
+    }
+
+    private void clearSubtree(ValidatedInstance validatedInstance, Element element) {
+        validatedInstance.acceptors.remove(element);
+        validatedInstance.errorNodes.remove(element);
+        InstanceData.clearSchemaState(element);
+        for (final Object attribute : element.attributes()) {
+            validatedInstance.errorNodes.remove(attribute);
+            InstanceData.clearSchemaState((Attribute) attribute);
+        }
+        for (final Iterator iterator = element.elementIterator(); iterator.hasNext();)
+            clearSubtree(validatedInstance, (Element) iterator.next());
+    }
+
     /**
      * Check whether a node's value satisfies a simple schema type definition given by namespace URI and local name.
      *
@@ -128,6 +128,13 @@ public class XFormsProperties {
     public static final String CACHE_DOCUMENT_PROPERTY = "cache.document";
     public static final boolean CACHE_DOCUMENT_DEFAULT = true;
 
+    public static final String CACHE_INITIAL_STATE_PROPERTY = "cache.initial-state";
+
+    public static final String INSTANCE_JOURNAL_PROPERTY = "state.instance-journal";
+    public static final String INSTANCE_JOURNAL_MAX_MUTATIONS_PROPERTY = "state.instance-journal.max-mutations";
+
+    public static final String SCHEMA_INCREMENTAL_VALIDATION_PROPERTY = "schema.incremental-validation";
+
     public static final String SANITIZE_PROPERTY = "sanitize";
 
     public static class PropertyDefinition {
@@ -224,6 +231,10 @@ public class XFormsProperties {
             new PropertyDefinition(XPATH_ANALYSIS_PROPERTY, false, false),
             new PropertyDefinition(CALCULATE_ANALYSIS_PROPERTY, false, false),
             new PropertyDefinition(CACHE_DOCUMENT_PROPERTY, CACHE_DOCUMENT_DEFAULT, false),
+            new PropertyDefinition(CACHE_INITIAL_STATE_PROPERTY, false, false),
+            new PropertyDefinition(INSTANCE_JOURNAL_PROPERTY, false, false),
+            new PropertyDefinition(INSTANCE_JOURNAL_MAX_MUTATIONS_PROPERTY, 1000, false),
+            new PropertyDefinition(SCHEMA_INCREMENTAL_VALIDATION_PROPERTY, false, false),
             new PropertyDefinition(SANITIZE_PROPERTY, "", false),
 
             // Properties to propagate to the client
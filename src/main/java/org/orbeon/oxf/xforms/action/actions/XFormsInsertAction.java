@@ -469,7 +469,9 @@ public class XFormsInsertAction extends XFormsAction {
         // "XForms Actions that change the tree structure of instance data result in setting all four flags to true"
         if (didInsertNodes && modifiedInstanceOrNull != null) {
             // NOTE: Can be null if document into which delete is performed is not in an instance, e.g. in a variable
-            modifiedInstanceOrNull.markModified();
+            for (final Node insertedNode : insertedNodes)
+                modifiedInstanceOrNull.recordInsert(insertedNode);
+            modifiedInstanceOrNull.markModifiedJournaled();
             modifiedInstanceOrNull.model().markStructuralChange(
                 scala.Option.<XFormsInstance>apply(modifiedInstanceOrNull),
                 FlaggedDefaultsStrategy$.MODULE$
@@ -45,6 +45,13 @@ public class IDConstraintChecker implements ValidationContext {
 
 
 
+    /** whether identity constraints have been found in the document. */
+    private boolean hasIdentityConstraints;
+
+    public boolean hasIdentityConstraints() {
+        return hasIdentityConstraints;
+    }
+
     /** active mathcers. */
     protected final java.util.ArrayList matchers = new java.util.ArrayList();
 
@@ -171,6 +178,8 @@ public class IDConstraintChecker implements ValidationContext {
             ElementDeclExp.XSElementExp exp = (ElementDeclExp.XSElementExp)e;
             if( exp.identityConstraints!=null ) {
                 int m = exp.identityConstraints.size();
+                if( m>0 )
+                    hasIdentityConstraints = true;
                 for( int i=0; i<m; i++ )
                     add( new SelectorMatcher( this,
                             (IdentityConstraint)exp.identityConstraints.get(i),
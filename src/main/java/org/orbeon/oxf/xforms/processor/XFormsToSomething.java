@@ -28,6 +28,8 @@ import org.orbeon.oxf.xforms.analysis.XFormsExtractor;
 import org.orbeon.oxf.xforms.analysis.model.Instance;
 import org.orbeon.oxf.xforms.analysis.model.Model;
 import org.orbeon.oxf.xforms.state.AnnotatedTemplate;
+import org.orbeon.oxf.xforms.state.DynamicState;
+import org.orbeon.oxf.xforms.state.XFormsInitialStateCache;
 import org.orbeon.oxf.xforms.state.XFormsStateManager;
 import org.orbeon.oxf.xforms.state.XFormsStaticStateCache;
 import org.orbeon.oxf.xml.*;
@@ -170,11 +172,12 @@ abstract public class XFormsToSomething extends ProcessorImpl {
                                 pipelineContext, INPUT_ANNOTATED_DOCUMENT, XMLParsing.ParserConfiguration.PLAIN);
 
                         containingDocument[0] =
-                            new XFormsContainingDocument(
+                            createContainingDocument(
                                 staticState[0],
                                 uriResolver,
                                 PipelineResponse.getResponse(xmlReceiver, externalContext),
-                                initializeXFormsDocument
+                                initializeXFormsDocument,
+                                cachingLogger
                             );
 
                         // Gather set caching dependencies
@@ -227,11 +230,12 @@ abstract public class XFormsToSomething extends ProcessorImpl {
                     new XFormsURIResolver(XFormsToSomething.this, processorOutput, pipelineContext, INPUT_ANNOTATED_DOCUMENT, XMLParsing.ParserConfiguration.PLAIN);
 
                 containingDocument[0] =
-                    new XFormsContainingDocument(
+                    createContainingDocument(
                         staticState,
                         uriResolver,
                         PipelineResponse.getResponse(xmlReceiver, externalContext),
-                        initializeXFormsDocument
+                        initializeXFormsDocument,
+                        cachingLogger
                     );
             } else {
                 assert !cachedStatus[0];
@@ -251,6 +255,35 @@ abstract public class XFormsToSomething extends ProcessorImpl {
         }
     }
 
+    // Create a new document, from the cached initial state if possible
+    private static XFormsContainingDocument createContainingDocument(
+            XFormsStaticState staticState,
+            XFormsURIResolver uriResolver,
+            ExternalContext.Response response,
+            boolean initialize,
+            IndentedLogger logger) {
+
+        if (initialize && staticState.isCacheInitialState()) {
+            final DynamicState initialState = XFormsInitialStateCache.findStateJava(staticState);
+            if (initialState != null) {
+                logger.logDebug("", "found initial state by digest in cache");
+                return new XFormsContainingDocument(staticState, initialState, uriResolver, response);
+            } else {
+                final XFormsContainingDocument containingDocument =
+                    new XFormsContainingDocument(staticState, uriResolver, response, true);
+
+                if (XFormsInitialStateCache.storeDocumentIfPossible(containingDocument))
+                    logger.logDebug("", "stored initial state by digest in cache");
+                else
+                    logger.logDebug("", "initial state cannot be shared, not storing in cache");
+
+                return containingDocument;
+            }
+        } else {
+            return new XFormsContainingDocument(staticState, uriResolver, response, initialize);
+        }
+    }
+
     abstract protected void produceOutput(
             PipelineContext pipelineContext,
             String outputName,
@@ -24,4 +24,9 @@ public class NullElementHandler extends ElementHandler {
     public boolean isForwarding() {
         return true;
     }
+
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
 }
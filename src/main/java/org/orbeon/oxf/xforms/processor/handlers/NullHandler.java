@@ -27,4 +27,9 @@ public class NullHandler extends ElementHandler {
     public boolean isForwarding() {
         return false;
     }
+
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
 }
@@ -29,6 +29,7 @@ import org.orbeon.oxf.xforms.processor.handlers.NullHandler;
 import org.orbeon.oxf.xforms.state.XFormsStateManager;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.oxf.xml.*;
+import org.orbeon.oxf.xml.ElementHandlerController.HandlerFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -247,39 +248,122 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
 
     public static final Matcher ANY_MATCHER = new AnyMatcher();
 
+    // Factories for the handlers registered by registerHandlers()
+    private static final HandlerFactory XXFORMS_COMPONENT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XXFormsComponentHandler(); }
+    };
+    private static final HandlerFactory XFORMS_INPUT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsInputHandler(); }
+    };
+    private static final HandlerFactory XFORMS_OUTPUT_TEXT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsOutputTextHandler(); }
+    };
+    private static final HandlerFactory XFORMS_OUTPUT_DOWNLOAD_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsOutputDownloadHandler(); }
+    };
+    private static final HandlerFactory XFORMS_OUTPUT_IMAGE_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsOutputImageHandler(); }
+    };
+    private static final HandlerFactory XFORMS_OUTPUT_HTML_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsOutputHTMLHandler(); }
+    };
+    private static final HandlerFactory XFORMS_OUTPUT_DEFAULT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsOutputDefaultHandler(); }
+    };
+    private static final HandlerFactory XFORMS_TRIGGER_MINIMAL_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsTriggerMinimalHandler(); }
+    };
+    private static final HandlerFactory XFORMS_TRIGGER_FULL_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsTriggerFullHandler(); }
+    };
+    private static final HandlerFactory XFORMS_GROUP_INTERNAL_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsGroupInternalHandler(); }
+    };
+    private static final HandlerFactory XFORMS_GROUP_SEPARATOR_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsGroupSeparatorHandler(); }
+    };
+    private static final HandlerFactory XFORMS_GROUP_FIELDSET_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsGroupFieldsetHandler(); }
+    };
+    private static final HandlerFactory XFORMS_GROUP_DEFAULT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsGroupDefaultHandler(); }
+    };
+    private static final HandlerFactory XFORMS_CASE_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsCaseHandler(); }
+    };
+    private static final HandlerFactory XFORMS_REPEAT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsRepeatHandler(); }
+    };
+    private static final HandlerFactory NULL_ELEMENT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new NullElementHandler(); }
+    };
+    private static final HandlerFactory XFORMS_SECRET_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsSecretHandler(); }
+    };
+    private static final HandlerFactory XFORMS_UPLOAD_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsUploadHandler(); }
+    };
+    private static final HandlerFactory XFORMS_RANGE_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsRangeHandler(); }
+    };
+    private static final HandlerFactory XFORMS_TEXTAREA_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsTextareaHandler(); }
+    };
+    private static final HandlerFactory XXFORMS_DIALOG_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XXFormsDialogHandler(); }
+    };
+    private static final HandlerFactory NULL_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new NullHandler(); }
+    };
+    private static final HandlerFactory XFORMS_SELECT1_INTERNAL_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsSelect1InternalHandler(); }
+    };
+    private static final HandlerFactory XFORMS_SELECT_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsSelectHandler(); }
+    };
+    private static final HandlerFactory XFORMS_SELECT1_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsSelect1Handler(); }
+    };
+    private static final HandlerFactory XFORMS_LHHA_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XFormsLHHAHandler(); }
+    };
+    private static final HandlerFactory XXFORMS_DYNAMIC_HANDLER = new HandlerFactory() {
+        public ElementHandler create() { return new XXFormsDynamicHandler(); }
+    };
+
     public static void registerHandlers(final ElementHandlerController controller, final XFormsContainingDocument containingDocument) {
 
         // Add handlers for custom components
         final StaticStateGlobalOps ops = containingDocument.getStaticOps();
-        controller.registerHandler(XXFormsComponentHandler.class.getName(), new Matcher() {
+        controller.registerHandler(XXFORMS_COMPONENT_HANDLER, new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 return ops.getBinding(getPrefixedId(attributes, handlerContext)).isDefined();
             }
         });
 
         // xf:input
-        controller.registerHandler(XFormsInputHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "input", ANY_MATCHER);
+        controller.registerHandler(XFORMS_INPUT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "input", ANY_MATCHER);
 
         // xf:output
-        controller.registerHandler(XFormsOutputTextHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output",
+        controller.registerHandler(XFORMS_OUTPUT_TEXT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "output",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_TEXT_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsOutputDownloadHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output",
+        controller.registerHandler(XFORMS_OUTPUT_DOWNLOAD_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "output",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_DOWNLOAD_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsOutputImageHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
+        controller.registerHandler(XFORMS_OUTPUT_IMAGE_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // TODO: aks ElementAnalysis for its mediatype
                 final String mediatypeValue = attributes.getValue("mediatype");
                 return mediatypeValue != null && mediatypeValue.startsWith("image/");
             }
         });
-        controller.registerHandler(XFormsOutputHTMLHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
+        controller.registerHandler(XFORMS_OUTPUT_HTML_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // TODO: aks ElementAnalysis for its mediatype
                 final String mediatypeValue = attributes.getValue("mediatype");
                 return mediatypeValue != null && mediatypeValue.equals("text/html");
             }
         });
-        controller.registerHandler(XFormsOutputDefaultHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output", ANY_MATCHER);
+        controller.registerHandler(XFORMS_OUTPUT_DEFAULT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "output", ANY_MATCHER);
 
         // xf:trigger
         final Matcher triggerSubmitMinimalMatcher = new AppearanceMatcher(XFormsConstants.XFORMS_MINIMAL_APPEARANCE_QNAME) {
@@ -288,18 +372,18 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
                 return ! containingDocument.noscript() && super.doesMatch(attributes, handlerContext);
             }
         };
-        controller.registerHandler(XFormsTriggerMinimalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", triggerSubmitMinimalMatcher);
-        controller.registerHandler(XFormsTriggerFullHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", ANY_MATCHER);
+        controller.registerHandler(XFORMS_TRIGGER_MINIMAL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", triggerSubmitMinimalMatcher);
+        controller.registerHandler(XFORMS_TRIGGER_FULL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", ANY_MATCHER);
 
         // xf:submit
-        controller.registerHandler(XFormsTriggerMinimalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "submit", triggerSubmitMinimalMatcher);
-        controller.registerHandler(XFormsTriggerFullHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "submit", ANY_MATCHER);
+        controller.registerHandler(XFORMS_TRIGGER_MINIMAL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "submit", triggerSubmitMinimalMatcher);
+        controller.registerHandler(XFORMS_TRIGGER_FULL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "submit", ANY_MATCHER);
 
         // xf:group
-        controller.registerHandler(XFormsGroupInternalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group",
+        controller.registerHandler(XFORMS_GROUP_INTERNAL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "group",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_INTERNAL_APPEARANCE_QNAME));
 
-        controller.registerHandler(XFormsGroupSeparatorHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group", new Matcher() {
+        controller.registerHandler(XFORMS_GROUP_SEPARATOR_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "group", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // XFormsAnnotator adds this appearance if needed
                 // See: https://github.com/orbeon/orbeon-forms/issues/418
@@ -308,18 +392,18 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
             }
         });
 
-        controller.registerHandler(XFormsGroupFieldsetHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group",
+        controller.registerHandler(XFORMS_GROUP_FIELDSET_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "group",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_FIELDSET_APPEARANCE_QNAME) {
                     public boolean doesMatch(Attributes attributes, Object handlerContext) {
                         return super.doesMatch(attributes, handlerContext) || LHHASupport.hasLabel(containingDocument, getPrefixedId(attributes, handlerContext));
                     }
                 });
 
-        controller.registerHandler(XFormsGroupDefaultHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group", ANY_MATCHER);
+        controller.registerHandler(XFORMS_GROUP_DEFAULT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "group", ANY_MATCHER);
 
         // xf:switch
         // NOTE: We use the same handlers for switch as we do for group
-        controller.registerHandler(XFormsGroupSeparatorHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "switch", new Matcher() {
+        controller.registerHandler(XFORMS_GROUP_SEPARATOR_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "switch", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // XFormsAnnotator adds this appearance if needed
                 // See: https://github.com/orbeon/orbeon-forms/issues/418
@@ -327,45 +411,45 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
                 return XFormsConstants.XXFORMS_SEPARATOR_APPEARANCE_QNAME.getQualifiedName().equals(appearanceAttributeValue);
             }
         });
-        controller.registerHandler(XFormsGroupDefaultHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "switch", ANY_MATCHER);
-        controller.registerHandler(XFormsCaseHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "case", ANY_MATCHER);
+        controller.registerHandler(XFORMS_GROUP_DEFAULT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "switch", ANY_MATCHER);
+        controller.registerHandler(XFORMS_CASE_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "case", ANY_MATCHER);
 
         // xf:repeat
-        controller.registerHandler(XFormsRepeatHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "repeat", ANY_MATCHER);
-        controller.registerHandler(NullElementHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "repeat-iteration", ANY_MATCHER);
+        controller.registerHandler(XFORMS_REPEAT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "repeat", ANY_MATCHER);
+        controller.registerHandler(NULL_ELEMENT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "repeat-iteration", ANY_MATCHER);
 
         // xf:secret
-        controller.registerHandler(XFormsSecretHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "secret", ANY_MATCHER);
+        controller.registerHandler(XFORMS_SECRET_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "secret", ANY_MATCHER);
 
         // xf:upload
-        controller.registerHandler(XFormsUploadHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "upload", ANY_MATCHER);
+        controller.registerHandler(XFORMS_UPLOAD_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "upload", ANY_MATCHER);
 
         // xf:range
-        controller.registerHandler(XFormsRangeHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "range", ANY_MATCHER);
+        controller.registerHandler(XFORMS_RANGE_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "range", ANY_MATCHER);
 
         // Other controls
-        controller.registerHandler(XFormsTextareaHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "textarea", ANY_MATCHER);
+        controller.registerHandler(XFORMS_TEXTAREA_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "textarea", ANY_MATCHER);
         if (!containingDocument.noscript())
-            controller.registerHandler(XXFormsDialogHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
+            controller.registerHandler(XXFORMS_DIALOG_HANDLER, XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
         else
-            controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
+            controller.registerHandler(NULL_HANDLER, XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
 
         // xf:select and xf:select1
-        controller.registerHandler(XFormsSelect1InternalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select",
+        controller.registerHandler(XFORMS_SELECT1_INTERNAL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "select",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_INTERNAL_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsSelect1InternalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select1",
+        controller.registerHandler(XFORMS_SELECT1_INTERNAL_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "select1",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_INTERNAL_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsSelectHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select", ANY_MATCHER);
-        controller.registerHandler(XFormsSelect1Handler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select1", ANY_MATCHER);
+        controller.registerHandler(XFORMS_SELECT_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "select", ANY_MATCHER);
+        controller.registerHandler(XFORMS_SELECT1_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "select1", ANY_MATCHER);
 
         // Add handlers for LHHA elements
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "label", ANY_MATCHER);
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "help", ANY_MATCHER);
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "hint", ANY_MATCHER);
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "alert", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "label", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "help", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "hint", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER, XFormsConstants.XFORMS_NAMESPACE_URI, "alert", ANY_MATCHER);
 
         // xxf:dynamic
-        controller.registerHandler(XXFormsDynamicHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "dynamic", ANY_MATCHER);
+        controller.registerHandler(XXFORMS_DYNAMIC_HANDLER, XFormsConstants.XXFORMS_NAMESPACE_URI, "dynamic", ANY_MATCHER);
     }
 
     public void end(String uri, String localname, String qName) throws SAXException {
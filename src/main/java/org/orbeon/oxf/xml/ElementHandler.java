@@ -74,6 +74,16 @@ public abstract class ElementHandler {
      */
     public abstract boolean isForwarding();
 
+    /**
+     * Whether the same handler instance can handle all the elements it matches. This is the case for handlers which
+     * don't keep state specific to an element.
+     *
+     * @return true iif the handler can be reused
+     */
+    public boolean isReusable() {
+        return false;
+    }
+
     /**
      * Set a context object for this handler.
      *
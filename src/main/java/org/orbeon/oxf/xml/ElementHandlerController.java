@@ -42,8 +42,9 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
     private Object elementHandlerContext;
     private DeferredXMLReceiver output;
 
-    private final Map<String, List<HandlerMatcher>> handlerMatchers = new HashMap<String, List<HandlerMatcher>>();
-    private final Map<String, String> uriHandlers = new HashMap<String, String>();
+    // Handlers by namespace URI, then local name, so that looking up a handler doesn't allocate
+    private final Map<String, Map<String, List<HandlerMatcher>>> handlerMatchers = new HashMap<String, Map<String, List<HandlerMatcher>>>();
+    private final Map<String, HandlerMatcher> uriHandlers = new HashMap<String, HandlerMatcher>();
     private final List<HandlerMatcher> customMatchers = new ArrayList<HandlerMatcher>();
 
     private final Stack<HandlerInfo> handlerInfos = new Stack<HandlerInfo>();
@@ -56,36 +57,37 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
 
     private int level = 0;
 
-    // Class.forName is expensive, so we cache mappings
-    private static Map<String, Class<ElementHandler>> classNameToHandlerClass = new HashMap<String, Class<ElementHandler>>();
-
     /**
      * Register a handler. The handler can match on a URI + localname + custom matcher, URI + localname, or on URI only
      * in that order.
      *
-     * @param handlerClassName      class name for the handler
+     * @param handlerFactory        factory creating the handler
      * @param uri                   URI of the element that triggers the handler
      * @param localname             local name of the element that triggers the handler, or null if match on URI only
      * @param matcher               matcher on attributes, or null
      */
-    public void registerHandler(String handlerClassName, String uri, String localname, Matcher matcher) {
+    public void registerHandler(HandlerFactory handlerFactory, String uri, String localname, Matcher matcher) {
         if (localname != null) {
             // Match on URI + localname and optionally custom matcher
-            final String key = XMLUtils.buildExplodedQName(uri, localname);
-            List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(key);
+            Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+            if (localnameMatchers == null) {
+                localnameMatchers = new HashMap<String, List<HandlerMatcher>>();
+                this.handlerMatchers.put(uri, localnameMatchers);
+            }
+            List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
             if (handlerMatchers == null) {
                 handlerMatchers = new ArrayList<HandlerMatcher>();
-                this.handlerMatchers.put(key, handlerMatchers);
+                localnameMatchers.put(localname, handlerMatchers);
             }
-            handlerMatchers.add(new HandlerMatcher(handlerClassName, matcher != null ? matcher : ALL_MATCHER));
+            handlerMatchers.add(new HandlerMatcher(handlerFactory, matcher != null ? matcher : ALL_MATCHER));
         } else {
             // Match on URI only
-            uriHandlers.put(uri, handlerClassName);
+            uriHandlers.put(uri, new HandlerMatcher(handlerFactory, ALL_MATCHER));
         }
     }
 
-    public void registerHandler(String handlerClassName, Matcher matcher) {
-        customMatchers.add(new HandlerMatcher(handlerClassName, matcher));
+    public void registerHandler(HandlerFactory handlerFactory, Matcher matcher) {
+        customMatchers.add(new HandlerMatcher(handlerFactory, matcher));
     }
 
     public void setElementHandlerContext(Object elementHandlerContext) {
@@ -135,9 +137,7 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
                 // Just ignore content
             } else {
                 // Look for a new handler
-                final String explodedQName = XMLUtils.buildExplodedQName(uri, localname);
-
-                final HandlerInfo handlerInfo = getHandler(uri, explodedQName, attributes);
+                final HandlerInfo handlerInfo = getHandler(uri, localname, attributes);
 
                 if (handlerInfo != null) {
                     // New handler found
@@ -502,7 +502,7 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
         final HandlerInfo handlerInfo =
             getHandler(
                 element.getNamespaceURI(),
-                XMLUtils.buildExplodedQName(element.getNamespaceURI(), element.getName()),
+                element.getName(),
                 Dom4jUtils.getSAXAttributes(element)
             );
 
@@ -511,74 +511,55 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
             : null;
     }
 
-    private HandlerInfo getHandler(String uri, String explodedQName, Attributes attributes) {
+    private HandlerInfo getHandler(String uri, String localname, Attributes attributes) {
 
         // 1: Try custom matchers
-        {
-            final HandlerInfo handlerInfo = runMatchers(customMatchers, explodedQName, attributes);
+        if (! customMatchers.isEmpty()) {
+            final HandlerInfo handlerInfo = runMatchers(customMatchers, attributes);
             if (handlerInfo != null)
                 return handlerInfo;
         }
 
         // 2: Try full matchers
-        final List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(explodedQName);
-        if (handlerMatchers != null) {
-            final HandlerInfo handlerInfo = runMatchers(handlerMatchers, explodedQName, attributes);
-            if (handlerInfo != null)
-                return handlerInfo;
+        final Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+        if (localnameMatchers != null) {
+            final List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
+            if (handlerMatchers != null) {
+                final HandlerInfo handlerInfo = runMatchers(handlerMatchers, attributes);
+                if (handlerInfo != null)
+                    return handlerInfo;
+            }
         }
 
         // 3: Try URI-based handler
-        final String uriHandlerClassName = uriHandlers.get(uri);
-        if (uriHandlerClassName != null) {
-            final ElementHandler elementHandler = getHandlerByClassName(uriHandlerClassName);
-            return new HandlerInfo(level, explodedQName, elementHandler, attributes, null, this.locator);
-        }
+        final HandlerMatcher uriHandlerMatcher = uriHandlers.get(uri);
+        if (uriHandlerMatcher != null)
+            return new HandlerInfo(level, uriHandlerMatcher.getHandler(), attributes, null, this.locator);
 
         return null;
     }
 
-    private HandlerInfo runMatchers(List<HandlerMatcher> matchers, String explodedQName, Attributes attributes) {
-        for (HandlerMatcher handlerMatcher: matchers) {
+    private HandlerInfo runMatchers(List<HandlerMatcher> matchers, Attributes attributes) {
+        // Index-based loop to avoid allocating an iterator
+        for (int i = 0; i < matchers.size(); i++) {
+            final HandlerMatcher handlerMatcher = matchers.get(i);
             final Object matched = handlerMatcher.matcher.match(attributes, elementHandlerContext);
-            if (matched != null) {
-                final ElementHandler elementHandler = getHandlerByClassName(handlerMatcher.handlerClassName);
-                return new HandlerInfo(level, explodedQName, elementHandler, attributes, matched, this.locator);
-            }
+            if (matched != null)
+                return new HandlerInfo(level, handlerMatcher.getHandler(), attributes, matched, this.locator);
         }
         return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private ElementHandler getHandlerByClassName(String handlerClassName) {
-        Class<ElementHandler> handlerClass = classNameToHandlerClass.get(handlerClassName);
-        if (handlerClass == null) {
-            try {
-                handlerClass = (Class<ElementHandler>) Class.forName(handlerClassName);
-                classNameToHandlerClass.put(handlerClassName, handlerClass);
-            } catch (ClassNotFoundException e) {
-                throw OrbeonLocationException.wrapException(e, new LocationData(locator));
-            }
-        }
-        try {
-            return handlerClass.newInstance();
-        } catch (Exception e) {
-            throw OrbeonLocationException.wrapException(e, new LocationData(locator));
-        }
-    }
-
     private static class HandlerInfo {
         public final int level;
-        public final String explodedQName;
         public final ElementHandler elementHandler;
         public final Attributes attributes;
         public final Object matched;
 
         public final SAXStore saxStore;
 
-        public HandlerInfo(int level, String explodedQName, ElementHandler elementHandler, Attributes attributes, Object matched, Locator locator) {
+        public HandlerInfo(int level, ElementHandler elementHandler, Attributes attributes, Object matched, Locator locator) {
             this.level = level;
-            this.explodedQName = explodedQName;
             this.elementHandler = elementHandler;
             this.attributes = elementHandler.isRepeating() ? new AttributesImpl(attributes) : null; // NOTE: could keep attributes if needed
             this.matched = matched;
@@ -591,6 +572,13 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
         }
     }
 
+    /**
+     * Create handlers for matching elements.
+     */
+    public interface HandlerFactory {
+        ElementHandler create();
+    }
+
     public interface Matcher<T> {
         T match(Attributes attributes, Object handlerContext);
     }
@@ -602,12 +590,25 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
     };
 
     private static class HandlerMatcher {
-        public String handlerClassName;
-        public Matcher matcher;
+        public final HandlerFactory handlerFactory;
+        public final Matcher matcher;
+
+        // Handler which can be used for all matching elements, see ElementHandler.isReusable()
+        private ElementHandler reusableHandler;
 
-        private HandlerMatcher(String handlerClassName, Matcher matcher) {
-            this.handlerClassName = handlerClassName;
+        private HandlerMatcher(HandlerFactory handlerFactory, Matcher matcher) {
+            this.handlerFactory = handlerFactory;
             this.matcher = matcher;
         }
+
+        public ElementHandler getHandler() {
+            if (reusableHandler != null)
+                return reusableHandler;
+
+            final ElementHandler handler = handlerFactory.create();
+            if (handler.isReusable())
+                reusableHandler = handler;
+            return handler;
+        }
     }
 }
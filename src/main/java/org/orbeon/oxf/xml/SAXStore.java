@@ -17,6 +17,7 @@ import org.dom4j.Document;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.TransformerXMLReceiver;
 import org.orbeon.oxf.processor.SAXLoggerProcessor;
+import org.orbeon.oxf.util.NetUtils;
 import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler;
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
@@ -36,9 +37,12 @@ import java.util.List;
  * As of June 2009, we increase the size of buffers by 50% instead of 100%. Still not the greatest way. Possibly,
  * passed a threshold, say 10 MB or 20 MB, we could use a linked list of such big blocks.
  *
+ * The content of binary documents received with binary() is kept as bytes rather than base64 characters, and is
+ * replayed with binary() to a BinaryXMLReceiver, or as base64 characters otherwise.
+ *
  * TODO: Handling of system IDs is not optimal in memory as system IDs are unlikely to change much within a document.
  */
-public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
+public class SAXStore extends ForwardingXMLReceiver implements BinaryXMLReceiver, Externalizable {
 
     public static final byte START_DOCUMENT = 0x00;
     public static final byte END_DOCUMENT = 0x01;
@@ -48,6 +52,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
     public static final byte END_PREFIX_MAPPING = 0x05;
     public static final byte IGN_WHITESPACE = 0x06;
     public static final byte PI = 0x07;
+    public static final byte BINARY = 0x08;
     public static final byte SKIPPED_ENTITY = 0x09;
     public static final byte START_PREFIX_MAPPING = 0x0A;
     public static final byte COMMENT = 0x0B;
@@ -75,6 +80,8 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
     private List<String> StringBuilder = new ArrayList<String>();
 
+    private List<byte[]> binaryBuffer = new ArrayList<byte[]>();
+
     private boolean hasDocumentLocator;
     private String publicId;
 
@@ -93,6 +100,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         public final int systemIdBufferPosition;
         public final int attributeCountBufferPosition;
         public final int StringBuilderPosition;
+        public final int binaryBufferPosition;
 
         private Mark() {
             id = null;
@@ -103,6 +111,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
             this.systemIdBufferPosition = 0;
             this.attributeCountBufferPosition = 0;
             this.StringBuilderPosition = 0;
+            this.binaryBufferPosition = 0;
         }
 
         private Mark(final SAXStore store, final String id) {
@@ -114,6 +123,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
             this.systemIdBufferPosition = store.systemIdBufferPosition;
             this.attributeCountBufferPosition = store.attributeCountBufferPosition;
             this.StringBuilderPosition = store.StringBuilder.size();
+            this.binaryBufferPosition = store.binaryBuffer.size();
             
             rememberMark();
         }
@@ -128,6 +138,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
             this.systemIdBufferPosition = values[i++];
             this.attributeCountBufferPosition = values[i++];
             this.StringBuilderPosition = values[i++];
+            this.binaryBufferPosition = values[i++];
             
             rememberMark();
         }
@@ -179,6 +190,9 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
             }
         }
 
+        for (final byte[] bytes : binaryBuffer)
+            size += bytes.length;
+
         return size;
     }
 
@@ -228,6 +242,8 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
         StringBuilder.clear();
 
+        binaryBuffer.clear();
+
         locator = null;
     }
 
@@ -239,6 +255,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         int intBufferPos = mark.intBufferPosition;
         int charBufferPos = mark.charBufferPosition;
         int StringBuilderPos = mark.StringBuilderPosition;
+        int binaryBufferPos = mark.binaryBufferPosition;
         int attributeCountBufferPos = mark.attributeCountBufferPosition;
         final int[] lineBufferPos = { mark.lineBufferPosition } ;
         final int[] systemIdBufferPos = { mark.systemIdBufferPosition } ;
@@ -348,6 +365,10 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
                             StringBuilder.get(StringBuilderPos++));
                     break;
                 }
+                case BINARY: {
+                    replayBinary(binaryBuffer.get(binaryBufferPos++), xmlReceiver);
+                    break;
+                }
                 case SKIPPED_ENTITY: {
                     xmlReceiver.skippedEntity(StringBuilder.get(StringBuilderPos++));
                     break;
@@ -374,6 +395,13 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         }
     }
 
+    private static void replayBinary(byte[] bytes, XMLReceiver xmlReceiver) {
+        if (xmlReceiver instanceof BinaryXMLReceiver)
+            ((BinaryXMLReceiver) xmlReceiver).binary(new ByteArrayInputStream(bytes));
+        else
+            SAXUtils.inputStreamToBase64Characters(new ByteArrayInputStream(bytes), xmlReceiver);
+    }
+
     // Create a new mark
     // NOTE: This must be called *before* the startElement() event that will be the first element associated with the mark.
     public Mark getMark(String id) {
@@ -561,6 +589,20 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         super.comment(ch, start, length);
     }
 
+    @Override
+    public void binary(InputStream is) {
+
+        final byte[] bytes = NetUtils.inputStreamToByteArray(is);
+
+        addToEventBuffer(BINARY);
+        binaryBuffer.add(bytes);
+
+        addLocation();
+
+        if (getXMLReceiver() != null)
+            replayBinary(bytes, getXMLReceiver());
+    }
+
     private final void addLocation() {
         if (locator != null) {
             addToLineBuffer(locator.getLineNumber());
@@ -722,6 +764,12 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         for (int i = 0; i < StringBuilder.size(); i++)
             out.writeObject(StringBuilder.get(i));
 
+        out.writeInt(binaryBuffer.size());
+        for (final byte[] bytes : binaryBuffer) {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
         out.writeBoolean(hasDocumentLocator);
         out.writeObject(publicId == null ? "" : publicId);
         
@@ -738,6 +786,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
                 out.writeInt(mark.systemIdBufferPosition);
                 out.writeInt(mark.attributeCountBufferPosition);
                 out.writeInt(mark.StringBuilderPosition);
+                out.writeInt(mark.binaryBufferPosition);
             }
         }
 
@@ -785,6 +834,13 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         for (int i = 0; i < StringBuilderSize; i++)
             StringBuilder.add((String) in.readObject());
 
+        final int binaryBufferSize = in.readInt();
+        for (int i = 0; i < binaryBufferSize; i++) {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            binaryBuffer.add(bytes);
+        }
+
         hasDocumentLocator = in.readBoolean();
         publicId = (String) in.readObject();
         if ("".equals(publicId))
@@ -794,8 +850,8 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         if (marksCount > 0) {
             for (int i = 0; i < marksCount; i++) {
                 final String id = (String) in.readObject();
-                int[] values = new int[7];
-                for (int j = 0; j < 7; j++)
+                int[] values = new int[8];
+                for (int j = 0; j < 8; j++)
                     values[j] = in.readInt();
                 new Mark(values, id);
             }
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml;
+
+import org.dom4j.Element;
+import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Build each element matching a simple absolute path such as /rows/row as a separate document, and pass it to
+ * element() as soon as the element ends. Only one matching element is in memory at a time.
+ */
+public abstract class StreamingPathReceiver extends XMLReceiverAdapter {
+
+    private static final Pattern SIMPLE_PATH = Pattern.compile("(/(\\*|([^\\s/:\\[\\]()@*]+:)?[^\\s/:\\[\\]()@*]+))+");
+
+    /**
+     * Return the names to match at each level of the path, as exploded QNames, or null for any element.
+     *
+     * @throws IllegalArgumentException if the path is not a simple absolute path, or uses an undeclared prefix
+     */
+    public static String[] getNames(String path, Map<String, String> prefixesMap) {
+        final String trimmedPath = path.trim();
+        if (! SIMPLE_PATH.matcher(trimmedPath).matches())
+            throw new IllegalArgumentException("select attribute must be a simple absolute path when streaming: " + path);
+
+        final String[] steps = trimmedPath.substring(1).split("/");
+        final String[] names = new String[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            final String step = steps[i];
+            if ("*".equals(step)) {
+                names[i] = null;
+            } else {
+                final int colonIndex = step.indexOf(':');
+                if (colonIndex == -1) {
+                    names[i] = "{}" + step;
+                } else {
+                    final String namespaceURI = prefixesMap.get(step.substring(0, colonIndex));
+                    if (namespaceURI == null)
+                        throw new IllegalArgumentException("Undeclared prefix in select attribute: " + step);
+                    names[i] = "{" + namespaceURI + "}" + step.substring(colonIndex + 1);
+                }
+            }
+        }
+        return names;
+    }
+
+    private final String[] names;
+    private final NamespaceSupport namespaceSupport = new NamespaceSupport();
+    private final List<String[]> pendingMappings = new ArrayList<String[]>();
+
+    private Locator locator;
+    private int level;
+    private int matchedLevel;
+    private LocationSAXContentHandler builder;
+
+    public StreamingPathReceiver(String[] names) {
+        this.names = names;
+    }
+
+    /**
+     * Called with the root element of the document built for each matching element.
+     */
+    protected abstract void element(Element element) throws SAXException;
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        if (builder != null)
+            builder.startPrefixMapping(prefix, uri);
+        else
+            pendingMappings.add(new String[] { prefix, uri });
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        if (builder != null)
+            builder.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void startElement(String uri, String localname, String qName, Attributes attributes) throws SAXException {
+        level++;
+        if (builder != null) {
+            builder.startElement(uri, localname, qName, attributes);
+            return;
+        }
+
+        namespaceSupport.pushContext();
+        for (String[] mapping : pendingMappings)
+            namespaceSupport.declarePrefix(mapping[0], mapping[1]);
+        pendingMappings.clear();
+
+        if (matchedLevel == level - 1 && level <= names.length && matches(names[level - 1], uri, localname)) {
+            matchedLevel = level;
+            if (level == names.length) {
+                // Start building the element with all the namespaces in scope
+                builder = new LocationSAXContentHandler();
+                if (locator != null)
+                    builder.setDocumentLocator(locator);
+                builder.startDocument();
+                for (Enumeration e = namespaceSupport.getPrefixes(); e.hasMoreElements();) {
+                    final String prefix = (String) e.nextElement();
+                    if (! "xml".equals(prefix))
+                        builder.startPrefixMapping(prefix, namespaceSupport.getURI(prefix));
+                }
+                final String defaultNamespaceURI = namespaceSupport.getURI("");
+                if (defaultNamespaceURI != null && defaultNamespaceURI.length() > 0)
+                    builder.startPrefixMapping("", defaultNamespaceURI);
+                builder.startElement(uri, localname, qName, attributes);
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localname, String qName) throws SAXException {
+        if (builder != null) {
+            builder.endElement(uri, localname, qName);
+            if (level > names.length) {
+                level--;
+                return;
+            }
+            builder.endDocument();
+            final Element element = builder.getDocument().getRootElement();
+            builder = null;
+            element(element);
+        }
+
+        if (matchedLevel == level)
+            matchedLevel--;
+        namespaceSupport.popContext();
+        level--;
+    }
+
+    @Override
+    public void characters(char[] chars, int start, int length) throws SAXException {
+        if (builder != null)
+            builder.characters(chars, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException {
+        if (builder != null)
+            builder.ignorableWhitespace(chars, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (builder != null)
+            builder.processingInstruction(target, data);
+    }
+
+    @Override
+    public void comment(char[] chars, int start, int length) throws SAXException {
+        if (builder != null)
+            builder.comment(chars, start, length);
+    }
+
+    private boolean matches(String name, String uri, String localname) {
+        return name == null || name.equals("{" + (uri == null ? "" : uri) + "}" + localname);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.saxon.dom4j;
+
+import org.dom4j.*;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Index of the position of the nodes of a dom4j document, which allows comparing the document order of nodes and
+ * obtaining their sibling position in constant time.
+ *
+ * Without the index, this requires walking sibling lists, which makes sorting nodes in document order quadratic over
+ * wide repeats. The index is only built once enough positions have been requested since the document was last
+ * modified, so that documents which are modified between each XPath evaluation don't pay for rebuilding it. It is
+ * discarded as soon as the document is modified, see Document.modificationCount(). Building the index marks the
+ * elements it visits, so that only changes to indexed elements are counted.
+ *
+ * Namespace nodes are not indexed, as dom4j shares them between elements.
+ */
+class DocumentOrderIndex {
+
+    // Number of positions requested since the last modification after which the index is built
+    private static final int BUILD_THRESHOLD = 64;
+
+    static final class Position {
+        final int sequence;
+        final int siblingPosition;
+
+        Position(int sequence, int siblingPosition) {
+            this.sequence = sequence;
+            this.siblingPosition = siblingPosition;
+        }
+    }
+
+    // Positions, together with the modification count of the document they are valid for
+    private static final class Positions {
+        final long modificationCount;
+        final IdentityHashMap<Object, Position> positions;
+
+        Positions(long modificationCount, IdentityHashMap<Object, Position> positions) {
+            this.modificationCount = modificationCount;
+            this.positions = positions;
+        }
+    }
+
+    private final Document document;
+
+    // Documents may be read concurrently, so the positions are replaced as a whole
+    private volatile Positions positions;
+
+    // Concurrent readers may lose some updates of these counters, which only delays building the index
+    private volatile long requestsModificationCount = -1;
+    private volatile int requestsSinceModification;
+
+    DocumentOrderIndex(Document document) {
+        this.document = document;
+    }
+
+    /**
+     * Return the position of the given node, or null if the index is not available or doesn't contain the node.
+     */
+    Position getPosition(Object node) {
+
+        final long modificationCount = document.modificationCount();
+        final Positions currentPositions = positions;
+
+        if (currentPositions != null && currentPositions.modificationCount == modificationCount)
+            return currentPositions.positions.get(node);
+
+        if (requestsModificationCount != modificationCount) {
+            requestsModificationCount = modificationCount;
+            requestsSinceModification = 0;
+        }
+
+        if (++requestsSinceModification < BUILD_THRESHOLD)
+            return null;
+
+        final Positions newPositions = new Positions(modificationCount, buildPositions(document));
+        positions = newPositions;
+        return newPositions.positions.get(node);
+    }
+
+    private static IdentityHashMap<Object, Position> buildPositions(Document document) {
+
+        final IdentityHashMap<Object, Position> positions = new IdentityHashMap<Object, Position>();
+        positions.put(document, new Position(0, 0));
+
+        // See NodeWrapper.getSiblingPosition() for the content of a document without content
+        final List<Node> content = document.content();
+        if (content.size() == 0 && document.getRootElement() != null)
+            addElementPositions(document.getRootElement(), 0, 1, positions);
+        else
+            addChildrenPositions(content, 1, positions);
+
+        return positions;
+    }
+
+    // Return the next sequence number
+    private static int addChildrenPositions(List<Node> children, int sequence, IdentityHashMap<Object, Position> positions) {
+        final int size = children.size();
+        for (int i = 0; i < size; i++) {
+            final Node child = children.get(i);
+            if (child instanceof Element)
+                sequence = addElementPositions((Element) child, i, sequence, positions);
+            else if (! (child instanceof Namespace))
+                positions.put(child, new Position(sequence++, i));
+        }
+        return sequence;
+    }
+
+    // Return the next sequence number
+    private static int addElementPositions(Element element, int siblingPosition, int sequence, IdentityHashMap<Object, Position> positions) {
+
+        positions.put(element, new Position(sequence++, siblingPosition));
+        element.markIndexed();
+
+        // Attributes follow their element and precede its children
+        final int attributeCount = element.attributeCount();
+        for (int i = 0; i < attributeCount; i++)
+            positions.put(element.attribute(i), new Position(sequence++, i));
+
+        return addChildrenPositions(element.content(), sequence, positions);
+    }
+}
@@ -30,6 +30,8 @@ public class DocumentWrapper extends NodeWrapper implements DocumentInfo {
 
     private IdGetter idGetter;
 
+    private final DocumentOrderIndex documentOrderIndex;
+
     /**
      * Create a Saxon wrapper for a dom4j document
      * @param doc     The dom4j document
@@ -46,6 +48,15 @@ public class DocumentWrapper extends NodeWrapper implements DocumentInfo {
 
         docWrapper = this;
         setConfiguration(config);
+
+        documentOrderIndex = new DocumentOrderIndex(doc);
+    }
+
+    /**
+     * Return the position of a node of this document from the document order index, or null if not available.
+     */
+    DocumentOrderIndex.Position getDocumentOrderPosition(Object node) {
+        return documentOrderIndex.getPosition(node);
     }
 
     /**
@@ -254,6 +254,18 @@ public class NodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNode {
     */
 
     public int compareOrder(NodeInfo other) {
+
+        // Use the document order index when both nodes are in the same wrapped document
+        if (other instanceof NodeWrapper && docWrapper != null && ((NodeWrapper) other).docWrapper == docWrapper
+                && nodeKind != Type.NAMESPACE && other.getNodeKind() != Type.NAMESPACE) {
+            final DocumentOrderIndex.Position thisPosition = docWrapper.getDocumentOrderPosition(node);
+            if (thisPosition != null) {
+                final DocumentOrderIndex.Position otherPosition = docWrapper.getDocumentOrderPosition(((NodeWrapper) other).node);
+                if (otherPosition != null)
+                    return thisPosition.sequence < otherPosition.sequence ? -1 : thisPosition.sequence > otherPosition.sequence ? +1 : 0;
+            }
+        }
+
         return Navigator.compareOrder(this, (SiblingCountingNode)other);
     }
 
@@ -451,6 +463,13 @@ public class NodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNode {
      * Get the index position of this node among its siblings (starting from 0)
      */
     public int getSiblingPosition() {
+        if (index == -1 && docWrapper != null && nodeKind != Type.NAMESPACE && nodeKind != Type.DOCUMENT) {
+            final DocumentOrderIndex.Position position = docWrapper.getDocumentOrderPosition(node);
+            if (position != null) {
+                index = position.siblingPosition;
+                return index;
+            }
+        }
         if (index == -1) {
             int ix = 0;
             getParent();
@@ -155,11 +155,7 @@ class PageFlowControllerProcessor extends ProcessorImpl with Logging {
     }
 
     // Run the first matching entry if any
-    val routOpt = (
-      pageFlow.routes.iterator
-      map  (route ⇒ route → MatchResult(route.routeElement.pattern, path))
-      find (_._2.matches)
-    )
+    val routOpt = pageFlow.routeIndex.findMatch(path)
 
     routOpt match {
       case Some((route: FileRoute, matchResult)) ⇒
@@ -598,7 +594,10 @@ object PageFlowControllerProcessor {
     errorRoute        : Option[PageOrServiceRoute],
     pathMatchers      : Seq[PathMatcher],
     file              : Option[String]
-  )
+  ) {
+    // Built once with the compiled page flow, as there can be hundreds of routes to match for every request
+    val routeIndex = new RouteIndex(routes.toIndexedSeq)(_.routeElement.pattern)
+  }
 
   def att(e: Element, name: String) = Option(e.attributeValue(name))
   def idAtt(e: Element) = att(e, "id")
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.controller
+
+import java.util.regex.Pattern
+
+import org.orbeon.oxf.processor.RegexpMatcher.MatchResult
+
+import scala.collection.mutable
+
+// Find the first route matching a path, without running the pattern of every route.
+//
+// Each pattern, whether it comes from a glob or from a regexp, is analyzed once:
+//
+// - patterns without any metacharacter only match one path, and go in a hash map
+// - other patterns only match paths starting with their literal prefix, and go in a trie under that prefix
+// - patterns without a literal prefix, including those with an alternation, go at the root of the trie
+//
+// Only the routes found this way are candidates, and their patterns run in route order, so the first matching route
+// is the same as with a linear scan.
+class RouteIndex[T](items: IndexedSeq[T])(pattern: T ⇒ Pattern) {
+
+  import RouteIndex._
+
+  private val analyzed = items map (item ⇒ analyze(pattern(item)))
+
+  // For each literal path, the first route with that path, as the others can never be the first match
+  private val literals: Map[String, Int] =
+    analyzed.zipWithIndex.reverse collect { case (Literal(path), index) ⇒ path → index } toMap
+
+  private val root: Node =
+    buildNode(analyzed.zipWithIndex collect { case (Prefix(prefix), index) ⇒ prefix → index }, 0)
+
+  def findMatch(path: String): Option[(T, MatchResult)] = {
+
+    val candidates = mutable.ArrayBuilder.make[Int]()
+
+    literals.get(path) foreach (candidates += _)
+
+    var node = root
+    var depth = 0
+    while (node ne null) {
+      candidates ++= node.routes
+      node =
+        if (depth < path.length)
+          node.children.get(path.charAt(depth)).orNull
+        else
+          null
+      depth += 1
+    }
+
+    val sorted = candidates.result()
+    java.util.Arrays.sort(sorted)
+
+    sorted.iterator map { index ⇒
+      val matchResult =
+        analyzed(index) match {
+          case Literal(_) ⇒ MatchResult(matches = true)
+          case Prefix(_)  ⇒ MatchResult(pattern(items(index)), path)
+        }
+      items(index) → matchResult
+    } find (_._2.matches)
+  }
+}
+
+object RouteIndex {
+
+  private val MetaCharacters = "[](){}.*+?^$|"
+  private val Quantifiers    = "?*+{"
+
+  private sealed trait Analyzed
+  private case class Literal(path: String)  extends Analyzed
+  private case class Prefix(prefix: String) extends Analyzed
+
+  private class Node(val routes: Array[Int], val children: Map[Char, Node])
+
+  private def buildNode(entries: Seq[(String, Int)], depth: Int): Node = {
+    val (here, deeper) = entries partition (_._1.length == depth)
+    new Node(
+      here.map(_._2).toArray,
+      deeper groupBy (_._1.charAt(depth)) map { case (c, childEntries) ⇒ c → buildNode(childEntries, depth + 1) }
+    )
+  }
+
+  // Read the literal characters at the start of the regexp, unescaping them, and tell whether that's the whole regexp
+  private def analyze(pattern: Pattern): Analyzed = {
+
+    val regexp = pattern.pattern
+
+    if (pattern.flags != 0)
+      return Prefix("")
+
+    val literal = new StringBuilder
+    var i = 0
+    var stopped = false
+    while (! stopped && i < regexp.length) {
+      val c = regexp.charAt(i)
+      if (c == '\\') {
+        // Only an escaped non-alphanumeric character is the character itself
+        if (i + 1 < regexp.length && ! Character.isLetterOrDigit(regexp.charAt(i + 1))) {
+          literal += regexp.charAt(i + 1)
+          i += 2
+        } else
+          stopped = true
+      } else if (MetaCharacters.indexOf(c) != -1)
+        stopped = true
+      else {
+        literal += c
+        i += 1
+      }
+    }
+
+    if (! stopped)
+      Literal(literal.toString)
+    else if (hasAlternation(regexp))
+      Prefix("")
+    else {
+      // A quantifier applies to the last literal character, which is then optional or repeated
+      val prefix =
+        if (literal.nonEmpty && Quantifiers.indexOf(regexp.charAt(i)) != -1)
+          literal.substring(0, literal.length - 1)
+        else
+          literal.toString
+      Prefix(prefix)
+    }
+  }
+
+  // Conservatively, any unescaped `|`, as it might be an alternation at the top level
+  private def hasAlternation(regexp: String): Boolean = {
+    var i = 0
+    while (i < regexp.length) {
+      regexp.charAt(i) match {
+        case '\\' ⇒ i += 1
+        case '|'  ⇒ return true
+        case _    ⇒
+      }
+      i += 1
+    }
+    false
+  }
+}
@@ -18,6 +18,8 @@ import java.net.URI
 import org.orbeon.oxf.externalcontext.URLRewriter
 import org.orbeon.oxf.fr.persistence.relational.Version._
 import org.orbeon.oxf.http.Headers._
+import org.orbeon.oxf.http.{Credentials, StreamedContent}
+import org.orbeon.oxf.util.Logging._
 import org.orbeon.oxf.util.ScalaUtils._
 import org.orbeon.oxf.util._
 import org.orbeon.oxf.xforms.action.XFormsAPI._
@@ -44,6 +46,8 @@ trait FormRunnerPersistence {
 
   val StandardProviderProperties = Set("uri", "autosave", "active", "permissions")
 
+  private val BinaryContentType = "application/octet-stream"
+
   // NOTE: We generate .bin, but sample data can contain other extensions
   private val RecognizedAttachmentExtensions = Set("bin", "jpg", "jpeg", "gif", "png", "pdf")
 
@@ -241,6 +245,97 @@ trait FormRunnerPersistence {
     }
   ).unzip3
 
+  // Maximum number of attachments saved at the same time
+  private def attachmentsParallelism =
+    properties.getInteger(PersistencePropertyPrefix + ".attachments.parallelism", 4) max 1
+
+  // Read an attachment and write it to the persistence layer, like fr-create-update-attachment-submission does
+  private def putAttachmentTask(
+    fromURL     : String,
+    toURL       : String,
+    credentials : Option[Credentials],
+    formVersion : Option[String])(implicit
+    logger      : IndentedLogger
+  ): () ⇒ Unit = {
+
+    val request = NetUtils.getExternalContext.getRequest
+
+    def absoluteURI(url: String) =
+      new URI(URLRewriterUtils.rewriteServiceURL(request, url, URLRewriter.REWRITE_MODE_ABSOLUTE))
+
+    val fromURI = absoluteURI(fromURL)
+    val toURI   = absoluteURI(toURL)
+
+    def headers(uri: URI, customHeaders: Map[String, List[String]], hasCredentials: Boolean) =
+      Connection.buildConnectionHeadersLowerIfNeeded(
+        scheme           = uri.getScheme,
+        hasCredentials   = hasCredentials,
+        customHeaders    = customHeaders,
+        headersToForward = Connection.headersToForwardFromProperty,
+        cookiesToForward = Connection.cookiesToForwardFromProperty,
+        getHeader        = containingDocument.headersGetter
+      ) mapValues (_.toList)
+
+    val getHeaders = headers(fromURI, Map(), hasCredentials = false)
+    val putHeaders =
+      headers(
+        toURI,
+        Map(ContentType → List(BinaryContentType)) ++ (formVersion.toList map (OrbeonFormDefinitionVersion → List(_))),
+        hasCredentials = credentials.isDefined
+      )
+
+    // IndentedLogger is not thread-safe, so each task logs with its own, which shares the underlying logger
+    val taskLogger = new IndentedLogger(logger, new IndentedLogger.Indentation, logger.isDebugEnabled)
+
+    ParallelTasks.withCurrentExternalContext {
+      putAttachment(fromURL, fromURI, toURL, toURI, credentials, getHeaders, putHeaders)(taskLogger)
+    }
+  }
+
+  private def putAttachment(
+    fromURL     : String,
+    fromURI     : URI,
+    toURL       : String,
+    toURI       : URI,
+    credentials : Option[Credentials],
+    getHeaders  : Map[String, List[String]],
+    putHeaders  : Map[String, List[String]])(implicit
+    logger      : IndentedLogger
+  ): Unit =
+    withDebug("saving attachment", Seq("from" → fromURL, "to" → toURL)) {
+
+      val getResult =
+        Connection(
+          httpMethodUpper = "GET",
+          url             = fromURI,
+          credentials     = None,
+          content         = None,
+          headers         = getHeaders,
+          loadState       = true,
+          logBody         = false
+        ).connect(
+          saveState = false
+        )
+
+      ConnectionResult.withSuccessConnection(getResult, closeOnSuccess = true) { is ⇒
+
+        val putResult =
+          Connection(
+            httpMethodUpper = "PUT",
+            url             = toURI,
+            credentials     = credentials,
+            content         = Some(StreamedContent(is, Some(BinaryContentType), None, None)),
+            headers         = putHeaders,
+            loadState       = true,
+            logBody         = false
+          ).connect(
+            saveState = false
+          )
+
+        ConnectionResult.withSuccessConnection(putResult, closeOnSuccess = true)(_ ⇒ ())
+      }
+    }
+
   def putWithAttachments(
     data              : DocumentInfo,
     toBaseURI         : String,
@@ -258,17 +353,27 @@ trait FormRunnerPersistence {
     val (uploadHolders, beforeURLs, afterURLs) =
       collectAttachments(data, fromBasePath, toBasePath, forceAttachments)
 
-    // Save all attachments
-    def saveAttachments(): Unit =
-      uploadHolders zip afterURLs foreach { case (holder, resource) ⇒
-        sendThrowOnError("fr-create-update-attachment-submission", Map(
-          "holder"       → Some(holder),
-          "resource"     → Some(appendQueryString(toBaseURI + resource, commonQueryString)),
-          "username"     → username,
-          "password"     → password,
-          "form-version" → formVersion)
-        )
-      }
+    implicit val logger = containingDocument.getIndentedLogger("form-runner")
+
+    // Save all attachments concurrently
+    // The tasks are created on this thread, as they need the request and the document
+    def saveAttachments(): Unit = {
+
+      val credentials =
+        username filter (_.nonEmpty) map (Credentials(_, password, preemptiveAuth = true, domain = None))
+
+      val tasks =
+        uploadHolders zip afterURLs map { case (holder, resource) ⇒
+          putAttachmentTask(
+            fromURL     = holder.stringValue.trimAllToEmpty,
+            toURL       = appendQueryString(toBaseURI + resource, commonQueryString),
+            credentials = credentials,
+            formVersion = formVersion
+          )
+        }
+
+      ParallelTasks.runAll(tasks, attachmentsParallelism)
+    }
 
     // Update the paths on success
     def updatePaths() =
@@ -287,18 +392,24 @@ trait FormRunnerPersistence {
       )
 
     // Do things in order, so we don't update path or save the data if any the upload fails
-    saveAttachments()
-    updatePaths()
+    withDebug("saving attachments", Seq("count" → uploadHolders.size.toString)) {
+      saveAttachments()
+    }
+    withDebug("updating attachment paths") {
+      updatePaths()
+    }
 
     // Save and try to retrieve returned version
     val versionOpt =
-      for {
-        done     ← saveData()
-        headers  ← done.headers
-        versions ← headers collectFirst { case (name, values) if name equalsIgnoreCase OrbeonFormDefinitionVersion ⇒ values }
-        version  ← versions.headOption
-      } yield
-        version
+      withDebug("saving data") {
+        for {
+          done     ← saveData()
+          headers  ← done.headers
+          versions ← headers collectFirst { case (name, values) if name equalsIgnoreCase OrbeonFormDefinitionVersion ⇒ values }
+          version  ← versions.headOption
+        } yield
+          version
+      }
 
     (beforeURLs, afterURLs, versionOpt map (_.toInt) getOrElse 1)
   }
@@ -15,8 +15,11 @@ package org.orbeon.oxf.fr
 
 
 import java.net.URI
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
 import javax.xml.transform.stream.StreamResult
 
+import org.orbeon.oxf.cache.{InternalCacheKey, ObjectCache}
 import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.externalcontext.URLRewriter._
 import org.orbeon.oxf.fr.persistence.relational.index.Index
@@ -27,13 +30,16 @@ import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.processor.ProcessorImpl
 import org.orbeon.oxf.processor.generator.RequestGenerator
 import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.Logging._
 import org.orbeon.oxf.util.ScalaUtils._
 import org.orbeon.oxf.util._
 import org.orbeon.oxf.xforms.action.XFormsAPI
 import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.saxon.om.NodeInfo
 import org.orbeon.scaxon.XML._
 
 import scala.collection.JavaConverters._
+import scala.util.{Failure, Success}
 
 /**
  * The persistence proxy processor:
@@ -44,6 +50,8 @@ import scala.collection.JavaConverters._
  */
 class FormRunnerPersistenceProxy extends ProcessorImpl {
 
+  import FormRunnerPersistenceProxy._
+
   private val FormPath                   = """/fr/service/persistence(/crud/([^/]+)/([^/]+)/form/([^/]+))""".r
   private val DataPath                   = """/fr/service/persistence(/crud/([^/]+)/([^/]+)/(data|draft)/([^/]+)/([^/]+))""".r
   private val DataCollectionPath         = """/fr/service/persistence(/crud/([^/]+)/([^/]+)/data/)""".r
@@ -90,7 +98,11 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
       NetUtils.encodeQueryString(request.getParameterMap)
     )
 
-    proxyRequest(request, serviceURI, headers, response)
+    try
+      proxyRequest(request, serviceURI, headers, response)
+    finally
+      if (formOrData == "form" && Set("PUT", "DELETE")(request.getMethod))
+        formDefinitionsChanged()
   }
 
   private def proxyRequest(
@@ -112,10 +124,30 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
     request : Request,
     uri     : String,
     headers : Map[String, String]
-  ): ConnectionResult = {
-    // Create the absolute outgoing URL
-    val outgoingURL =
-      new URI(URLRewriterUtils.rewriteServiceURL(NetUtils.getExternalContext.getRequest, uri, REWRITE_MODE_ABSOLUTE))
+  ): ConnectionResult =
+    proxyConnection(request, uri, headers).connect(
+      saveState = true
+    )
+
+  private def proxyConnection(
+    request : Request,
+    uri     : String,
+    headers : Map[String, String]
+  ): Connection = {
+    val outgoingURL = outgoingURI(uri)
+    proxyConnection(request, outgoingURL, proxyHeaders(request, outgoingURL, headers))
+  }
+
+  // Create the absolute outgoing URL
+  private def outgoingURI(uri: String) =
+    new URI(URLRewriterUtils.rewriteServiceURL(NetUtils.getExternalContext.getRequest, uri, REWRITE_MODE_ABSOLUTE))
+
+  // Headers of the outgoing request: the persistence headers, and the incoming headers which are forwarded
+  private def proxyHeaders(
+    request     : Request,
+    outgoingURL : URI,
+    headers     : Map[String, String]
+  ): Map[String, List[String]] = {
 
     val persistenceHeaders =
       for ((name, value) ← headers)
@@ -127,15 +159,23 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
 
     implicit val logger = new IndentedLogger(ProcessorImpl.logger)
 
-    val allHeaders =
-      Connection.buildConnectionHeadersLowerIfNeeded(
-        scheme           = outgoingURL.getScheme,
-        hasCredentials   = false,
-        customHeaders    = persistenceHeaders ++ proxiedHeaders,
-        headersToForward = Set(),                                   // handled by proxyAndCapitalizeHeaders()
-        cookiesToForward = Connection.cookiesToForwardFromProperty, // NOT handled by proxyAndCapitalizeHeaders()
-        getHeader        = Connection.getHeaderFromRequest(request)
-      )
+    Connection.buildConnectionHeadersLowerIfNeeded(
+      scheme           = outgoingURL.getScheme,
+      hasCredentials   = false,
+      customHeaders    = persistenceHeaders ++ proxiedHeaders,
+      headersToForward = Set(),                                   // handled by proxyAndCapitalizeHeaders()
+      cookiesToForward = Connection.cookiesToForwardFromProperty, // NOT handled by proxyAndCapitalizeHeaders()
+      getHeader        = Connection.getHeaderFromRequest(request)
+    )
+  }
+
+  private def proxyConnection(
+    request     : Request,
+    outgoingURL : URI,
+    allHeaders  : Map[String, List[String]]
+  ): Connection = {
+
+    implicit val logger = new IndentedLogger(ProcessorImpl.logger)
 
     val method = request.getMethod
 
@@ -167,8 +207,6 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
       headers         = allHeaders,
       loadState       = true,
       logBody         = false
-    ).connect(
-      saveState = true
     )
   }
 
@@ -198,22 +236,41 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
 
     val parameters = NetUtils.encodeQueryString(request.getParameterMap)
 
-    val allFormElements =
+    val queries =
       for {
         provider           ← providers
         (baseURI, headers) = FormRunner.getPersistenceURLHeadersFromProvider(provider)
       } yield {
-        // Read all the forms for the current service
-        val serviceURI = NetUtils.appendQueryString(baseURI + "/form" + Option(path).getOrElse(""), parameters)
-        val cxr        = proxyEstablishConnection(request, serviceURI, headers)
+        val serviceURI  = NetUtils.appendQueryString(baseURI + "/form" + Option(path).getOrElse(""), parameters)
+        val outgoingURL = outgoingURI(serviceURI)
+        ProviderQuery(provider, serviceURI, outgoingURL, proxyHeaders(request, outgoingURL, headers))
+      }
 
-        ConnectionResult.withSuccessConnection(cxr, closeOnSuccess = true) { is ⇒
-          val forms = TransformerUtils.readTinyTree(XPath.GlobalConfiguration, is, serviceURI, false, false)
-          forms \\ "forms" \\ "form"
-        }
+    implicit val logger = new IndentedLogger(Logger)
+
+    // Read the forms of the providers which are not in the cache, all at the same time
+    val generation     = formDefinitionsGeneration
+    val cachedOrTasks  = queries map (query ⇒ findCachedFormElements(generation, query) toLeft providerTask(request, query, generation))
+    val queriedResults = ParallelTasks.runAllWithTimeout(cachedOrTasks collect { case Right(task) ⇒ task }, formsMetadataTimeout).iterator
+
+    val allFormElements =
+      queries zip cachedOrTasks flatMap {
+        case (_, Left(formElements)) ⇒
+          formElements
+        case (query, Right(_)) ⇒
+          queriedResults.next() match {
+            case Success(formElements) ⇒
+              formElements
+            case Failure(_: TimeoutException) ⇒
+              // Better to list the forms of the other providers than nothing
+              warn("provider didn't respond in time, ignoring its forms", Seq("provider" → query.provider, "timeout-ms" → formsMetadataTimeout.toString))
+              Nil
+            case Failure(t) ⇒
+              throw t
+          }
       }
 
-    val filteredFormElements = FormRunner.filterFormsAndAnnotateWithOperations(allFormElements.flatten)
+    val filteredFormElements = FormRunner.filterFormsAndAnnotateWithOperations(allFormElements)
 
     // Aggregate and serialize
     val documentElement = elementInfo("forms")
@@ -223,6 +280,43 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
     TransformerUtils.getXMLIdentityTransformer.transform(documentElement, new StreamResult(response.getOutputStream))
   }
 
+  // Read the forms of one provider, from another thread
+  private def providerTask(
+    request    : Request,
+    query      : ProviderQuery,
+    generation : Long)(implicit
+    logger     : IndentedLogger
+  ): () ⇒ List[NodeInfo] = {
+
+    val connection = proxyConnection(request, query.outgoingURL, query.headers)
+
+    // IndentedLogger is not thread-safe, so each task logs with its own, which shares the underlying logger
+    val taskLogger = new IndentedLogger(logger, new IndentedLogger.Indentation, logger.isDebugEnabled)
+
+    ParallelTasks.withCurrentExternalContext {
+
+      val startTime = System.currentTimeMillis
+      val cxr       = connection.connect(saveState = false)
+
+      val formElements =
+        ConnectionResult.withSuccessConnection(cxr, closeOnSuccess = true) { is ⇒
+          val forms = TransformerUtils.readTinyTree(XPath.GlobalConfiguration, is, query.serviceURI, false, false)
+          (forms \\ "forms" \\ "form").toList
+        }
+
+      // Log the time taken by each provider, so that slow providers can be found
+      debug("read forms metadata", Seq(
+        "provider" → query.provider,
+        "uri"      → query.serviceURI,
+        "forms"    → formElements.size.toString,
+        "time-ms"  → (System.currentTimeMillis - startTime).toString
+      ))(taskLogger)
+
+      cacheFormElements(generation, query, formElements)
+      formElements
+    }
+  }
+
   private def proxyReindex(
     request  : Request,
     response : Response
@@ -246,4 +340,61 @@ class FormRunnerPersistenceProxy extends ProcessorImpl {
       .distinct
       .filter(FormRunner.isActiveProvider)
   }
-}
\ No newline at end of file
+}
+
+object FormRunnerPersistenceProxy {
+
+  val Logger = LoggerFactory.createLogger(classOf[FormRunnerPersistenceProxy])
+
+  // The headers are those of the outgoing request, including the forwarded incoming headers
+  private case class ProviderQuery(provider: String, serviceURI: String, outgoingURL: URI, headers: Map[String, List[String]])
+
+  private val FormsMetadataTimeoutProperty  = "oxf.fr.persistence.form-metadata.timeout"
+  private val FormsMetadataTimeoutDefault   = 30000
+  private val FormsMetadataCacheTTLProperty = "oxf.fr.persistence.form-metadata.cache.ttl"
+  private val FormsMetadataCacheTTLDefault  = 10000
+
+  private val FormsMetadataCache            = "fr.persistence.form-metadata"
+  private val FormsMetadataCacheDefaultSize = 50
+
+  private val cache = ObjectCache.instance(FormsMetadataCache, FormsMetadataCacheDefaultSize)
+
+  // Incremented when form definitions are published or deleted, so that metadata cached before can't be found anymore
+  private val generation = new AtomicLong
+
+  private def formDefinitionsGeneration = generation.get
+  private def formDefinitionsChanged()  = generation.incrementAndGet()
+
+  private def formsMetadataTimeout =
+    Properties.instance.getPropertySet.getInteger(FormsMetadataTimeoutProperty, FormsMetadataTimeoutDefault).toLong
+
+  private def formsMetadataCacheTTL =
+    Properties.instance.getPropertySet.getInteger(FormsMetadataCacheTTLProperty, FormsMetadataCacheTTLDefault).toLong
+
+  // Headers identifying the user, which providers can use to return different forms
+  private val FormsMetadataCacheKeyHeaders = Set(OrbeonUsernameLower, OrbeonGroupLower, OrbeonRolesLower)
+
+  // The validity of an entry is the time at which it expires
+  //
+  // The key only includes the headers identifying the user, and not other headers like the session cookie, so that
+  // entries are shared between the sessions of a user.
+  private def cacheKey(generation: Long, query: ProviderQuery) = {
+
+    val headers =
+      for {
+        (name, values) ← query.headers.toList sortBy (_._1.toLowerCase)
+        if FormsMetadataCacheKeyHeaders(name.toLowerCase)
+      } yield
+        name.toLowerCase + ": " + values.mkString(", ")
+
+    new InternalCacheKey(FormsMetadataCache, (generation.toString :: query.serviceURI :: headers) mkString "\n")
+  }
+
+  private def findCachedFormElements(generation: Long, query: ProviderQuery): Option[List[NodeInfo]] =
+    formsMetadataCacheTTL > 0 option
+      cache.findValid(cacheKey(generation, query), Long.box(System.currentTimeMillis)).asInstanceOf[List[NodeInfo]]
+
+  private def cacheFormElements(generation: Long, query: ProviderQuery, formElements: List[NodeInfo]): Unit =
+    if (formsMetadataCacheTTL > 0)
+      cache.add(cacheKey(generation, query), Long.box(System.currentTimeMillis + formsMetadataCacheTTL), formElements)
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor
+
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+import java.util.{Properties ⇒ JProperties}
+import javax.mail._
+import javax.mail.internet.MimeMessage
+
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.webapp.{WebAppContext, WebAppListener}
+
+import scala.collection.mutable
+import scala.concurrent.{Future, Promise}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
+
+// SMTP server configuration, with the JavaMail session properties and the credentials if any
+//
+// Messages for equal configurations can be sent over the same connection.
+case class SMTPServer(properties: Map[String, String], username: Option[String], password: Option[String]) {
+
+  // The default properties are used unless the configuration sets them
+  def newSession: Session = newSession(Map.empty)
+
+  def newSession(defaultProperties: Map[String, String]): Session = {
+
+    val javaProperties = new JProperties
+    defaultProperties ++ properties foreach { case (name, value) ⇒ javaProperties.setProperty(name, value) }
+
+    username match {
+      case Some(username) ⇒
+        Session.getInstance(javaProperties, new Authenticator {
+          override def getPasswordAuthentication: PasswordAuthentication =
+            new PasswordAuthentication(username, password getOrElse "")
+        })
+      case None ⇒
+        Session.getInstance(javaProperties)
+    }
+  }
+
+  // Don't log the password
+  override def toString = s"SMTPServer($properties, $username)"
+}
+
+// Send email messages in the background
+//
+// Messages are added to a bounded queue, and sent one after the other by a single thread, so that the request which
+// sends a message doesn't wait for the SMTP server. That thread keeps a connected transport for each SMTP server, and
+// sends the messages for the same server over that connection, which is closed once it has been idle for
+// `idleTimeoutMs`. If the queue is full, sending a message fails right away. Connecting to the server and waiting for
+// its replies time out after `timeoutMs`, so that an unresponsive server doesn't block the delivery of all messages.
+//
+// The result of each delivery is logged, and also available as a Future.
+class EmailDelivery(queueSize: Int, idleTimeoutMs: Long, timeoutMs: Long) {
+
+  import EmailDelivery._
+
+  private case class Delivery(server: SMTPServer, message: MimeMessage, promise: Promise[Unit])
+  private case class Connection(transport: Transport, var lastUsed: Long)
+
+  private val queue = new LinkedBlockingQueue[Delivery](queueSize)
+
+  @volatile private var stopped = false
+
+  // Only accessed by the delivery thread
+  private val connections = mutable.Map[SMTPServer, Connection]()
+
+  private val timeoutProperties = Map(
+    "mail.smtp.connectiontimeout" → timeoutMs.toString,
+    "mail.smtp.timeout"           → timeoutMs.toString
+  )
+
+  private val thread = new Thread(new Runnable { def run() = deliverAll() }, "orbeon-email-delivery")
+  thread.setDaemon(true)
+  thread.start()
+
+  // The message must be complete, and must not depend on resources of the current request
+  def send(server: SMTPServer, message: MimeMessage): Future[Unit] = {
+    val delivery = Delivery(server, message, Promise[Unit]())
+    if (stopped)
+      throw new OXFException("Email delivery is stopped, message not sent")
+    if (! queue.offer(delivery))
+      throw new OXFException(s"Email delivery queue is full ($queueSize messages), message not sent")
+    // The delivery thread might have stopped without seeing this message
+    if (stopped && queue.remove(delivery))
+      notSent(delivery)
+    delivery.promise.future
+  }
+
+  // Stop the delivery thread once it is done with the message being sent, if any, and close the connections
+  //
+  // The messages still in the queue are not sent, and their failure is logged. This waits for the thread for at
+  // most `timeoutMs`.
+  def shutdown(): Unit = {
+    stopped = true
+    thread.interrupt()
+    thread.join(timeoutMs)
+  }
+
+  private def deliverAll(): Unit =
+    try {
+      while (! stopped) {
+        try {
+          Option(queue.poll(idleTimeoutMs, TimeUnit.MILLISECONDS)) match {
+            case Some(delivery) ⇒
+              deliver(delivery)
+              closeIdleConnections(System.currentTimeMillis - idleTimeoutMs)
+            case None ⇒
+              closeIdleConnections(Long.MaxValue)
+          }
+        } catch {
+          case NonFatal(t) ⇒ Logger.error("Error in email delivery thread", t)
+        }
+      }
+    } catch {
+      case _: InterruptedException ⇒ // stopped while waiting for a message
+    } finally {
+      closeIdleConnections(Long.MaxValue)
+      Iterator.continually(queue.poll()) takeWhile (_ ne null) foreach notSent
+    }
+
+  private def notSent(delivery: Delivery): Unit = {
+    Logger.error(s"Email delivery to ${delivery.server} stopped, message not sent: ${delivery.message.getSubject}")
+    delivery.promise.failure(new OXFException("Email delivery stopped, message not sent"))
+  }
+
+  private def deliver(delivery: Delivery): Unit = {
+
+    val result = Try(sendMessage(delivery.server, delivery.message))
+
+    result match {
+      case Success(_) ⇒
+        if (Logger.isDebugEnabled)
+          Logger.debug(s"Email delivered to ${delivery.server}: ${delivery.message.getSubject}")
+      case Failure(t) ⇒
+        Logger.error(s"Email delivery to ${delivery.server} failed: ${delivery.message.getSubject}", t)
+    }
+
+    delivery.promise.complete(result)
+  }
+
+  // A connection which has been used before might have been closed by the server, so if sending fails over a reused
+  // connection, the message is sent again over a new connection. If the server rejected the message, the connection
+  // is still usable, and the message is not sent again.
+  private def sendMessage(server: SMTPServer, message: MimeMessage): Unit = {
+
+    def sendOver(connection: Connection) =
+      try {
+        connection.transport.sendMessage(message, message.getAllRecipients)
+        connection.lastUsed = System.currentTimeMillis
+      } catch {
+        case e: SendFailedException ⇒
+          throw e
+        case NonFatal(t) ⇒
+          close(server)
+          throw t
+      }
+
+    connections.get(server) match {
+      case Some(connection) ⇒
+        try
+          sendOver(connection)
+        catch {
+          case e: SendFailedException ⇒ throw e
+          case _: MessagingException  ⇒ sendOver(connect(server))
+        }
+      case None ⇒
+        sendOver(connect(server))
+    }
+  }
+
+  private def connect(server: SMTPServer): Connection = {
+    val transport = server.newSession(timeoutProperties).getTransport("smtp")
+    transport.connect()
+    val connection = Connection(transport, System.currentTimeMillis)
+    connections += server → connection
+    connection
+  }
+
+  private def close(server: SMTPServer): Unit =
+    connections.remove(server) foreach { connection ⇒
+      try connection.transport.close()
+      catch { case NonFatal(_) ⇒ } // the connection might already be closed
+    }
+
+  private def closeIdleConnections(usedBefore: Long): Unit =
+    for ((server, connection) ← connections.toList if connection.lastUsed < usedBefore)
+      close(server)
+}
+
+object EmailDelivery {
+
+  val Logger = EmailProcessor.Logger
+
+  private val InstanceAttribute = "oxf.email.delivery"
+
+  // One instance per web app, which is shut down when the web app is destroyed
+  //
+  // The queue size and timeouts of the first call are used.
+  def instance(webAppContext: WebAppContext, queueSize: Int, idleTimeoutMs: Long, timeoutMs: Long): EmailDelivery =
+    webAppContext.synchronized {
+      webAppContext.attributes.get(InstanceAttribute) match {
+        case Some(delivery: EmailDelivery) ⇒
+          delivery
+        case _ ⇒
+          val delivery = new EmailDelivery(queueSize, idleTimeoutMs, timeoutMs)
+          webAppContext.attributes += InstanceAttribute → delivery
+          webAppContext.addListener(new WebAppListener {
+            def webAppDestroyed(): Unit = shutdown(webAppContext)
+          })
+          delivery
+      }
+    }
+
+  // Shut down the instance of the web app, if any
+  def shutdown(webAppContext: WebAppContext): Unit =
+    webAppContext.synchronized(webAppContext.attributes.remove(InstanceAttribute)) foreach {
+      case delivery: EmailDelivery ⇒ delivery.shutdown()
+      case _ ⇒
+    }
+}
@@ -76,8 +76,8 @@ class EmailProcessor extends ProcessorImpl {
 
     properties.setProperty("mail.smtp.host", host)
 
-    // Create session
-    val session = {
+    // SMTP server configuration
+    val server = {
 
       // Get credentials if any
       val (usernameOption, passwordOption) = {
@@ -134,24 +134,22 @@ class EmailProcessor extends ProcessorImpl {
       valueFromElementOrProperty(messageElement, SMTPPort) orElse defaultPort foreach updatePort
 
       usernameOption match {
-        case Some(username) ⇒
+        case Some(_) ⇒
           if (Logger.isInfoEnabled) Logger.info("Authentication")
 
           properties.setProperty("mail.smtp.auth", "true")
 
           if (Logger.isInfoEnabled) Logger.info("Username: " + usernameOption)
-
-          Session.getInstance(properties, new Authenticator {
-            override def getPasswordAuthentication: PasswordAuthentication = {
-              new PasswordAuthentication(username, passwordOption getOrElse "")
-            }
-          })
         case None ⇒
           if (Logger.isInfoEnabled) Logger.info("No Authentication")
-          Session.getInstance(properties)
       }
+
+      SMTPServer(properties.asScala.toMap, usernameOption, passwordOption)
     }
 
+    // Create session
+    val session = server.newSession
+
     // Create message
     val message = new MimeMessage(session)
 
@@ -214,8 +212,20 @@ class EmailProcessor extends ProcessorImpl {
       throw new OXFException("Main text or body element not found")
 
     // Send message
-    useAndClose(session.getTransport("smtp")) { transport ⇒
-      Transport.send(message)
+    valueFromElementOrProperty(messageElement, Delivery) match {
+      case Some("async") ⇒
+        // Copy the message, as its parts might be read from files which are deleted at the end of the request
+        message.saveChanges()
+        EmailDelivery.instance(
+          NetUtils.getExternalContext.getWebAppContext,
+          propertySet.getInteger(DeliveryQueueSize, DefaultDeliveryQueueSize),
+          propertySet.getInteger(ConnectionIdleTimeout, DefaultConnectionIdleTimeout).toLong,
+          propertySet.getInteger(SMTPTimeout, DefaultSMTPTimeout).toLong
+        ).send(server, new MimeMessage(message))
+      case _ ⇒
+        useAndClose(session.getTransport("smtp")) { transport ⇒
+          Transport.send(message)
+        }
     }
   }
 
@@ -354,6 +364,16 @@ object EmailProcessor {
   val Username     = "username"
   val Password     = "password"
   val Encryption   = "encryption"
+  val Delivery     = "delivery"
+
+  // With asynchronous delivery, see EmailDelivery
+  val DeliveryQueueSize     = "delivery-queue-size"
+  val ConnectionIdleTimeout = "connection-idle-timeout"
+  val SMTPTimeout           = "smtp-timeout"
+
+  val DefaultDeliveryQueueSize     = 1000
+  val DefaultConnectionIdleTimeout = 30000
+  val DefaultSMTPTimeout           = 60000
 
   val TestTo       = "test-to"
   val TestSMTPHost = "test-smtp-host"
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pdf
+
+import java.net.URL
+import java.util.{LinkedHashMap ⇒ JLinkedHashMap}
+
+import com.lowagie.text.Image
+import org.orbeon.oxf.cache.{InternalCacheKey, ObjectCache}
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.util.ScalaUtils._
+
+// Caches of resources used by `PDFTemplateProcessor`
+//
+// Only resources whose last modification date can be obtained cheaply, i.e. `oxf:` and `file:` URLs, are cached, with
+// that date as validity. Other resources, such as images loaded over HTTP with forwarded headers, are always loaded.
+object PDFTemplateCache {
+
+  // Return the content of the template at the given URL
+  //
+  // The template is cached as bytes: each request needs its own `PdfReader`, as `PdfStamper` modifies it.
+  def templateBytes(url: URL): Array[Byte] = {
+
+    def read() = useAndClose(url.openStream())(NetUtils.inputStreamToByteArray)
+
+    val urlString    = url.toExternalForm
+    val lastModified = NetUtils.getLastModifiedIfFast(urlString)
+
+    if (lastModified > 0) {
+      val key = new InternalCacheKey(TemplateKeyType, urlString)
+      Option(templateCache.findValid(key, lastModified).asInstanceOf[Array[Byte]]) getOrElse {
+        val bytes = read()
+        templateCache.add(key, lastModified, bytes)
+        bytes
+      }
+    } else
+      read()
+  }
+
+  // Return a new instance of the image at the given URL, loading it with `load` if it is not cached
+  //
+  // The returned instance can be positioned and scaled independently, but shares its data with other instances.
+  def image(urlString: String)(load: ⇒ Image): Image = {
+
+    val lastModified = NetUtils.getLastModifiedIfFast(urlString)
+
+    if (lastModified > 0) {
+      val cached =
+        imageCache.get(urlString, lastModified) getOrElse {
+          val image = load
+          imageCache.put(urlString, lastModified, image)
+          image
+        }
+      Image.getInstance(cached)
+    } else
+      load
+  }
+
+  private val PDFTemplateCache = "pdf-template.cache.template"
+  private val PDFTemplateCacheDefaultSize = 10
+  private val TemplateKeyType = PDFTemplateCache
+
+  private val ImageCacheMaxBytesProperty = "oxf.pdf-template.cache.image.max-bytes"
+  private val ImageCacheDefaultMaxBytes = 16 * 1024 * 1024
+
+  private val templateCache = ObjectCache.instance(PDFTemplateCache, PDFTemplateCacheDefaultSize)
+
+  private lazy val imageCache =
+    new ImageCache(Properties.instance.getPropertySet.getInteger(ImageCacheMaxBytesProperty, ImageCacheDefaultMaxBytes).toLong)
+
+  // LRU cache of images, bounded by the size of their data
+  private class ImageCache(maxBytes: Long) {
+
+    private case class Entry(lastModified: Long, image: Image, size: Long)
+
+    private var currentBytes = 0L
+    private val entries      = new JLinkedHashMap[String, Entry](16, 0.75f, true)
+
+    def get(urlString: String, lastModified: Long): Option[Image] = synchronized {
+      Option(entries.get(urlString)) filter (_.lastModified >= lastModified) map (_.image)
+    }
+
+    def put(urlString: String, lastModified: Long, image: Image): Unit = synchronized {
+
+      val size = sizeOf(image)
+
+      // Don't let a single image evict all the others
+      if (size <= maxBytes / 2) {
+        Option(entries.put(urlString, Entry(lastModified, image, size))) foreach (currentBytes -= _.size)
+        currentBytes += size
+
+        val iterator = entries.values.iterator
+        while (currentBytes > maxBytes && iterator.hasNext) {
+          currentBytes -= iterator.next().size
+          iterator.remove()
+        }
+      }
+    }
+
+    private def sizeOf(image: Image) =
+      Option(image.getRawData) map (_.length.toLong) getOrElse (image.getWidth * image.getHeight * 4).toLong
+  }
+}
@@ -24,7 +24,7 @@ import org.dom4j.Element
 import org.orbeon.exception.OrbeonFormatter
 import org.orbeon.oxf.pipeline.api.{FunctionLibrary, PipelineContext}
 import org.orbeon.oxf.processor.generator.URLGeneratorBase
-import org.orbeon.oxf.processor.{ProcessorImpl, ProcessorInput, ProcessorInputOutputInfo}
+import org.orbeon.oxf.processor.{CacheableInputReader, ProcessorImpl, ProcessorInput, ProcessorInputOutputInfo}
 import org.orbeon.oxf.processor.pdf.PDFTemplateProcessor._
 import org.orbeon.oxf.processor.serializer.legacy.HttpBinarySerializer
 import org.orbeon.oxf.processor.serializer.{BinaryTextXMLReceiver, HttpSerializerBase}
@@ -65,16 +65,23 @@ class PDFTemplateProcessor extends HttpBinarySerializer with Logging {// TODO: H
     val instanceDocumentInfo = new DocumentWrapper(instanceDocument, null, XPath.GlobalConfiguration)
 
     // Create PDF reader
+    // The template content is cached, but the reader can't be shared as the stamper modifies it
     val templateReader = {
       val templateHref = templateRoot.attributeValue("href")
-      Option(ProcessorImpl.getProcessorInputSchemeInputName(templateHref)) match {
-        case Some(inputName) ⇒
-          val os = new ByteArrayOutputStream
-          readInputAsSAX(pipelineContext, inputName, new BinaryTextXMLReceiver(os))
-          new PdfReader(os.toByteArray)
-        case None ⇒
-          new PdfReader(URLFactory.createURL(templateHref))
-      }
+      val templateBytes =
+        Option(ProcessorImpl.getProcessorInputSchemeInputName(templateHref)) match {
+          case Some(inputName) ⇒
+            readCacheInputAsObject(pipelineContext, getInputByName(inputName), new CacheableInputReader[Array[Byte]] {
+              def read(pipelineContext: PipelineContext, input: ProcessorInput) = {
+                val os = new ByteArrayOutputStream
+                ProcessorImpl.readInputAsSAX(pipelineContext, input, new BinaryTextXMLReceiver(os))
+                os.toByteArray
+              }
+            })
+          case None ⇒
+            PDFTemplateCache.templateBytes(URLFactory.createURL(templateHref))
+        }
+      new PdfReader(templateBytes)
     }
 
     useAndClose(new PdfStamper(templateReader, outputStream)) { stamper ⇒
@@ -321,40 +328,7 @@ class PDFTemplateProcessor extends HttpBinarySerializer with Logging {// TODO: H
           readInputAsSAX(context.pipelineContext, inputName, new BinaryTextXMLReceiver(os))
           Image.getInstance(os.toByteArray)
         case None ⇒
-
-          val url = new URI(hrefAttribute)
-
-          val headerNameValues =
-            URLGeneratorBase.extractHeaders(context.element) map
-              { case (key, value) ⇒ key -> value.to[List] }
-
-          val cxr =
-            Connection(
-              httpMethodUpper = "GET",
-              url             = url,
-              credentials     = None,
-              content         = None,
-              headers         = Connection.buildConnectionHeadersLowerIfNeeded(
-                scheme           = url.getScheme,
-                hasCredentials   = false,
-                customHeaders    = headerNameValues,
-                headersToForward = Connection.headersToForwardFromProperty,
-                cookiesToForward = Connection.cookiesToForwardFromProperty,
-                getHeader        = Connection.getHeaderFromRequest(NetUtils.getExternalContext.getRequest))(
-                logger           = context.logger
-              ),
-              loadState       = true,
-              logBody         = false)(
-              logger          = context.logger
-            ).connect(
-              saveState = true
-            )
-
-          ConnectionResult.withSuccessConnection(cxr, closeOnSuccess = true) { is ⇒
-            val tempURLString = NetUtils.inputStreamToAnyURI(is, NetUtils.REQUEST_SCOPE, Logger)
-            // NOTE: iText's Image.getInstance() closes the local URL's InputStream
-            Image.getInstance(URLFactory.createURL(tempURLString))
-          }
+          PDFTemplateCache.image(hrefAttribute)(loadImage(context, new URI(hrefAttribute)))
       }
     }
 
@@ -397,6 +371,41 @@ class PDFTemplateProcessor extends HttpBinarySerializer with Logging {// TODO: H
     }
   }
 
+  private def loadImage(context: ElementContext, url: URI): Image = {
+
+    val headerNameValues =
+      URLGeneratorBase.extractHeaders(context.element) map
+        { case (key, value) ⇒ key -> value.to[List] }
+
+    val cxr =
+      Connection(
+        httpMethodUpper = "GET",
+        url             = url,
+        credentials     = None,
+        content         = None,
+        headers         = Connection.buildConnectionHeadersLowerIfNeeded(
+          scheme           = url.getScheme,
+          hasCredentials   = false,
+          customHeaders    = headerNameValues,
+          headersToForward = Connection.headersToForwardFromProperty,
+          cookiesToForward = Connection.cookiesToForwardFromProperty,
+          getHeader        = Connection.getHeaderFromRequest(NetUtils.getExternalContext.getRequest))(
+          logger           = context.logger
+        ),
+        loadState       = true,
+        logBody         = false)(
+        logger          = context.logger
+      ).connect(
+        saveState = true
+      )
+
+    ConnectionResult.withSuccessConnection(cxr, closeOnSuccess = true) { is ⇒
+      val tempURLString = NetUtils.inputStreamToAnyURI(is, NetUtils.REQUEST_SCOPE, Logger)
+      // NOTE: iText's Image.getInstance() closes the local URL's InputStream
+      Image.getInstance(URLFactory.createURL(tempURLString))
+    }
+  }
+
   def stampGrid(context: ElementContext): Unit = {
     val topPosition = 10f
     val baseFont = createFont("Courier", embed = false)
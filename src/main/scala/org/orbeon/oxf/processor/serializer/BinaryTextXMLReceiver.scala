@@ -24,9 +24,9 @@ import org.orbeon.oxf.pipeline.api.ExternalContext.Response
 import org.orbeon.oxf.processor.serializer.BinaryTextXMLReceiver._
 import org.orbeon.oxf.util.NetUtils.{getContentTypeCharset, getContentTypeMediaType}
 import org.orbeon.oxf.util.ScalaUtils._
-import org.orbeon.oxf.util.{Base64XMLReceiver, DateUtils, TextXMLReceiver}
+import org.orbeon.oxf.util.{Base64XMLReceiver, DateUtils, NetUtils, TextXMLReceiver}
 import org.orbeon.oxf.xml.XMLConstants._
-import org.orbeon.oxf.xml.{XMLReceiver, XMLReceiverAdapter, XMLUtils}
+import org.orbeon.oxf.xml.{BinaryXMLReceiver, XMLReceiver, XMLReceiverAdapter, XMLUtils}
 import org.orbeon.scaxon.XML
 import org.xml.sax.Attributes
 
@@ -44,7 +44,7 @@ class BinaryTextXMLReceiver(
   forceEncoding             : Boolean,
   requestedEncoding         : Option[String],
   ignoreDocumentEncoding    : Boolean
-) extends XMLReceiverAdapter {
+) extends XMLReceiverAdapter with BinaryXMLReceiver {
 
   require(! forceContentType || isNotBlank(requestedContentType.get))
   require(! forceEncoding    || isNotBlank(requestedEncoding.get))
@@ -174,6 +174,13 @@ class BinaryTextXMLReceiver(
   override def characters(ch: Array[Char], start: Int, length: Int): Unit =
     outputReceiver.characters(ch, start, length)
 
+  // Binary content passed as a stream is copied as is, instead of being decoded from base64 characters
+  def binary(is: InputStream): Unit =
+    outputReceiver match {
+      case _: Base64XMLReceiver ⇒ NetUtils.copyStream(is, outputStream)
+      case _                    ⇒ throw new OXFException("Binary content received for a text document")
+    }
+
   override def endDocument(): Unit = {
     if (writer ne null)
       writer.flush()
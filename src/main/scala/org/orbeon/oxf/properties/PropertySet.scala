@@ -14,6 +14,7 @@
 package org.orbeon.oxf.properties
 
 import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
 import java.{lang ⇒ jl, util ⇒ ju}
 
 import org.dom4j.{Element, QName}
@@ -48,13 +49,19 @@ private class PropertyNode {
  * A property name can be exact, e.g. foo.bar.gaga, or it can contain wildcards, like ".*.bar.gaga", "foo.*.gaga", or
  * "foo.bar.*", or "*.bar.*", etc.
  *
- * TODO: Make this effectively immutable and remove `setProperty`.
+ * A property set is only modified by PropertyStore while it is created, and is then immutable. Lookups, including
+ * those resolved with wildcards and those finding nothing, are memoized, as callers ask for the same names repeatedly.
  */
 class PropertySet {
 
+  import PropertySet._
+
   private var exactProperties = Map[String, Property]()
   private val wildcardProperties = new PropertyNode
 
+  private val resolvedProperties = new ConcurrentHashMap[String, Option[Property]]
+  private val resolvedStartsWith = new ConcurrentHashMap[(String, Boolean), List[String]]
+
   /**
    * Set a property. Used by PropertyStore.
    *
@@ -63,7 +70,11 @@ class PropertySet {
    * @param typ             property type, or null
    * @param stringValue     property string value
    */
-  def setProperty(element: Element, name: String, typ: QName, stringValue: String): Unit = {
+  private[properties] def setProperty(element: Element, name: String, typ: QName, stringValue: String): Unit = {
+
+    resolvedProperties.clear()
+    resolvedStartsWith.clear()
+
     val value = PropertyStore.getObjectFromStringValue(stringValue, typ, element)
     val property = Property(typ, value, Dom4jUtils.getNamespaceContext(element).asScala.toMap)
 
@@ -83,6 +94,10 @@ class PropertySet {
     currentNode.property = property
   }
 
+  // Result of a lookup if it is memoized, for tests
+  private[properties] def memoizedProperty(name: String): Option[Option[Property]] =
+    Option(resolvedProperties.get(name))
+
   def keySet: ju.Set[String] = exactProperties.keySet.asJava
   def size = exactProperties.size
 
@@ -101,7 +116,10 @@ class PropertySet {
   }
 
   // Return all the properties starting with the given name
-  def propertiesStartsWith(name: String, matchWildcards: Boolean = true): List[String] = {
+  def propertiesStartsWith(name: String, matchWildcards: Boolean = true): List[String] =
+    memoized(resolvedStartsWith, name → matchWildcards)(findPropertiesStartsWith(name, matchWildcards))
+
+  private def findPropertiesStartsWith(name: String, matchWildcards: Boolean): List[String] = {
 
     val result = mutable.Buffer[String]()
 
@@ -189,7 +207,7 @@ class PropertySet {
       else
         p
 
-    getExact orElse getWildcard map checkType orNull
+    memoized(resolvedProperties, name)(getExact orElse getWildcard) map checkType orNull
   }
 
   /* All getters */
@@ -262,3 +280,21 @@ class PropertySet {
   def getNMTOKEN(nm: String): String =
     getPropertyValue(nm, XMLConstants.XS_NMTOKEN_QNAME).asInstanceOf[String]
 }
+
+private object PropertySet {
+
+  // Names can be built from user input, e.g. app and form names, so don't memoize an unbounded number of lookups
+  val MaxMemoizedLookups = 10000
+
+  def memoized[K, V <: AnyRef](cache: ConcurrentHashMap[K, V], key: K)(compute: ⇒ V): V = {
+    val cached = cache.get(key)
+    if (cached ne null)
+      cached
+    else {
+      val computed = compute
+      if (cache.size < MaxMemoizedLookups)
+        cache.putIfAbsent(key, computed)
+      computed
+    }
+  }
+}
@@ -28,13 +28,16 @@ import org.orbeon.scaxon.XML._
 import scala.collection.JavaConverters._
 import scala.collection.mutable
 
-// Represent property sets grouped as global and per-processor properties.
+// Represent property sets grouped as global and per-processor properties. The store is immutable once created, so it
+// can be shared by all threads.
 class PropertyStore(propertiesDocument: Document) {
 
   private val globalPropertySet = new PropertySet
-  private val processorPropertySets = mutable.HashMap[QName, PropertySet]()
+  private val emptyPropertySet  = new PropertySet
 
-  locally {
+  private val processorPropertySets: Map[QName, PropertySet] = {
+
+    val processorPropertySets = mutable.HashMap[QName, PropertySet]()
 
     val dw = new DocumentWrapper(propertiesDocument, null, XPath.GlobalConfiguration)
 
@@ -62,18 +65,20 @@ class PropertyStore(propertiesDocument: Document) {
         Option(propertyElement.attributeValue("processor-name")) match {
           case Some(processorName) ⇒
             val processorQName = Dom4jUtils.extractAttributeValueQName(propertyElement, "processor-name")
-            getProcessorPropertySet(processorQName).setProperty(propertyElement, name, typeQName, value)
+            processorPropertySets.getOrElseUpdate(processorQName, new PropertySet).setProperty(propertyElement, name, typeQName, value)
           case None ⇒
-            getGlobalPropertySet.setProperty(propertyElement, name, typeQName, value)
+            globalPropertySet.setProperty(propertyElement, name, typeQName, value)
         }
       }
     }
+
+    processorPropertySets.toMap
   }
 
   def getGlobalPropertySet: PropertySet = globalPropertySet
 
   def getProcessorPropertySet(processorQName: QName): PropertySet =
-    processorPropertySets.getOrElseUpdate(processorQName, new PropertySet)
+    processorPropertySets.getOrElse(processorQName, emptyPropertySet)
 }
 
 private object PropertyStore {
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.util.concurrent._
+import java.{util ⇒ ju}
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.orbeon.oxf.externalcontext.{AsyncRequest, LocalExternalContext}
+import org.orbeon.oxf.pipeline.InitUtils
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.webapp.ProcessorService
+
+import scala.collection.JavaConverters._
+import scala.util.{Failure, Success, Try}
+
+// Run independent tasks, typically I/O bound, with a bound on the number of tasks running at the same time
+object ParallelTasks {
+
+  lazy val DefaultExecutor: ExecutorService =
+    Executors.newCachedThreadPool(
+      new ThreadFactory {
+        private val count = new AtomicInteger
+        def newThread(r: Runnable) = {
+          val thread = new Thread(r, "orbeon-parallel-tasks-" + count.incrementAndGet())
+          thread.setDaemon(true)
+          thread
+        }
+      }
+    )
+
+  // Run the tasks with at most `parallelism` tasks running at the same time, and return their results in order.
+  //
+  // Upon the first failure, no other task is started, and the failure is thrown once the tasks already running have
+  // completed. So when this returns or throws, no task is running anymore.
+  def runAll[T](tasks: Seq[() ⇒ T], parallelism: Int, executor: ExecutorService = DefaultExecutor): List[T] = {
+
+    require(parallelism > 0)
+
+    if (parallelism == 1 || tasks.size <= 1)
+      tasks.map(_.apply()).toList
+    else {
+      val completionService = new ExecutorCompletionService[(Int, T)](executor)
+      val remaining         = tasks.iterator.zipWithIndex
+      val results           = new Array[Any](tasks.size)
+
+      var running = 0
+      var failure: Option[Throwable] = None
+
+      def submitNext(): Unit = {
+        val (task, index) = remaining.next()
+        completionService.submit(new Callable[(Int, T)] { def call() = index → task() })
+        running += 1
+      }
+
+      while (running < parallelism && remaining.hasNext)
+        submitNext()
+
+      while (running > 0) {
+        val future = completionService.take()
+        running -= 1
+        try {
+          val (index, result) = future.get
+          results(index) = result
+        } catch {
+          case e: ExecutionException ⇒
+            if (failure.isEmpty)
+              failure = Some(e.getCause)
+        }
+        if (failure.isEmpty && remaining.hasNext)
+          submitNext()
+      }
+
+      failure foreach (throw _)
+
+      results.toList.asInstanceOf[List[T]]
+    }
+  }
+
+  // Start all the tasks at once, and return their results in order. Tasks which fail or don't complete within
+  // `timeoutMs` of the call have a Failure result, and tasks which don't complete in time are also cancelled.
+  def runAllWithTimeout[T](tasks: Seq[() ⇒ T], timeoutMs: Long, executor: ExecutorService = DefaultExecutor): List[Try[T]] = {
+
+    val deadline = System.currentTimeMillis + timeoutMs
+    val futures  = tasks.toList map (task ⇒ executor.submit(new Callable[T] { def call() = task() }))
+
+    futures map { future ⇒
+      try
+        Success(future.get(math.max(deadline - System.currentTimeMillis, 0L), TimeUnit.MILLISECONDS))
+      catch {
+        case e: TimeoutException ⇒
+          future.cancel(true)
+          Failure(e)
+        case e: ExecutionException ⇒
+          Failure(e.getCause)
+      }
+    }
+  }
+
+  // Make a task which runs with a copy of the current request, so that it can use Connection from another thread.
+  // The copy must be made on the current thread, as the request can't be accessed from other threads.
+  // The task runs with its own PipelineContext, which it can get with PipelineContext.get.
+  def withCurrentExternalContext[T](body: ⇒ T): () ⇒ T = {
+
+    val asyncExternalContextOpt =
+      Option(NetUtils.getExternalContext) map { currentExternalContext ⇒
+        new LocalExternalContext(
+          currentExternalContext.getWebAppContext,
+          new AsyncRequest(currentExternalContext.getRequest),
+          currentExternalContext.getResponse
+        )
+      }
+
+    // Needed by InternalHttpClient
+    val processorServiceOpt = ProcessorService.currentProcessorService.value
+
+    () ⇒
+      InitUtils.withPipelineContext { pipelineContext ⇒
+        asyncExternalContextOpt foreach (pipelineContext.setAttribute(PipelineContext.EXTERNAL_CONTEXT, _))
+        processorServiceOpt match {
+          case Some(processorService) ⇒ ProcessorService.withProcessorService(processorService)(body)
+          case None                   ⇒ body
+        }
+      }
+  }
+
+  // For Java callers
+  def jRunAll[T](tasks: ju.List[Callable[T]], parallelism: Int): ju.List[T] =
+    runAll(tasks.asScala map (task ⇒ () ⇒ task.call()), parallelism).asJava
+
+  // For Java callers
+  def jWithCurrentExternalContext[T](task: Callable[T]): Callable[T] = {
+    val taskWithExternalContext = withCurrentExternalContext(task.call())
+    new Callable[T] { def call() = taskWithExternalContext() }
+  }
+}
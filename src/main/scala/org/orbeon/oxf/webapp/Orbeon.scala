@@ -19,6 +19,7 @@ import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.resources.{ResourceManagerWrapper, WebAppResourceManagerImpl}
 import org.orbeon.oxf.util.LoggerFactory
 import org.orbeon.oxf.util.ScalaUtils.StringOps
+import org.orbeon.oxf.xforms.state.XFormsStaticStateCache
 
 import scala.collection.JavaConverters._
 
@@ -36,6 +37,7 @@ object Orbeon {
   // - version check
   // - logger (based on properties)
   // - processor registry
+  // - static state cache pre-warming
   def initialize(context: WebAppContext) = {
     // Check whether logging initialization is disabled
     val initializeLogging = ! context.initParameters.get(LoggingProperty).contains("false")
@@ -71,6 +73,11 @@ object Orbeon {
     logger.info("Using properties file: " + propertiesURL)
     Properties.init(propertiesURL)
 
+    // Stop the thread checking for changes to properties when the web app is destroyed
+    context.addListener(new WebAppListener {
+      def webAppDestroyed(): Unit = Properties.stopRefresher()
+    })
+
     // 3. Initialize Version object (depends on resource manager)
     // Better to do it here so that log messages will go to the same place as the above logs
     Version.instance
@@ -81,5 +88,8 @@ object Orbeon {
 
     // 5. Register processor definitions with the default XML Processor Registry
     InitUtils.processorDefinitions
+
+    // 6. Start pre-warming the static state cache from its persistent tier, if enabled
+    XFormsStaticStateCache.initialize(context)
   }
 }
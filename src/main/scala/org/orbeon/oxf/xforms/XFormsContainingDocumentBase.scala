@@ -33,10 +33,12 @@ import org.orbeon.oxf.xforms.event.ClientEvents._
 import org.orbeon.oxf.xforms.event.XFormsEvent._
 import org.orbeon.oxf.xforms.event.XFormsEvents._
 import org.orbeon.oxf.xforms.event.{ClientEvents, XFormsEventFactory, XFormsEventTarget}
+import org.orbeon.oxf.xforms.itemset.Itemset
 import org.orbeon.oxf.xforms.processor.XFormsServer
 import org.orbeon.oxf.xforms.state.{AnnotatedTemplate, DynamicState}
 import org.orbeon.oxf.xforms.xbl.XBLContainer
 import org.orbeon.oxf.xml.{XMLReceiver, XMLReceiverSupport}
+import org.orbeon.saxon.om.DocumentInfo
 
 import scala.annotation.tailrec
 import scala.collection.JavaConverters._
@@ -82,6 +84,11 @@ trait ContainingDocumentMisc {
     _lastModelSequenceNumber += 1
     _lastModelSequenceNumber
   }
+
+  // Itemsets which only depend on readonly instances of this document, by control prefixed id
+  // Entries are removed when controls are removed, see SharedItemsetsCache.controlRemoved
+  // This doesn't need to be serialized/deserialized as itemsets are evaluated again if missing
+  val readonlyItemsets = mutable.Map[String, (List[DocumentInfo], Itemset)]()
 }
 
 trait ContainingDocumentTemplate extends Logging {
@@ -25,7 +25,7 @@ import org.orbeon.oxf.xforms.control.controls.XFormsRepeatControl
 import org.orbeon.oxf.xforms.event._
 import org.orbeon.oxf.xforms.event.events._
 import org.orbeon.oxf.xforms.model.{DataModel, FlaggedDefaultsStrategy, NoDefaultsStrategy}
-import org.orbeon.oxf.xforms.state.InstanceState
+import org.orbeon.oxf.xforms.state.{InstanceJournal, InstanceState}
 import org.orbeon.oxf.xml.dom4j.{Dom4jUtils, LocationData}
 import org.orbeon.oxf.xml.{TransformerUtils, XMLReceiver}
 import org.orbeon.saxon.dom4j.DocumentWrapper
@@ -110,10 +110,33 @@ class XFormsInstance(
   def readonly = _readonly
   def modified = _modified
 
+  // Journal of the changes to the instance, used by the state store, only if enabled
+  val journalOpt =
+    if (containingDocument.getStaticState.isInstanceJournal)
+      Some(new InstanceJournal(containingDocument.getStaticState.instanceJournalMaxMutations))
+    else
+      None
+
+  // Whether the state store saves this instance using the journal
+  def isJournaled = journalOpt.isDefined && _instanceCaching.isEmpty && underlyingDocumentOpt.isDefined
+
+  // Record changes in the journal, if any, see `InstanceJournal`
+  def recordValueChange(nodeInfo: NodeInfo, newValue: String): Unit = journalOpt foreach (_.recordValueChange(nodeInfo, newValue))
+  def recordInsert(node: Node): Unit                                = journalOpt foreach (_.recordInsert(node))
+  def recordDelete(nodeInfo: NodeInfo): Unit                        = journalOpt foreach (_.recordDelete(nodeInfo))
+
   // Mark the instance as modified
   // This is used so we can optimize serialization: if an instance is inline and not modified, we don't need to
   // serialize its content
-  def markModified() = _modified = true
+  // The change is not described to the journal, so the next state stored includes the whole instance content.
+  def markModified(): Unit = {
+    _modified = true
+    journalOpt foreach (_.invalidate())
+  }
+
+  // Mark the instance as modified after the change has been recorded in the journal
+  def markModifiedJournaled(): Unit =
+    _modified = true
 
   // Update the instance upon submission with instance replacement
   def update(instanceCaching: Option[InstanceCaching], documentInfo: DocumentInfo, readonly: Boolean): Unit = {
@@ -591,7 +614,7 @@ object XFormsInstance extends Logging {
           )
       }
 
-    model.indexInstance(
+    val newInstance =
       new XFormsInstance(
         model,
         instance,
@@ -601,6 +624,12 @@ object XFormsInstance extends Logging {
         instanceState.modified,
         instanceState.valid
       )
-    )
+
+    // Keep recording changes against the snapshot the content was restored from
+    if (newInstance.isJournaled)
+      for (journal ← newInstance.journalOpt; delta ← instanceState.journal)
+        journal.resume(delta)
+
+    model.indexInstance(newInstance)
   }
 }
@@ -50,7 +50,7 @@ abstract class XFormsModelBase(val container: XBLContainer, val effectiveId: Str
   def mustBindValidate: Boolean
 
   private lazy val _schemaValidator =
-    new XFormsModelSchemaValidator(staticModel.element, indentedLogger) |!> (_.loadSchemas(containingDocument))
+    new XFormsModelSchemaValidator(staticModel.element, staticModel.prefixedId, indentedLogger) |!> (_.loadSchemas(containingDocument))
 
   def schemaValidator = _schemaValidator
   def hasSchema = _schemaValidator.hasSchema
@@ -75,6 +75,10 @@ abstract class XFormsModelBase(val container: XBLContainer, val effectiveId: Str
           // NOTE: contextStack.resetBindingContext(this) called in evaluateVariables()
           getBinds.rebuild()
 
+          // Rebuild clears the schema state, and follows structural changes
+          if (hasSchema)
+            _schemaValidator.clearValidatedInstances()
+
           // Controls may have @bind or bind() references, so we need to mark them as dirty. Will need dependencies for controls to fix this.
           // TODO: Handle XPathDependencies
           container.requireRefresh()
@@ -183,10 +187,12 @@ abstract class XFormsModelBase(val container: XBLContainer, val effectiveId: Str
 
       // Clear schema validation state
       // NOTE: This could possibly be moved to rebuild(), but we must be careful about the presence of a schema
+      // Instances validated incrementally only have the schema state of changed elements cleared by the validator.
       for {
         instance ← instances
         instanceMightBeSchemaValidated = hasSchema && instance.isSchemaValidation
         if instanceMightBeSchemaValidated
+        if ! _schemaValidator.isIncrementalValidation(instance)
       } locally {
         DataModel.visitElement(instance.rootElement, InstanceData.clearSchemaState)
       }
@@ -32,6 +32,10 @@ trait XFormsStaticState {
   def isCacheDocument: Boolean
   def isClientStateHandling: Boolean
   def isServerStateHandling: Boolean
+  def isCacheInitialState: Boolean
+  def isInstanceJournal: Boolean
+  def instanceJournalMaxMutations: Int
+  def isIncrementalSchemaValidation: Boolean
   def isHTMLDocument: Boolean
 
   def isXPathAnalysis: Boolean
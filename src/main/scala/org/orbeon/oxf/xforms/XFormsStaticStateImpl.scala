@@ -72,6 +72,21 @@ class XFormsStaticStateImpl(
   def isClientStateHandling = staticStringProperty(P.STATE_HANDLING_PROPERTY) == P.STATE_HANDLING_CLIENT_VALUE
   def isServerStateHandling = staticStringProperty(P.STATE_HANDLING_PROPERTY) == P.STATE_HANDLING_SERVER_VALUE
 
+  // Whether the post-initialization dynamic state can be shared by all new documents using this static state. The
+  // form author opts in with the property, as we can't tell whether initialization actions use request data. But we
+  // can at least exclude instances loaded from a URL or from a pipeline input, unless they are globally shared.
+  lazy val isCacheInitialState =
+    isServerStateHandling &&
+    staticBooleanProperty(P.CACHE_INITIAL_STATE_PROPERTY) &&
+    (topLevelPart.iterateModels flatMap (_.instances.valuesIterator) forall (i ⇒ i.useInlineContent || i.cache))
+
+  // Whether the server-side state store saves instances as mutations against a snapshot of their content
+  lazy val isInstanceJournal           = isServerStateHandling && staticBooleanProperty(P.INSTANCE_JOURNAL_PROPERTY)
+  lazy val instanceJournalMaxMutations = staticIntProperty(P.INSTANCE_JOURNAL_MAX_MUTATIONS_PROPERTY)
+
+  // Whether schema revalidation only processes the elements changed since the previous revalidation
+  lazy val isIncrementalSchemaValidation = staticBooleanProperty(P.SCHEMA_INCREMENTAL_VALIDATION_PROPERTY)
+
   private lazy val nonDefaultPropertiesOnly: Map[String, Either[Any, CompiledExpression]] =
     staticStateDocument.nonDefaultProperties map { case (name, rawPropertyValue) ⇒
       name → {
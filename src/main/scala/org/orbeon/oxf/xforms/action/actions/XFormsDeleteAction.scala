@@ -133,10 +133,15 @@ object XFormsDeleteAction extends Logging {
       val collectionToUpdateWithDefiniteSize =
         if (collectionToUpdate.hasDefiniteSize) collectionToUpdate else collectionToUpdate.to[List]
 
+      // Record each deletion in the journal of the instance containing the node, while the node is still in place
+      def recordDeletion(nodeInfo: NodeInfo) =
+        if (containingDocument ne null)
+          Option(containingDocument.getInstanceForNode(nodeInfo)) foreach (_.recordDelete(nodeInfo))
+
       val deletionDescriptors =
         deleteIndexOpt match {
-          case Some(index) ⇒ doDeleteOneImpl(collectionToUpdateWithDefiniteSize(index - 1)).to[List]
-          case None        ⇒ collectionToUpdateWithDefiniteSize.flatMap(doDeleteOneImpl).to[List]
+          case Some(index) ⇒ doDeleteOneImpl(collectionToUpdateWithDefiniteSize(index - 1), recordDeletion).to[List]
+          case None        ⇒ collectionToUpdateWithDefiniteSize.flatMap(doDeleteOneImpl(_, recordDeletion)).to[List]
         }
 
       if (deletionDescriptors.nonEmpty && (containingDocument ne null)) {
@@ -153,7 +158,7 @@ object XFormsDeleteAction extends Logging {
         modifiedInstanceOpt foreach { modifiedInstance ⇒
 
           // "XForms Actions that change the tree structure of instance data result in setting all four flags to true"
-          modifiedInstance.markModified()
+          modifiedInstance.markModifiedJournaled()
           modifiedInstance.model.markStructuralChange(modifiedInstanceOpt, NoDefaultsStrategy)
 
           // "4. If the delete is successful, the event xforms-delete is dispatched."
@@ -167,7 +172,8 @@ object XFormsDeleteAction extends Logging {
   }
 
   private def doDeleteOneImpl(
-    itemToRemove   : Item)(implicit
+    itemToRemove   : Item,
+    beforeRemove   : NodeInfo ⇒ Unit)(implicit
     indentedLogger : IndentedLogger
   ): Option[DeletionDescriptor] =
     itemToRemove match {
@@ -194,6 +200,8 @@ object XFormsDeleteAction extends Logging {
 
         val indexInContentToUpdate = contentToUpdate.indexOf(nodeToRemove)
 
+        beforeRemove(nodeInfoToRemove)
+
         // Actual remove operation
         contentToUpdate.remove(indexInContentToUpdate)
 
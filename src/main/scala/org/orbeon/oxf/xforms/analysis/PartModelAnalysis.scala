@@ -50,6 +50,9 @@ trait PartModelAnalysis extends TransientState {
   def getModelsForScope(scope: Scope) =
     modelsByScope.getOrElse(scope, Seq())
 
+  def iterateModels =
+    modelsByPrefixedId.valuesIterator
+
   def findInstancePrefixedId(startScope: Scope, instanceStaticId: String): String = {
     var currentScope = startScope
     while (currentScope ne null) {
@@ -24,7 +24,7 @@ import org.orbeon.oxf.xforms.analysis.ControlAnalysisFactory.InputValueControl
 import org.orbeon.oxf.xforms.analysis._
 import org.orbeon.oxf.xforms.control.LHHAValue
 import org.orbeon.oxf.xforms.itemset.{Item, ItemContainer, Itemset}
-import org.orbeon.oxf.xml.XMLReceiverHelper
+import org.orbeon.oxf.xml.{Dom4j, XMLReceiverHelper}
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 import org.orbeon.saxon.dom4j.DocumentWrapper
 
@@ -195,6 +195,38 @@ extends InputValueControl
   // Return the control's static itemset if any
   lazy val staticItemset = hasStaticItemset option evaluateStaticItemset
 
+  // If the dynamic itemset only depends on readonly instances, return the prefixed ids of these instances
+  //
+  // As readonly instances can't be modified, the itemset is then the same for all the controls which have the same
+  // content for these instances, and it can be shared by the controls of a document, and across documents when the
+  // instances are shared too. This requires XPath analysis, as without it we can't tell what the itemset depends on.
+  lazy val sharedItemsetInstances: Option[List[String]] =
+    if (hasStaticItemset || ! _itemsetAnalyzed || hasItemsetAVTs)
+      None
+    else
+      itemsetAnalysis collect {
+        case analysis if analysis.figuredOutDependencies && (analysis.dependentInstances forall isReadonlyInstance) ⇒
+          analysis.dependentInstances.toList
+      }
+
+  private def isReadonlyInstance(instancePrefixedId: String) =
+    Option(part.getModelByInstancePrefixedId(instancePrefixedId)) flatMap
+      (_.instances.get(XFormsUtils.getStaticIdFromId(instancePrefixedId))) exists
+      (_.readonly)
+
+  // AVTs on items are evaluated when building the itemset, but are not part of the itemset analysis
+  private def hasItemsetAVTs = {
+
+    def hasAVTs(e: Element): Boolean =
+      SelectionControlUtil.isTopLevelItemsetElement(e) &&
+      (SelectionControlUtil.AttributesToPropagate exists (name ⇒ Option(e.attributeValue(name)) exists XFormsUtils.maybeAVT))
+
+    def descendants(e: Element): Iterator[Element] =
+      Dom4j.elements(e).iterator flatMap (child ⇒ Iterator(child) ++ descendants(child))
+
+    descendants(element) exists hasAVTs
+  }
+
   private def evaluateStaticItemset = {
 
     // TODO: operate on nested ElementAnalysis instead of Element
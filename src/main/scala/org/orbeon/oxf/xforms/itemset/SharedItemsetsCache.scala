@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.itemset
+
+import org.orbeon.oxf.cache.{InternalCacheKey, ObjectCache}
+import org.orbeon.oxf.util.ScalaUtils._
+import org.orbeon.oxf.xforms.control.controls.XFormsSelect1Control
+import org.orbeon.oxf.xforms.{XFormsStaticState, XFormsUtils}
+import org.orbeon.saxon.om.DocumentInfo
+
+// Cache of dynamic itemsets which only depend on readonly instances
+//
+// When these instances are shared between documents (xxf:cache="true"), the itemset is shared by all the controls and
+// documents, and kept in a global cache. The key is the static state digest, the control's prefixed id, and the
+// document numbers of the instances, which act as data version: readonly instance content is never modified, and
+// replacing it creates a new document. See `SelectionControlTrait.sharedItemsetInstances`.
+//
+// Otherwise, the instances belong to a single document, so the itemset is only shared by the controls of that
+// document, e.g. repeated controls, and kept in the document. This doesn't fill the global cache with itemsets which
+// other documents can't use.
+//
+// Itemsets are not modified once evaluated, so a cached itemset can be used by several controls at the same time.
+object SharedItemsetsCache {
+
+  // Keep references to the static state and instance documents, as the digest and document numbers could also
+  // match an out-of-date static state or documents from another configuration
+  private case class SharedItemset(staticState: XFormsStaticState, documents: List[DocumentInfo], itemset: Itemset)
+
+  // Return the shared itemset for the control if possible, evaluating and caching it if needed
+  def findOrEvaluate(select1Control: XFormsSelect1Control)(evaluate: ⇒ Itemset): Itemset =
+    select1Control.staticControl.sharedItemsetInstances flatMap (findInstances(select1Control, _)) match {
+      case Some(instances) if instances forall (_.instanceCaching.isDefined) ⇒
+        findOrEvaluateShared(select1Control, instances map (_.documentInfo))(evaluate)
+      case Some(instances) ⇒
+        findOrEvaluateInDocument(select1Control, instances map (_.documentInfo))(evaluate)
+      case None ⇒
+        evaluate
+    }
+
+  private def isSameDocuments(documents1: List[DocumentInfo], documents2: List[DocumentInfo]) =
+    (documents1 corresponds documents2)(_ eq _)
+
+  private def findOrEvaluateShared(select1Control: XFormsSelect1Control, documents: List[DocumentInfo])(evaluate: ⇒ Itemset) = {
+
+    val staticState = select1Control.containingDocument.getStaticState
+    val cacheKey    = createCacheKey(staticState.digest, select1Control.getPrefixedId, documents)
+
+    def isSameData(sharedItemset: SharedItemset) =
+      (sharedItemset.staticState eq staticState) && isSameDocuments(sharedItemset.documents, documents)
+
+    Option(cache.findValid(cacheKey, ConstantValidity).asInstanceOf[SharedItemset]) filter isSameData map (_.itemset) getOrElse {
+      val itemset = evaluate
+      cache.add(cacheKey, ConstantValidity, SharedItemset(staticState, documents, itemset))
+      itemset
+    }
+  }
+
+  // Keep one itemset per control, so that replacing an instance doesn't keep its previous itemsets
+  private def findOrEvaluateInDocument(select1Control: XFormsSelect1Control, documents: List[DocumentInfo])(evaluate: ⇒ Itemset) = {
+
+    val itemsets = select1Control.containingDocument.readonlyItemsets
+
+    itemsets.get(select1Control.getPrefixedId) collect {
+      case (itemsetDocuments, itemset) if isSameDocuments(itemsetDocuments, documents) ⇒ itemset
+    } getOrElse {
+      val itemset = evaluate
+      itemsets += select1Control.getPrefixedId → (documents, itemset)
+      itemset
+    }
+  }
+
+  // Forget the itemset kept in the document for the control when the control is removed, so that the document
+  // doesn't keep itemsets of controls which no longer exist. Other controls with the same prefixed id, e.g. in other
+  // repeat iterations, evaluate it again the next time.
+  def controlRemoved(select1Control: XFormsSelect1Control): Unit =
+    select1Control.containingDocument.readonlyItemsets -= select1Control.getPrefixedId
+
+  // Find the current instances, which must still be readonly, as a submission can replace a readonly instance with a
+  // readwrite one
+  private def findInstances(select1Control: XFormsSelect1Control, instancePrefixedIds: List[String]) = {
+
+    val part = select1Control.staticControl.part
+
+    val instances =
+      for {
+        instancePrefixedId ← instancePrefixedIds
+        model              ← Option(part.getModelByInstancePrefixedId(instancePrefixedId))
+        container          ← select1Control.container.ancestorsIterator find (_.innerScope == model.scope)
+        instance           ← container.findInstance(XFormsUtils.getStaticIdFromId(instancePrefixedId))
+        if instance.readonly
+      } yield
+        instance
+
+    instances.size == instancePrefixedIds.size option instances
+  }
+
+  private def createCacheKey(digest: String, controlPrefixedId: String, documents: List[DocumentInfo]) =
+    new InternalCacheKey(SharedItemsetKeyType, digest + '|' + controlPrefixedId + '|' + (documents map (_.getDocumentNumber) mkString ","))
+
+  private val XFormsSharedItemsetsCache = "xforms.cache.itemsets"
+  private val XFormsSharedItemsetsCacheDefaultSize = 200
+  private val ConstantValidity = 0L
+  private val SharedItemsetKeyType = XFormsSharedItemsetsCache
+
+  private val cache = ObjectCache.instance(XFormsSharedItemsetsCache, XFormsSharedItemsetsCacheDefaultSize)
+}
@@ -75,7 +75,7 @@ object XFormsItemUtils {
     staticControl.staticItemset match {
       case Some(staticItemset) ⇒
         staticItemset
-      case None ⇒
+      case None ⇒ SharedItemsetsCache.findOrEvaluate(select1Control) {
 
         val isMultiple = staticControl.isMultiple
         val container = select1Control.container
@@ -349,6 +349,7 @@ object XFormsItemUtils {
         contextStack.setBinding(savedBindingContext)
         result.pruneNonRelevantChildren()
         result
+      }
     }
   }
 }
\ No newline at end of file
@@ -217,7 +217,8 @@ object DataModel {
     Option(containingDocument.getInstanceForNode(nodeInfo)) match {
       case Some(modifiedInstance) ⇒
         // Tell the model about the value change
-        modifiedInstance.markModified()
+        modifiedInstance.recordValueChange(nodeInfo, newValue)
+        modifiedInstance.markModifiedJournaled()
         modifiedInstance.model.markValueChange(nodeInfo, isCalculate)
 
         // Dispatch extension event to instance
@@ -228,7 +229,8 @@ object DataModel {
         containingDocument.getControls.markDirtySinceLastRequest(true)
     }
 
-  private def setValueForNode(node: Node, newValue: String) =
+  // Also used to replay value changes recorded by `InstanceJournal`
+  def setValueForNode(node: Node, newValue: String) =
     node match {
       case element: Element                  ⇒ element.clearContent(); if (newValue.nonEmpty) element.setText(newValue)
       case attribute: Attribute              ⇒ attribute.setValue(newValue)
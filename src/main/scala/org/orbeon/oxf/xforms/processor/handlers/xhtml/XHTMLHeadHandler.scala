@@ -51,7 +51,7 @@ class XHTMLHeadHandler extends XFormsBaseHandlerXHTML(false, true) {
 
     // Register control handlers on controller
     handlerContext.getController.registerHandler(
-      classOf[XXFormsTextHandler].getName,
+      new ElementHandlerController.HandlerFactory { def create() = new XXFormsTextHandler },
       XFormsConstants.XXFORMS_NAMESPACE_URI,
       "text",
       XHTMLBodyHandler.ANY_MATCHER
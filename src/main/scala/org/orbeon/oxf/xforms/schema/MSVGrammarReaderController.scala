@@ -29,6 +29,7 @@ import scala.util.control.NonFatal
 
 case class SchemaInfo(grammar: Grammar, dependencies: SchemaDependencies)
 case class SchemaKey(urlString: String) extends CacheKey
+case class InlineSchemaKey(staticStateDigest: String, modelPrefixedId: String) extends CacheKey
 
 class MSVGrammarReaderController(
     containingDocument: XFormsContainingDocument,
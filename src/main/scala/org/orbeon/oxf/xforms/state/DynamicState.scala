@@ -190,13 +190,15 @@ case class ControlState(effectiveId: String, visited: Boolean, keyValues: Map[St
 
 // Minimal immutable representation of a serialized instance
 // If there is caching information, don't include the actual content
+// If the content was rebuilt from a journal, `journal` allows the instance to keep recording against the same snapshot
 case class InstanceState(
     effectiveId: String,
     modelEffectiveId: String,
     cachingOrContent: InstanceCaching Either String,
     readonly: Boolean,
     modified: Boolean,
-    valid: Boolean) {
+    valid: Boolean,
+    journal: Option[InstanceDelta] = None) {
 
   def this(instance: XFormsInstance) =
     this(
@@ -219,7 +221,15 @@ object DynamicState {
     apply(document, Option(document.getControls.getCurrentControlTree.getRoot))
 
   // Create a DynamicState from a control
-  def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState = {
+  def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState =
+    apply(document, startOpt, _ ⇒ true)
+
+  // Create a DynamicState from a control, including only the instances which satisfy `includeInstance`
+  def apply(
+    document        : XFormsContainingDocument,
+    startOpt        : Option[XFormsControl],
+    includeInstance : XFormsInstance ⇒ Boolean
+  ): DynamicState = {
 
     val startContainer = startOpt match {
       case Some(componentControl: XFormsComponentControl) ⇒ componentControl.nestedContainer
@@ -273,7 +283,7 @@ object DynamicState {
       toByteSeq(document.getPendingUploads.asScala.toSet),
       document.getTemplate map (_.asByteSeq), // template returns its own serialization
       toByteSeq(Option(document.getLastAjaxResponse)),
-      toByteSeq(startContainer.allModels flatMap (_.getInstances.asScala) filter (_.mustSerialize) map (new InstanceState(_)) toList),
+      toByteSeq(startContainer.allModels flatMap (_.getInstances.asScala) filter (i ⇒ i.mustSerialize && includeInstance(i)) map (new InstanceState(_)) toList),
       toByteSeq(controlsToSerialize)
     )
   }
@@ -18,6 +18,26 @@ import org.orbeon.oxf.pipeline.api.ExternalContext
 import net.sf.ehcache.{Element ⇒ EhElement }
 import org.orbeon.oxf.xforms._
 import org.orbeon.oxf.util.SecureUtils
+import XFormsOperations._
+import XFormsProtocols._
+
+import scala.collection.JavaConverters._
+
+// Instance saved as mutations against a snapshot of its content, which is stored separately
+private case class JournaledInstance(
+  effectiveId      : String,
+  modelEffectiveId : String,
+  readonly         : Boolean,
+  modified         : Boolean,
+  valid            : Boolean,
+  delta            : InstanceDelta
+) {
+  def instanceState(content: String) =
+    InstanceState(effectiveId, modelEffectiveId, Right(content), readonly, modified, valid, Some(delta))
+}
+
+// Dynamic state without the content of journaled instances
+private case class JournaledDynamicState(dynamicState: DynamicState, instances: List[JournaledInstance])
 
 /**
  * XForms state cache based on Ehcache.
@@ -42,15 +62,120 @@ object EhcacheStateStore extends XFormsStateStore {
     val staticStateDigest = document.getStaticState.digest
     val dynamicStateKey = getDynamicStateKey(documentUUID, isInitialState)
 
-    def addOrReplaceOne(key: String, value: java.io.Serializable) =
-      stateCache.put(new EhElement(key, value))
-
     // Mapping (UUID → static state key : dynamic state key
     addOrReplaceOne(documentUUID, staticStateDigest + ":" + dynamicStateKey)
 
     // Static and dynamic states
     addOrReplaceOne(staticStateDigest, document.getStaticState.encodedState) // XXX Q: is there a cost to replacing static state? value will be the same!
-    addOrReplaceOne(dynamicStateKey, DynamicState(document))
+
+    // The initial state is used for browser back and <xf:reset>, so keep it self-contained
+    if (! isInitialState && document.getStaticState.isInstanceJournal)
+      storeJournaledDynamicState(document, dynamicStateKey)
+    else
+      addOrReplaceOne(dynamicStateKey, DynamicState(document))
+  }
+
+  // Store the dynamic state, saving journaled instances as the mutations since the last snapshot of their content
+  //
+  // A new snapshot is taken when the journal was invalidated, for example because it reached its maximum number of
+  // mutations, and before the previous snapshot can expire from the cache.
+  //
+  // Snapshots are regular entries of the state cache, with the same time-to-idle as the dynamic state. If one is
+  // evicted or expires anyway, `withInstancesContent()` handles the dynamic state which depends on it as expired.
+  //
+  // The keys of the snapshots used by the current dynamic state are stored as well, so that snapshots it no longer
+  // uses are removed. This includes snapshots which the journal doesn't know about, as is the case after restoring
+  // the self-contained initial state upon browser back or reload.
+  private def storeJournaledDynamicState(document: XFormsContainingDocument, dynamicStateKey: String): Unit = {
+
+    val journaledInstances =
+      for {
+        instance ← document.allModels.toList flatMap (_.getInstances.asScala)
+        if instance.mustSerialize && instance.isJournaled
+        journal  ← instance.journalOpt
+      } yield
+        instance → journal
+
+    val currentTime = System.currentTimeMillis
+    val maxBaseAge  = stateCache.getCacheConfiguration.getTimeToIdleSeconds * 1000 / 2
+
+    def mustTakeSnapshot(delta: InstanceDelta) =
+      maxBaseAge > 0 && currentTime - delta.baseTime > maxBaseAge
+
+    val newSnapshotsCount =
+      journaledInstances count { case (instance, journal) ⇒
+
+        val takeSnapshot = journal.delta forall mustTakeSnapshot
+
+        if (takeSnapshot) {
+          val baseKey = document.getUUID + "-B-" + SecureUtils.randomHexId
+          addOrReplaceOne(baseKey, instance.contentAsString)
+          journal.rebase(baseKey, currentTime)
+        }
+
+        takeSnapshot
+      }
+
+    val journaledInstancesSet = journaledInstances.map(_._1).toSet
+
+    addOrReplaceOne(
+      dynamicStateKey,
+      JournaledDynamicState(
+        DynamicState(document, Option(document.getControls.getCurrentControlTree.getRoot), ! journaledInstancesSet(_)),
+        journaledInstances map { case (instance, journal) ⇒
+          JournaledInstance(
+            instance.getEffectiveId,
+            instance.parent.getEffectiveId,
+            instance.readonly,
+            instance.modified,
+            instance.valid,
+            journal.delta.get
+          )
+        }
+      )
+    )
+
+    // Former snapshots are no longer referenced once the new dynamic state is stored
+    val baseKeysKey = getBaseKeysKey(document.getUUID)
+    val baseKeys    = journaledInstances flatMap (_._2.baseKeyOpt)
+    val formerKeys  = Option(findOne(baseKeysKey).asInstanceOf[String]).toList flatMap (_ split ' ')
+
+    addOrReplaceOne(baseKeysKey, baseKeys mkString " ")
+
+    formerKeys filterNot baseKeys.toSet foreach (stateCache.remove(_))
+
+    if (isDebugEnabled)
+      debug("stored " + journaledInstances.size + " journaled instances, including " + newSnapshotsCount + " new snapshots.")
+  }
+
+  // Rebuild the content of journaled instances by applying their mutations to their snapshot
+  // If a snapshot is missing, the state can't be restored and is handled as if it had expired.
+  private def withInstancesContent(journaledState: JournaledDynamicState): Option[DynamicState] = {
+
+    val instanceStates =
+      journaledState.instances map { journaledInstance ⇒
+        findOne(journaledInstance.delta.baseKey) match {
+          case baseContent: String ⇒
+            Some(journaledInstance.instanceState(InstanceJournal.applyMutations(baseContent, journaledInstance.delta.mutations)))
+          case _ ⇒
+            None
+        }
+      }
+
+    val dynamicState = journaledState.dynamicState
+
+    if (instanceStates forall (_.isDefined))
+      Some(dynamicState.copy(instances = toByteSeq(dynamicState.decodeInstances ++ instanceStates.flatten)))
+    else
+      None
+  }
+
+  private def addOrReplaceOne(key: String, value: java.io.Serializable) =
+    stateCache.put(new EhElement(key, value))
+
+  private def findOne(key: String) = stateCache.get(key) match {
+    case element: EhElement ⇒ element.getObjectValue
+    case _ ⇒ null
   }
 
   def findState(session: ExternalContext.Session, documentUUID: String, isInitialState: Boolean): XFormsState =
@@ -59,11 +184,6 @@ object EhcacheStateStore extends XFormsStateStore {
       if (isDebugEnabled)
         debug("store size before finding: " + getCurrentSize + " entries.")
 
-      def findOne(key: String) = stateCache.get(key) match {
-        case element: EhElement ⇒ element.getObjectValue
-        case _ ⇒ null
-      }
-
       findOne(documentUUID) match {
         case keyString: String ⇒
           // Found the keys, split into parts
@@ -79,6 +199,8 @@ object EhcacheStateStore extends XFormsStateStore {
           Stream(parts(0), dynamicStateKey) map findOne filter (_ ne null) match {
             case Stream(staticState: String, dynamicState: DynamicState) ⇒
               XFormsState(Some(parts(0)), staticState, dynamicState)
+            case Stream(staticState: String, journaledState: JournaledDynamicState) ⇒
+              (withInstancesContent(journaledState) map (XFormsState(Some(parts(0)), staticState, _))).orNull
             case _ ⇒ null
           }
 
@@ -95,6 +217,9 @@ object EhcacheStateStore extends XFormsStateStore {
   private def getDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
     documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
 
+  private def getBaseKeysKey(documentUUID: String) =
+    documentUUID + "-B"
+
   private def isDebugEnabled = XFormsStateManager.getIndentedLogger.isDebugEnabled
 
   private def debug(message: String) =
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.dom4j._
+import org.orbeon.oxf.xforms.model.DataModel
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.om.{NodeInfo, VirtualNode}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+// Change to an instance, as recorded by `InstanceJournal`
+//
+// Nodes are identified by their path from the document node. Each step is the position of a node among the children
+// of its parent, or `-(index + 1)` for an attribute. See `InstanceJournal.pathOf`.
+sealed trait InstanceMutation
+case class SetValueMutation(path: List[Int], value: String) extends InstanceMutation
+case class DeleteMutation(path: List[Int])                  extends InstanceMutation
+case class InsertMutation(
+  path     : List[Int],
+  nodeType : Short,
+  name     : String, // attribute qualified name or processing instruction target
+  uri      : String, // attribute namespace URI
+  value    : String  // serialized element, or value of other nodes
+) extends InstanceMutation
+
+// Mutations applied to a base snapshot of the instance content, which the state store keeps under `baseKey`
+case class InstanceDelta(baseKey: String, baseTime: Long, mutations: List[InstanceMutation])
+
+// Journal of the mutations applied to an instance since its last base snapshot
+//
+// This allows the state store to save the content of large instances only once, followed by the mutations done by
+// Ajax requests. Value changes, inserts and deletes are recorded. Any other change, as well as mutations which can't
+// be described unambiguously, invalidate the journal, in which case the next state saved contains a new snapshot.
+// So does reaching `maxMutations`, which bounds the memory used by the journal and the cost of replaying it.
+class InstanceJournal(maxMutations: Int) {
+
+  import InstanceJournal._
+
+  private var _baseKey  : Option[String] = None
+  private var _baseTime : Long           = 0L
+  private var _valid    : Boolean        = false
+  private val _mutations                 = ListBuffer[InstanceMutation]()
+
+  def baseKeyOpt = _baseKey
+  def isRecording = _valid && _baseKey.isDefined
+
+  def delta: Option[InstanceDelta] =
+    if (isRecording) _baseKey map (InstanceDelta(_, _baseTime, _mutations.toList)) else None
+
+  // Called by the state store once it has saved a new snapshot of the instance content
+  def rebase(baseKey: String, baseTime: Long): Unit = {
+    _baseKey  = Some(baseKey)
+    _baseTime = baseTime
+    _valid    = true
+    _mutations.clear()
+  }
+
+  // Continue recording after the instance has been restored from a base snapshot and mutations
+  def resume(delta: InstanceDelta): Unit = {
+    rebase(delta.baseKey, delta.baseTime)
+    _mutations ++= delta.mutations
+  }
+
+  def invalidate(): Unit = {
+    _valid = false
+    _mutations.clear()
+  }
+
+  // Record a value change, after the value has been set
+  def recordValueChange(nodeInfo: NodeInfo, newValue: String): Unit =
+    record(unwrap(nodeInfo) flatMap pathOf map (SetValueMutation(_, newValue)))
+
+  // Record an insertion, after the node has been inserted
+  def recordInsert(node: Node): Unit =
+    record(pathOf(node) flatMap (insertMutation(node, _)))
+
+  // Record a deletion, before the node is deleted
+  def recordDelete(nodeInfo: NodeInfo): Unit =
+    record(unwrap(nodeInfo) flatMap pathOf map DeleteMutation)
+
+  private def record(mutationOpt: ⇒ Option[InstanceMutation]): Unit =
+    if (isRecording)
+      mutationOpt match {
+        case Some(mutation) if _mutations.size < maxMutations ⇒ _mutations += mutation
+        case _                                                ⇒ invalidate()
+      }
+}
+
+object InstanceJournal {
+
+  // Return the content of the instance after applying the given mutations to the base content
+  def applyMutations(baseContent: String, mutations: List[InstanceMutation]): String =
+    if (mutations.isEmpty)
+      baseContent
+    else {
+      val document = Dom4jUtils.readDom4j(baseContent)
+      mutations foreach (applyMutation(document, _))
+      TransformerUtils.dom4jToString(document, false)
+    }
+
+  private def applyMutation(document: Document, mutation: InstanceMutation): Unit =
+    mutation match {
+      case SetValueMutation(path, value) ⇒
+        DataModel.setValueForNode(resolve(document, path), value)
+      case InsertMutation(path, nodeType, name, uri, value) ⇒
+        val parent = resolve(document, path.init).asInstanceOf[Element]
+        createNode(nodeType, name, uri, value) match {
+          case attribute: Attribute ⇒
+            Option(parent.attribute(attribute.getQName)) foreach (existing ⇒ parent.remove(existing))
+            parent.attributes.add((-path.last - 1) min parent.attributes.size, attribute)
+          case node ⇒
+            parent.content.add(contentIndex(parent, path.last), node)
+        }
+      case DeleteMutation(path) ⇒
+        resolve(document, path) match {
+          case attribute: Attribute ⇒
+            attribute.getParent.remove(attribute)
+          case node ⇒
+            val parent = Option(node.getParent: Branch) getOrElse node.getDocument
+            parent.content.remove(node)
+            Dom4jUtils.normalizeTextNodes(parent)
+        }
+    }
+
+  private def resolve(document: Document, path: List[Int]): Node =
+    path.foldLeft(document: Node) {
+      case (element: Element, step) if step < 0 ⇒ element.attributes.get(-step - 1)
+      case (branch: Branch, step)               ⇒ significantChildren(branch)(step)
+      case (node, step)                         ⇒ throw new IllegalStateException(s"no child $step for ${node.getNodeTypeName}")
+    }
+
+  // Index in the content of the given branch where to insert a node at the given position
+  private def contentIndex(branch: Branch, position: Int) = {
+    val children = significantChildren(branch)
+    if (position < children.size) branch.content.indexOf(children(position)) else branch.content.size
+  }
+
+  private def unwrap(nodeInfo: NodeInfo) = nodeInfo match {
+    case virtualNode: VirtualNode ⇒ Some(virtualNode.getUnderlyingNode.asInstanceOf[Node])
+    case _                        ⇒ None
+  }
+
+  private def isText(node: Node) = node.isInstanceOf[Text] || node.isInstanceOf[CDATA]
+
+  // Children as they appear once the content is serialized and parsed again: namespace nodes and empty text nodes
+  // are not present, and adjacent text nodes are merged, in which case only the first of them is returned.
+  private def significantChildren(branch: Branch): IndexedSeq[Node] = {
+    val result = ListBuffer[Node]()
+    var previousIsText = false
+    for (child ← branch.content.asScala)
+      child match {
+        case _: Namespace                               ⇒
+        case text if isText(text) && text.getText == "" ⇒
+        case text if isText(text) && previousIsText     ⇒
+        case other                                      ⇒
+          result += other
+          previousIsText = isText(other)
+      }
+    result.toIndexedSeq
+  }
+
+  // Path of the node from the document node, or `None` if the node can't be identified unambiguously after the
+  // content is serialized and parsed again
+  def pathOf(node: Node): Option[List[Int]] = {
+
+    // A text node adjacent to another text node can't be identified once they are merged
+    def position(branch: Branch, child: Node) = {
+      val content = branch.content.asScala filter {
+        case _: Namespace         ⇒ false
+        case text if isText(text) ⇒ text.getText != ""
+        case _                    ⇒ true
+      }
+      val index = content indexWhere (_ eq child)
+
+      def isTextAt(i: Int) = i >= 0 && i < content.size && isText(content(i))
+
+      if (index == -1 || isText(child) && (isTextAt(index - 1) || isTextAt(index + 1)))
+        None
+      else
+        Some(significantChildren(branch) indexWhere (_ eq child))
+    }
+
+    def childPath(parent: Branch, step: Option[Int]) =
+      for {
+        position   ← step
+        parentPath ← pathOf(parent)
+      } yield
+        parentPath :+ position
+
+    node match {
+      case _: Document ⇒
+        Some(Nil)
+      case attribute: Attribute ⇒
+        Option(attribute.getParent) flatMap { parent ⇒
+          childPath(parent, Some(-(parent.attributes.indexOf(attribute) + 1)))
+        }
+      case _ ⇒
+        // The parent of the root element is the document
+        Option(node.getParent: Branch) orElse Option(node.getDocument) flatMap { parent ⇒
+          childPath(parent, position(parent, node))
+        }
+    }
+  }
+
+  private def insertMutation(node: Node, path: List[Int]): Option[InsertMutation] =
+    node match {
+      case element: Element if element.getParent eq null ⇒
+        // Root element replacement
+        None
+      case element: Element ⇒
+        val xml = Dom4jUtils.domToString(Dom4jUtils.createDocumentCopyParentNamespaces(element))
+        Some(InsertMutation(path, Node.ELEMENT_NODE, "", "", xml))
+      case attribute: Attribute ⇒
+        Some(InsertMutation(path, Node.ATTRIBUTE_NODE, attribute.getQualifiedName, attribute.getNamespaceURI, attribute.getValue))
+      case comment: Comment ⇒
+        Some(InsertMutation(path, Node.COMMENT_NODE, "", "", comment.getText))
+      case pi: ProcessingInstruction ⇒
+        Some(InsertMutation(path, Node.PROCESSING_INSTRUCTION_NODE, pi.getTarget, "", pi.getText))
+      case _ ⇒
+        // Text nodes are merged with adjacent text nodes upon insertion
+        None
+    }
+
+  private def createNode(nodeType: Short, name: String, uri: String, value: String): Node =
+    nodeType match {
+      case Node.ELEMENT_NODE                ⇒ Dom4jUtils.readDom4j(value).getRootElement.detach()
+      case Node.ATTRIBUTE_NODE              ⇒ DocumentFactory.createAttribute(null, QName.get(name, uri), value)
+      case Node.COMMENT_NODE                ⇒ DocumentFactory.createComment(value)
+      case Node.PROCESSING_INSTRUCTION_NODE ⇒ DocumentFactory.createProcessingInstruction(name, value)
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.orbeon.oxf.cache._
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsStaticState}
+
+// Cache of post-initialization dynamic states, keyed by static state digest
+//
+// New documents for a static state which supports it are restored from the cached dynamic state instead of running
+// models and controls initialization. See `XFormsStaticState.isCacheInitialState`.
+object XFormsInitialStateCache {
+
+  // Keep a reference to the static state so that we don't reuse a dynamic state created for an out-of-date static
+  // state which had the same digest (e.g. when XBL bindings have changed).
+  private case class InitialState(staticState: XFormsStaticState, dynamicState: DynamicState)
+
+  // Store the state of a document which has just been initialized, if the document is in a shareable state
+  def storeDocumentIfPossible(document: XFormsContainingDocument): Boolean = {
+
+    val staticState = document.getStaticState
+
+    val canStore = staticState.isCacheInitialState && document.isInitialStateShareable
+    if (canStore)
+      cache.add(createCacheKey(staticState.digest), ConstantValidity, InitialState(staticState, withoutRequestInformation(DynamicState(document))))
+
+    canStore
+  }
+
+  def findState(staticState: XFormsStaticState): Option[DynamicState] =
+    if (staticState.isCacheInitialState)
+      Option(cache.findValid(createCacheKey(staticState.digest), ConstantValidity).asInstanceOf[InitialState]) collect {
+        case InitialState(cachedStaticState, dynamicState) if cachedStaticState eq staticState ⇒ dynamicState
+      }
+    else
+      None
+
+  def findStateJava(staticState: XFormsStaticState) =
+    findState(staticState).orNull
+
+  // Request information belongs to the request which initialized the document and must not leak to other users
+  private def withoutRequestInformation(dynamicState: DynamicState) =
+    dynamicState.copy(
+      uuid               = "",
+      sequence           = 1,
+      deploymentType     = None,
+      requestContextPath = None,
+      requestPath        = None,
+      requestHeaders     = Nil,
+      requestParameters  = Nil,
+      containerType      = None,
+      containerNamespace = None
+    )
+
+  private def createCacheKey(digest: String) =
+    new InternalCacheKey(InitialStateKeyType, digest ensuring (_ ne null))
+
+  private val XFormsInitialStateCache = "xforms.cache.initial-state"
+  private val XFormsInitialStateCacheDefaultSize = 50
+  private val ConstantValidity = 0L
+  private val InitialStateKeyType = XFormsInitialStateCache
+
+  private val cache = ObjectCache.instance(XFormsInitialStateCache, XFormsInitialStateCacheDefaultSize)
+}
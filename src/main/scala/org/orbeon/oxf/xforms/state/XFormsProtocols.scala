@@ -102,6 +102,48 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
       )
   }
 
+  implicit object InstanceMutationFormat extends Format[InstanceMutation] {
+
+    def writes(output: Output, mutation: InstanceMutation): Unit = mutation match {
+      case SetValueMutation(path, value) ⇒
+        write[Byte](output, 0)
+        write(output, path)
+        write(output, value)
+      case InsertMutation(path, nodeType, name, uri, value) ⇒
+        write[Byte](output, 1)
+        write(output, path)
+        write(output, nodeType)
+        write(output, name)
+        write(output, uri)
+        write(output, value)
+      case DeleteMutation(path) ⇒
+        write[Byte](output, 2)
+        write(output, path)
+    }
+
+    def reads(in: Input) = read[Byte](in) match {
+      case 0 ⇒ SetValueMutation(read[List[Int]](in), read[String](in))
+      case 1 ⇒ InsertMutation(read[List[Int]](in), read[Short](in), read[String](in), read[String](in), read[String](in))
+      case 2 ⇒ DeleteMutation(read[List[Int]](in))
+    }
+  }
+
+  implicit object InstanceDeltaFormat extends Format[InstanceDelta] {
+
+    def writes(output: Output, delta: InstanceDelta): Unit = {
+      write(output, delta.baseKey)
+      write(output, delta.baseTime)
+      write(output, delta.mutations)
+    }
+
+    def reads(in: Input) =
+      InstanceDelta(
+        read[String](in),
+        read[Long](in),
+        read[List[InstanceMutation]](in)
+      )
+  }
+
   implicit object InstanceFormat extends Format[InstanceState] {
     
     def writes(output: Output, instance: InstanceState): Unit = {
@@ -114,6 +156,7 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
       write(output, instance.readonly)
       write(output, instance.modified)
       write(output, instance.valid)
+      write(output, instance.journal)
     }
     
     def reads(in: Input) = {
@@ -129,7 +172,8 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
         readCachingOrContent,
         read[Boolean](in),
         read[Boolean](in),
-        read[Boolean](in)
+        read[Boolean](in),
+        read[Option[InstanceDelta]](in)
       )
     }
   }
@@ -14,6 +14,7 @@
 package org.orbeon.oxf.xforms.state
 
 import org.orbeon.oxf.cache._
+import org.orbeon.oxf.webapp.WebAppContext
 import org.orbeon.oxf.xforms.XFormsStaticState
 
 object XFormsStaticStateCache {
@@ -23,8 +24,10 @@ object XFormsStaticStateCache {
     def staticStateStatus(found: Boolean, digest: String)
   }
 
-  def storeDocument(staticState: XFormsStaticState): Unit =
-    cache.add(createCacheKey(staticState.digest), ConstantValidity, staticState)
+  def storeDocument(staticState: XFormsStaticState): Unit = {
+    storeInMemory(staticState)
+    XFormsStaticStatePersistentCache.storeDocument(staticState)
+  }
 
   def getDocumentJava(digest: String) =
     findDocument(digest).orNull
@@ -32,6 +35,20 @@ object XFormsStaticStateCache {
   def findDocument(digest: String) =
     Option(cache.findValid(createCacheKey(digest), ConstantValidity).asInstanceOf[XFormsStaticState])
 
+  // Called when the web app starts
+  //
+  // If enabled, the static states found in the persistent cache are analyzed in the background and added to this
+  // cache. Requests for those forms still read, annotate and digest their input, but then find the analyzed static
+  // state here instead of analyzing it again.
+  def initialize(webAppContext: WebAppContext): Unit =
+    XFormsStaticStatePersistentCache.initialize(webAppContext) { staticState ⇒
+      if (findDocument(staticState.digest).isEmpty)
+        storeInMemory(staticState)
+    }
+
+  private def storeInMemory(staticState: XFormsStaticState): Unit =
+    cache.add(createCacheKey(staticState.digest), ConstantValidity, staticState)
+
   private def createCacheKey(digest: String) =
     new InternalCacheKey(ContainingDocumentKeyType, digest ensuring (_ ne null))
 
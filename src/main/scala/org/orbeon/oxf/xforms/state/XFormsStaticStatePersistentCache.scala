@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io._
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
+
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.Logging
+import org.orbeon.oxf.util.ScalaUtils._
+import org.orbeon.oxf.webapp.{WebAppContext, WebAppListener}
+import org.orbeon.oxf.xforms.xbl.BindingMetadata
+import org.orbeon.oxf.xforms.{Loggers, XFormsStaticState, XFormsStaticStateImpl}
+
+import scala.util.control.NonFatal
+
+// Optional on-disk tier for the static state cache
+//
+// Static states are stored in encoded form, keyed by digest, together with the XBL validity information gathered
+// during analysis. When the web app starts, the static states which are still up to date are restored, which
+// annotates and analyzes them again, in the background. This moves the analysis of the forms used before a restart
+// out of the first requests for them.
+//
+// A request only knows the digest of its static state once it has read, annotated and extracted its input, at which
+// point restoring the encoded static state would be no cheaper than analyzing the extracted one. So requests only use
+// the memory cache, and entries on disk are only read when the web app starts.
+//
+// The tier is enabled by setting `oxf.xforms.cache.static-state.persistent.directory`.
+object XFormsStaticStatePersistentCache extends Logging {
+
+  private val DirectoryProperty      = "oxf.xforms.cache.static-state.persistent.directory"
+  private val PrewarmProperty        = "oxf.xforms.cache.static-state.persistent.prewarm"
+  private val ThreadsProperty        = "oxf.xforms.cache.static-state.persistent.threads"
+
+  private val FileSuffix             = ".static-state"
+  private val FormatVersion          = 1
+
+  private implicit def logger = Loggers.getIndentedLogger("cache")
+
+  private lazy val directoryOpt =
+    Option(Properties.instance.getPropertySet.getString(DirectoryProperty)) map (new File(_)) filter { dir ⇒
+      dir.mkdirs()
+      val usable = dir.isDirectory && dir.canWrite
+      if (! usable)
+        warn("persistent static state cache directory is not usable", List("directory" → dir.getAbsolutePath))
+      usable
+    }
+
+  // Writes and pre-warming happen in the background so that requests don't wait on disk I/O or analysis
+  private lazy val executor: ExecutorService =
+    Executors.newFixedThreadPool(
+      Properties.instance.getPropertySet.getInteger(ThreadsProperty, 1),
+      new ThreadFactory {
+        def newThread(r: Runnable) = {
+          val thread = new Thread(r, "orbeon-static-state-cache")
+          thread.setDaemon(true)
+          thread
+        }
+      }
+    )
+
+  def isEnabled = directoryOpt.isDefined
+
+  // Write the static state in the background, unless it is already on disk
+  def storeDocument(staticState: XFormsStaticState): Unit =
+    if (staticState.isServerStateHandling)
+      directoryOpt foreach { dir ⇒
+
+        // Capture validity information now, as it describes the bindings used when the static state was created
+        val metadata     = staticState.topLevelPart.metadata
+        val includes     = metadata.bindingIncludes
+        val lastModified = metadata.bindingIncludesLastModified
+
+        executor.execute(new Runnable {
+          def run() =
+            try {
+              val file = fileForDigest(dir, staticState.digest)
+              if (! file.exists)
+                writeEntry(file, Entry(staticState.digest, lastModified, includes, staticState.encodedState))
+            } catch {
+              case NonFatal(t) ⇒
+                warn("unable to write static state to persistent cache", List("digest" → staticState.digest, "throwable" → t.toString))
+            }
+        })
+      }
+
+  // Stop background writes and pre-warming when the web app is destroyed, and pre-warm the memory cache if enabled
+  def initialize(webAppContext: WebAppContext)(store: XFormsStaticState ⇒ Unit): Unit =
+    directoryOpt foreach { dir ⇒
+
+      webAppContext.addListener(new WebAppListener {
+        def webAppDestroyed(): Unit = executor.shutdownNow()
+      })
+
+      if (Properties.instance.getPropertySet.getBoolean(PrewarmProperty, false))
+        prewarm(dir, store)
+    }
+
+  // Restore all up-to-date persisted static states, in the background
+  private def prewarm(dir: File, store: XFormsStaticState ⇒ Unit): Unit = {
+
+    val files = Option(dir.listFiles(new FilenameFilter {
+      def accept(dir: File, name: String) = name.endsWith(FileSuffix)
+    })) getOrElse Array.empty[File]
+
+    info("pre-warming static state cache", List("directory" → dir.getAbsolutePath, "entries" → files.length.toString))
+
+    for (file ← files)
+      executor.execute(new Runnable {
+        def run() =
+          try
+            readUpToDateEntry(file) foreach { entry ⇒
+              store(XFormsStaticStateImpl.restore(Some(entry.digest), entry.encodedState))
+            }
+          catch {
+            case NonFatal(t) ⇒
+              warn("unable to pre-warm static state", List("file" → file.getName, "throwable" → t.toString))
+          }
+      })
+  }
+
+  private case class Entry(digest: String, lastModified: Long, includes: Set[String], encodedState: String)
+
+  private def fileForDigest(dir: File, digest: String) =
+    new File(dir, digest + FileSuffix)
+
+  // An entry is out of date if XBL files it depends on have changed since it was written, in which case remove it
+  private def readUpToDateEntry(file: File): Option[Entry] =
+    if (file.exists)
+      readEntry(file) filter { entry ⇒
+        val upToDate = BindingMetadata.includesAreUpToDate(entry.includes, entry.lastModified)
+        if (! upToDate) {
+          debug("removing out-of-date static state from persistent cache", List("digest" → entry.digest))
+          file.delete()
+        }
+        upToDate
+      }
+    else
+      None
+
+  private def readEntry(file: File): Option[Entry] =
+    try
+      useAndClose(new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) { is ⇒
+        if (is.readInt() == FormatVersion) {
+          val digest       = is.readUTF()
+          val lastModified = is.readLong()
+          val includes     = ((1 to is.readInt()) map (_ ⇒ is.readUTF())).toSet
+          val stateBytes   = new Array[Byte](is.readInt())
+          is.readFully(stateBytes)
+
+          Some(Entry(digest, lastModified, includes, new String(stateBytes, "UTF-8")))
+        } else
+          None
+      }
+    catch {
+      case NonFatal(t) ⇒
+        warn("unable to read static state from persistent cache", List("file" → file.getName, "throwable" → t.toString))
+        None
+    }
+
+  // Write to a temporary file first so that readers never see a partial entry
+  private def writeEntry(file: File, entry: Entry): Unit = {
+
+    val tempFile = File.createTempFile(entry.digest, ".tmp", file.getParentFile)
+
+    try {
+      useAndClose(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) { os ⇒
+        os.writeInt(FormatVersion)
+        os.writeUTF(entry.digest)
+        os.writeLong(entry.lastModified)
+        os.writeInt(entry.includes.size)
+        entry.includes foreach (os.writeUTF(_))
+        val stateBytes = entry.encodedState.getBytes("UTF-8")
+        os.writeInt(stateBytes.length)
+        os.write(stateBytes)
+      }
+
+      if (! tempFile.renameTo(file))
+        debug("static state already written to persistent cache", List("digest" → entry.digest))
+    } finally
+      tempFile.delete()
+  }
+}
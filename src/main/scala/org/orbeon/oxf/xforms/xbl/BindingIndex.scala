@@ -23,9 +23,55 @@ case class BindingIndex[+T](
   attOnlySelectors    : List[(BindingDescriptor, T)],
   nameOnlySelectors   : List[(BindingDescriptor, T)]
 ) {
-  // Index by name to make lookups faster
-  val byNameWithAtt = nameAndAttSelectors filter (_._1.elementName.isDefined) groupBy (_._1.elementName.get)
-  val byNameOnly    = nameOnlySelectors   filter (_._1.elementName.isDefined) groupBy (_._1.elementName.get)
+  // Index by name and by attribute to make lookups faster. This is lazy, as a new index is created for each indexed
+  // selector when bindings are loaded.
+  lazy val byNameWithAtt =
+    nameAndAttSelectors filter (_._1.elementName.isDefined) groupBy (_._1.elementName.get) map {
+      case (name, selectors) ⇒ name → new AttSelectorIndex(selectors)
+    }
+
+  lazy val byAttOnly  = new AttSelectorIndex(attOnlySelectors)
+  lazy val byNameOnly = nameOnlySelectors filter (_._1.elementName.isDefined) groupBy (_._1.elementName.get)
+}
+
+// Index attribute selectors by attribute name, and also by value for `=` and by token for `~=`, so that finding the
+// first matching selector doesn't depend on the number of selectors.
+class AttSelectorIndex[+T](selectors: List[(BindingDescriptor, T)]) {
+
+  private[this] type Positioned = (BindingAttributeDescriptor, T, Int)
+
+  private[this] val positioned: List[Positioned] =
+    selectors.zipWithIndex collect {
+      case ((BindingDescriptor(_, None, Some(attDesc)), binding), position) ⇒ (attDesc, binding, position)
+    }
+
+  // `groupBy` keeps the order, so each list of candidates is sorted by position
+  private[this] def groupByKey[K](predicate: String ⇒ Boolean)(key: BindingAttributeDescriptor ⇒ K) =
+    positioned filter (p ⇒ predicate(p._1.predicate)) groupBy (p ⇒ key(p._1))
+
+  private[this] val byValue = groupByKey(_ == "=")(d ⇒ d.name → d.value)
+  private[this] val byToken = groupByKey(_ == "~=")(d ⇒ d.name → d.value)
+  private[this] val byName  = groupByKey(p ⇒ p != "=" && p != "~=")(_.name)
+
+  // Return the first selector in the original order which matches one of the attributes
+  def findFirst(atts: Traversable[(QName, String)]): Option[T] = {
+
+    var best: Option[Positioned] = None
+
+    // Only the candidates before the best match so far need to be checked
+    def consider(candidates: Option[List[Positioned]], matches: Positioned ⇒ Boolean): Unit =
+      for (list ← candidates; c ← list.iterator takeWhile (c ⇒ best forall (c._3 < _._3)) find matches)
+        best = Some(c)
+
+    atts foreach {
+      case (attName, attValue) ⇒
+        consider(byValue.get(attName → attValue), _ ⇒ true)
+        stringToSet(attValue) foreach (token ⇒ consider(byToken.get(attName → token), _ ⇒ true))
+        consider(byName.get(attName), c ⇒ BindingIndex.attValueMatches(c._1, attValue))
+    }
+
+    best map (_._2)
+  }
 }
 
 // Implementation strategy: all the functions take an immutable index and return a new immutable index. The global index
@@ -116,34 +162,11 @@ object BindingIndex {
     atts  : Traversable[(QName, String)]
   ): Option[(IndexableBinding, Boolean)] = {
 
-    def attValueMatches(attDesc: BindingAttributeDescriptor, attValue: String) = attDesc.predicate match {
-      //case "" ⇒ // TODO: attribute existence (fix parser).
-      case "="  ⇒ attValue == attDesc.value
-      case "~=" ⇒ stringToSet(attValue)(attDesc.value)
-      case "|=" ⇒ attValue == attDesc.value || attValue.startsWith(attDesc.value + '-')
-      case "^=" ⇒ attDesc.value != "" && attValue.startsWith(attDesc.value)
-      case "$=" ⇒ attDesc.value != "" && attValue.endsWith(attDesc.value)
-      case "*=" ⇒ attDesc.value != "" && attValue.contains(attDesc.value)
-    }
-
-    def attMatches(attDesc: BindingAttributeDescriptor) =
-      atts exists {
-        case (attName, attValue) ⇒ attName == attDesc.name && attValueMatches(attDesc, attValue)
-      }
-
     def fromNameAndAtt =
-      index.byNameWithAtt.get(qName) flatMap { indexedBindings ⇒
-        indexedBindings.collectFirst {
-          case (BindingDescriptor(_, None, Some(attDesc)), binding) if attMatches(attDesc) ⇒
-            (binding, false)
-        }
-      }
+      index.byNameWithAtt.get(qName) flatMap (_.findFirst(atts)) map (_ → false)
 
     def fromAttOnly =
-      index.attOnlySelectors collectFirst {
-        case (BindingDescriptor(None, None, Some(attDesc)), binding) if attMatches(attDesc) ⇒
-          (binding, false)
-      }
+      index.byAttOnly.findFirst(atts) map (_ → false)
 
     def fromNameOnly =
       index.byNameOnly.get(qName) flatMap (_.headOption) map (_._2 → true)
@@ -155,6 +178,16 @@ object BindingIndex {
     fromNameAndAtt orElse fromAttOnly orElse fromNameOnly
   }
 
+  def attValueMatches(attDesc: BindingAttributeDescriptor, attValue: String) = attDesc.predicate match {
+    //case "" ⇒ // TODO: attribute existence (fix parser).
+    case "="  ⇒ attValue == attDesc.value
+    case "~=" ⇒ stringToSet(attValue)(attDesc.value)
+    case "|=" ⇒ attValue == attDesc.value || attValue.startsWith(attDesc.value + '-')
+    case "^=" ⇒ attDesc.value != "" && attValue.startsWith(attDesc.value)
+    case "$=" ⇒ attDesc.value != "" && attValue.endsWith(attDesc.value)
+    case "*=" ⇒ attDesc.value != "" && attValue.contains(attDesc.value)
+  }
+
   private val abstractPF: PartialFunction[(BindingDescriptor, IndexableBinding), (BindingDescriptor, AbstractBinding)] =
     { case (d, b: AbstractBinding) ⇒  d → b }
 
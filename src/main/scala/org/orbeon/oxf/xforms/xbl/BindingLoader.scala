@@ -13,6 +13,8 @@
  */
 package org.orbeon.oxf.xforms.xbl
 
+import java.util.concurrent.ConcurrentHashMap
+
 import org.dom4j.{Document, Element, QName}
 import org.orbeon.oxf.properties.{Property, PropertySet}
 import org.orbeon.oxf.util.Logging
@@ -30,6 +32,10 @@ trait BindingLoader extends Logging {
   private val XBLMappingPropertyPrefix = "oxf.xforms.xbl.mapping."
   private val XBLLibraryProperty       = "oxf.xforms.xbl.library"
   private val XBLBaselineProperty      = "oxf.xforms.resources.baseline"
+  private val XBLCheckIntervalProperty = "oxf.xforms.xbl.check-interval"
+
+  // Last modification date of each path, and when it was obtained, shared by all the analyses
+  private val lastModifiedCache = new ConcurrentHashMap[String, (Long, Long)]
 
   def getPropertySet: PropertySet
   def lastModifiedByPath(path: String): Long
@@ -160,7 +166,7 @@ trait BindingLoader extends Logging {
 
           // We found a binding by name, but we haven't checked if that path is up-to-date yet. So make sure
           // the binding is removed or updated, and add the path to the list of paths we have checked.
-          val newIndex = updateBindingIfOutOfDate(currentIndex, binding.path.get, binding.lastModified)
+          val newIndex = updateBindingIfOutOfDate(currentIndex, binding.path.get, binding.lastModified, checkIntervalMs)
 
           val bindingUpdated = newIndex ne currentIndex
 
@@ -253,11 +259,34 @@ trait BindingLoader extends Logging {
     currentIndex
   }
 
-  private def updateBindingIfOutOfDate(index: BindingIndex[IndexableBinding], path: String, lastModified: Long) = {
+  // An analysis can check dozens of paths, so each path is checked at most once during the check interval
+  private def recentLastModifiedByPath(path: String, checkIntervalMs: Long): Long = {
+
+    val now = System.currentTimeMillis
+
+    Option(lastModifiedCache.get(path)) match {
+      case Some((checkedAt, lastModified)) if now - checkedAt < checkIntervalMs ⇒
+        lastModified
+      case _ ⇒
+        val lastModified = lastModifiedByPath(path)
+        lastModifiedCache.put(path, (now, lastModified))
+        lastModified
+    }
+  }
+
+  private def checkIntervalMs: Long =
+    getPropertySet.getInteger(XBLCheckIntervalProperty, 0).longValue
+
+  private def updateBindingIfOutOfDate(
+    index           : BindingIndex[IndexableBinding],
+    path            : String,
+    lastModified    : Long,
+    checkIntervalMs : Long
+  ) = {
 
     var currentIndex = index
 
-    val resourceLastModified = lastModifiedByPath(path)
+    val resourceLastModified = recentLastModifiedByPath(path, checkIntervalMs)
 
     val hasNoDate   = resourceLastModified <= 0
     val isOutOfDate = resourceLastModified > lastModified
@@ -277,14 +306,20 @@ trait BindingLoader extends Logging {
     paths : Set[String]
   ): BindingIndex[IndexableBinding] = {
 
+    // Check each path once, against the oldest binding loaded from it
+    val oldestLastModifiedByPath =
+      BindingIndex.distinctBindings(index) collect {
+        case binding if binding.path exists paths ⇒ binding.path.get → binding.lastModified
+      } groupBy (_._1) map {
+        case (path, pathsAndLastModified) ⇒ path → (pathsAndLastModified map (_._2) min)
+      }
+
+    val interval = checkIntervalMs
+
     var currentIndex = index
 
-    for {
-      path    ← paths
-      binding ← BindingIndex.distinctBindingsForPath(currentIndex, path)
-    } locally {
-      currentIndex = updateBindingIfOutOfDate(currentIndex, path, binding.lastModified)
-    }
+    for ((path, lastModified) ← oldestLastModifiedByPath)
+      currentIndex = updateBindingIfOutOfDate(currentIndex, path, lastModified, interval)
 
     currentIndex
   }
@@ -334,6 +369,8 @@ trait BindingLoader extends Logging {
     val sourceXBL    = contentAsDOM4J(path)
     val lastModified = lastModifiedByPath(path)
 
+    lastModifiedCache.put(path, (System.currentTimeMillis, lastModified))
+
     (Transform.transformXBLDocumentIfNeeded(path, sourceXBL, lastModified).getRootElement, lastModified)
   }
 
@@ -196,10 +196,12 @@ trait BindingMetadata extends Logging {
 
   def getBindingIncludesJava = bindingsPaths.asJava
 
-  private def pathExistsAndIsUpToDate(path: String)(implicit rm: ResourceManager) = {
-    val last = rm.lastModified(path, true)
-    last != -1 && last <= this.maxLastModified
-  }
+  // Validity information, for callers which keep it separately from this metadata
+  def bindingIncludes             = bindingsPaths
+  def bindingIncludesLastModified = maxLastModified
+
+  private def pathExistsAndIsUpToDate(path: String)(implicit rm: ResourceManager) =
+    BindingMetadata.pathExistsAndIsUpToDate(path, this.maxLastModified)
 
   def bindingsIncludesAreUpToDate = {
     implicit val rm = ResourceManagerWrapper.instance
@@ -210,4 +212,17 @@ trait BindingMetadata extends Logging {
     implicit val rm = ResourceManagerWrapper.instance
     bindingsPaths.iterator filterNot pathExistsAndIsUpToDate mkString ", "
   }
-}
\ No newline at end of file
+}
+
+object BindingMetadata {
+
+  def pathExistsAndIsUpToDate(path: String, lastModified: Long)(implicit rm: ResourceManager) = {
+    val last = rm.lastModified(path, true)
+    last != -1 && last <= lastModified
+  }
+
+  def includesAreUpToDate(paths: Iterable[String], lastModified: Long) = {
+    implicit val rm = ResourceManagerWrapper.instance
+    paths forall (pathExistsAndIsUpToDate(_, lastModified))
+  }
+}
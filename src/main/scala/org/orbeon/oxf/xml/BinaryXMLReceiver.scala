@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.io.InputStream
+
+// XMLReceiver which can read the content of a binary document directly from a stream
+//
+// A binary document is still received as a root element with `xsi:type="xs:base64Binary"` and its attributes, but
+// between the start and the end of that element, its content is passed with `binary()` instead of base64-encoded
+// characters. See `ProcessorUtils.readBinary()`.
+//
+// Receivers which change the events they receive must not implement this, so that they get the base64 characters.
+// `SAXStore` implements it and keeps the bytes, which it replays with `binary()` or as base64 characters depending on
+// its output.
+trait BinaryXMLReceiver extends XMLReceiver {
+  // The stream is closed by the caller
+  def binary(is: InputStream): Unit
+}
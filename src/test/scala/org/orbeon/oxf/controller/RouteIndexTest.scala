@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.controller
+
+import java.util.regex.Pattern
+
+import org.junit.Test
+import org.orbeon.oxf.processor.RegexpMatcher
+import org.orbeon.oxf.processor.RegexpMatcher.MatchResult
+import org.scalatest.junit.AssertionsForJUnit
+
+class RouteIndexTest extends AssertionsForJUnit {
+
+  // Routes as (path, glob)
+  val Routes = List(
+    "/"                                → false,
+    "/home/"                           → false,
+    "/(welcome/?)?"                    → false,
+    "/xforms-cart/"                    → false,
+    "/xforms-cart/get"                 → false,
+    "/xforms-cart/get"                 → false,
+    "/xforms-cart/add?"                → false,
+    "/xforms-cart/a\\.b"               → false,
+    "/fr/service/.+"                   → false,
+    "/fr/([^/]+)/([^/]+)/(new|edit)"   → false,
+    "/fr/a|/fr/b"                      → false,
+    "(?!/([^/]+)/service/).+\\.(css|js)" → false,
+    "/fr/*"                            → true,
+    "/fr/orbeon/builder/?"             → true,
+    "/static/*.png"                    → true,
+    "/static/logo.png"                 → true,
+    "/\\d+/id"                         → false,
+    "/[^/]+/(.+)"                      → false,
+    "/([^/]+)/.*"                      → false
+  )
+
+  val Paths = List(
+    "/", "", "/home/", "/home", "/welcome", "/welcome/", "/xforms-cart/", "/xforms-cart/get", "/xforms-cart/ad",
+    "/xforms-cart/add", "/xforms-cart/addd", "/xforms-cart/a.b", "/xforms-cart/axb", "/fr/service/x",
+    "/fr/acme/order/new", "/fr/acme/order/view", "/fr/a", "/fr/b", "/fr/x.css", "/fr/orbeon/builder",
+    "/fr/orbeon/builder/", "/static/logo.png", "/static/other.png", "/static/logo.gif", "/123/id", "/abc/id",
+    "/fr/line\nbreak", "/other/page", "/x", "missing"
+  )
+
+  def linearMatch(patterns: List[Pattern], path: String): Option[(Pattern, MatchResult)] =
+    patterns.iterator map (p ⇒ p → MatchResult(p, path)) find (_._2.matches)
+
+  @Test def sameMatchesAsLinearScan(): Unit = {
+
+    val patterns = Routes map { case (path, glob) ⇒ RegexpMatcher.compilePattern(path, glob) }
+
+    // Check with all the routes, and with each route removed in turn, so that later routes are also first matches
+    for (routes ← patterns :: (patterns.indices map (i ⇒ patterns.patch(i, Nil, 1))).toList) {
+      val index = new RouteIndex(routes.toIndexedSeq)(identity)
+      for (path ← Paths) {
+        val expected = linearMatch(routes, path)
+        val actual   = index.findMatch(path)
+        assert(expected.map(_._1) === actual.map(_._1), path)
+        assert(expected.map(_._2) === actual.map(_._2), path)
+      }
+    }
+  }
+
+  @Test def duplicateRoutesMatchFirst(): Unit = {
+    val first  = Pattern.compile("/a")
+    val second = Pattern.compile("/a")
+    val index  = new RouteIndex(IndexedSeq(first, second))(identity)
+    assert(index findMatch "/a" exists (_._1 eq first))
+  }
+}
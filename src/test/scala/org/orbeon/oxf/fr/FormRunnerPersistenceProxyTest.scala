@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, FileOutputStream}
+import java.net.InetSocketAddress
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import org.dom4j.Document
+import org.junit.Test
+import org.orbeon.oxf.externalcontext.{RequestAdapter, ResponseAdapter}
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class FormRunnerPersistenceProxyTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  // Matches the `proxy-test` provider in properties-local.xml
+  val MetadataPath = "/fr/service/persistence/form/proxy-test/orders"
+  val FormPath     = "/fr/service/persistence/crud/proxy-test/orders/form/form.xhtml"
+
+  val UnitTestsProperties = "oxf:/ops/unit-tests/properties.xml"
+
+  val Forms =
+    "<forms><form><application-name>proxy-test</application-name><form-name>orders</form-name></form></forms>"
+
+  // Stand-in for the provider, which counts the forms metadata reads
+  class Provider {
+
+    val metadataReads = new AtomicInteger
+
+    def handle(exchange: HttpExchange): Unit = {
+      NetUtils.inputStreamToByteArray(exchange.getRequestBody)
+      val bytes =
+        if (exchange.getRequestURI.getPath.startsWith("/proxy-test/form/orders")) {
+          metadataReads.incrementAndGet()
+          Forms.getBytes("UTF-8")
+        } else
+          Array.emptyByteArray
+      exchange.getResponseHeaders.set("Content-Type", "application/xml")
+      exchange.sendResponseHeaders(200, if (bytes.isEmpty) -1 else bytes.length)
+      if (bytes.nonEmpty)
+        exchange.getResponseBody.write(bytes)
+      exchange.close()
+    }
+  }
+
+  def withProvider[T](body: Provider ⇒ T): T = {
+    val provider = new Provider
+    val server   = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    server.createContext("/", new HttpHandler { def handle(exchange: HttpExchange) = provider.handle(exchange) })
+    server.start()
+    try
+      withProviderURI("http://localhost:" + server.getAddress.getPort + "/proxy-test")(body(provider))
+    finally
+      server.stop(0)
+  }
+
+  // Point the provider to the stand-in, which listens on any free port, by adding its URI to the test properties
+  def withProviderURI[T](uri: String)(body: ⇒ T): T = {
+
+    val properties: Document =
+      <properties xmlns:xs="http://www.w3.org/2001/XMLSchema" xmlns:xi="http://www.w3.org/2001/XInclude">
+        <xi:include href={UnitTestsProperties}/>
+        <property as="xs:anyURI" name="oxf.fr.persistence.proxy-test.uri" value={uri}/>
+      </properties>
+
+    val file = File.createTempFile("properties", ".xml")
+    try {
+      val os = new FileOutputStream(file)
+      try os.write(Dom4jUtils.domToString(properties).getBytes("UTF-8"))
+      finally os.close()
+
+      Properties.invalidate()
+      Properties.init(file.toURI.toString)
+      try
+        body
+      finally {
+        Properties.invalidate()
+        Properties.init(UnitTestsProperties)
+      }
+    } finally
+      file.delete()
+  }
+
+  // A parameter unique to this test run, so that metadata cached by other tests can't be found
+  val RunParameter = "test-run" → Array[AnyRef](System.nanoTime.toString)
+
+  def request(method: String, path: String, headers: Map[String, String] = Map.empty): String = {
+
+    val content = if (method == "PUT") "<xh:html xmlns:xh='http://www.w3.org/1999/xhtml'/>".getBytes("UTF-8") else Array.emptyByteArray
+
+    val incomingRequest = new RequestAdapter {
+      override def getMethod          = method
+      override def getRequestPath     = path
+      override def getParameterMap    = Map(RunParameter).asJava
+      override def getHeaderValuesMap = (headers mapValues (Array(_))).asJava
+      override def getContentType     = if (content.isEmpty) null else "application/xml"
+      override def getContentLength   = if (content.isEmpty) -1 else content.length
+      override def getInputStream     = new ByteArrayInputStream(content)
+    }
+
+    val os = new ByteArrayOutputStream
+    val outgoingResponse = new ResponseAdapter {
+      override def getOutputStream = os
+    }
+
+    new FormRunnerPersistenceProxy().proxyRequest(incomingRequest, outgoingResponse)
+    new String(os.toByteArray, "UTF-8")
+  }
+
+  @Test def cacheFormsMetadata(): Unit =
+    withProvider { provider ⇒
+
+      def readsAfter(method: String, path: String, headers: Map[String, String] = Map.empty) = {
+        request(method, path, headers)
+        provider.metadataReads.get
+      }
+
+      // The first read goes to the provider, and the same read again is served from the cache
+      assert(request("GET", MetadataPath) contains "<form-name>orders</form-name>")
+      assert(1 === provider.metadataReads.get)
+      assert(1 === readsAfter("GET", MetadataPath))
+
+      // The provider can return other forms for other users
+      assert(2 === readsAfter("GET", MetadataPath, Map("orbeon-username" → "jdoe")))
+      assert(2 === readsAfter("GET", MetadataPath, Map("orbeon-username" → "jdoe")))
+      assert(2 === readsAfter("GET", MetadataPath))
+
+      // Other forwarded headers don't prevent using the cache
+      assert(2 === readsAfter("GET", MetadataPath, Map("accept-language" → "fr")))
+
+      // Publishing the form definition invalidates the cached metadata
+      assert(2 === readsAfter("PUT", FormPath))
+      assert(3 === readsAfter("GET", MetadataPath))
+      assert(3 === readsAfter("GET", MetadataPath))
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr
+
+import java.net.InetSocketAddress
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentLinkedQueue, Executors}
+
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import org.junit.Test
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.scaxon.XML._
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+import scala.xml.Elem
+
+class FormRunnerPersistenceTest extends DocumentTestBase with AssertionsForJUnit {
+
+  val LatencyMs   = 200
+  val Attachments = 6
+
+  // Stand-in for the persistence layer, which serves attachments under /from/ and stores them under /to/, recording
+  // the paths stored in order, and the number of attachments stored at the same time
+  class Persistence {
+
+    val stored     = new ConcurrentLinkedQueue[String]
+    val running    = new AtomicInteger
+    val maxRunning = new AtomicInteger
+
+    def handle(exchange: HttpExchange): Unit = {
+      val path = exchange.getRequestURI.getPath
+      exchange.getRequestMethod match {
+        case "GET" ⇒
+          val bytes = path.getBytes("UTF-8")
+          exchange.getResponseHeaders.set("Content-Type", "application/octet-stream")
+          exchange.sendResponseHeaders(200, bytes.length)
+          exchange.getResponseBody.write(bytes)
+        case "PUT" ⇒
+          val current = running.incrementAndGet()
+          maxRunning.synchronized { if (current > maxRunning.get) maxRunning.set(current) }
+          try {
+            val content = new String(NetUtils.inputStreamToByteArray(exchange.getRequestBody), "UTF-8")
+            Thread.sleep(LatencyMs)
+            stored.add(if (path.endsWith(".bin")) s"$path ← $content" else path)
+          } finally
+            running.decrementAndGet()
+          val bytes = "stored".getBytes("UTF-8")
+          exchange.getResponseHeaders.set("Content-Type", "text/plain")
+          exchange.sendResponseHeaders(200, bytes.length)
+          exchange.getResponseBody.write(bytes)
+      }
+      exchange.close()
+    }
+  }
+
+  def withPersistence[T](body: (Persistence, String) ⇒ T): T = {
+    val persistence = new Persistence
+    val server      = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    server.setExecutor(Executors.newCachedThreadPool())
+    server.createContext("/", new HttpHandler { def handle(exchange: HttpExchange) = persistence.handle(exchange) })
+    server.start()
+    try
+      body(persistence, s"http://localhost:${server.getAddress.getPort}")
+    finally
+      server.stop(0)
+  }
+
+  def form(base: String): Elem =
+    <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+         xmlns:xf="http://www.w3.org/2002/xforms">
+      <xh:head>
+        <xf:model id="fr-form-model">
+          <xf:instance id="fr-form-instance">
+            <form xmlns="">{1 to Attachments map (i ⇒ <attachment>{s"$base/from/attachment-$i.bin"}</attachment>)}</form>
+          </xf:instance>
+          <xf:instance id="fr-create-update-submission-response">
+            <response xmlns=""/>
+          </xf:instance>
+          <xf:submission
+            id="fr-create-update-submission"
+            validate="false"
+            relevant="false"
+            method="put"
+            ref="event('holder')"
+            resource="{{event('resource')}}"
+            replace="text"
+            target="instance('fr-create-update-submission-response')"/>
+        </xf:model>
+      </xh:head>
+      <xh:body/>
+    </xh:html>
+
+  @Test def saveAttachmentsThenData(): Unit =
+    withPersistence { (persistence, base) ⇒
+      withActionAndDoc(setupDocument(form(base))) {
+
+        val data  = instance("fr-form-instance").get.documentInfo
+        val start = System.currentTimeMillis
+
+        val (beforeURLs, afterURLs, version) =
+          FormRunner.putWithAttachments(
+            data              = data,
+            toBaseURI         = base,
+            fromBasePath      = s"$base/from/",
+            toBasePath        = "/to/",
+            filename          = "data.xml",
+            commonQueryString = "",
+            forceAttachments  = false
+          )
+
+        val elapsed = System.currentTimeMillis - start
+
+        val expectedAfterURLs = (1 to Attachments map (i ⇒ s"/to/attachment-$i.bin")).toList
+        assert((1 to Attachments map (i ⇒ s"$base/from/attachment-$i.bin")).toList === beforeURLs.toList)
+        assert(expectedAfterURLs === afterURLs.toList)
+        assert(1 === version)
+
+        // Each attachment is read from its old location and stored in its new one, and the data is stored last
+        val stored = persistence.stored.asScala.toList
+        assert((1 to Attachments map (i ⇒ s"/to/attachment-$i.bin ← /from/attachment-$i.bin")).toSet === stored.init.toSet)
+        assert("/to/data.xml" === stored.last)
+
+        // The paths in the data point to the new locations
+        assert(expectedAfterURLs === (data.rootElement / "attachment" map (_.stringValue)).toList)
+
+        // Attachments are stored at the same time, up to the configured parallelism
+        assert(persistence.maxRunning.get > 1)
+        assert(persistence.maxRunning.get <= 4)
+        assert(elapsed < (Attachments + 1) * LatencyMs, s"$elapsed ms vs. sequential ${(Attachments + 1) * LatencyMs} ms")
+      }
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor
+
+import java.io.{BufferedReader, InputStreamReader, OutputStreamWriter}
+import java.net.{InetAddress, ServerSocket, Socket}
+import java.util.concurrent.{ConcurrentLinkedQueue, Semaphore, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import javax.mail.internet.{InternetAddress, MimeMessage}
+import javax.mail.{Message, MessagingException}
+
+import org.junit.Test
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.pipeline.api.{ExternalContext, PipelineContext}
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+class EmailDeliveryTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  // Stand-in for an SMTP server, which keeps the messages it receives, and rejects recipients starting with "reject"
+  // When silent, it accepts connections but never replies. Tests wait on the semaphores, which get one permit per event.
+  class SMTPStandIn(dataDelayMs: Int, silent: Boolean) {
+
+    val connections       = new AtomicInteger
+    val messages          = new ConcurrentLinkedQueue[String]
+    val dataStarted       = new Semaphore(0)
+    val messagesReceived  = new Semaphore(0)
+    val connectionsClosed = new Semaphore(0)
+
+    private val serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+
+    def port = serverSocket.getLocalPort
+    def server = SMTPServer(Map("mail.smtp.host" → "localhost", "mail.smtp.port" → port.toString), None, None)
+
+    private val acceptThread = new Thread(new Runnable {
+      def run() =
+        try {
+          while (true) {
+            val socket = serverSocket.accept()
+            connections.incrementAndGet()
+            val thread = new Thread(new Runnable { def run() = handle(socket) })
+            thread.setDaemon(true)
+            thread.start()
+          }
+        } catch {
+          case _: java.io.IOException ⇒ // closed
+        }
+    })
+    acceptThread.setDaemon(true)
+    acceptThread.start()
+
+    private def handle(socket: Socket): Unit =
+      try {
+        val reader = new BufferedReader(new InputStreamReader(socket.getInputStream, "us-ascii"))
+        val writer = new OutputStreamWriter(socket.getOutputStream, "us-ascii")
+
+        def reply(line: String) = { writer.write(line + "\r\n"); writer.flush() }
+
+        if (! silent)
+          reply("220 localhost")
+        var open = ! silent
+        while (open) {
+          val line = reader.readLine()
+          if (line eq null)
+            open = false
+          else line.toUpperCase match {
+            case command if command.startsWith("RCPT") && command.contains("<REJECT") ⇒
+              reply("550 Rejected")
+            case command if command.startsWith("DATA") ⇒
+              reply("354 Go ahead")
+              dataStarted.release()
+              val message = Iterator.continually(reader.readLine()) takeWhile (l ⇒ (l ne null) && l != ".") mkString "\n"
+              Thread.sleep(dataDelayMs)
+              messages.add(message)
+              messagesReceived.release()
+              reply("250 OK")
+            case command if command.startsWith("QUIT") ⇒
+              reply("221 Bye")
+              open = false
+            case _ ⇒
+              reply("250 OK")
+          }
+        }
+        if (silent)
+          Iterator.continually(reader.readLine()) takeWhile (_ ne null) foreach (_ ⇒ ())
+      } catch {
+        case _: java.io.IOException ⇒ // closed by the client
+      } finally {
+        socket.close()
+        connectionsClosed.release()
+      }
+
+    def close() = serverSocket.close()
+  }
+
+  def withSMTPStandIn[T](dataDelayMs: Int = 0, silent: Boolean = false)(body: SMTPStandIn ⇒ T): T = {
+    val standIn = new SMTPStandIn(dataDelayMs, silent)
+    try
+      body(standIn)
+    finally
+      standIn.close()
+  }
+
+  def awaitPermits(semaphore: Semaphore, permits: Int = 1): Unit =
+    assert(semaphore.tryAcquire(permits, 10, TimeUnit.SECONDS))
+
+  def withDelivery[T](queueSize: Int = 100, idleTimeoutMs: Long = 60000, timeoutMs: Long = 10000)(body: EmailDelivery ⇒ T): T = {
+    val delivery = new EmailDelivery(queueSize, idleTimeoutMs, timeoutMs)
+    try
+      body(delivery)
+    finally
+      delivery.shutdown()
+  }
+
+  def newMessage(server: SMTPServer, to: String, subject: String) = {
+    val message = new MimeMessage(server.newSession)
+    message.setFrom(new InternetAddress("from@example.org"))
+    message.addRecipient(Message.RecipientType.TO, new InternetAddress(to))
+    message.setSubject(subject)
+    message.setText("Hello")
+    message.saveChanges()
+    message
+  }
+
+  @Test def messagesShareConnection(): Unit =
+    withSMTPStandIn() { standIn ⇒ withDelivery() { delivery ⇒
+
+      val futures =
+        for (i ← 1 to 10)
+          yield delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", s"Message $i"))
+
+      futures foreach (Await.result(_, 10.seconds))
+
+      assert(10 === standIn.messages.size)
+      assert(1  === standIn.connections.get)
+      assert(standIn.messages.asScala.toList.zipWithIndex forall { case (m, i) ⇒ m.contains(s"Subject: Message ${i + 1}") })
+    }}
+
+  @Test def connectionClosedWhenIdle(): Unit =
+    withSMTPStandIn() { standIn ⇒ withDelivery(idleTimeoutMs = 100) { delivery ⇒
+
+      Await.result(delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", "First")), 10.seconds)
+      awaitPermits(standIn.connectionsClosed)
+      Await.result(delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", "Second")), 10.seconds)
+
+      assert(2 === standIn.messages.size)
+      assert(2 === standIn.connections.get)
+    }}
+
+  @Test def failureIsReported(): Unit =
+    withSMTPStandIn() { standIn ⇒ withDelivery() { delivery ⇒
+
+      intercept[MessagingException] {
+        Await.result(delivery.send(standIn.server, newMessage(standIn.server, "reject@example.org", "Rejected")), 10.seconds)
+      }
+
+      // The next message is still delivered, over the same connection
+      Await.result(delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", "Accepted")), 10.seconds)
+      assert(1 === standIn.messages.size)
+      assert(1 === standIn.connections.get)
+    }}
+
+  @Test def queueIsBounded(): Unit =
+    withSMTPStandIn(dataDelayMs = 1000) { standIn ⇒ withDelivery(queueSize = 2) { delivery ⇒
+
+      // One message is being sent, the next two wait in the queue
+      intercept[OXFException] {
+        for (i ← 1 to 5)
+          delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", s"Message $i"))
+      }
+    }}
+
+  @Test def unresponsiveServerTimesOut(): Unit =
+    withSMTPStandIn(silent = true) { standIn ⇒ withDelivery(timeoutMs = 500) { delivery ⇒
+
+      val start = System.currentTimeMillis
+      intercept[MessagingException] {
+        Await.result(delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", "Unanswered")), 10.seconds)
+      }
+      assert(System.currentTimeMillis - start < 5000)
+    }}
+
+  @Test def shutdownStopsDelivery(): Unit =
+    withSMTPStandIn(dataDelayMs = 1000) { standIn ⇒
+
+      val delivery = new EmailDelivery(100, 60000, 10000)
+
+      // The first message is being sent when the delivery is shut down, the others are still queued
+      val futures =
+        for (i ← 1 to 3)
+          yield delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", s"Message $i"))
+      awaitPermits(standIn.dataStarted)
+      delivery.shutdown()
+
+      Await.result(futures.head, 10.seconds)
+      futures.tail foreach { future ⇒
+        intercept[OXFException] {
+          Await.result(future, 10.seconds)
+        }
+      }
+      assert(1 === standIn.messages.size)
+
+      intercept[OXFException] {
+        delivery.send(standIn.server, newMessage(standIn.server, "to@example.org", "After shutdown"))
+      }
+    }
+
+  @Test def processorSendsInBackground(): Unit =
+    withSMTPStandIn(dataDelayMs = 3000) { standIn ⇒
+
+      val processor = ProcessorUtils.createProcessorWithInputs(
+        Dom4jUtils.readDom4j(
+          s"""<test name="oxf:email" xmlns:oxf="http://www.orbeon.com/oxf/processors">
+             |  <input name="data">
+             |    <message>
+             |      <smtp-host>localhost</smtp-host>
+             |      <smtp-port>${standIn.port}</smtp-port>
+             |      <delivery>async</delivery>
+             |      <from><email>from@example.org</email></from>
+             |      <to><email>to@example.org</email></to>
+             |      <subject>Background</subject>
+             |      <body content-type="text/plain">Hello</body>
+             |    </message>
+             |  </input>
+             |</test>""".stripMargin
+        ).getRootElement
+      )
+
+      val pipelineContext = createPipelineContextWithExternalContext()
+      val webAppContext   = pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT).asInstanceOf[ExternalContext].getWebAppContext
+      try {
+        val start = System.currentTimeMillis
+        try {
+          processor.reset(pipelineContext)
+          processor.start(pipelineContext)
+        } finally
+          pipelineContext.destroy(true)
+
+        // The processor doesn't wait for the server
+        assert(System.currentTimeMillis - start < 3000)
+
+        awaitPermits(standIn.messagesReceived)
+        assert(standIn.messages.asScala.exists(_.contains("Subject: Background")))
+      } finally
+        EmailDelivery.shutdown(webAppContext)
+    }
+}
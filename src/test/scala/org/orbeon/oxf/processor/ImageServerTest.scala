@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor
+
+import java.awt.{Color, GradientPaint}
+import java.awt.image.BufferedImage
+import java.io.{ByteArrayInputStream, File, FileInputStream, FileOutputStream}
+import java.util.concurrent.{Callable, Executors}
+import javax.imageio.ImageIO
+
+import org.dom4j.Document
+import org.junit.Test
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.processor.generator.DOMGenerator
+import org.orbeon.oxf.processor.test.TestExternalContext
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.{NetUtils, PipelineUtils}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+class ImageServerTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  @Test def cacheMissThenHit(): Unit =
+    withImageDirectories { (imageDir, cacheDir) ⇒
+
+      // Miss: the derivative is written to the cache and sent
+      val first = serveImage(imageDir, Some(cacheDir))
+      val cacheFiles = cacheDir.listFiles
+      assert(1 === cacheFiles.length)
+      assert(first.toSeq === readFile(cacheFiles(0)).toSeq)
+
+      val image = ImageIO.read(new ByteArrayInputStream(first))
+      assert(100 === image.getWidth)
+      assert(75  === image.getHeight)
+
+      // Hit: the cache file is sent as is
+      val marker = "cached".getBytes("UTF-8")
+      writeFile(cacheFiles(0), marker)
+      assert(marker.toSeq === serveImage(imageDir, Some(cacheDir)).toSeq)
+    }
+
+  @Test def outputBytesUnchanged(): Unit =
+    withImageDirectories { (imageDir, cacheDir) ⇒
+
+      // The derivative streamed without a cache is the same as the one written to and sent from the cache
+      val streamed = serveImage(imageDir, None)
+      assert(streamed.toSeq === serveImage(imageDir, Some(cacheDir)).toSeq)
+      assert(streamed.toSeq === serveImage(imageDir, Some(cacheDir)).toSeq)
+      assert(streamed.toSeq === serveImage(imageDir, None).toSeq)
+    }
+
+  @Test def waitForDecodeMemoryBudget(): Unit =
+    withImageDirectories { (imageDir, _) ⇒
+
+      val expected = serveImage(imageDir, None)
+
+      val decodeMemory = ImageServer.Budgets.decodeMemory
+      val executor     = Executors.newSingleThreadExecutor
+      try {
+        // Exhaust the budget, so that decoding must wait for memory to be released
+        decodeMemory.acquire(ImageServer.Budgets.decodeMemoryKB)
+        val result =
+          try {
+            val result = executor.submit(new Callable[Array[Byte]] {
+              def call() = serveImage(imageDir, None)
+            })
+            while (! decodeMemory.hasQueuedThreads && ! result.isDone)
+              Thread.`yield`()
+            assert(! result.isDone)
+            result
+          } finally
+            decodeMemory.release(ImageServer.Budgets.decodeMemoryKB)
+
+        assert(expected.toSeq === result.get.toSeq)
+      } finally
+        executor.shutdown()
+    }
+
+  private def serveImage(imageDir: File, cacheDir: Option[File]): Array[Byte] = {
+
+    val config: Document =
+      <config>
+        <image-directory>{imageDir.toURI.toString}</image-directory>
+        <default-quality>0.8</default-quality>
+        {
+          cacheDir.toList map { dir ⇒
+            <cache>
+              <directory>{dir.getAbsolutePath}</directory>
+            </cache>
+          }
+        }
+      </config>
+
+    val image: Document =
+      <image>
+        <url>image.jpg</url>
+        <transform type="scale">
+          <width>100</width>
+        </transform>
+      </image>
+
+    val imageServer = new ImageServer
+    PipelineUtils.connect(PipelineUtils.createDOMGenerator(config, "config", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", imageServer, "config")
+    PipelineUtils.connect(PipelineUtils.createDOMGenerator(image,  "image",  DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", imageServer, "image")
+
+    val pipelineContext = createPipelineContextWithExternalContext()
+    try {
+      imageServer.reset(pipelineContext)
+      imageServer.start(pipelineContext)
+      pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT).asInstanceOf[TestExternalContext].getResponseBytes
+    } finally
+      pipelineContext.destroy(true)
+  }
+
+  private def withImageDirectories(body: (File, File) ⇒ Any): Unit = {
+
+    def createTempDir(prefix: String) = {
+      val dir = File.createTempFile(prefix, "")
+      dir.delete()
+      dir.mkdir()
+      dir
+    }
+
+    def deleteDir(dir: File): Unit = {
+      Option(dir.listFiles) foreach (_ foreach { file ⇒
+        if (file.isDirectory) deleteDir(file) else file.delete()
+      })
+      dir.delete()
+    }
+
+    val imageDir = createTempDir("images")
+    val cacheDir = createTempDir("image-cache")
+    try {
+      val image    = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB)
+      val graphics = image.createGraphics()
+      try {
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, 400, 300, Color.ORANGE))
+        graphics.fillRect(0, 0, 400, 300)
+      } finally
+        graphics.dispose()
+      ImageIO.write(image, "jpeg", new File(imageDir, "image.jpg"))
+
+      body(imageDir, cacheDir)
+    } finally {
+      deleteDir(imageDir)
+      deleteDir(cacheDir)
+    }
+  }
+
+  private def readFile(file: File) = {
+    val is = new FileInputStream(file)
+    try NetUtils.inputStreamToByteArray(is)
+    finally is.close()
+  }
+
+  private def writeFile(file: File, bytes: Array[Byte]): Unit = {
+    val os = new FileOutputStream(file)
+    try os.write(bytes)
+    finally os.close()
+  }
+}
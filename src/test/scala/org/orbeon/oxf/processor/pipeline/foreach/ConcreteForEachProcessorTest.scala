@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline.foreach
+
+import java.net.InetSocketAddress
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import org.dom4j.{Element, QName}
+import org.junit.Test
+import org.orbeon.oxf.cache.{OutputCacheKey, SimpleOutputCacheKey}
+import org.orbeon.oxf.common.ValidationException
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.processor.{DOMSerializer, Processor, ProcessorFactory, ProcessorFactoryRegistry, ProcessorImpl, ProcessorInputOutputInfo, ProcessorUtils}
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.PipelineUtils
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.{TransformerUtils, XMLConstants, XMLReceiver}
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class ConcreteForEachProcessorTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val LatencyMs = 300
+  val Items     = (1 to 6).toList
+
+  // Stand-in for a slow service called by each iteration, which returns the path it is called with
+  def withSlowService[T](body: String ⇒ T): T = {
+    val server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    server.setExecutor(Executors.newCachedThreadPool())
+    server.createContext("/", new HttpHandler {
+      def handle(exchange: HttpExchange) = {
+        Thread.sleep(LatencyMs)
+        val bytes = s"<result>${exchange.getRequestURI.getPath.substring(1)}</result>".getBytes("UTF-8")
+        exchange.getResponseHeaders.set("Content-Type", "application/xml")
+        exchange.sendResponseHeaders(200, bytes.length)
+        exchange.getResponseBody.write(bytes)
+        exchange.close()
+      }
+    })
+    server.start()
+    try
+      body(s"http://localhost:${server.getAddress.getPort}/")
+    finally
+      server.stop(0)
+  }
+
+  // Cacheable generator of the items, which counts how many times they are read
+  class ItemsGenerator(var items: List[String]) extends ProcessorImpl {
+
+    val reads = new AtomicInteger
+
+    addOutputInfo(new ProcessorInputOutputInfo(ProcessorImpl.OUTPUT_DATA))
+
+    override def createOutput(name: String) =
+      addOutput(name, new ProcessorOutputImpl(ItemsGenerator.this, name) {
+        def readImpl(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit = {
+          reads.incrementAndGet()
+          TransformerUtils.writeDom4j(Dom4jUtils.readDom4j(itemsXML(items)), xmlReceiver)
+        }
+        override def getKeyImpl(pipelineContext: PipelineContext)      = new SimpleOutputCacheKey(classOf[ItemsGenerator], name, items mkString ",")
+        override def getValidityImpl(pipelineContext: PipelineContext) = Long.box(0L)
+      })
+  }
+
+  // Identity processor which counts how many times its output is read, that is how many iterations run
+  class CountingIdentityProcessor(reads: AtomicInteger) extends ProcessorImpl {
+
+    addInputInfo(new ProcessorInputOutputInfo(ProcessorImpl.INPUT_DATA))
+    addOutputInfo(new ProcessorInputOutputInfo(ProcessorImpl.OUTPUT_DATA))
+
+    def dataInput = getInputByName(ProcessorImpl.INPUT_DATA)
+
+    override def createOutput(name: String) =
+      addOutput(name, new ProcessorOutputImpl(CountingIdentityProcessor.this, name) {
+        def readImpl(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit = {
+          reads.incrementAndGet()
+          ProcessorImpl.readInputAsSAX(pipelineContext, dataInput, xmlReceiver)
+        }
+        override def getKeyImpl(pipelineContext: PipelineContext)      = ProcessorImpl.getInputKey(pipelineContext, dataInput)
+        override def getValidityImpl(pipelineContext: PipelineContext) = ProcessorImpl.getInputValidity(pipelineContext, dataInput)
+      })
+  }
+
+  val CountingIdentityQName = new QName("test-counting-identity", XMLConstants.OXF_PROCESSORS_NAMESPACE)
+
+  def withCountingIdentity[T](body: AtomicInteger ⇒ T): T = {
+    val reads = new AtomicInteger
+    ProcessorFactoryRegistry.bind(CountingIdentityQName, new ProcessorFactory {
+      def createInstance() = new CountingIdentityProcessor(reads)
+    })
+    body(reads)
+  }
+
+  def itemsXML(items: List[String]) =
+    s"<items>${items map (i ⇒ s"<item>$i</item>") mkString}</items>"
+
+  def createForEach(
+    items       : List[String],
+    block       : String,
+    parallelism : Option[Int]            = None,
+    streaming   : Boolean                = false,
+    select      : String                 = "/items/item",
+    generator   : Option[ItemsGenerator] = None
+  ): Processor = {
+
+    val parallelismAttribute = parallelism map (p ⇒ s""" parallelism="$p"""") getOrElse ""
+    val streamingAttribute   = if (streaming) """ streaming="true"""" else ""
+    val dataInput            = if (generator.isDefined) "" else s"""<input name="data">${itemsXML(items)}</input>"""
+
+    val testElement = Dom4jUtils.readDom4j(
+      s"""<test name="oxf:pipeline" xmlns:oxf="http://www.orbeon.com/oxf/processors">
+         |  $dataInput
+         |  <input name="config">
+         |    <p:config xmlns:p="http://www.orbeon.com/oxf/pipeline" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+         |      <p:param type="input" name="data"/>
+         |      <p:param type="output" name="data"/>
+         |      <p:for-each href="#data" select="$select" root="results" ref="data"$parallelismAttribute$streamingAttribute>
+         |        $block
+         |      </p:for-each>
+         |    </p:config>
+         |  </input>
+         |</test>""".stripMargin
+    ).getRootElement
+
+    val processor = ProcessorUtils.createProcessorWithInputs(testElement)
+    generator foreach (PipelineUtils.connect(_, "data", processor, "data"))
+    processor
+  }
+
+  def withPipelineContext[T](body: PipelineContext ⇒ T): T = {
+    val pipelineContext = createPipelineContextWithExternalContext()
+    try
+      body(pipelineContext)
+    finally
+      pipelineContext.destroy(true)
+  }
+
+  def readValues(processor: Processor): List[String] = {
+    val domSerializer = new DOMSerializer
+    PipelineUtils.connect(processor, "data", domSerializer, "data")
+    withPipelineContext { pipelineContext ⇒
+      val result = domSerializer.runGetDocument(pipelineContext)
+      result.getRootElement.elements.asScala.toList map (_.asInstanceOf[Element].getText)
+    }
+  }
+
+  def getKey(processor: Processor): OutputCacheKey =
+    withPipelineContext { pipelineContext ⇒
+      processor.reset(pipelineContext)
+      processor.getOutputByName("data").getKey(pipelineContext)
+    }
+
+  val SlowServiceBlock =
+    """<p:processor name="oxf:xslt">
+      |  <p:input name="data" href="current()"/>
+      |  <p:input name="config">
+      |    <config xsl:version="2.0">
+      |      <url><xsl:value-of select="/item"/></url>
+      |      <content-type>application/xml</content-type>
+      |      <cache-control><use-local-cache>false</use-local-cache></cache-control>
+      |    </config>
+      |  </p:input>
+      |  <p:output name="data" id="url-config"/>
+      |</p:processor>
+      |<p:processor name="oxf:url-generator">
+      |  <p:input name="config" href="#url-config"/>
+      |  <p:output name="data" ref="data"/>
+      |</p:processor>""".stripMargin
+
+  val IdentityBlock =
+    """<p:processor name="oxf:identity">
+      |  <p:input name="data" href="current()"/>
+      |  <p:output name="data" ref="data"/>
+      |</p:processor>""".stripMargin
+
+  val CountingBlock =
+    """<p:processor name="oxf:test-counting-identity">
+      |  <p:input name="data" href="current()"/>
+      |  <p:output name="data" ref="data"/>
+      |</p:processor>""".stripMargin
+
+  val SerializerBlock =
+    IdentityBlock +
+    """<p:processor name="oxf:null-serializer">
+      |  <p:input name="data" href="current()"/>
+      |</p:processor>""".stripMargin
+
+  def runForEach(serviceURL: String, parallelism: Option[Int]): (List[String], Long) = {
+    val processor = createForEach(Items map (serviceURL + _), SlowServiceBlock, parallelism)
+    val start     = System.currentTimeMillis
+    val values    = readValues(processor)
+    (values, System.currentTimeMillis - start)
+  }
+
+  @Test def parallelTimeApproachesOneIteration(): Unit =
+    withSlowService { serviceURL ⇒
+
+      val (sequentialResults, sequentialMs) = runForEach(serviceURL, None)
+      val (parallelResults,   parallelMs)   = runForEach(serviceURL, Some(Items.size))
+
+      // Results are in document order
+      assert((Items map (_.toString)) === sequentialResults)
+      assert(sequentialResults === parallelResults)
+
+      assert(sequentialMs >= LatencyMs * Items.size)
+      assert(parallelMs < LatencyMs * 3, s"$parallelMs ms vs. one iteration $LatencyMs ms")
+    }
+
+  @Test def parallelismIsBounded(): Unit =
+    withSlowService { serviceURL ⇒
+
+      val (results, elapsedMs) = runForEach(serviceURL, Some(2))
+
+      assert((Items map (_.toString)) === results)
+      assert(elapsedMs >= LatencyMs * Items.size / 2)
+    }
+
+  @Test def cacheableWithoutSerializers(): Unit = {
+
+    val processor = createForEach(List("a", "b"), IdentityBlock)
+
+    // Reading the output caches the pipeline config, which is needed to get the key
+    assert(List("a", "b") === readValues(processor))
+
+    val key = getKey(processor)
+    assert(key ne null)
+    assert(key === getKey(processor))
+  }
+
+  @Test def cachedOutputDependsOnData(): Unit =
+    withCountingIdentity { iterations ⇒
+
+      val generator = new ItemsGenerator(List("a", "b"))
+      val processor = createForEach(generator.items, CountingBlock, generator = Some(generator))
+
+      assert(List("a", "b") === readValues(processor))
+      assert(2 === iterations.get)
+
+      // Same $data: the output comes from the cache, and the iterations don't run again
+      val key = getKey(processor)
+      assert(key ne null)
+      assert(List("a", "b") === readValues(processor))
+      assert(2 === iterations.get)
+
+      // Different $data: the key changes, and the iterations run again
+      generator.items = List("a", "c")
+      assert(key !== getKey(processor))
+      assert(List("a", "c") === readValues(processor))
+      assert(4 === iterations.get)
+    }
+
+  @Test def notCacheableWithSerializers(): Unit = {
+
+    val processor = createForEach(List("a", "b"), SerializerBlock)
+
+    assert(List("a", "b") === readValues(processor))
+    assert(getKey(processor) eq null)
+  }
+
+  @Test def streamingSelection(): Unit = {
+
+    val items = (1 to 20).toList map (_.toString)
+
+    assert(items === readValues(createForEach(items, IdentityBlock, streaming = true)))
+    assert(items === readValues(createForEach(items, IdentityBlock, streaming = true, select = "/*/item")))
+    assert(items === readValues(createForEach(items, IdentityBlock, streaming = true, parallelism = Some(4))))
+  }
+
+  @Test def streamingReadsDataOnce(): Unit = {
+
+    val items = (1 to 20).toList map (_.toString)
+
+    // Without streaming, the key computation and the iterations share the $data document read once
+    val cachedGenerator = new ItemsGenerator(items)
+    assert(items === readValues(createForEach(items, IdentityBlock, generator = Some(cachedGenerator))))
+    assert(1 === cachedGenerator.reads.get)
+
+    // When streaming, the output has no key, as computing it would read $data once more
+    val streamingGenerator = new ItemsGenerator(items)
+    val streamingProcessor = createForEach(items, IdentityBlock, streaming = true, generator = Some(streamingGenerator))
+    assert(items === readValues(streamingProcessor))
+    assert(1 === streamingGenerator.reads.get)
+    assert(getKey(streamingProcessor) eq null)
+  }
+
+  @Test def streamingRequiresSimplePath(): Unit =
+    intercept[ValidationException] {
+      readValues(createForEach(List("a"), IdentityBlock, streaming = true, select = "//item[1]"))
+    }
+}
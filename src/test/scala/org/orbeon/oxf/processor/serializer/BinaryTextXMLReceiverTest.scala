@@ -13,12 +13,17 @@
  */
 package org.orbeon.oxf.processor.serializer
 
-import java.io.ByteArrayOutputStream
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, FileOutputStream}
 import org.dom4j.Document
 import org.junit.Test
 import org.orbeon.oxf.externalcontext.ResponseAdapter
+import org.orbeon.oxf.pipeline.api.{ExternalContext, PipelineContext}
+import org.orbeon.oxf.processor.generator.{DOMGenerator, URLGenerator}
+import org.orbeon.oxf.processor.test.TestExternalContext
+import org.orbeon.oxf.processor.{ProcessorImpl, ProcessorInput, ProcessorUtils}
 import org.orbeon.oxf.test.DocumentTestBase
-import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.oxf.util.PipelineUtils
+import org.orbeon.oxf.xml.{SimpleForwardingXMLReceiver, TransformerUtils}
 import org.scalatest.junit.AssertionsForJUnit
 import org.orbeon.oxf.xml.Dom4j.elemToDocument
 
@@ -57,6 +62,88 @@ class BinaryTextXMLReceiverTest extends DocumentTestBase with AssertionsForJUnit
       assert(contentType === response.contentType)
     }
 
+  @Test def binaryWithAndWithoutBase64(): Unit = {
+
+    val bytes = Array.tabulate[Byte](100000)(_.toByte)
+
+    // The receiver reads the stream directly, or decodes the base64 characters if another receiver is in between
+    for (direct ← Seq(true, false)) {
+      val (response, receiver) = responseWithReceiver
+
+      ProcessorUtils.readBinary(
+        new ByteArrayInputStream(bytes),
+        if (direct) receiver else new SimpleForwardingXMLReceiver(receiver),
+        "application/pdf",
+        null,
+        200,
+        "file.pdf"
+      )
+
+      assert("application/pdf" === response.contentType)
+      assert(200 === response.status)
+      assert(bytes.toSeq === response.getOutputStream.toByteArray.toSeq)
+    }
+  }
+
+  @Test def urlGeneratorToHttpSerializer(): Unit = {
+
+    val bytes = Array.tabulate[Byte](100000)(_.toByte)
+
+    val file = File.createTempFile("binary", ".pdf")
+    try {
+      val os = new FileOutputStream(file)
+      try os.write(bytes)
+      finally os.close()
+
+      // The URL generator stores the document in its local cache during the first run, and replays it during the second
+      val generator  = new URLGenerator(file.toURI.toURL, "application/pdf", true)
+      val serializer = new CountingHttpSerializer
+
+      val config: Document =
+        <config>
+          <cache-control>
+            <use-local-cache>false</use-local-cache>
+          </cache-control>
+        </config>
+
+      val configGenerator = PipelineUtils.createDOMGenerator(config, "config", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext)
+
+      PipelineUtils.connect(generator,       "data", serializer, "data")
+      PipelineUtils.connect(configGenerator, "data", serializer, "config")
+
+      for (_ ← 1 to 2) {
+        val pipelineContext = createPipelineContextWithExternalContext()
+        val responseBytes =
+          try {
+            generator.reset(pipelineContext)
+            serializer.reset(pipelineContext)
+            serializer.start(pipelineContext)
+            pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT).asInstanceOf[TestExternalContext].getResponseBytes
+          } finally
+            pipelineContext.destroy(true)
+
+        assert(bytes.toSeq === responseBytes.toSeq)
+      }
+
+      assert(0 === serializer.charactersLength)
+    } finally
+      file.delete()
+  }
+
+  // Same as the HTTP serializer with its default configuration, but counts the characters it receives
+  class CountingHttpSerializer extends HttpSerializer {
+
+    var charactersLength = 0
+
+    override protected def readInput(context: PipelineContext, response: ExternalContext.Response, input: ProcessorInput, config: AnyRef): Unit =
+      ProcessorImpl.readInputAsSAX(context, input, new BinaryTextXMLReceiver(Left(response), true, false, None, false, false, None, false) {
+        override def characters(ch: Array[Char], start: Int, length: Int): Unit = {
+          charactersLength += length
+          super.characters(ch, start, length)
+        }
+      })
+  }
+
   def responseWithReceiver = {
     val response = new TestResponse
     (response, new BinaryTextXMLReceiver(Left(response), true, false, None, false, false, None, false))
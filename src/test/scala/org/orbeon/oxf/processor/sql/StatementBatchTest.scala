@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.sql
+
+import java.lang.reflect.{InvocationHandler, Method, Proxy}
+import java.sql.{BatchUpdateException, Connection, PreparedStatement, Statement}
+
+import org.junit.Test
+import org.orbeon.oxf.common.ValidationException
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.mutable.ListBuffer
+
+class StatementBatchTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  // Connection recording the batches executed by its statements, as (statement, rows) pairs
+  class RecordingConnection(executeBatch: (String, Int) ⇒ Array[Int] = (_, rows) ⇒ Array.fill(rows)(1)) {
+
+    val executed = ListBuffer[(String, Int)]()
+    var prepared = 0
+
+    private def proxy[T](clazz: Class[T])(handle: (String, Array[AnyRef]) ⇒ AnyRef): T =
+      Proxy.newProxyInstance(getClass.getClassLoader, Array[Class[_]](clazz), new InvocationHandler {
+        def invoke(proxy: AnyRef, method: Method, args: Array[AnyRef]) = handle(method.getName, args)
+      }).asInstanceOf[T]
+
+    private def statement(sql: String): PreparedStatement = {
+      var pending = 0
+      proxy(classOf[PreparedStatement]) {
+        case ("addBatch", _)     ⇒ pending += 1; null
+        case ("executeBatch", _) ⇒ val rows = pending; pending = 0; executed += sql → rows; executeBatch(sql, rows)
+        case ("close", _)        ⇒ null
+        case (name, _)           ⇒ throw new UnsupportedOperationException(name)
+      }
+    }
+
+    val connection: Connection =
+      proxy(classOf[Connection]) {
+        case ("prepareStatement", Array(sql: String)) ⇒ prepared += 1; statement(sql)
+        case (name, _)                                ⇒ throw new UnsupportedOperationException(name)
+      }
+  }
+
+  def addRows(batch: StatementBatch, connection: Connection, sql: String, rows: Int): Unit =
+    for (_ ← 1 to rows) {
+      batch.getStatement(connection, sql)
+      batch.addRow(sql)
+    }
+
+  @Test def batchRowsOfEachStatement(): Unit = {
+
+    val recording = new RecordingConnection
+    val batch     = new StatementBatch(3, null)
+
+    addRows(batch, recording.connection, "insert a", 7)
+    addRows(batch, recording.connection, "insert b", 2)
+
+    // Full batches are executed as soon as they are full
+    assert(List("insert a" → 3, "insert a" → 3) === recording.executed.toList)
+
+    batch.executePending()
+    assert(List("insert a" → 3, "insert a" → 3, "insert a" → 1, "insert b" → 2) === recording.executed.toList)
+
+    assert(2 === recording.prepared)
+
+    // Nothing left to execute
+    batch.executePending()
+    assert(4 === recording.executed.size)
+    batch.close()
+  }
+
+  @Test def executePendingRowsOfEnclosingIterations(): Unit = {
+
+    val recording = new RecordingConnection
+    val context   = new SQLProcessorInterpreterContext(null)
+    val outer     = new StatementBatch(10, null)
+    val inner     = new StatementBatch(10, null)
+
+    context.pushBatch(outer)
+    addRows(outer, recording.connection, "insert outer", 2)
+
+    context.pushBatch(inner)
+    addRows(inner, recording.connection, "insert inner", 1)
+
+    // As done before a query within the inner iteration
+    context.executePendingBatches()
+    assert(List("insert outer" → 2, "insert inner" → 1) === recording.executed.toList)
+
+    assert(inner eq context.popBatch())
+    assert(outer eq context.getBatchOrNull)
+  }
+
+  @Test def reportFailedRows(): Unit = {
+
+    def failure(updateCounts: Array[Int]) = {
+      val recording = new RecordingConnection((_, _) ⇒ throw new BatchUpdateException("constraint violation", updateCounts))
+      val batch = new StatementBatch(3, null)
+      intercept[ValidationException] {
+        addRows(batch, recording.connection, "insert a", 3)
+      }.getMessage
+    }
+
+    // Driver stopping at the first failed row
+    assert(failure(Array(1, 1)) contains "Batch of rows 1 to 3 failed at row 3")
+
+    // Driver continuing after the failed rows
+    assert(failure(Array(1, Statement.EXECUTE_FAILED, 1)) contains "Batch of rows 1 to 3 failed at rows 2")
+    assert(failure(Array(Statement.EXECUTE_FAILED, 1, Statement.EXECUTE_FAILED)) contains "failed at rows 1, 3")
+  }
+
+  @Test def failedRowsAreNumberedWithinTheIteration(): Unit = {
+
+    var batches = 0
+    val recording =
+      new RecordingConnection((_, rows) ⇒ {
+        batches += 1
+        if (batches == 2) throw new BatchUpdateException("constraint violation", Array(1))
+        Array.fill(rows)(1)
+      })
+
+    val batch = new StatementBatch(3, null)
+    val message =
+      intercept[ValidationException] {
+        addRows(batch, recording.connection, "insert a", 6)
+      }.getMessage
+
+    assert(message contains "Batch of rows 4 to 6 failed at row 5")
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.zip
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, FileInputStream, FileOutputStream, OutputStream}
+import java.util.zip.{ZipEntry, ZipInputStream, ZipOutputStream}
+
+import org.apache.commons.codec.binary.Base64
+import org.dom4j.Document
+import org.junit.Test
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.processor.test.TestExternalContext
+import org.orbeon.oxf.processor.{DOMSerializer, ProcessorUtils}
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.{NetUtils, PipelineUtils}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+import org.xml.sax.helpers.AttributesImpl
+
+import scala.util.Random
+
+class ZipFilesWriterTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val FileSize = 1024 * 1024
+
+  // Random content, so that the compressed size of each entry is close to the file size
+  def withFiles[T](count: Int)(body: List[File] ⇒ T): T = {
+    val random = new Random(42)
+    val files  =
+      for (i ← (1 to count).toList) yield {
+        val file  = File.createTempFile("zip-test-", ".bin")
+        val bytes = new Array[Byte](FileSize)
+        random.nextBytes(bytes)
+        val os = new FileOutputStream(file)
+        try os.write(bytes) finally os.close()
+        file
+      }
+    try
+      body(files)
+    finally
+      files foreach (_.delete())
+  }
+
+  def filesXML(files: List[File], parallelism: Option[Int]) = {
+    val parallelismAttribute = parallelism map (p ⇒ s""" parallelism="$p"""") getOrElse ""
+    s"<files$parallelismAttribute>${files.zipWithIndex map { case (f, i) ⇒ s"""<file name="file-$i.bin">${f.toURI}</file>""" } mkString}</files>"
+  }
+
+  // Send the <files> events one by one, calling `afterFile` with the index of each file once its element ends
+  def writeZip(writer: ZipFilesWriter, files: List[File], parallelism: Option[Int])(afterFile: Int ⇒ Unit = _ ⇒ ()): Unit = {
+
+    val filesAttributes = new AttributesImpl
+    parallelism foreach (p ⇒ filesAttributes.addAttribute("", "parallelism", "parallelism", "CDATA", p.toString))
+
+    writer.startDocument()
+    writer.startElement("", "files", "files", filesAttributes)
+    for ((file, index) ← files.zipWithIndex) {
+      val fileAttributes = new AttributesImpl
+      fileAttributes.addAttribute("", "name", "name", "CDATA", s"file-$index.bin")
+      val uri = file.toURI.toString.toCharArray
+      writer.startElement("", "file", "file", fileAttributes)
+      writer.characters(uri, 0, uri.length)
+      writer.endElement("", "file", "file")
+      afterFile(index)
+    }
+    writer.endElement("", "files", "files")
+    writer.endDocument()
+  }
+
+  def zipBytes(files: List[File], parallelism: Option[Int]): Array[Byte] = {
+    val os = new ByteArrayOutputStream
+    writeZip(new ZipFilesWriter(os, null), files, parallelism)()
+    os.toByteArray
+  }
+
+  // The archive made directly with java.util.zip, with each file as a deflated entry with the time of the file
+  def fixtureBytes(files: List[File]): Array[Byte] = {
+    val os  = new ByteArrayOutputStream
+    val zos = new ZipOutputStream(os)
+    for ((file, index) ← files.zipWithIndex) {
+      val entry = new ZipEntry(s"file-$index.bin")
+      entry.setTime(file.lastModified)
+      zos.putNextEntry(entry)
+      val is = new FileInputStream(file)
+      try NetUtils.copyStream(is, zos) finally is.close()
+    }
+    zos.close()
+    os.toByteArray
+  }
+
+  def readEntries(bytes: Array[Byte]): List[(String, List[Byte])] = {
+    val zis = new ZipInputStream(new ByteArrayInputStream(bytes))
+    Iterator.continually(zis.getNextEntry).takeWhile(_ ne null).map { entry ⇒
+      val os = new ByteArrayOutputStream
+      NetUtils.copyStream(zis, os)
+      entry.getName → os.toByteArray.toList
+    }.toList
+  }
+
+  @Test def sameBytesAsFixture(): Unit =
+    withFiles(3) { files ⇒
+      assert(fixtureBytes(files).toList === zipBytes(files, None).toList)
+    }
+
+  @Test def zipProcessorSameBytesAsFixture(): Unit =
+    withFiles(3) { files ⇒
+
+      val testElement = Dom4jUtils.readDom4j(
+        s"""<test name="oxf:zip" xmlns:oxf="http://www.orbeon.com/oxf/processors">
+           |  <input name="data">${filesXML(files, None)}</input>
+           |</test>""".stripMargin
+      ).getRootElement
+
+      val domSerializer = new DOMSerializer
+      PipelineUtils.connect(ProcessorUtils.createProcessorWithInputs(testElement), "data", domSerializer, "data")
+
+      val pipelineContext = createPipelineContextWithExternalContext()
+      val document: Document =
+        try domSerializer.runGetDocument(pipelineContext)
+        finally pipelineContext.destroy(true)
+
+      val processorBytes = Base64.decodeBase64(document.getRootElement.getText)
+
+      assert(fixtureBytes(files).toList === processorBytes.toList)
+    }
+
+  @Test def zipSerializerWritesFixtureToResponse(): Unit =
+    withFiles(3) { files ⇒
+
+      val testElement = Dom4jUtils.readDom4j(
+        s"""<test name="oxf:zip-serializer" xmlns:oxf="http://www.orbeon.com/oxf/processors">
+           |  <input name="config"><config/></input>
+           |  <input name="data">${filesXML(files, Some(2))}</input>
+           |</test>""".stripMargin
+      ).getRootElement
+
+      val processor       = ProcessorUtils.createProcessorWithInputs(testElement)
+      val pipelineContext = createPipelineContextWithExternalContext()
+      val responseBytes =
+        try {
+          processor.reset(pipelineContext)
+          processor.start(pipelineContext)
+          pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT).asInstanceOf[TestExternalContext].getResponseBytes
+        } finally
+          pipelineContext.destroy(true)
+
+      // Entries compressed in parallel have no data descriptor, so the archive differs from the fixture but not its entries
+      assert(readEntries(fixtureBytes(files)) === readEntries(responseBytes))
+    }
+
+  @Test def parallelSameEntries(): Unit =
+    withFiles(6) { files ⇒
+      val fixtureEntries = readEntries(fixtureBytes(files))
+      assert(files.size === fixtureEntries.size)
+      assert(fixtureEntries === readEntries(zipBytes(files, Some(3))))
+    }
+
+  // Entries are written to the output as soon as they are compressed, so the data held in memory doesn't depend on
+  // the size of the archive: check this by looking at how much is written after each file
+  @Test def entriesAreStreamed(): Unit =
+    for (parallelism ← List(None, Some(4)))
+      withFiles(12) { files ⇒
+
+        var written = 0L
+        val countingOutputStream = new OutputStream {
+          def write(b: Int): Unit = written += 1
+          override def write(b: Array[Byte], off: Int, len: Int): Unit = written += len
+        }
+
+        val inFlight = parallelism getOrElse 1
+        writeZip(new ZipFilesWriter(countingOutputStream, null), files, parallelism) { index ⇒
+          val completed = index + 1 - inFlight
+          assert(written >= completed.toLong * FileSize * 9 / 10, s"$written bytes written after ${index + 1} files")
+        }
+
+        assert(written >= files.size.toLong * FileSize)
+      }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.properties
+
+import java.io.{File, FileOutputStream}
+
+import org.junit.Test
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+class PropertyStoreTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  def propertiesXML(value: String) =
+    s"""<properties xmlns:xs="http://www.w3.org/2001/XMLSchema">
+       |    <property as="xs:string" name="test.orbeon.builder.form" value="$value"/>
+       |    <property as="xs:string" name="test.*.*.form"            value="wildcard"/>
+       |</properties>""".stripMargin
+
+  @Test def repeatedLookupsAreMemoized(): Unit = {
+
+    val propertySet = new PropertyStore(Dom4jUtils.readDom4j(propertiesXML("exact"))).getGlobalPropertySet
+
+    assert(propertySet.memoizedProperty("test.foo.bar.form").isEmpty)
+
+    // Wildcard matches are memoized, and repeated lookups return the memoized property
+    val property = propertySet.getProperty("test.foo.bar.form")
+    assert("wildcard" === property.value)
+    assert(propertySet.memoizedProperty("test.foo.bar.form").flatten.get eq property)
+    assert(propertySet.getProperty("test.foo.bar.form") eq property)
+
+    // Missing properties are memoized too
+    assert(propertySet.getProperty("test.foo.bar") eq null)
+    assert(Some(None) === propertySet.memoizedProperty("test.foo.bar"))
+
+    // The type is still checked when the lookup is memoized
+    intercept[OXFException] {
+      propertySet.getInteger("test.foo.bar.form")
+    }
+  }
+
+  @Test def storeIsReplacedWhenPropertiesChange(): Unit = {
+
+    val file = File.createTempFile("properties-", ".xml")
+
+    def write(value: String, lastModified: Long): Unit = {
+      val os = new FileOutputStream(file)
+      try os.write(propertiesXML(value).getBytes("UTF-8")) finally os.close()
+      file.setLastModified(lastModified)
+    }
+
+    try {
+      val now = System.currentTimeMillis
+      write("before", now - 60 * 1000)
+
+      val properties = new Properties(file.toURI.toString)
+      properties.update()
+      val propertySetBefore = properties.getPropertySet
+      assert("before" === propertySetBefore.getString("test.orbeon.builder.form"))
+
+      // Unchanged properties keep the same store, with its memoized lookups
+      properties.update()
+      assert(properties.getPropertySet eq propertySetBefore)
+
+      // Changed properties are read into a new store, while the previous one is unchanged for its readers
+      write("after", now + 60 * 1000)
+      properties.update()
+      val propertySetAfter = properties.getPropertySet
+      assert(propertySetAfter ne propertySetBefore)
+      assert("after"  === propertySetAfter.getString("test.orbeon.builder.form"))
+      assert("before" === propertySetBefore.getString("test.orbeon.builder.form"))
+    } finally
+      file.delete()
+  }
+}
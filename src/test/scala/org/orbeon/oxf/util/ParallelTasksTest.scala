@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.util.concurrent.{ConcurrentLinkedQueue, TimeoutException}
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+import scala.util.{Failure, Success}
+
+class ParallelTasksTest extends AssertionsForJUnit {
+
+  // Stand-in for the persistence layer, which stores attachments with some latency
+  class SlowPersistence {
+
+    val stored  = new ConcurrentLinkedQueue[String]
+    val running = new AtomicInteger
+    val maxRunning = new AtomicInteger
+
+    def put(path: String, latencyMs: Long, fail: Boolean = false): String = {
+      val current = running.incrementAndGet()
+      maxRunning.synchronized { if (current > maxRunning.get) maxRunning.set(current) }
+      try {
+        Thread.sleep(latencyMs)
+        if (fail)
+          throw new IllegalStateException(s"failed to store $path")
+        stored.add(path)
+        path
+      } finally
+        running.decrementAndGet()
+    }
+  }
+
+  val Latencies = List(100L, 50L, 300L, 80L, 120L, 60L, 200L, 90L, 70L, 150L, 110L, 40L)
+
+  def time[T](body: ⇒ T): (T, Long) = {
+    val start = System.currentTimeMillis
+    val result = body
+    (result, System.currentTimeMillis - start)
+  }
+
+  @Test def saveTimeApproachesSlowestAttachment(): Unit = {
+
+    val persistence = new SlowPersistence
+
+    val tasks =
+      Latencies.zipWithIndex map { case (latency, i) ⇒ () ⇒ persistence.put(s"attachment-$i.bin", latency) }
+
+    val (paths, elapsed) = time(ParallelTasks.runAll(tasks, parallelism = Latencies.size))
+
+    // Results are in the order of the tasks
+    assert((Latencies.indices map (i ⇒ s"attachment-$i.bin")).toList === paths)
+    assert(elapsed < Latencies.max * 2, s"$elapsed ms vs. slowest ${Latencies.max} ms")
+    assert(elapsed < Latencies.sum / 2, s"$elapsed ms vs. sequential ${Latencies.sum} ms")
+  }
+
+  @Test def parallelismIsBounded(): Unit = {
+
+    val persistence = new SlowPersistence
+
+    val tasks =
+      Latencies.zipWithIndex map { case (latency, i) ⇒ () ⇒ persistence.put(s"attachment-$i.bin", latency) }
+
+    ParallelTasks.runAll(tasks, parallelism = 3)
+
+    assert(Latencies.size === persistence.stored.size)
+    assert(persistence.maxRunning.get <= 3)
+  }
+
+  @Test def failureStopsTheSave(): Unit = {
+
+    val persistence = new SlowPersistence
+
+    val tasks =
+      Latencies.zipWithIndex map { case (latency, i) ⇒
+        () ⇒ persistence.put(s"attachment-$i.bin", latency, fail = i == 1)
+      }
+
+    def save() = {
+      ParallelTasks.runAll(tasks, parallelism = 2)
+      persistence.put("data.xml", 0)
+    }
+
+    intercept[IllegalStateException](save())
+
+    // The data is not written, no other attachment is started after the failure, and none is still running
+    val stored = persistence.stored.asScala.toList
+    assert(! stored.contains("data.xml"))
+    assert(stored.size < Latencies.size - 1)
+    assert(0 === persistence.running.get)
+  }
+
+  @Test def slowTasksTimeOut(): Unit = {
+
+    val persistence = new SlowPersistence
+
+    val tasks = List(
+      () ⇒ persistence.put("fast.xml", 50),
+      () ⇒ persistence.put("slow.xml", 2000),
+      () ⇒ persistence.put("failed.xml", 50, fail = true)
+    )
+
+    val (results, elapsed) = time(ParallelTasks.runAllWithTimeout(tasks, timeoutMs = 300))
+
+    assert(elapsed < 1000, s"$elapsed ms vs. timeout 300 ms")
+
+    results match {
+      case List(Success("fast.xml"), Failure(_: TimeoutException), Failure(_: IllegalStateException)) ⇒
+      case other ⇒ fail(other.toString)
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util.task
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class TaskSchedulerTest extends AssertionsForJUnit {
+
+  class TestTask(taskName: String, durationMs: Long, policy: OverlapPolicy, fail: Boolean = false) extends Task {
+
+    name = taskName
+
+    val runs       = new AtomicInteger
+    val running    = new AtomicInteger
+    val maxRunning = new AtomicInteger
+
+    override def getOverlapPolicy = policy
+    def getStatus = runs.get.toString
+
+    def run(): Unit = {
+      val current = running.incrementAndGet()
+      maxRunning.synchronized { if (current > maxRunning.get) maxRunning.set(current) }
+      try {
+        Thread.sleep(durationMs)
+        runs.incrementAndGet()
+        if (fail)
+          throw new IllegalStateException(s"$taskName failed")
+      } finally
+        running.decrementAndGet()
+    }
+  }
+
+  def withScheduler[T](threadPoolSize: Int)(body: TaskScheduler ⇒ T): T = {
+    val scheduler = new TaskScheduler(threadPoolSize)
+    try body(scheduler)
+    finally scheduler.cancelAll(false)
+  }
+
+  def schedule(scheduler: TaskScheduler, task: Task, intervalMs: Long): Unit = {
+    task.setSchedule(System.currentTimeMillis, intervalMs)
+    scheduler.schedule(task)
+  }
+
+  @Test def slowAndFailingTasksDontDelayOthers(): Unit =
+    withScheduler(4) { scheduler ⇒
+
+      val slow    = new TestTask("slow",    2000, OverlapPolicy.SKIP)
+      val failing = new TestTask("failing", 0,    OverlapPolicy.SKIP, fail = true)
+      val fast    = new TestTask("fast",    0,    OverlapPolicy.SKIP)
+
+      schedule(scheduler, slow,    50)
+      schedule(scheduler, failing, 50)
+      schedule(scheduler, fast,    50)
+
+      Thread.sleep(500)
+
+      assert(fast.runs.get >= 5)
+      assert(scheduler.getStatistics(failing).getFailureCount >= 5)
+      assert(scheduler.getStatistics(fast).getFailureCount === 0)
+      assert(scheduler.getStatistics(slow).getSkippedCount >= 5)
+    }
+
+  @Test def overlapPolicies(): Unit =
+    withScheduler(8) { scheduler ⇒
+
+      val skip       = new TestTask("skip",       200, OverlapPolicy.SKIP)
+      val queue      = new TestTask("queue",      200, OverlapPolicy.QUEUE)
+      val concurrent = new TestTask("concurrent", 200, OverlapPolicy.CONCURRENT)
+
+      schedule(scheduler, skip,       50)
+      schedule(scheduler, queue,      50)
+      schedule(scheduler, concurrent, 50)
+
+      Thread.sleep(700)
+
+      assert(skip.maxRunning.get === 1)
+      assert(scheduler.getStatistics(skip).getSkippedCount > 0)
+      assert(scheduler.getStatistics(skip).getDroppedCount === 0)
+
+      // Runs due while a run is already pending are dropped instead of piling up
+      assert(queue.maxRunning.get === 1)
+      assert(scheduler.getStatistics(queue).getSkippedCount === 0)
+      assert(scheduler.getStatistics(queue).getDroppedCount > 0)
+      assert(scheduler.getStatistics(queue).getMaxLateness >= 100)
+      assert(scheduler.getStatistics(queue).getMaxLateness < 400)
+
+      assert(concurrent.maxRunning.get > 1)
+      assert(scheduler.getStatistics(concurrent).getSkippedCount === 0)
+    }
+
+  @Test def cancelledTaskDoesntRunAgain(): Unit =
+    withScheduler(2) { scheduler ⇒
+
+      val task = new TestTask("cancelled", 0, OverlapPolicy.SKIP)
+      schedule(scheduler, task, 20)
+
+      Thread.sleep(200)
+      task.cancel()
+      Thread.sleep(50)
+      val runsAfterCancel = task.runs.get
+      Thread.sleep(200)
+
+      assert(runsAfterCancel > 0)
+      assert(task.runs.get === runsAfterCancel)
+      assert(scheduler.getStatistics(task) === null)
+    }
+}
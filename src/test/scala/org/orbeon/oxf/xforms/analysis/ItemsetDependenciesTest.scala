@@ -14,7 +14,16 @@
 
 package org.orbeon.oxf.xforms.analysis
 
+import org.dom4j.Document
+import org.orbeon.oxf.cache.ObjectCache
 import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.util.XPath
+import org.orbeon.oxf.xforms.action.XFormsAPI._
+import org.orbeon.oxf.xforms.control.controls.XFormsSelect1Control
+import org.orbeon.oxf.xforms.itemset.{Itemset, SharedItemsetsCache}
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsStaticState, XFormsStaticStateImpl}
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.scaxon.XML._
 import org.scalatest.junit.AssertionsForJUnit
 import org.orbeon.oxf.test.DocumentTestBase
 import org.junit.{Assume, Test}
@@ -75,4 +84,141 @@ class ItemsetDependenciesTest extends DocumentTestBase with AssertionsForJUnit {
     assert(getControlExternalValue("checkbox") === "2")
     assert(getItemset("checkbox") === """[{"label":"","value":"2"}]""")
   }
-}
\ No newline at end of file
+
+  @Test def itemsetSharedWhenOnlyDependingOnReadonlyInstances(): Unit = {
+    Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+    val sharedItemsets = ObjectCache.instance("xforms.cache.itemsets")
+    sharedItemsets.removeAll()
+
+    this setupDocument
+      <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+           xmlns:xf="http://www.w3.org/2002/xforms"
+           xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+
+        <xh:head>
+          <xf:model id="model" xxf:xpath-analysis="true" xxf:encrypt-item-values="false">
+            <xf:instance id="instance">
+              <instance xmlns="">
+                <row><country/><city/></row>
+                <row><country/><city/></row>
+                <row><country/><city/></row>
+              </instance>
+            </xf:instance>
+            <xf:instance id="countries" xxf:readonly="true">
+              <countries xmlns="">
+                <country code="ch">Switzerland</country>
+                <country code="fr">France</country>
+              </countries>
+            </xf:instance>
+          </xf:model>
+        </xh:head>
+        <xh:body>
+          <xf:repeat id="rows" ref="row">
+            <xf:select1 id="country" ref="country">
+              <xf:itemset ref="instance('countries')/country">
+                <xf:label ref="."/>
+                <xf:value ref="@code"/>
+              </xf:itemset>
+            </xf:select1>
+            <xf:select1 id="city" ref="city">
+              <xf:itemset ref="../country">
+                <xf:label ref="."/>
+                <xf:value ref="."/>
+              </xf:itemset>
+            </xf:select1>
+          </xf:repeat>
+        </xh:body>
+      </xh:html>
+
+    def itemset(controlEffectiveId: String) =
+      getObject(controlEffectiveId).asInstanceOf[XFormsSelect1Control].getItemset
+
+    val expected = """[{"label":"Switzerland","value":"ch"},{"label":"France","value":"fr"}]"""
+
+    // Repeated controls with an itemset from the readonly instance use the same itemset
+    assert(getItemset("country⊙1") === expected)
+    assert(itemset("country⊙1") eq itemset("country⊙2"))
+    assert(itemset("country⊙1") eq itemset("country⊙3"))
+
+    // The readonly instance belongs to this document, so the itemset is kept in the document and not shared globally
+    assert(0 === sharedItemsets.getCurrentSize)
+
+    // Itemsets depending on other data are evaluated for each control
+    setControlValue("country⊙1", "ch")
+    setControlValue("country⊙2", "ch")
+
+    assert(getItemset("city⊙1") === """[{"label":"ch","value":"ch"}]""")
+    assert(itemset("city⊙1") ne itemset("city⊙2"))
+
+    // Removing the controls forgets their itemset
+    assert(document.readonlyItemsets contains "country")
+    withAction {
+      delete(instance("instance").get.rootElement child "row")
+    }
+    assert(! (document.readonlyItemsets contains "country"))
+  }
+
+  @Test def itemsetSharedAcrossDocumentsWhenInstancesAreShared(): Unit = {
+    Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+    val sharedItemsets = ObjectCache.instance("xforms.cache.itemsets")
+    sharedItemsets.removeAll()
+
+    val xhtml: Document =
+      <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+           xmlns:xf="http://www.w3.org/2002/xforms"
+           xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+
+        <xh:head>
+          <xf:model id="model" xxf:xpath-analysis="true" xxf:encrypt-item-values="false">
+            <xf:instance id="instance">
+              <instance xmlns="">
+                <country/>
+              </instance>
+            </xf:instance>
+            <xf:instance id="countries" src="oxf:/org/orbeon/oxf/xforms/analysis/countries.xml"
+                   xxf:readonly="true" xxf:cache="true"/>
+          </xf:model>
+        </xh:head>
+        <xh:body>
+          <xf:select1 id="country" ref="country">
+            <xf:itemset ref="instance('countries')/country">
+              <xf:label ref="."/>
+              <xf:value ref="@code"/>
+            </xf:itemset>
+          </xf:select1>
+        </xh:body>
+      </xh:html>
+
+    def newDocument(staticState: XFormsStaticState) = {
+      disposeDocument()
+      setupDocument(new XFormsContainingDocument(staticState, null, null, true))
+      getObject("country").asInstanceOf[XFormsSelect1Control]
+    }
+
+    val (_, staticState) = XFormsStaticStateImpl.createFromDocument(xhtml)
+
+    // Documents with the same static state and the same shared instance use the same itemset
+    val itemset = newDocument(staticState).getItemset
+    assert(getItemset("country") === """[{"label":"Switzerland","value":"ch"},{"label":"France","value":"fr"}]""")
+    assert(itemset eq newDocument(staticState).getItemset)
+    assert(1 === sharedItemsets.getCurrentSize)
+
+    // Another static state, even with the same digest, doesn't use the itemset
+    val (_, otherStaticState) = XFormsStaticStateImpl.createFromDocument(xhtml)
+    val control = newDocument(otherStaticState)
+    assert(itemset ne control.getItemset)
+    assert(control.getItemset eq SharedItemsetsCache.findOrEvaluate(control)(fail()))
+
+    // Replacing the instance requires a new itemset
+    val countries  = instance("countries").get
+    val newItemset = new Itemset(multiple = false)
+    countries.update(
+      countries.instanceCaching,
+      TransformerUtils.stringToTinyTree(XPath.GlobalConfiguration, """<countries><country code="it">Italy</country></countries>""", false, false),
+      readonly = true
+    )
+    assert(newItemset eq SharedItemsetsCache.findOrEvaluate(control)(newItemset))
+  }
+}
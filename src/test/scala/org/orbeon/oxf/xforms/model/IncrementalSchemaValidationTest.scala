@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.model
+
+import org.junit.Test
+import org.orbeon.oxf.test.{DocumentTestBase, XFormsSupport}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+// Test for the `xxf:schema.incremental-validation` attribute on `xf:model`.
+class IncrementalSchemaValidationTest extends DocumentTestBase with XFormsSupport with AssertionsForJUnit {
+
+  val ItemCount = 500
+
+  def setupSchemaDocument(incremental: Boolean) = this setupDocument
+    <xh:html
+      xmlns:xh="http://www.w3.org/1999/xhtml"
+      xmlns:xf="http://www.w3.org/2002/xforms"
+      xmlns:xs="http://www.w3.org/2001/XMLSchema"
+      xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+      <xh:head>
+        <xf:model id="model" xxf:schema.incremental-validation={incremental.toString}>
+          <xs:schema elementFormDefault="qualified" attributeFormDefault="unqualified">
+            <xs:element name="items">
+              <xs:complexType>
+                <xs:sequence>
+                  <xs:element name="item" maxOccurs="unbounded">
+                    <xs:complexType>
+                      <xs:sequence>
+                        <xs:element name="quantity" type="xs:integer"/>
+                        <xs:element name="label" type="xs:string"/>
+                      </xs:sequence>
+                      <xs:attribute name="code" type="xs:NMTOKEN"/>
+                    </xs:complexType>
+                  </xs:element>
+                </xs:sequence>
+              </xs:complexType>
+            </xs:element>
+          </xs:schema>
+          <xf:instance id="instance" xxf:validation="strict">
+            <items>{
+              for (i ← 1 to ItemCount)
+                yield <item code={"c" + i}><quantity>{i}</quantity><label>Item {i}</label></item>
+            }</items>
+          </xf:instance>
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:input id="first-quantity" ref="item[1]/quantity"/>
+        <xf:input id="last-quantity"  ref="item[last()]/quantity"/>
+        <xf:input id="first-code"     ref="item[1]/@code"/>
+      </xh:body>
+    </xh:html>
+
+  // Apply the same changes with and without incremental validation and check that validity always matches
+  @Test def sameValidityAsFullValidation(): Unit = {
+
+    val changes = List(
+      "first-quantity" → "abc",
+      "last-quantity"  → "def",
+      "first-quantity" → "1",
+      "first-code"     → "not a token",
+      "last-quantity"  → "2",
+      "first-code"     → "c1"
+    )
+
+    def validities(incremental: Boolean) = {
+      setupSchemaDocument(incremental)
+      val initial = (instance("instance").get.valid, isValid("first-quantity"), isValid("last-quantity"), isValid("first-code"))
+      initial :: (
+        for ((controlId, value) ← changes)
+        yield {
+          setControlValue(controlId, value)
+          (instance("instance").get.valid, isValid("first-quantity"), isValid("last-quantity"), isValid("first-code"))
+        }
+      )
+    }
+
+    val expected = List(
+      (true,  true,  true,  true),
+      (false, false, true,  true),
+      (false, false, false, true),
+      (false, true,  false, true),
+      (false, true,  false, false),
+      (false, true,  true,  false),
+      (true,  true,  true,  true)
+    )
+
+    assert(expected === validities(incremental = false))
+    assert(expected === validities(incremental = true))
+  }
+
+  // Check that after a single change, unchanged elements are not validated again. The first quantity is changed
+  // without notifying the validator, so only a full validation finds that it is invalid.
+  @Test def onlyChangedElementsAreValidated(): Unit = {
+
+    def validityUponChange(incremental: Boolean) = {
+      setupSchemaDocument(incremental)
+      val document = instance("instance").get.underlyingDocumentOpt.get
+      document.getRootElement.element("item").element("quantity").setText("abc")
+      setControlValue("last-quantity", "42")
+      (instance("instance").get.valid, isValid("first-quantity"), isValid("last-quantity"))
+    }
+
+    assert((false, false, true) === validityUponChange(incremental = false))
+    assert((true,  true,  true) === validityUponChange(incremental = true))
+  }
+}
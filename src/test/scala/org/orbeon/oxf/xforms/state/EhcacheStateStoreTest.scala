@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.dom4j.Document
+import org.junit.Test
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.xforms.{Caches, XFormsContainingDocument}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+class EhcacheStateStoreTest extends DocumentTestBase with AssertionsForJUnit {
+
+  val JournaledForm: Document =
+    <xh:html
+      xmlns:xh="http://www.w3.org/1999/xhtml"
+      xmlns:xf="http://www.w3.org/2002/xforms"
+      xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+      <xh:head>
+        <xf:model id="model" xxf:state-handling="server" xxf:state.instance-journal="true">
+          <xf:instance id="instance">
+            <instance>
+              <a>1</a>
+            </instance>
+          </xf:instance>
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:input id="my-input" ref="a"/>
+      </xh:body>
+    </xh:html>
+
+  def session = NetUtils.getSession(true)
+
+  def store(doc: XFormsContainingDocument, isInitialState: Boolean) =
+    EhcacheStateStore.storeDocumentState(doc, session, isInitialState)
+
+  def find(doc: XFormsContainingDocument, isInitialState: Boolean) =
+    EhcacheStateStore.findState(session, doc.getUUID, isInitialState)
+
+  def journal(doc: XFormsContainingDocument) =
+    doc.findInstance("instance").get.journalOpt.get
+
+  def instanceState(state: XFormsState) =
+    (state.dynamicState.decodeInstances find (_.effectiveId == "instance")).get
+
+  def instanceContent(state: XFormsState) =
+    instanceState(state).cachingOrContent.right.get
+
+  @Test def noJournalUnlessEnabled(): Unit = {
+    setupDocument("oxf:/org/orbeon/oxf/xforms/state/server-nocache.xhtml")
+    assert(document.findInstance("instance11").get.journalOpt.isEmpty)
+  }
+
+  @Test def storeAndFindJournaledState(): Unit = {
+
+    val doc = setupDocument(JournaledForm)
+
+    // The first state stored includes a snapshot, the next one only the value change
+    store(doc, isInitialState = false)
+    val baseKey = journal(doc).baseKeyOpt.get
+
+    setControlValue("my-input", "2")
+    store(doc, isInitialState = false)
+
+    assert(Some(baseKey) === journal(doc).baseKeyOpt)
+    assert(Caches.stateCache.get(doc.getUUID + "-C").getObjectValue.isInstanceOf[JournaledDynamicState])
+
+    val state = find(doc, isInitialState = false)
+
+    assert(instanceContent(state) contains "<a>2</a>")
+    assert(baseKey === instanceState(state).journal.get.baseKey)
+    assert(1 === instanceState(state).journal.get.mutations.size)
+  }
+
+  @Test def missingSnapshotIsExpiredState(): Unit = {
+
+    val doc = setupDocument(JournaledForm)
+
+    store(doc, isInitialState = false)
+    assert(find(doc, isInitialState = false) ne null)
+
+    Caches.stateCache.remove(journal(doc).baseKeyOpt.get)
+    assert(find(doc, isInitialState = false) eq null)
+  }
+
+  @Test def formerSnapshotRemovedAfterRestoringInitialState(): Unit = {
+
+    val doc = setupDocument(JournaledForm)
+
+    store(doc, isInitialState = true)
+    setControlValue("my-input", "2")
+    store(doc, isInitialState = false)
+
+    val formerBaseKey = journal(doc).baseKeyOpt.get
+    assert(Caches.stateCache.get(formerBaseKey) ne null)
+
+    // Browser back or reload restores the self-contained initial state, whose journal doesn't have a snapshot
+    val restored = new XFormsContainingDocument(find(doc, isInitialState = true), false)
+    assert(journal(restored).baseKeyOpt.isEmpty)
+
+    store(restored, isInitialState = false)
+
+    val newBaseKey = journal(restored).baseKeyOpt.get
+    assert(formerBaseKey != newBaseKey)
+    assert(Caches.stateCache.get(formerBaseKey) eq null)
+    assert(Caches.stateCache.get(newBaseKey) ne null)
+
+    assert(instanceContent(find(restored, isInitialState = false)) contains "<a>1</a>")
+  }
+}
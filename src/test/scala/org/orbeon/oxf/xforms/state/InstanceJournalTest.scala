@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.dom4j.{DocumentFactory, QName}
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.XPath
+import org.orbeon.oxf.xforms.model.DataModel
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.dom4j.DocumentWrapper
+import org.scalatest.junit.AssertionsForJUnit
+
+class InstanceJournalTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val BaseContent = """<form><a>1</a><b x="2"/><!-- c --><d><e>3</e><e>4</e></d></form>"""
+
+  @Test def replayMutations(): Unit = {
+
+    val document = Dom4jUtils.readDom4j(BaseContent)
+    val wrapper  = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    val root     = document.getRootElement
+
+    val journal = new InstanceJournal(maxMutations = 100)
+    journal.rebase("base", 0L)
+
+    // Value changes
+    val a = root.element("a")
+    DataModel.setValueForNode(a, "10")
+    journal.recordValueChange(wrapper.wrap(a), "10")
+
+    val x = root.element("b").attribute("x")
+    DataModel.setValueForNode(x, "20")
+    journal.recordValueChange(wrapper.wrap(x), "20")
+
+    // Inserts
+    val f = DocumentFactory.createElement("f")
+    f.addText("5")
+    root.element("d").content.add(1, f)
+    journal.recordInsert(f)
+
+    val y = DocumentFactory.createAttribute(null, QName.get("y"), "6")
+    root.element("b").add(y)
+    journal.recordInsert(y)
+
+    // Delete
+    val e = root.element("d").elements("e").get(0)
+    journal.recordDelete(wrapper.wrap(e))
+    root.element("d").remove(e)
+
+    // Value change within inserted content
+    DataModel.setValueForNode(f, "50")
+    journal.recordValueChange(wrapper.wrap(f), "50")
+
+    assert(journal.isRecording)
+    assert(journal.delta.get.mutations.size === 6)
+    assert(
+      TransformerUtils.dom4jToString(document, false) ===
+      InstanceJournal.applyMutations(BaseContent, journal.delta.get.mutations)
+    )
+  }
+
+  @Test def invalidateUponAmbiguousChanges(): Unit = {
+
+    val document = Dom4jUtils.readDom4j(BaseContent)
+    val wrapper  = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    val a        = document.getRootElement.element("a")
+
+    val journal = new InstanceJournal(maxMutations = 100)
+    journal.rebase("base", 0L)
+
+    // Adjacent text nodes are merged upon serialization, so the second one can't be identified
+    val text = DocumentFactory.createText("2")
+    a.add(text)
+    journal.recordValueChange(wrapper.wrap(text), "2")
+
+    assert(! journal.isRecording)
+    assert(journal.delta.isEmpty)
+  }
+
+  @Test def invalidateAfterMaxMutations(): Unit = {
+
+    val document = Dom4jUtils.readDom4j(BaseContent)
+    val wrapper  = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    val a        = document.getRootElement.element("a")
+
+    val journal = new InstanceJournal(maxMutations = 2)
+    journal.rebase("base", 0L)
+
+    for (value ← 1 to 3) {
+      DataModel.setValueForNode(a, value.toString)
+      journal.recordValueChange(wrapper.wrap(a), value.toString)
+    }
+
+    assert(! journal.isRecording)
+  }
+}
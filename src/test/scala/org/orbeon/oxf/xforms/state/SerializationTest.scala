@@ -15,7 +15,7 @@ package org.orbeon.oxf.xforms.state
 
 import org.scalatest.junit.AssertionsForJUnit
 import org.dom4j.Document
-import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.test.{DocumentTestBase, ResourceManagerTestBase}
 import XFormsOperations._
 import XFormsProtocols._
 import org.orbeon.oxf.xml._
@@ -115,6 +115,46 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
     assert(serialized === deserialized)
   }
 
+  @Test def initialState(): Unit = {
+
+    ResourceManagerTestBase.staticSetup()
+
+    val (_, staticState) = XFormsStaticStateImpl.createFromDocument(
+      <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+           xmlns:xh="http://www.w3.org/1999/xhtml"
+           xmlns:xxf="http://orbeon.org/oxf/xml/xforms"
+           xmlns:ev="http://www.w3.org/2001/xml-events">
+        <xh:head>
+          <xf:model xxf:cache.initial-state="true">
+            <xf:instance id="instance">
+              <value/>
+            </xf:instance>
+            <xf:setvalue ev:event="xforms-model-construct-done" ref="instance()" value="42"/>
+          </xf:model>
+        </xh:head>
+        <xh:body>
+          <xf:input id="input" ref="instance()"/>
+        </xh:body>
+      </xh:html>
+    )
+
+    assert(staticState.isCacheInitialState)
+
+    val initialDoc = new XFormsContainingDocument(staticState, null, null, true)
+    assert(XFormsInitialStateCache.storeDocumentIfPossible(initialDoc))
+
+    val initialState = XFormsInitialStateCache.findState(staticState)
+    assert(initialState.isDefined)
+    assert(initialState.get.requestHeaders.isEmpty)
+
+    val restoredDoc = new XFormsContainingDocument(staticState, initialState.get, null, null)
+    this setupDocument restoredDoc
+
+    assert(restoredDoc.getUUID != initialDoc.getUUID)
+    assert(DynamicState(restoredDoc).decodeInstances === DynamicState(initialDoc).decodeInstances)
+    assert("42" === getControlValue("input"))
+  }
+
   @Test def template(): Unit = {
 
     Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
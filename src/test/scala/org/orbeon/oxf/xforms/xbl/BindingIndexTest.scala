@@ -128,4 +128,25 @@ class BindingIndexTest extends AssertionsForJUnit {
     assertElemMatched(currentIndex, """<foo:bar appearance="bagaga"/>""",         appearanceEndsWithGagaBinding)
     assertElemMatched(currentIndex, """<foo:bar appearance="bagagada"/>""",       appearanceContainsGagaBinding)
   }
+
+  @Test def testManyAttributeSelectors(): Unit = {
+
+    val manyBindings =
+      for (i ← (1 to 200).toList)
+        yield TestBinding(CSSSelectorParser.parseSelectors(s"[appearance ~= a$i], foo|bar[appearance = b$i]"), Namespaces)
+
+    var currentIndex = indexWithAllBindings
+    manyBindings foreach { binding ⇒
+      currentIndex = BindingIndex.indexBinding(currentIndex, binding)
+    }
+
+    assertElemMatched(currentIndex, """<foo:baz appearance="x a150 y"/>""", manyBindings(149))
+    assertElemMatched(currentIndex, """<foo:bar appearance="b42"/>""",      manyBindings(41))
+    assertElemMatched(currentIndex, """<foo:bar appearance="a7 b42"/>""",   manyBindings(6))
+
+    // Selectors indexed by value or token don't hide other matching selectors
+    assertElemMatched(currentIndex, """<foo:bar appearance="a7 gaga"/>""",  manyBindings(6))
+    assertElemMatched(currentIndex, """<foo:bar appearance="gaga"/>""",     appearanceIsGagaBinding)
+    assertElemMatched(currentIndex, """<foo:bar appearance="baz a7"/>""",   fooBarAppearanceBazBinding)
+  }
 }
@@ -15,7 +15,7 @@ package org.orbeon.oxf.xforms.xbl
 
 import org.dom4j.Document
 import org.junit.Test
-import org.orbeon.oxf.properties.PropertyStore
+import org.orbeon.oxf.properties.{PropertySet, PropertyStore}
 import org.orbeon.oxf.test.DocumentTestBase
 import org.orbeon.oxf.xml.Dom4j.elemToDocument
 import org.scalatest.junit.AssertionsForJUnit
@@ -25,9 +25,14 @@ import scala.collection.mutable
 
 class BindingLoaderTest extends DocumentTestBase with AssertionsForJUnit {
   
-  def newPropertySet = {
+  def newPropertySet(checkIntervalMs: Option[Int] = None): PropertySet = {
     val properties: Document =
       <properties xmlns:xs="http://www.w3.org/2001/XMLSchema" xmlns:fr="http://orbeon.org/oxf/xml/form-runner">
+        {
+          checkIntervalMs.toList map { interval ⇒
+            <property as="xs:integer" name="oxf.xforms.xbl.check-interval" value={interval.toString}/>
+          }
+        }
         <property as="xs:string"  name="oxf.xforms.xbl.mapping.orbeon">
           http://orbeon.org/oxf/xml/form-runner
         </property>
@@ -44,7 +49,7 @@ class BindingLoaderTest extends DocumentTestBase with AssertionsForJUnit {
   
   class TestBindingLoader extends BindingLoader {
 
-    var propertySet = newPropertySet
+    var propertySet = newPropertySet()
     
     val FooXBL: Document =
       <xbl:xbl xmlns:xbl="http://www.w3.org/ns/xbl" xmlns:fr="http://orbeon.org/oxf/xml/form-runner">
@@ -99,8 +104,10 @@ class BindingLoaderTest extends DocumentTestBase with AssertionsForJUnit {
 
     def getPropertySet = propertySet
 
-    def lastModifiedByPath(path: String) =
+    def lastModifiedByPath(path: String) = {
+      lastModifiedChecks += 1
       lastModified
+    }
 
     def existsByPath(path: String) =
       Docs.contains(path)
@@ -111,6 +118,7 @@ class BindingLoaderTest extends DocumentTestBase with AssertionsForJUnit {
     }
 
     var lastModified = 123L
+    var lastModifiedChecks = 0
     val contentRead = mutable.Set[String]()
   }
   
@@ -177,7 +185,7 @@ class BindingLoaderTest extends DocumentTestBase with AssertionsForJUnit {
 
     // Property reload forces library reload
     locally {
-      Loader.propertySet = newPropertySet
+      Loader.propertySet = newPropertySet()
       Loader.contentRead.clear()
       val (newIndex, _, _, _) =
         Loader.getUpToDateLibraryAndBaseline(currentIndex, checkUpToDate = true)
@@ -285,4 +293,34 @@ class BindingLoaderTest extends DocumentTestBase with AssertionsForJUnit {
       assert(None === newBinding)
     }
   }
+
+  @Test def testCheckInterval(): Unit = {
+
+    val Loader = new TestBindingLoader
+    Loader.propertySet = newPropertySet(Some(60 * 1000))
+
+    var currentIndex: BindingIndex[IndexableBinding] = GlobalBindingIndex.Empty
+
+    def load() = {
+      val (newIndex, _, _, _) =
+        Loader.getUpToDateLibraryAndBaseline(currentIndex, checkUpToDate = true)
+      currentIndex = newIndex
+    }
+
+    // Initial library load
+    load()
+
+    // Paths loaded within the interval are not checked again
+    Loader.lastModifiedChecks = 0
+    load()
+    assert(0 === Loader.lastModifiedChecks)
+
+    // Changes are not seen within the interval
+    Loader.lastModified += 1
+    Loader.contentRead.clear()
+    val indexBefore = currentIndex
+    load()
+    assert(indexBefore eq currentIndex)
+    assert(Loader.contentRead.isEmpty)
+  }
 }
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import org.dom4j.{Document, DocumentFactory, Element, Node}
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.XPath
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.dom4j.DocumentWrapper
+import org.orbeon.saxon.om.{Navigator, NodeInfo, SiblingCountingNode}
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+class DocumentOrderIndexTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val Iterations = 10000
+
+  def repeatDocument =
+    Dom4jUtils.readDom4j(
+      (1 to Iterations) map (i ⇒ s"""<iteration id="i$i" pos="$i"><name>name $i</name><!-- c --><value/></iteration>""") mkString ("<repeat>", "", "</repeat>")
+    )
+
+  def nodes(document: Document): IndexedSeq[Node] = {
+    def descendantOrSelf(element: Element): List[Node] =
+      element :: element.attributes.asScala.toList ::: (element.content.asScala.toList flatMap {
+        case child: Element ⇒ descendantOrSelf(child)
+        case child          ⇒ List(child)
+      })
+    (document :: descendantOrSelf(document.getRootElement)).toIndexedSeq
+  }
+
+  def assertSameOrderAsNavigator(wrapper: DocumentWrapper, nodes: IndexedSeq[Node]): Unit = {
+    val random = new Random(42)
+    for (_ ← 1 to 10000) {
+      val n1 = wrapper.wrap(nodes(random.nextInt(nodes.size)))
+      val n2 = wrapper.wrap(nodes(random.nextInt(nodes.size)))
+      assert(
+        Integer.signum(n1.compareOrder(n2)) ===
+        Integer.signum(Navigator.compareOrder(n1.asInstanceOf[SiblingCountingNode], n2.asInstanceOf[SiblingCountingNode]))
+      )
+    }
+  }
+
+  @Test def compareOrderAndSiblingPosition(): Unit = {
+
+    val document = repeatDocument
+    val wrapper  = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+
+    // Positions in document order match the order of the nodes
+    val allNodes = nodes(document)
+    val wrapped  = allNodes map wrapper.wrap
+    for (i ← 1 until wrapped.size)
+      assert(wrapped(i - 1).compareOrder(wrapped(i)) === -1)
+
+    assertSameOrderAsNavigator(wrapper, allNodes)
+
+    val iterations = document.getRootElement.elements.asScala
+    for (i ← 0 until iterations.size by 97) {
+      val iteration = iterations(i)
+      assert(i === wrapper.wrap(iteration).asInstanceOf[SiblingCountingNode].getSiblingPosition)
+      assert(1 === wrapper.wrap(iteration.attribute("pos")).asInstanceOf[SiblingCountingNode].getSiblingPosition)
+    }
+  }
+
+  @Test def indexFollowsModifications(): Unit = {
+
+    val document = repeatDocument
+    val wrapper  = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    val root     = document.getRootElement
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+
+    // Insert before the first iteration
+    val first    = root.elements.get(0)
+    val inserted = DocumentFactory.createElement("iteration")
+    root.content.add(0, inserted)
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+    assert(-1 === wrapper.wrap(inserted).compareOrder(wrapper.wrap(first)))
+    assert(1 === wrapper.wrap(first).asInstanceOf[SiblingCountingNode].getSiblingPosition)
+
+    // Move the first iteration to the end
+    root.remove(first)
+    root.add(first)
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+    assert(1 === wrapper.wrap(first).compareOrder(wrapper.wrap(inserted)))
+
+    // Nodes removed from the document are compared without the index
+    val removed = root.elements.get(1)
+    root.remove(removed)
+    val removedInfo: NodeInfo = wrapper.wrap(removed)
+    assert(0 === removedInfo.compareOrder(removedInfo))
+  }
+
+  @Test def onlyIndexedElementsCountChanges(): Unit = {
+
+    val document = repeatDocument
+    val root     = document.getRootElement
+    val count    = document.modificationCount
+
+    // Changes to documents which were never indexed don't look for their document
+    root.elements.get(0).add(DocumentFactory.createElement("new"))
+    assert(count === document.modificationCount)
+
+    val wrapper = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+
+    root.elements.get(0).add(DocumentFactory.createElement("other"))
+    assert(count < document.modificationCount)
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+  }
+
+  @Test def valueChangesAreNotStructural(): Unit = {
+
+    val document = repeatDocument
+    val wrapper  = new DocumentWrapper(document, null, XPath.GlobalConfiguration)
+    val root     = document.getRootElement
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+
+    // Set values as done by `DataModel.setValueForNode()`
+    val count = document.modificationCount
+    for (i ← 0 until Iterations by 10) {
+      val iteration = root.elements.get(i)
+
+      val name = iteration.element("name")
+      name.clearContent()
+      name.setText("new name")
+
+      val value = iteration.element("value")
+      value.clearContent()
+      value.setText("new value")
+    }
+    assert(count === document.modificationCount)
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+
+    // Replacing the text of an element with mixed content moves its other children
+    val iteration = root.elements.get(0)
+    iteration.content.add(0, DocumentFactory.createText("text"))
+    val mixedCount = document.modificationCount
+    iteration.setText("other text")
+    assert(mixedCount < document.modificationCount)
+
+    assertSameOrderAsNavigator(wrapper, nodes(document))
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.{util ⇒ ju}
+
+import org.dom4j.tree.ConcreteElement
+import org.dom4j.{Document, DocumentFactory, Element}
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class ElementFootprintTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  import ElementFootprintTest._
+
+  // Count the content and attribute lists allocated by documents as parsed, and by the same documents once all their
+  // elements have updated their lists, as was the case for all elements before lists became lazy. Lists are counted
+  // rather than heap measured, so that the result doesn't depend on the garbage collector.
+  @Test def lazyListsReduceFootprint(): Unit = {
+
+    val lazyDocument  = Dom4jUtils.readDom4j(FormInstance)
+    val eagerDocument = allocateLists(Dom4jUtils.readDom4j(FormInstance))
+
+    val elementsWithAttributes = elements(lazyDocument) count (_.attributeCount > 0)
+    val elementsWithContent    = elements(lazyDocument) count (_.nodeCount > 0)
+
+    assert(elementsWithAttributes + elementsWithContent === allocatedLists(lazyDocument))
+    assert(elements(eagerDocument).size * 2             === allocatedLists(eagerDocument))
+    assert(allocatedLists(lazyDocument) < allocatedLists(eagerDocument) * 0.7)
+  }
+
+  @Test def lazyListsBehaveAsEmptyLists(): Unit = {
+
+    val element = DocumentFactory.createElement("e")
+
+    assert(element.attributes.isEmpty)
+    assert(element.content.isEmpty)
+    assert(! element.attributeIterator.hasNext)
+    assert(! element.remove(DocumentFactory.createText("t")))
+
+    element.attributes.add(DocumentFactory.createAttribute(element, "a", "1"))
+    element.content.add(DocumentFactory.createText("t"))
+
+    assert("1" === element.attributeValue("a"))
+    assert("t" === element.getText)
+
+    element.clearContent()
+    assert(0 === element.nodeCount)
+
+    element.addText("u")
+    assert("u" === element.getStringValue)
+  }
+}
+
+private object ElementFootprintTest {
+
+  // Instance shaped like a Form Runner form instance: sections containing grids of controls, where controls are leaf
+  // elements which are mostly empty or contain a short value, and a repeated grid with a few iterations
+  val FormInstance = {
+
+    def control(section: Int, index: Int) =
+      if (index % 2 == 0) s"<control-$section-$index/>" else s"<control-$section-$index>value $index</control-$section-$index>"
+
+    def grid(section: Int) =
+      (1 to 20) map (control(section, _)) mkString ("<grid>", "", "</grid>")
+
+    def repeatedGrid =
+      (1 to 5) map (i ⇒ s"""<grid-iteration><name>name $i</name><quantity>$i</quantity><comment/></grid-iteration>""") mkString ("<repeated-grid>", "", "</repeated-grid>")
+
+    (1 to 10) map (i ⇒ s"""<section-$i>${grid(i)}</section-$i>""") mkString ("""<form fr:version="1" xmlns:fr="http://orbeon.org/oxf/xml/form-runner">""", "", s"$repeatedGrid</form>")
+  }
+
+  def elements(document: Document): List[Element] = {
+    def descendantOrSelf(element: Element): List[Element] =
+      element :: (element.elements.asScala.toList flatMap descendantOrSelf)
+    descendantOrSelf(document.getRootElement)
+  }
+
+  def allocateLists(document: Document): Document = {
+    for (element ← elements(document)) {
+      element.addAttribute("tmp", "tmp")
+      element.addAttribute("tmp", null)
+      val text = DocumentFactory.createText("tmp")
+      element.add(text)
+      element.remove(text)
+    }
+    document
+  }
+
+  // Lists which are not the shared empty list, found by reflection as elements don't expose their lists
+  def allocatedLists(document: Document) = {
+
+    val listFields =
+      classOf[ConcreteElement].getDeclaredFields.toList filter (f ⇒ classOf[ju.List[_]].isAssignableFrom(f.getType))
+
+    listFields foreach (_.setAccessible(true))
+
+    (elements(document) map { element ⇒
+      listFields count (_.get(element) ne ju.Collections.emptyList)
+    }).sum
+  }
+}
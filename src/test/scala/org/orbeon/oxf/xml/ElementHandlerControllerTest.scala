@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+import org.xml.sax.Attributes
+import org.xml.sax.helpers.AttributesImpl
+
+import scala.collection.mutable.ListBuffer
+
+class ElementHandlerControllerTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val NS = "http://example.org/handlers"
+
+  class RecordingHandler(name: String, log: ListBuffer[String], reusable: Boolean) extends ElementHandler {
+    def isRepeating  = false
+    def isForwarding = true
+    override def isReusable = reusable
+    override def start(uri: String, localname: String, qName: String, attributes: Attributes) =
+      log += s"$name:$localname"
+  }
+
+  @Test def dispatchAndReuse(): Unit = {
+
+    val log     = ListBuffer[String]()
+    var created = 0
+
+    def factory(name: String, reusable: Boolean) =
+      new ElementHandlerController.HandlerFactory {
+        def create() = {
+          created += 1
+          new RecordingHandler(name, log, reusable)
+        }
+      }
+
+    val controller = new ElementHandlerController
+    controller.registerHandler(factory("full",   reusable = false), NS, "a", null)
+    controller.registerHandler(factory("reused", reusable = true),  NS, "r", null)
+    controller.registerHandler(factory("uri",    reusable = false), NS, null, null)
+
+    controller.setOutput(new DeferredXMLReceiverImpl(new SAXStore))
+
+    def element(uri: String, localname: String) = {
+      controller.startElement(uri, localname, localname, new AttributesImpl)
+      controller.endElement(uri, localname, localname)
+    }
+
+    controller.startDocument()
+    element(NS, "a")
+    element(NS, "r")
+    element(NS, "r")
+    element(NS, "b")
+    element("", "other")
+    controller.endDocument()
+
+    assert(List("full:a", "reused:r", "reused:r", "uri:b") === log.toList)
+    assert(3 === created)
+  }
+}
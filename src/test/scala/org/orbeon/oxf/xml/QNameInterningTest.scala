@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import org.dom4j.{DocumentFactory, Namespace, QName}
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class QNameInterningTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  @Test def sameInstanceFromAllFactories(): Unit = {
+
+    val namespace = Namespace.get("foo", "http://example.org/foo")
+
+    assert(namespace eq Namespace.get("foo", "http://example.org/foo"))
+    assert(QName.get("bar", namespace) eq QName.get("foo:bar", "http://example.org/foo"))
+    assert(QName.get("bar", namespace) eq DocumentFactory.createQName("bar", namespace))
+    assert(QName.get("bar") eq DocumentFactory.createQName("bar"))
+    assert(QName.get("bar") eq QName.get("bar", Namespace.EmptyNamespace))
+  }
+
+  // Build documents in parallel and check that they all share the same names
+  @Test def buildDocumentsInParallel(): Unit = {
+
+    val Threads   = 8
+    val Documents = 200
+
+    val xml =
+      (1 to 100) map (i ⇒ s"""<e$i xmlns:p$i="http://example.org/$i" p$i:a="$i"/>""") mkString ("<root>", "", "</root>")
+
+    val executor = Executors.newFixedThreadPool(Threads)
+    try {
+      val tasks =
+        for (_ ← 1 to Documents)
+          yield new Callable[List[QName]] {
+            def call() =
+              Dom4jUtils.readDom4j(xml).getRootElement.elements.asScala.toList flatMap { e ⇒
+                e.getQName :: (e.attributes.asScala.toList map (_.getQName))
+              }
+          }
+
+      val results = executor.invokeAll(tasks.asJava).asScala map (_.get)
+
+      for (qNames ← results.tail)
+        assert((qNames zip results.head) forall { case (q1, q2) ⇒ q1 eq q2 })
+    } finally {
+      executor.shutdown()
+      executor.awaitTermination(10, TimeUnit.SECONDS)
+    }
+  }
+}
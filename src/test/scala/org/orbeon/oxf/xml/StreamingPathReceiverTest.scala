@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import org.dom4j.Element
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+class StreamingPathReceiverTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val Rows =
+    """<rows xmlns:p="urn:p">
+      |  <row id="1"><p:value>a</p:value></row>
+      |  <other><row id="nested"/></other>
+      |  <row id="2" xmlns="urn:default"/>
+      |  <row id="3"><value>c</value></row>
+      |</rows>""".stripMargin
+
+  def elements(path: String, prefixes: Map[String, String] = Map()): List[Element] = {
+    val elements = ListBuffer[Element]()
+    XMLParsing.stringToSAX(Rows, null, new StreamingPathReceiver(StreamingPathReceiver.getNames(path, prefixes.asJava)) {
+      protected def element(element: Element): Unit = elements += element
+    }, XMLParsing.ParserConfiguration.PLAIN, true)
+    elements.toList
+  }
+
+  @Test def matchElementsAtPath(): Unit = {
+
+    val rows = elements("/rows/row")
+    assert(List("1", "3") === (rows map (_.attributeValue("id"))))
+
+    // Each element is the root of its own document, with the namespaces in scope
+    for (row ← rows)
+      assert(row eq row.getDocument.getRootElement)
+    assert("urn:p" === rows.head.elements.get(0).getNamespaceURI)
+    assert("urn:p" === rows.head.getNamespaceForPrefix("p").getURI)
+    assert("c" === rows(1).element("value").getText)
+
+    assert(List("2") === (elements("/rows/d:row", Map("d" → "urn:default")) map (_.attributeValue("id"))))
+    assert(List("1", "2", "3") === (elements("/rows/*") filter (_.getName == "row") map (_.attributeValue("id"))))
+    assert(List("nested") === (elements("/*/other/row") map (_.attributeValue("id"))))
+  }
+
+  @Test def rejectOtherPaths(): Unit = {
+    for (path ← List("//row", "rows/row", "/rows/row[1]", "/rows/@id", "/rows/row/text()"))
+      intercept[IllegalArgumentException](StreamingPathReceiver.getNames(path, Map[String, String]().asJava))
+
+    intercept[IllegalArgumentException](StreamingPathReceiver.getNames("/rows/undeclared:row", Map[String, String]().asJava))
+  }
+}